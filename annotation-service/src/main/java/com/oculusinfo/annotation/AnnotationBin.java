@@ -117,9 +117,12 @@ public class AnnotationBin implements Serializable {
 
 
     public void addData( AnnotationData<?> data ) {
+        addCertificate( data.getGroup(), data.getCertificate() );
+    }
+
+
+    public void addCertificate( String group, Pair<String, Long> certificate ) {
 
-        String group = data.getGroup();
-        Pair<String, Long> certificate =  data.getCertificate();
         List< Pair<String, Long> > entries;
 
         if ( _bin.containsKey( group ) ) {
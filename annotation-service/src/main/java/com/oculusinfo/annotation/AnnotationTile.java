@@ -113,6 +113,19 @@ public class AnnotationTile extends DenseTileData< AnnotationBin > {
     }
 
 
+    public void addCertificateToBin( BinIndex binIndex, String group, Pair<String, Long> certificate ) {
+
+        AnnotationBin bin = getBin( binIndex.getX(), binIndex.getY() );
+
+        if ( bin == null ) {
+            bin = new AnnotationBin();
+            setBin( binIndex.getX(), binIndex.getY(), bin );
+        }
+
+        bin.addCertificate( group, certificate );
+    }
+
+
     public void removeDataFromBin( BinIndex binIndex, AnnotationData<?> data ) {
 
         AnnotationBin bin = getBin( binIndex.getX(), binIndex.getY() );
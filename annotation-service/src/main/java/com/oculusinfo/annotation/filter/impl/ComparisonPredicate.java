@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.annotation.filter.impl;
+
+import com.oculusinfo.annotation.AnnotationData;
+import org.json.JSONObject;
+
+import javax.script.ScriptException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * A native implementation of the simplest filter scripts - a single comparison of a field of an
+ * annotation against a literal, such as <code>annotation.data.priority &gt;= 3</code> or
+ * <code>annotation.group == 'Urgent'</code> - that reads the field straight from the annotation,
+ * rather than going through the script engine.
+ *
+ * Supported fields are level, group, x and y (of point annotations), range.min, range.max, and
+ * anything under data.  Where javascript semantics would involve type coercion (comparing a number
+ * to a string, say), or the field is missing, the annotation is handed to the script engine
+ * instead, so results always match those of the script itself.
+ */
+public class ComparisonPredicate implements AnnotationPredicate {
+	private static final Pattern COMPARISON = Pattern.compile(
+		"\\s*annotation((?:\\.[A-Za-z_$][\\w$]*)+)\\s*(===|!==|==|!=|<=|>=|<|>)\\s*"
+		+ "(-?(?:\\d+\\.?\\d*|\\.\\d+)(?:[eE][+-]?\\d+)?|'[^'\\\\]*'|\"[^\"\\\\]*\"|true|false)\\s*;?\\s*" );
+	// Returned when a field can't be read natively
+	private static final Object UNDECIDABLE = new Object();
+
+	private enum Operator {
+		EQUAL, NOT_EQUAL, LESS, LESS_OR_EQUAL, GREATER, GREATER_OR_EQUAL
+	}
+
+	private final String _script;
+	private final String[] _path;
+	private final Operator _operator;
+	private final Object _literal;
+	private volatile AnnotationPredicate _fallback;
+
+	private ComparisonPredicate( String script, String[] path, Operator operator, Object literal ) {
+		_script = script;
+		_path = path;
+		_operator = operator;
+		_literal = literal;
+	}
+
+	/**
+	 * Create a native predicate for the given script, if it is a simple comparison.
+	 *
+	 * @return The predicate, or null if the script isn't a simple comparison.
+	 */
+	public static ComparisonPredicate parse( String script ) {
+		String expression = script.trim();
+		if ( expression.startsWith( "(" ) && expression.endsWith( ")" ) ) {
+			expression = expression.substring( 1, expression.length() - 1 );
+		}
+		Matcher matcher = COMPARISON.matcher( expression );
+		if ( !matcher.matches() ) {
+			return null;
+		}
+
+		String[] path = matcher.group( 1 ).substring( 1 ).split( "\\." );
+
+		Operator operator;
+		String op = matcher.group( 2 );
+		if ( "==".equals( op ) || "===".equals( op ) ) operator = Operator.EQUAL;
+		else if ( "!=".equals( op ) || "!==".equals( op ) ) operator = Operator.NOT_EQUAL;
+		else if ( "<".equals( op ) ) operator = Operator.LESS;
+		else if ( "<=".equals( op ) ) operator = Operator.LESS_OR_EQUAL;
+		else if ( ">".equals( op ) ) operator = Operator.GREATER;
+		else operator = Operator.GREATER_OR_EQUAL;
+
+		Object literal;
+		String literalText = matcher.group( 3 );
+		if ( "true".equals( literalText ) || "false".equals( literalText ) ) {
+			literal = Boolean.valueOf( literalText );
+		} else if ( literalText.startsWith( "'" ) || literalText.startsWith( "\"" ) ) {
+			literal = literalText.substring( 1, literalText.length() - 1 );
+		} else {
+			literal = Double.valueOf( literalText );
+		}
+
+		return new ComparisonPredicate( script, path, operator, literal );
+	}
+
+	@Override
+	public boolean accept( AnnotationData<?> annotation ) {
+		Boolean result = compare( getField( annotation ) );
+		if ( null == result ) {
+			return getFallback().accept( annotation );
+		}
+		return result;
+	}
+
+	private AnnotationPredicate getFallback() {
+		AnnotationPredicate fallback = _fallback;
+		if ( null == fallback ) {
+			synchronized ( this ) {
+				fallback = _fallback;
+				if ( null == fallback ) {
+					try {
+						fallback = new CompiledScriptPredicate( _script );
+					} catch ( ScriptException e ) {
+						throw new IllegalArgumentException( "Invalid annotation filter script " + _script, e );
+					}
+					_fallback = fallback;
+				}
+			}
+		}
+		return fallback;
+	}
+
+	private Object getField( AnnotationData<?> annotation ) {
+		String field = _path[0];
+		if ( 1 == _path.length ) {
+			if ( "level".equals( field ) ) return annotation.getLevel();
+			if ( "group".equals( field ) ) return annotation.getGroup();
+			if ( "x".equals( field ) ) return null == annotation.getX1() ? annotation.getX() : UNDECIDABLE;
+			if ( "y".equals( field ) ) return null == annotation.getY1() ? annotation.getY() : UNDECIDABLE;
+		} else if ( 2 == _path.length && "range".equals( field ) && null != annotation.getRange() ) {
+			if ( "min".equals( _path[1] ) ) return annotation.getRange().getFirst();
+			if ( "max".equals( _path[1] ) ) return annotation.getRange().getSecond();
+		} else if ( 2 <= _path.length && "data".equals( field ) && annotation.getData() instanceof JSONObject ) {
+			// annotation.data itself is an object, so only paths into it are compared directly
+			JSONObject node = (JSONObject) annotation.getData();
+			for ( int i = 1; i < _path.length - 1; ++i ) {
+				node = node.optJSONObject( _path[i] );
+				if ( null == node ) return UNDECIDABLE;
+			}
+			Object value = node.opt( _path[_path.length - 1] );
+			if ( null == value || JSONObject.NULL.equals( value ) ) return UNDECIDABLE;
+			return value;
+		}
+		return UNDECIDABLE;
+	}
+
+	/*
+	 * Compare a field value to our literal, returning null wherever javascript's rules go beyond
+	 * comparing two values of the same primitive type.
+	 */
+	private Boolean compare( Object value ) {
+		int comparison;
+		if ( value instanceof Number && _literal instanceof Double ) {
+			double a = ((Number) value).doubleValue();
+			double b = (Double) _literal;
+			if ( Double.isNaN( a ) ) return null;
+			comparison = Double.compare( a, b );
+			if ( 0.0 == a && 0.0 == b ) comparison = 0;
+		} else if ( value instanceof String && _literal instanceof String ) {
+			comparison = ((String) value).compareTo( (String) _literal );
+		} else if ( value instanceof Boolean && _literal instanceof Boolean ) {
+			if ( Operator.EQUAL == _operator ) return value.equals( _literal );
+			if ( Operator.NOT_EQUAL == _operator ) return !value.equals( _literal );
+			return null;
+		} else {
+			return null;
+		}
+
+		switch ( _operator ) {
+		case EQUAL:            return 0 == comparison;
+		case NOT_EQUAL:        return 0 != comparison;
+		case LESS:             return comparison < 0;
+		case LESS_OR_EQUAL:    return comparison <= 0;
+		case GREATER:          return comparison > 0;
+		default:               return comparison >= 0;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.annotation.filter.impl;
+
+import com.oculusinfo.annotation.AnnotationData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+
+/**
+ * Evaluates a javascript expression against each annotation.  The expression is compiled once;
+ * each thread then evaluates it through its own bindings, which are reused from annotation to
+ * annotation, with the variable "annotation" bound to the JSON form of the annotation.
+ */
+public class CompiledScriptPredicate implements AnnotationPredicate {
+	private static final Logger LOGGER = LoggerFactory.getLogger( CompiledScriptPredicate.class );
+	private static final String ANNOTATION_SOURCE = "__annotationSource";
+
+	private final String _script;
+	private final ScriptEngine _engine;
+	private final CompiledScript _compiled;
+	private final ThreadLocal<Bindings> _bindings = new ThreadLocal<Bindings>() {
+		@Override
+		protected Bindings initialValue() {
+			return _engine.createBindings();
+		}
+	};
+
+	public CompiledScriptPredicate( String script ) throws ScriptException {
+		_script = script;
+		_engine = new ScriptEngineManager().getEngineByName( "javascript" );
+		if ( null == _engine ) {
+			throw new ScriptException( "No javascript engine available" );
+		}
+		String source = "var annotation = JSON.parse(" + ANNOTATION_SOURCE + "); " + script;
+		if ( _engine instanceof Compilable ) {
+			_compiled = ((Compilable) _engine).compile( source );
+		} else {
+			_compiled = null;
+		}
+	}
+
+	@Override
+	public boolean accept( AnnotationData<?> annotation ) {
+		try {
+			Object result;
+			if ( null == _compiled ) {
+				result = _engine.eval( "var annotation = " + annotation.toJSON().toString() + "; " + _script );
+			} else {
+				Bindings bindings = _bindings.get();
+				bindings.put( ANNOTATION_SOURCE, annotation.toJSON().toString() );
+				result = _compiled.eval( bindings );
+			}
+			return Boolean.TRUE.equals( result );
+		} catch ( ScriptException e ) {
+			LOGGER.warn( "Error evaluating annotation filter script {}", _script, e );
+			return false;
+		}
+	}
+}
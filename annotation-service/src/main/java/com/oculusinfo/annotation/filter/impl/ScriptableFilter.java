@@ -24,85 +24,98 @@
 package com.oculusinfo.annotation.filter.impl;
 
 import com.oculusinfo.annotation.AnnotationData;
+import com.oculusinfo.factory.util.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-import java.util.LinkedList;
+import javax.script.ScriptException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 
+/**
+ * Filters annotations by a javascript expression evaluated against each annotation, in which the
+ * variable "annotation" holds the JSON form of the annotation.
+ *
+ * Each distinct expression is compiled only once per layer - or, if it is a simple comparison of
+ * one field against a literal, evaluated natively (see {@link ComparisonPredicate}) - and the
+ * compiled form shared between all filters and requests using it.
+ */
 public class ScriptableFilter extends EmptyFilter {
+    private static final Logger LOGGER = LoggerFactory.getLogger( ScriptableFilter.class );
+    private static final int MAX_CACHED_PREDICATES = 256;
+
+    // Compiled predicates, keyed by layer and script
+    private static final Map<Pair<String, String>, AnnotationPredicate> PREDICATES =
+        new LinkedHashMap<Pair<String, String>, AnnotationPredicate>( 16, 0.75f, true ) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<Pair<String, String>, AnnotationPredicate> eldest ) {
+                return size() > MAX_CACHED_PREDICATES;
+            }
+        };
 
     private String _script;
+    private AnnotationPredicate _predicate;
 
     public ScriptableFilter( String script ) {
-        _script = script;
+        this( null, script );
     }
 
-    public List<AnnotationData<?>> filterAnnotations( List<AnnotationData<?>> annotations ) {
-
-        List<AnnotationData<?>> filtered = new LinkedList<>();
-        ScriptEngine engine = new ScriptEngineManager().getEngineByName("javascript");
+    public ScriptableFilter( String layer, String script ) {
+        _script = script;
+        if ( null != script ) {
+            _predicate = getPredicate( layer, script );
+        }
+    }
 
-        try
-        {
-            /*
-            int size = annotations.size();
-            List<String> annotationStrings = new ArrayList<>( size );
-            int totalLength = 0;
-            for ( int i=0; i<size; i++ ) {
-                String annoStr = annotations.get(i).toJSON().toString();
-                if ( i != size-1 ) {
-                    annoStr += ",";
+    /**
+     * Get the shared predicate for the given script on the given layer, compiling it if it isn't
+     * cached yet.  A script that fails to compile yields a predicate that rejects everything.
+     */
+    static AnnotationPredicate getPredicate( String layer, String script ) {
+        Pair<String, String> key = new Pair<>( layer, script );
+        synchronized ( PREDICATES ) {
+            AnnotationPredicate predicate = PREDICATES.get( key );
+            if ( null == predicate ) {
+                predicate = ComparisonPredicate.parse( script );
+                if ( null == predicate ) {
+                    try {
+                        predicate = new CompiledScriptPredicate( script );
+                    } catch ( ScriptException e ) {
+                        LOGGER.warn( "Error compiling annotation filter script {}", script, e );
+                        predicate = new AnnotationPredicate() {
+                            @Override
+                            public boolean accept( AnnotationData<?> annotation ) {
+                                return false;
+                            }
+                        };
+                    }
                 }
-                annotationStrings.add( annoStr );
-                totalLength += annoStr.length();
-            };
-
-            String scriptPrefix = "(function() { var annotations = [";
-
-            String scriptPostfix = "];"
-                                +"var len = annotations.length, "
-                                +"results = java.lang.reflect.Array.newInstance(java.lang.Boolean, len),"
-                                +"result, i, annotation;"
-                                +"for(i=0; i<len; i++) {"
-                                    +"annotation = annotations[i];"
-                                    +"result = " + _script + ";"
-                                    +"results[i] = result;"
-                                +"}"
-                                +"return results; })();";
-
-            StringBuilder script = new StringBuilder( scriptPrefix.length()
-                                                            + totalLength
-                                                            + scriptPostfix.length() );
-            // create script
-            script.append( scriptPrefix );
-            for ( String annoStr : annotationStrings ) {
-                script.append( annoStr );
+                PREDICATES.put( key, predicate );
             }
-            script.append( scriptPostfix );
-
-            //String func = "var annotation = "+ annotation.toJSON().toString() +"; "+ _script;
-            Boolean[] results = (Boolean[])engine.eval( script.toString() );
+            return predicate;
+        }
+    }
 
-            for ( int i=0; i<results.length; i++ ) {
-                if (results[i]) {
-                    filtered.add( annotations.get(i) );
-                }
-            }
-            */
+    @Override
+    public List<AnnotationData<?>> filterAnnotations( List<AnnotationData<?>> annotations,
+                                                      List<FilteredBinResults> binResults ) {
+        return filterAnnotations( annotations );
+    }
 
-            for ( AnnotationData<?> annotation : annotations ) {
+    public List<AnnotationData<?>> filterAnnotations( List<AnnotationData<?>> annotations ) {
+        if ( null == _predicate ) {
+            return annotations;
+        }
 
-                String func = "var annotation = "+ annotation.toJSON().toString() +"; "+ _script;
-                Boolean result = (Boolean)engine.eval( func );
-                if (result) {
-                    filtered.add( annotation );
-                }
+        List<AnnotationData<?>> filtered = new ArrayList<>( annotations.size() );
+        for ( AnnotationData<?> annotation : annotations ) {
+            if ( _predicate.accept( annotation ) ) {
+                filtered.add( annotation );
             }
-
-        } catch (Exception e) {
-            e.printStackTrace();
         }
         return filtered;
     }
@@ -27,6 +27,7 @@ package com.oculusinfo.annotation.filter.impl;
 import com.oculusinfo.annotation.filter.AnnotationFilter;
 import com.oculusinfo.factory.ConfigurableFactory;
 import com.oculusinfo.factory.properties.StringProperty;
+import com.oculusinfo.tile.rendering.LayerConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,7 +52,13 @@ public class ScriptableFilterFactory extends ConfigurableFactory<AnnotationFilte
 	protected AnnotationFilter create() {
 		try {
 			String script = getPropertyValue(SCRIPT_STRING);
-			return new ScriptableFilter(script);
+			// Compiled scripts are cached per layer, so find out which layer we're filtering
+			String layer = null;
+			ConfigurableFactory<?> root = getRoot();
+			if (root instanceof LayerConfiguration && root.hasPropertyValue(LayerConfiguration.LAYER_ID)) {
+				layer = root.getPropertyValue(LayerConfiguration.LAYER_ID);
+			}
+			return new ScriptableFilter(layer, script);
 		}
 		catch (Exception e) {
 			LOGGER.error("Error trying to create ScriptableFilter", e);
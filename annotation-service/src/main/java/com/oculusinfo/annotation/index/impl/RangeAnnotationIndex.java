@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.annotation.index.impl;
+
+import com.oculusinfo.annotation.AnnotationData;
+import com.oculusinfo.annotation.index.AnnotationIndexer;
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.TilePyramid;
+import com.oculusinfo.factory.util.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * An in-memory index of range annotations, by level, and by the extent, in tiles, each annotation
+ * covers on that level.  This lets a range annotation be stored once per shard it intersects,
+ * rather than in every tile it covers, with readers finding the range annotations that intersect a
+ * tile at read time.
+ *
+ * Each level is divided into shards - the tiles of that level under a single tile of level
+ * {@link #SHARD_LEVEL}, or single tiles on levels above it - so no level's index grows without
+ * bound in one place.  The index of each shard is loaded separately, on demand, and is immutable
+ * once built; adding or removing an annotation replaces the index of each affected shard, so
+ * readers need no locking.  Writers, however, are expected to be serialized externally.
+ */
+public class RangeAnnotationIndex {
+	/** The level whose tiles define the shards of every deeper level */
+	public static final int SHARD_LEVEL = 3;
+	// The number of entries summarized by each maximum extent, for skipping entries while searching
+	private static final int BLOCK_SIZE = 64;
+
+	private final TilePyramid _pyramid;
+	private final ConcurrentMap<TileIndex, LevelIndex> _shards;
+
+	public RangeAnnotationIndex( TilePyramid pyramid ) {
+		_pyramid = pyramid;
+		_shards = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Get the lowest level on which the given annotation appears
+	 */
+	public static int getMinLevel( AnnotationData<?> data ) {
+		return Math.min( data.getLevel(), data.getRange().getFirst() );
+	}
+
+	/**
+	 * Get the highest level on which the given annotation appears
+	 */
+	public static int getMaxLevel( AnnotationData<?> data ) {
+		return Math.max( data.getLevel(), data.getRange().getSecond() );
+	}
+
+	/**
+	 * Get the shard containing the given tile.  Shards are identified by single-bin tile indices on
+	 * the level they shard.
+	 */
+	public static TileIndex getShard( TileIndex tile ) {
+		int shift = Math.max( 0, tile.getLevel() - SHARD_LEVEL );
+		return new TileIndex( tile.getLevel(), tile.getX() >> shift, tile.getY() >> shift, 1, 1 );
+	}
+
+	/**
+	 * Get the shards of the given level which a range annotation intersects.
+	 */
+	public List<TileIndex> getShards( AnnotationData<?> annotation, int level ) {
+		Entry entry = createEntry( annotation, level );
+		TileIndex first = getShard( new TileIndex( level, entry._minX, entry._minY ) );
+		TileIndex last = getShard( new TileIndex( level, entry._maxX, entry._maxY ) );
+		List<TileIndex> shards = new ArrayList<>();
+		for ( int x = first.getX(); x <= last.getX(); ++x ) {
+			for ( int y = first.getY(); y <= last.getY(); ++y ) {
+				shards.add( new TileIndex( level, x, y, 1, 1 ) );
+			}
+		}
+		return shards;
+	}
+
+	public boolean isLoaded( TileIndex shard ) {
+		return _shards.containsKey( shard );
+	}
+
+	/**
+	 * Set the full contents of the index of the given shard.
+	 */
+	public void load( TileIndex shard, List<AnnotationData<?>> annotations ) {
+		int level = shard.getLevel();
+		List<Entry> entries = new ArrayList<>( annotations.size() );
+		for ( AnnotationData<?> annotation : annotations ) {
+			if ( annotation.isRangeBased() && getMinLevel( annotation ) <= level && level <= getMaxLevel( annotation ) ) {
+				entries.add( createEntry( annotation, level ) );
+			}
+		}
+		_shards.put( shard, new LevelIndex( entries ) );
+	}
+
+	/**
+	 * Add a range annotation to the index of each loaded shard it intersects.  Shards not yet
+	 * loaded will pick it up when they are.
+	 */
+	public void add( AnnotationData<?> annotation ) {
+		for ( int level = getMinLevel( annotation ); level <= getMaxLevel( annotation ); ++level ) {
+			Entry entry = null;
+			for ( TileIndex shard : getShards( annotation, level ) ) {
+				LevelIndex index = _shards.get( shard );
+				if ( null != index ) {
+					if ( null == entry ) {
+						entry = createEntry( annotation, level );
+					}
+					List<Entry> entries = new ArrayList<>( Arrays.asList( index._entries ) );
+					entries.add( entry );
+					_shards.put( shard, new LevelIndex( entries ) );
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove a range annotation from the index of each loaded shard it intersects.
+	 */
+	public void remove( AnnotationData<?> annotation ) {
+		String uuid = annotation.getUUID().toString();
+		for ( int level = getMinLevel( annotation ); level <= getMaxLevel( annotation ); ++level ) {
+			for ( TileIndex shard : getShards( annotation, level ) ) {
+				LevelIndex index = _shards.get( shard );
+				if ( null != index ) {
+					List<Entry> entries = new ArrayList<>( index._entries.length );
+					for ( Entry entry : index._entries ) {
+						if ( !uuid.equals( entry._certificate.getFirst() ) ) {
+							entries.add( entry );
+						}
+					}
+					_shards.put( shard, new LevelIndex( entries ) );
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get all range annotations that cover the given tile.
+	 *
+	 * @return The matching entries; empty if there are none, or if the tile's shard isn't loaded.
+	 */
+	public List<Entry> getEntries( TileIndex tile ) {
+		LevelIndex index = _shards.get( getShard( tile ) );
+		if ( null == index ) {
+			return Collections.emptyList();
+		}
+		return index.find( tile.getX(), tile.getY() );
+	}
+
+	/*
+	 * Find the tiles covered by a range annotation on a single level - the same tiles to which
+	 * AnnotationIndexerImpl assigns it.
+	 */
+	private Entry createEntry( AnnotationData<?> data, int level ) {
+		double x0 = ( data.getX0() == null ) ? 0 : data.getX0();
+		double y0 = ( data.getY0() == null ) ? 0 : data.getY0();
+		double x1 = ( data.getX1() == null ) ? 0 : data.getX1();
+		double y1 = ( data.getY1() == null ) ? 0 : data.getY1();
+
+		TileIndex bottomLeft = _pyramid.rootToTile( x0, y0, level, AnnotationIndexer.NUM_BINS, AnnotationIndexer.NUM_BINS );
+		TileIndex topRight = _pyramid.rootToTile( x1, y1, level, AnnotationIndexer.NUM_BINS, AnnotationIndexer.NUM_BINS );
+		return new Entry( data.getGroup(), data.getCertificate(),
+		                  bottomLeft.getX(), topRight.getX(), bottomLeft.getY(), topRight.getY() );
+	}
+
+	/**
+	 * A single range annotation on a single level: its group and certificate, and the (inclusive)
+	 * range of tiles it covers.
+	 */
+	public static class Entry {
+		private final String _group;
+		private final Pair<String, Long> _certificate;
+		private final int _minX;
+		private final int _maxX;
+		private final int _minY;
+		private final int _maxY;
+
+		Entry( String group, Pair<String, Long> certificate, int minX, int maxX, int minY, int maxY ) {
+			_group = group;
+			_certificate = certificate;
+			_minX = minX;
+			_maxX = maxX;
+			_minY = minY;
+			_maxY = maxY;
+		}
+
+		public String getGroup() {
+			return _group;
+		}
+
+		public Pair<String, Long> getCertificate() {
+			return _certificate;
+		}
+
+		boolean covers( int x, int y ) {
+			return _minX <= x && x <= _maxX && _minY <= y && y <= _maxY;
+		}
+	}
+
+	/*
+	 * The entries of a single shard, sorted by their minimum x tile, with the maximum x tile of each
+	 * block of entries, so that a search can skip whole blocks that end before the tile sought.
+	 */
+	private static class LevelIndex {
+		private final Entry[] _entries;
+		private final int[] _blockMaxX;
+
+		LevelIndex( List<Entry> entries ) {
+			_entries = entries.toArray( new Entry[entries.size()] );
+			Arrays.sort( _entries, new Comparator<Entry>() {
+				@Override
+				public int compare( Entry a, Entry b ) {
+					return Integer.compare( a._minX, b._minX );
+				}
+			} );
+			_blockMaxX = new int[( _entries.length + BLOCK_SIZE - 1 ) / BLOCK_SIZE];
+			for ( int i = 0; i < _entries.length; ++i ) {
+				int block = i / BLOCK_SIZE;
+				if ( 0 == i % BLOCK_SIZE || _entries[i]._maxX > _blockMaxX[block] ) {
+					_blockMaxX[block] = _entries[i]._maxX;
+				}
+			}
+		}
+
+		List<Entry> find( int x, int y ) {
+			// Only entries starting at or before x can cover it
+			int low = 0, high = _entries.length;
+			while ( low < high ) {
+				int mid = ( low + high ) >>> 1;
+				if ( _entries[mid]._minX <= x ) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+
+			List<Entry> found = new ArrayList<>();
+			for ( int start = 0; start < low; start += BLOCK_SIZE ) {
+				if ( _blockMaxX[start / BLOCK_SIZE] < x ) {
+					continue;
+				}
+				int end = Math.min( start + BLOCK_SIZE, low );
+				for ( int i = start; i < end; ++i ) {
+					if ( _entries[i].covers( x, y ) ) {
+						found.add( _entries[i] );
+					}
+				}
+			}
+			return found;
+		}
+	}
+}
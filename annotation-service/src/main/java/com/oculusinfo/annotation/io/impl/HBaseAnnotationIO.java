@@ -27,6 +27,7 @@ package com.oculusinfo.annotation.io.impl;
 import com.oculusinfo.annotation.AnnotationData;
 import com.oculusinfo.annotation.io.AnnotationIO;
 import com.oculusinfo.annotation.io.serialization.AnnotationSerializer;
+import com.oculusinfo.binning.io.impl.HBaseAccess;
 import com.oculusinfo.factory.util.Pair;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
@@ -40,8 +41,6 @@ import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
-import org.apache.hadoop.hbase.client.Row;
-import org.apache.hadoop.hbase.client.Table;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
@@ -74,10 +73,24 @@ public class HBaseAnnotationIO implements AnnotationIO {
     private Configuration _config;
     private Admin _admin;
     private Connection _connection;
+    private HBaseAccess _access;
 
     public HBaseAnnotationIO (String zookeeperQuorum,
     						  String zookeeperPort,
     						  String hbaseMaster) throws IOException {
+        this(zookeeperQuorum, zookeeperPort, hbaseMaster,
+             HBaseAccess.DEFAULT_WRITE_BUFFER_SIZE, HBaseAccess.DEFAULT_READ_BATCH_SIZE);
+    }
+
+    /**
+     * @param writeBufferSize The size, in bytes, to which annotation writes are buffered before being sent
+     * @param readBatchSize The maximum number of annotations read from a single region in one request
+     */
+    public HBaseAnnotationIO (String zookeeperQuorum,
+                              String zookeeperPort,
+                              String hbaseMaster,
+                              long writeBufferSize,
+                              int readBatchSize) throws IOException {
 
         Logger.getLogger("org.apache.zookeeper").setLevel(Level.WARN);
         Logger.getLogger("org.apache.hadoop").setLevel(Level.WARN);
@@ -88,6 +101,7 @@ public class HBaseAnnotationIO implements AnnotationIO {
         _config.set("hbase.master", hbaseMaster);
 		_connection = ConnectionFactory.createConnection(_config);
 		_admin = _connection.getAdmin();
+		_access = new HBaseAccess(_connection, writeBufferSize, readBatchSize);
     }
 
     /**
@@ -117,7 +131,7 @@ public class HBaseAnnotationIO implements AnnotationIO {
 					       AnnotationSerializer serializer,
 					       Iterable<AnnotationData<?>> data ) throws IOException {
 
-    	List<Row> rows = new ArrayList<>();
+    	List<Put> rows = new ArrayList<>();
         for (AnnotationData<?> d : data) {
 
         	ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -128,11 +142,7 @@ public class HBaseAnnotationIO implements AnnotationIO {
                                baos.toByteArray() ) );
         }
 
-        try {
-            writeRows( tableName, rows);
-        } catch (InterruptedException e) {
-            throw new IOException("Error writing annotations to HBase", e);
-        }
+        writeRows( tableName, rows );
     }
 
 
@@ -197,6 +207,7 @@ public class HBaseAnnotationIO implements AnnotationIO {
         // convert to separate data table name
         String dataTableName = getTableName( tableName );
 
+        _access.invalidate(TableName.valueOf(dataTableName));
         try {
             _admin.disableTable(TableName.valueOf(dataTableName));
             _admin.deleteTable(TableName.valueOf(dataTableName));
@@ -216,12 +227,10 @@ public class HBaseAnnotationIO implements AnnotationIO {
     }
 
     /*
-     * Gets an existing table (without creating it)
+     * Gets the name of the data table of a layer
      */
-    private Table getTable (String tableName) throws IOException {
-        // convert to separate data table name
-        String dataTableName = getTableName(tableName);
-        return _connection.getTable(TableName.valueOf(dataTableName));
+    private TableName getDataTableName (String tableName) {
+        return TableName.valueOf(getTableName(tableName));
     }
 
 
@@ -261,11 +270,8 @@ public class HBaseAnnotationIO implements AnnotationIO {
      * @param rows
      *            The rows to write
      */
-    private void writeRows (String tableName, List<Row> rows) throws InterruptedException, IOException {
-        Table table = getTable(tableName);
-		Object[] results = new Object[rows.size()];
-        table.batch(rows, results);
-        table.close();
+    private void writeRows (String tableName, List<Put> rows) throws IOException {
+        _access.mutate(getDataTableName(tableName), rows);
     }
 
 
@@ -295,8 +301,6 @@ public class HBaseAnnotationIO implements AnnotationIO {
      *         map.
      */
     private List<Map<HBaseColumn, byte[]>> readRows (String tableName, List<byte[]> rows, HBaseColumn... columns) throws IOException {
-        Table table = getTable(tableName);
-
         List<Get> gets = new ArrayList<>(rows.size());
         for (byte[] rowId: rows) {
             Get get = new Get(rowId);
@@ -306,25 +310,21 @@ public class HBaseAnnotationIO implements AnnotationIO {
             gets.add(get);
         }
 
-        Result[] results = table.get(gets);
+        Result[] results = _access.get(getDataTableName(tableName), gets);
         List<Map<HBaseColumn, byte[]>> allResults = new LinkedList<Map<HBaseColumn,byte[]>>();
         for (Result result: results) {
             allResults.add(decodeRawResult(result, columns));
         }
-        table.close();
         return allResults;
     }
 
 
     private void deleteRows (String tableName, List<byte[]> rows, HBaseColumn... columns ) throws IOException {
-        Table table = getTable(tableName);
-        List<Delete> deletes = new LinkedList<>();
+        List<Delete> deletes = new ArrayList<>(rows.size());
         for (byte[] rowId: rows) {
-        	Delete delete = new Delete(rowId);
-            deletes.add(delete);
+            deletes.add(new Delete(rowId));
         }
-        table.delete(deletes);
-        table.close();
+        _access.mutate(getDataTableName(tableName), deletes);
     }
 
 
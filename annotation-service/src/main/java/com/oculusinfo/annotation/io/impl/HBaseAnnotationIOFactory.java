@@ -26,6 +26,8 @@ package com.oculusinfo.annotation.io.impl;
 import com.oculusinfo.annotation.io.AnnotationIO;
 import com.oculusinfo.factory.ConfigurableFactory;
 import com.oculusinfo.factory.SharedInstanceFactory;
+import com.oculusinfo.binning.io.impl.HBaseAccess;
+import com.oculusinfo.factory.properties.IntegerProperty;
 import com.oculusinfo.factory.properties.StringProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,6 +47,12 @@ public class HBaseAnnotationIOFactory extends SharedInstanceFactory<AnnotationIO
 	public static StringProperty HBASE_MASTER = new StringProperty("hbase.master",
 		   "Only used if type=\"hbase\".  An HBase configuration parameter, this should match the similar value in hbase-site.xml.  There is no default for this property.",
 		   null);
+	public static IntegerProperty HBASE_WRITE_BUFFER_SIZE = new IntegerProperty("hbase.write.buffer.size",
+		   "Only used if type=\"hbase\".  The size, in bytes, to which writes are buffered before being sent to HBase.",
+		   HBaseAccess.DEFAULT_WRITE_BUFFER_SIZE);
+	public static IntegerProperty HBASE_READ_BATCH_SIZE = new IntegerProperty("hbase.read.batch.size",
+		   "Only used if type=\"hbase\".  The maximum number of rows read from a single HBase region in one request.",
+		   HBaseAccess.DEFAULT_READ_BATCH_SIZE);
 
 	public HBaseAnnotationIOFactory(ConfigurableFactory<?> parent, List<String> path) {
 		super("hbase", AnnotationIO.class, parent, path);
@@ -52,6 +60,8 @@ public class HBaseAnnotationIOFactory extends SharedInstanceFactory<AnnotationIO
 		addProperty(HBASE_ZOOKEEPER_QUORUM);
 		addProperty(HBASE_ZOKEEPER_PORT);
 		addProperty(HBASE_MASTER);
+		addProperty(HBASE_WRITE_BUFFER_SIZE);
+		addProperty(HBASE_READ_BATCH_SIZE);
 	}
 
 	@Override
@@ -60,7 +70,9 @@ public class HBaseAnnotationIOFactory extends SharedInstanceFactory<AnnotationIO
 			String quorum = getPropertyValue(HBASE_ZOOKEEPER_QUORUM);
 			String port = getPropertyValue(HBASE_ZOKEEPER_PORT);
 			String master = getPropertyValue(HBASE_MASTER);
-			return new HBaseAnnotationIO(quorum, port, master);
+			int writeBufferSize = getPropertyValue(HBASE_WRITE_BUFFER_SIZE);
+			int readBatchSize = getPropertyValue(HBASE_READ_BATCH_SIZE);
+			return new HBaseAnnotationIO(quorum, port, master, writeBufferSize, readBatchSize);
 		}
 		catch (Exception e) {
 			LOGGER.error("Error trying to create HBasePyramidIO", e);
@@ -31,6 +31,7 @@ import com.oculusinfo.annotation.AnnotationTile;
 import com.oculusinfo.annotation.filter.AnnotationFilter;
 import com.oculusinfo.annotation.filter.impl.FilteredBinResults;
 import com.oculusinfo.annotation.index.AnnotationIndexer;
+import com.oculusinfo.annotation.index.impl.RangeAnnotationIndex;
 import com.oculusinfo.annotation.io.AnnotationIO;
 import com.oculusinfo.annotation.io.serialization.AnnotationSerializer;
 import com.oculusinfo.binning.BinIndex;
@@ -52,10 +53,36 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Annotation service concurrency model:
+ *
+ * Each layer has its own state - configuration, IO handles, and serializers, built on first use
+ * and reused thereafter - and its own write lock, so operations on one layer never wait on
+ * operations on another.  Writes (write, modify, and remove) to a single layer are serialized by
+ * that layer's lock.
+ *
+ * Reads take no lock.  Instead, each layer keeps a version for each of a fixed number of stripes
+ * of tiles; a writer increments the version of every stripe it touches once before changing
+ * anything (making it odd), and once more when done.  A reader notes the version of the stripe of
+ * the tile it wants, reads the tile and its annotations, and accepts the result only if the
+ * version was even and unchanged; otherwise it tries again, and, if it keeps losing races with
+ * writers, finally reads while holding the layer's write lock.
+ *
+ * Point annotations are stored in the single tile that contains them on each level.  Range
+ * annotations, which may cover vast numbers of tiles on deeper levels, are instead stored once
+ * in each range index shard - a coarse block of the tiles of a level - they intersect, in index
+ * tiles kept in a separate pyramid alongside the layer's tiles; a {@link RangeAnnotationIndex} of
+ * each shard is loaded from these on first use, and readers merge the range annotations
+ * intersecting a tile into it as it is read.  Writes to a shard are versioned by a stripe of their
+ * own.  Range annotations stored in every tile they cover, as earlier versions did, are still read,
+ * and are removed from those tiles when modified or removed.
+ */
 @Singleton
 public class AnnotationServiceImpl implements AnnotationService {
 	private static final Logger LOGGER = LoggerFactory.getLogger(AnnotationServiceImpl.class);
@@ -81,14 +108,19 @@ public class AnnotationServiceImpl implements AnnotationService {
 		                                                                new TypeDescriptor(Long.class))));
 	}
 
+	// The number of stripes into which the tiles of each layer are divided for versioning
+	private static final int TILE_VERSION_STRIPES = 1024;
+	// The number of times a read is attempted without locking before giving up and locking
+	private static final int MAX_OPTIMISTIC_READS = 8;
+	// Appended to the data id of a layer to get the id under which its range indices are stored
+	private static final String RANGE_INDEX_SUFFIX = "-ranges";
+
 	private LayerService _layerService;
 	private AnnotationSerializer _dataSerializer;
 	private AnnotationIndexer _indexer;
     private FactoryProvider<AnnotationIO> _annotationIOFactoryProvider;
     private FactoryProvider<AnnotationFilter> _annotationFilterFactoryProvider;
-    private Map<String, Boolean> _initializedLayersById;
-	
-	protected final ReadWriteLock _lock = new ReentrantReadWriteLock();
+    private final ConcurrentMap<String, LayerState> _layerStates;
 
     @Inject
 	public AnnotationServiceImpl( LayerService service,
@@ -102,7 +134,7 @@ public class AnnotationServiceImpl implements AnnotationService {
         _indexer = indexer;
         _annotationIOFactoryProvider = annotationIOFactoryProvider;
         _annotationFilterFactoryProvider = annotationFilterFactoryProvider;
-        _initializedLayersById = new HashMap<>();
+        _layerStates = new ConcurrentHashMap<>();
 	}
 
     /**
@@ -141,25 +173,21 @@ public class AnnotationServiceImpl implements AnnotationService {
 
 	public Pair<String,Long> write( String layer,
 	                                AnnotationData<?> annotation ) throws IllegalArgumentException {
-		
-		_lock.writeLock().lock();
-		try {
 
-			LayerConfiguration config = getLayerConfiguration( layer, null );
-			TilePyramid pyramid = config.produce( TilePyramid.class );
+		LayerState state = getLayerState( layer );
+		TileUpdate update = new TileUpdate( state );
+		state._writeLock.lock();
+		try {
 
             /*
              * This makes the assumption that if you are writing an annotation, the table MAY
              * not exist. So in this case, for the first write, make the table if it does no exist
              * in a thread-safe manner.
              */
-            if ( !_initializedLayersById.containsKey( layer  ) ) {
-                String dataId = config.getPropertyValue( LayerConfiguration.DATA_ID );
-                AnnotationIO aio = config.produce( AnnotationIO.class );
-                aio.initializeForRead( dataId );
-                PyramidIO pio = config.produce( PyramidIO.class );
-                pio.initializeForRead( dataId, 0, 0, null );
-                _initializedLayersById.put( layer, true );
+            if ( !state._initialized ) {
+                state._annotationIO.initializeForRead( state._dataId );
+                state._pyramidIO.initializeForRead( state._dataId, 0, 0, null );
+                state._initialized = true;
             }
 
 			/*
@@ -167,11 +195,11 @@ public class AnnotationServiceImpl implements AnnotationService {
 			 * by throwing an exception, this is so statistically unlikely that
 			 * any further action is unnecessary
 			 */
-			if ( checkForCollision( layer, annotation ) ) {
+			if ( checkForCollision( state, annotation ) ) {
 				throw new IllegalArgumentException("Unable to generate UUID without collision, WRITE operation aborted");
 			}
 
-			addDataToTiles( layer, annotation, pyramid );
+			addDataToTiles( state, annotation, update );
 
 			// return generated certificate
 			return annotation.getCertificate();
@@ -180,7 +208,8 @@ public class AnnotationServiceImpl implements AnnotationService {
 			e.printStackTrace();
 			throw new IllegalArgumentException( e.getMessage() );
 		} finally {
-			_lock.writeLock().unlock();
+			update.end();
+			state._writeLock.unlock();
 		}
 
 	}
@@ -189,20 +218,20 @@ public class AnnotationServiceImpl implements AnnotationService {
 	public Pair<String,Long> modify( String layer,
 	                                 AnnotationData<?> annotation ) throws IllegalArgumentException {
 
-		_lock.writeLock().lock();
+		LayerState state = getLayerState( layer );
+		TileUpdate update = new TileUpdate( state );
+		state._writeLock.lock();
 		try {
 
 			/*
 			 *  ensure request is coherent with server state, if client is operating
 			 *  on a previous data state, prevent io corruption by throwing an exception
 			 */
-			if ( isRequestOutOfDate( layer, annotation.getCertificate() ) ) {
+			if ( isRequestOutOfDate( state, annotation.getCertificate() ) ) {
 				throw new IllegalArgumentException("Client is out of sync with Server, "
 				                                   + "MODIFY operation aborted. It is recommended "
 				                                   + "upon receiving this exception to refresh all client annotations");
 			}
-			LayerConfiguration config = getLayerConfiguration( layer, null );
-			TilePyramid pyramid = config.produce( TilePyramid.class );
 
 			/*
 			 * Technically you should not have to re-tile the annotation if
@@ -212,18 +241,19 @@ public class AnnotationServiceImpl implements AnnotationService {
 			 * individual annotations themselves
 			 */
 			// remove old annotation from tiles
-			removeDataFromTiles( layer, annotation.getCertificate(), pyramid );
+			removeDataFromTiles( state, annotation.getCertificate(), update );
 			// update certificate
 			annotation.updateCertificate();
 			// add new annotation to tiles
-			addDataToTiles( layer, annotation, pyramid );
+			addDataToTiles( state, annotation, update );
 			// return updated certificate
 			return annotation.getCertificate();
 
 		} catch ( Exception e ) {
 			throw new IllegalArgumentException( e.getMessage() );
 		} finally {
-			_lock.writeLock().unlock();
+			update.end();
+			state._writeLock.unlock();
 		}
 
 	}
@@ -231,49 +261,222 @@ public class AnnotationServiceImpl implements AnnotationService {
 
 	public List<List<AnnotationData<?>>> read( String layer, TileIndex index, JSONObject query ) {
 
-		_lock.readLock().lock();
 		try {
 
-			LayerConfiguration config = getLayerConfiguration( layer, query );
-			TilePyramid pyramid = config.produce( TilePyramid.class );
-			AnnotationFilter filter = config.produce( AnnotationFilter.class );
+			LayerState state = getLayerState( layer );
+			AnnotationFilter filter = state._filter;
+			if ( null != query ) {
+				filter = getLayerConfiguration( layer, query ).produce( AnnotationFilter.class );
+			}
+
+			TileIndex shard = RangeAnnotationIndex.getShard( index );
+			loadRangeIndex( state, shard );
+
+			// Read optimistically, accepting the result only if no writer touched this tile's
+			// stripe, or the stripe of its range index shard, while we were reading it
+			int stripe = getTileStripe( index );
+			int rangeStripe = getRangeIndexStripe( shard );
+			for ( int attempt = 0; attempt < MAX_OPTIMISTIC_READS; ++attempt ) {
+				long version = state._tileVersions.get( stripe );
+				long rangeVersion = state._tileVersions.get( rangeStripe );
+				if ( 0 != (version & 1L) || 0 != (rangeVersion & 1L) ) {
+					// A write to one of these stripes is in progress
+					Thread.yield();
+					continue;
+				}
+				try {
+					List<List<AnnotationData<?>>> result = getDataFromTiles( state, index, filter );
+					if ( state._tileVersions.get( stripe ) == version
+					     && state._tileVersions.get( rangeStripe ) == rangeVersion ) {
+						return result;
+					}
+				} catch ( RuntimeException e ) {
+					// A read that raced a write may see partial data; only a failure of a clean
+					// read is a real failure.
+					if ( state._tileVersions.get( stripe ) == version
+					     && state._tileVersions.get( rangeStripe ) == rangeVersion ) {
+						throw e;
+					}
+				}
+			}
+
+			// Too much contention; read while excluding writers
+			state._writeLock.lock();
+			try {
+				return getDataFromTiles( state, index, filter );
+			} finally {
+				state._writeLock.unlock();
+			}
 
-			return getDataFromTiles( layer, index, filter, pyramid );
-    		
 		} catch ( Exception e ) {
 			throw new IllegalArgumentException( e.getMessage() );
-		} finally { 		
-			_lock.readLock().unlock();
 		}
 	}
 	
 		
 	public void remove( String layer, Pair<String, Long> certificate ) throws IllegalArgumentException {
 
-		_lock.writeLock().lock();
+		LayerState state = getLayerState( layer );
+		TileUpdate update = new TileUpdate( state );
+		state._writeLock.lock();
 		try {
 
-			LayerConfiguration config = getLayerConfiguration( layer, null );
-			TilePyramid pyramid = config.produce(TilePyramid.class);
-
 			/*
 			 *  ensure request is coherent with server state, if client is operating
 			 *  on a previous data state, prevent io corruption by throwing an exception
 			 */
-			if ( isRequestOutOfDate( layer, certificate ) ) {
+			if ( isRequestOutOfDate( state, certificate ) ) {
 				throw new IllegalArgumentException("Client is out of sync with Server, "
 				                                   + "REMOVE operation aborted. It is recommended "
 				                                   + "upon receiving this exception to refresh all client annotations");
 			}
 			// remove the certificates from tiles
-			removeDataFromTiles( layer, certificate, pyramid );
+			removeDataFromTiles( state, certificate, update );
 			// remove data from io
-			removeDataFromIO( layer, certificate );
+			removeDataFromIO( state, certificate );
 
 		} catch ( Exception e ) {
 			throw new IllegalArgumentException( e.getMessage() );
 		} finally {
-			_lock.writeLock().unlock();
+			update.end();
+			state._writeLock.unlock();
+		}
+	}
+
+
+	/*
+	 * 
+	 * Layer state
+	 * 
+	 */
+
+	/**
+	 * Get the state of the given layer, creating it on first use.
+	 */
+	protected LayerState getLayerState( String layer ) {
+		LayerState state = _layerStates.get( layer );
+		if ( null == state ) {
+			LayerConfiguration config = getLayerConfiguration( layer, null );
+			if ( null == config ) {
+				throw new IllegalArgumentException( "Unable to configure annotation layer " + layer );
+			}
+			try {
+				LayerState newState = new LayerState( config );
+				state = _layerStates.putIfAbsent( layer, newState );
+				if ( null == state ) {
+					state = newState;
+				}
+			} catch ( Exception e ) {
+				throw new IllegalArgumentException( e.getMessage() );
+			}
+		}
+		return state;
+	}
+
+	/*
+	 * Tiles are striped by level and position only, so tile indices with differing bin counts
+	 * share versions.
+	 */
+	private static int getTileStripe( TileIndex index ) {
+		return getStripe( index.getLevel(), index.getX(), index.getY() );
+	}
+
+	/*
+	 * Range index shards are versioned as if they were tiles outside their level's bounds.
+	 */
+	private static int getRangeIndexStripe( TileIndex shard ) {
+		return getStripe( shard.getLevel(), -1 - shard.getX(), -1 - shard.getY() );
+	}
+
+	private static int getStripe( int level, int x, int y ) {
+		int hash = (level * 31 + x) * 31 + y;
+		return (hash & Integer.MAX_VALUE) % TILE_VERSION_STRIPES;
+	}
+
+	/*
+	 * Get the range index shards of every level on which a range annotation appears.  Each shard
+	 * is stored as a single-bin tile, in a separate pyramid.
+	 */
+	private static List<TileIndex> getRangeIndexShards( LayerState state, AnnotationData<?> data ) {
+		List<TileIndex> shards = new ArrayList<>();
+		int maxLevel = RangeAnnotationIndex.getMaxLevel( data );
+		for ( int level = RangeAnnotationIndex.getMinLevel( data ); level <= maxLevel; ++level ) {
+			shards.addAll( state._rangeIndex.getShards( data, level ) );
+		}
+		return shards;
+	}
+
+	/**
+	 * Everything needed to read and write a single layer.  The configuration, IO, serializers,
+	 * and default filter are all produced once, from the server configuration of the layer.
+	 */
+	protected static class LayerState {
+		final String _dataId;
+		final String _rangeDataId;
+		final TilePyramid _pyramid;
+		final PyramidIO _pyramidIO;
+		final AnnotationIO _annotationIO;
+		final TileSerializer<Map<String, List<Pair<String, Long>>>> _tileSerializer;
+		final AnnotationFilter _filter;
+		final RangeAnnotationIndex _rangeIndex;
+		final ReentrantLock _writeLock = new ReentrantLock();
+		final AtomicLongArray _tileVersions = new AtomicLongArray( TILE_VERSION_STRIPES );
+		// Guarded by _writeLock
+		boolean _initialized = false;
+
+		LayerState( LayerConfiguration config ) throws Exception {
+			_dataId = config.getPropertyValue( LayerConfiguration.DATA_ID );
+			_rangeDataId = _dataId + RANGE_INDEX_SUFFIX;
+			_pyramid = config.produce( TilePyramid.class );
+			_pyramidIO = config.produce( PyramidIO.class );
+			_annotationIO = config.produce( AnnotationIO.class );
+			_tileSerializer = SerializationTypeChecker.checkBinClass( config.produce( TileSerializer.class ),
+			                                                          getRuntimeBinClass(),
+			                                                          getRuntimeTypeDescriptor() );
+			_filter = config.produce( AnnotationFilter.class );
+			_rangeIndex = new RangeAnnotationIndex( _pyramid );
+			// Layers written before range indices existed have no range pyramid; make sure reads
+			// find an empty one rather than failing
+			_pyramidIO.initializeForRead( _rangeDataId, 0, 0, null );
+		}
+	}
+
+	/*
+	 * The set of tile stripes a single write operation has marked as being updated.  Stripes are
+	 * marked before any tile in them is changed, and all released together once the whole
+	 * operation - tiles and data - is complete.
+	 */
+	private static class TileUpdate {
+		private final LayerState _state;
+		private final Set<Integer> _stripes = new HashSet<>();
+
+		TileUpdate( LayerState state ) {
+			_state = state;
+		}
+
+		void begin( List<TileIndex> tiles ) {
+			for ( TileIndex tile : tiles ) {
+				begin( getTileStripe( tile ) );
+			}
+		}
+
+		void beginRangeIndices( List<TileIndex> shards ) {
+			for ( TileIndex shard : shards ) {
+				begin( getRangeIndexStripe( shard ) );
+			}
+		}
+
+		private void begin( int stripe ) {
+			if ( _stripes.add( stripe ) ) {
+				_state._tileVersions.incrementAndGet( stripe );
+			}
+		}
+
+		void end() {
+			for ( int stripe : _stripes ) {
+				_state._tileVersions.incrementAndGet( stripe );
+			}
+			_stripes.clear();
 		}
 	}
 
@@ -287,21 +490,25 @@ public class AnnotationServiceImpl implements AnnotationService {
 	/*
 	 * Check data UUID in IO, if already exists, return true
 	 */
-	private boolean checkForCollision( String layer, AnnotationData<?> annotation ) {
+	private boolean checkForCollision( LayerState state, AnnotationData<?> annotation ) {
 		
 		List<Pair<String,Long>> certificate = new LinkedList<>();
 		certificate.add( annotation.getCertificate() );
-		return ( readDataFromIO( layer, certificate ).size() > 0 ) ;
+		return ( readDataFromIO( state, certificate ).size() > 0 ) ;
 	}
 	
 	/*
 	 * Check data timestamp from clients source, if out of date, return true
 	 */
 	public boolean isRequestOutOfDate( String layer, Pair<String, Long> certificate ) {
+		return isRequestOutOfDate( getLayerState( layer ), certificate );
+	}
+
+	private boolean isRequestOutOfDate( LayerState state, Pair<String, Long> certificate ) {
 		
 		List<Pair<String, Long>> certificates = new LinkedList<>();
 		certificates.add( certificate );
-		List<AnnotationData<?>> annotations = readDataFromIO( layer, certificates );
+		List<AnnotationData<?>> annotations = readDataFromIO( state, certificates );
 		
 		if ( annotations.size() == 0 ) {
 			// removed since client update, abort
@@ -360,7 +567,7 @@ public class AnnotationServiceImpl implements AnnotationService {
 		// for each tile, remove data from bins
 		for ( AnnotationTile tile : tiles ) {
 			// get bin index for the annotation in this tile
-			BinIndex binIndex = _indexer.getIndicesByLevel( data, tile.getDefinition().getLevel(), pyramid ).get(0).getBin();
+			BinIndex binIndex = getBin( data, tile.getDefinition().getLevel(), pyramid );
 			// remove data from tile
             tile.removeDataFromBin(binIndex, data);
 		}	
@@ -377,6 +584,17 @@ public class AnnotationServiceImpl implements AnnotationService {
 		}
 	}
 	
+	/*
+	 * Get the bin of its tiles on the given level in which an annotation is stored.  All range
+	 * annotations go in the same bin, so there is no need to find the tiles they cover.
+	 */
+	private BinIndex getBin( AnnotationData<?> data, int level, TilePyramid pyramid ) {
+		if ( data.isRangeBased() ) {
+			return AnnotationIndexer.RANGE_BIN;
+		}
+		return _indexer.getIndicesByLevel( data, level, pyramid ).get(0).getBin();
+	}
+
 	/*
 	 * convert a List<TileAndBinIndices> to List<TileIndex>
 	 */
@@ -391,15 +609,28 @@ public class AnnotationServiceImpl implements AnnotationService {
 	}
 
 	
-	private List< List<AnnotationData<?>> > getDataFromTiles( String layer, TileIndex tileIndex, AnnotationFilter filter, TilePyramid pyramid ) {
+	private List< List<AnnotationData<?>> > getDataFromTiles( LayerState state, TileIndex tileIndex, AnnotationFilter filter ) {
 		
 		// wrap index into list 
 		List<TileIndex> indices = new LinkedList<>();
 		indices.add( tileIndex );
 			
 		// get tiles
-		List< AnnotationTile > tiles = readTilesFromIO( layer, indices );
-				
+		List< AnnotationTile > tiles = readTilesFromIO( state, indices );
+
+		// merge in the range annotations covering this tile
+		List<RangeAnnotationIndex.Entry> ranges = state._rangeIndex.getEntries( tileIndex );
+		if ( !ranges.isEmpty() ) {
+			if ( tiles.isEmpty() ) {
+				tiles.add( new AnnotationTile( new TileIndex( tileIndex.getLevel(), tileIndex.getX(), tileIndex.getY(),
+				                                              AnnotationIndexer.NUM_BINS, AnnotationIndexer.NUM_BINS ) ) );
+			}
+			AnnotationTile tile = tiles.get(0);
+			for ( RangeAnnotationIndex.Entry range : ranges ) {
+				tile.addCertificateToBin( AnnotationIndexer.RANGE_BIN, range.getGroup(), range.getCertificate() );
+			}
+		}
+
 		// for each tile, assemble list of all data certificates
 		List<Pair<String,Long>> certificates = new LinkedList<>();
 		List<FilteredBinResults> results = new LinkedList<>();
@@ -411,7 +642,7 @@ public class AnnotationServiceImpl implements AnnotationService {
 		}
 		
 		// read data from io
-		List<AnnotationData<?>> annotations = readDataFromIO( layer, certificates );
+		List<AnnotationData<?>> annotations = readDataFromIO( state, certificates );
 
         // return null if there are no annotations
         if ( annotations.size() == 0 ) {
@@ -431,7 +662,7 @@ public class AnnotationServiceImpl implements AnnotationService {
         // assemble data by bin
 		for ( AnnotationData<?> annotation : filteredAnnotations ) {
 			// get index
-			BinIndex binIndex = _indexer.getIndicesByLevel( annotation, tileIndex.getLevel(), pyramid ).get(0).getBin();
+			BinIndex binIndex = getBin( annotation, tileIndex.getLevel(), state._pyramid );
             int index = binIndex.getX() + ( binIndex.getY() * tileIndex.getXBins() );
 			// add data to list, under bin
 			dataByBin.get( index ).add( annotation );
@@ -440,59 +671,166 @@ public class AnnotationServiceImpl implements AnnotationService {
 	}
 
 	
-	private void addDataToTiles( String layer, AnnotationData<?> data, TilePyramid pyramid ) {
-		
+	private void addDataToTiles( LayerState state, AnnotationData<?> data, TileUpdate update ) {
+
+		if ( data.isRangeBased() ) {
+			addDataToRangeIndices( state, data, update );
+			return;
+		}
+
 		// get list of the indices for all levels
-		List< TileAndBinIndices > indices = _indexer.getIndices( data, pyramid );
+		List< TileAndBinIndices > indices = _indexer.getIndices( data, state._pyramid );
+		List< TileIndex > tileIndices = convert( indices );
+		// mark all affected tiles as being updated
+		update.begin( tileIndices );
 		// get all affected tiles
-		List< AnnotationTile > tiles = readTilesFromIO( layer, convert( indices ) );
+		List< AnnotationTile > tiles = readTilesFromIO( state, tileIndices );
 		// add new data certificate to tiles
 		addDataCertificateToTiles( tiles, indices, data );
 		// write tiles back to io
-		writeTilesToIO( layer, tiles );    		
+		writeTilesToIO( state, tiles );    		
 		// write data to io
-		writeDataToIO( layer, data );
+		writeDataToIO( state, data );
 
 	}
 	
 	
-	private void removeDataFromTiles( String layer, Pair<String, Long> certificate, TilePyramid pyramid ) {
+	private void removeDataFromTiles( LayerState state, Pair<String, Long> certificate, TileUpdate update ) {
 
 		// read the annotation data
 		List< Pair<String, Long> > certificates = new ArrayList<>();
 		certificates.add( certificate );
-		AnnotationData<?> data = readDataFromIO( layer, certificates ).get(0);
+		AnnotationData<?> data = readDataFromIO( state, certificates ).get(0);
+		if ( data.isRangeBased() && removeDataFromRangeIndices( state, data, update ) ) {
+			return;
+		}
+		// Not in the range indices, so a range annotation must have been stored in every tile it
+		// covers by an earlier version; remove it from each of them like a point annotation.
 		// get list of the indices for all levels
-		List< TileAndBinIndices > indices = _indexer.getIndices( data, pyramid );
+		List< TileAndBinIndices > indices = _indexer.getIndices( data, state._pyramid );
+		List< TileIndex > tileIndices = convert( indices );
+		// mark all affected tiles as being updated
+		update.begin( tileIndices );
 		// read existing tiles
-		List< AnnotationTile > tiles = readTilesFromIO( layer, convert( indices ) );
+		List< AnnotationTile > tiles = readTilesFromIO( state, tileIndices );
 		// maintain lists of what bins to modify and what bins to remove
 		List< AnnotationTile > tilesToWrite = new LinkedList<>();
 		List< TileIndex > tilesToRemove = new LinkedList<>();
 		// remove data from tiles and organize into lists to write and remove
-		removeDataCertificateFromTiles( tilesToWrite, tilesToRemove, tiles, data, pyramid );
+		removeDataCertificateFromTiles( tilesToWrite, tilesToRemove, tiles, data, state._pyramid );
 		// write modified tiles
-		writeTilesToIO( layer, tilesToWrite );		
+		writeTilesToIO( state, tilesToWrite );		
 		// remove empty tiles and data
-		removeTilesFromIO( layer, tilesToRemove );
+		removeTilesFromIO( state, tilesToRemove );
 	}
 
 
-	protected void writeTilesToIO( String layer, List< AnnotationTile > tiles ) {
+	/*
+	 * Load the given range index shard, if it isn't loaded already.
+	 */
+	private void loadRangeIndex( LayerState state, TileIndex shard ) {
+
+		if ( state._rangeIndex.isLoaded( shard ) ) {
+			return;
+		}
+
+		state._writeLock.lock();
+		try {
+			if ( !state._rangeIndex.isLoaded( shard ) ) {
+				List<TileIndex> indices = new ArrayList<>();
+				indices.add( shard );
+				List<Pair<String, Long>> certificates = new ArrayList<>();
+				for ( AnnotationTile tile : readTilesFromIO( state, state._rangeDataId, indices ) ) {
+					certificates.addAll( tile.getAllCertificates() );
+				}
+				state._rangeIndex.load( shard, readDataFromIO( state, certificates ) );
+			}
+		} finally {
+			state._writeLock.unlock();
+		}
+	}
+
+
+	private void addDataToRangeIndices( LayerState state, AnnotationData<?> data, TileUpdate update ) {
+
+		// one index tile per intersected shard of each level
+		List< TileIndex > shards = getRangeIndexShards( state, data );
+		List< TileAndBinIndices > indices = new ArrayList<>();
+		for ( TileIndex shard : shards ) {
+			indices.add( new TileAndBinIndices( shard, AnnotationIndexer.RANGE_BIN ) );
+		}
+		// mark all affected shards as being updated
+		update.beginRangeIndices( shards );
+		// get all affected index tiles, and add the data certificate to them
+		List< AnnotationTile > tiles = readTilesFromIO( state, state._rangeDataId, shards );
+		addDataCertificateToTiles( tiles, indices, data );
+		// write index tiles and data to io
+		writeTilesToIO( state, state._rangeDataId, tiles );
+		writeDataToIO( state, data );
+		// and update the in-memory index to match
+		state._rangeIndex.add( data );
+	}
+
+
+	/*
+	 * Remove a range annotation from the index tiles of every shard it intersects.
+	 *
+	 * @return False if no index tile held it - that is, if it was stored by an earlier version
+	 */
+	private boolean removeDataFromRangeIndices( LayerState state, AnnotationData<?> data, TileUpdate update ) {
+
+		List< TileIndex > shards = getRangeIndexShards( state, data );
+		List< AnnotationTile > tiles = new LinkedList<>();
+		for ( AnnotationTile tile : readTilesFromIO( state, state._rangeDataId, shards ) ) {
+			if ( containsCertificate( tile, data.getCertificate() ) ) {
+				tiles.add( tile );
+			}
+		}
+		if ( tiles.isEmpty() ) {
+			return false;
+		}
+		// mark all affected shards as being updated
+		update.beginRangeIndices( shards );
+		// remove the data certificate from each index tile
+		List< AnnotationTile > tilesToWrite = new LinkedList<>();
+		List< TileIndex > tilesToRemove = new LinkedList<>();
+		for ( AnnotationTile tile : tiles ) {
+			tile.removeDataFromBin( AnnotationIndexer.RANGE_BIN, data );
+			if ( tile.isEmpty() ) {
+				tilesToRemove.add( tile.getDefinition() );
+			} else {
+				tilesToWrite.add( tile );
+			}
+		}
+		writeTilesToIO( state, state._rangeDataId, tilesToWrite );
+		removeTilesFromIO( state, state._rangeDataId, tilesToRemove );
+		// and update the in-memory index to match
+		state._rangeIndex.remove( data );
+		return true;
+	}
+
+
+	private static boolean containsCertificate( AnnotationTile tile, Pair<String, Long> certificate ) {
+		for ( Pair<String, Long> stored : tile.getAllCertificates() ) {
+			if ( stored.getFirst().equals( certificate.getFirst() ) ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	protected void writeTilesToIO( LayerState state, List< AnnotationTile > tiles ) {
+		writeTilesToIO( state, state._dataId, tiles );
+	}
+
+
+	private void writeTilesToIO( LayerState state, String id, List< AnnotationTile > tiles ) {
 		
 		if ( tiles.size() == 0 ) return;
 		
 		try {
-			LayerConfiguration config = getLayerConfiguration( layer, null );
-			PyramidIO io = config.produce(PyramidIO.class);	
-
-			TileSerializer<Map<String, List<Pair<String, Long>>>> serializer =
-				SerializationTypeChecker.checkBinClass(config.produce(TileSerializer.class),
-				                                       getRuntimeBinClass(),
-				                                       getRuntimeTypeDescriptor());
-
-			String dataId = config.getPropertyValue(LayerConfiguration.DATA_ID);
-			io.writeTiles( dataId, serializer, AnnotationTile.convertToRaw( tiles ) );
+			state._pyramidIO.writeTiles( id, state._tileSerializer, AnnotationTile.convertToRaw( tiles ) );
 					
 		} catch ( Exception e ) {
 			throw new IllegalArgumentException( e.getMessage() );
@@ -501,16 +839,13 @@ public class AnnotationServiceImpl implements AnnotationService {
 	}
 	
 	
-	protected void writeDataToIO( String layer, AnnotationData<?> data ) {
+	protected void writeDataToIO( LayerState state, AnnotationData<?> data ) {
 		
 		List<AnnotationData<?>> dataList = new LinkedList<>();
 		dataList.add( data );
 
 		try {
-			LayerConfiguration config = getLayerConfiguration( layer, null );
-			AnnotationIO io = config.produce( AnnotationIO.class );
-            String dataId = config.getPropertyValue(LayerConfiguration.DATA_ID);
-			io.writeData( dataId, _dataSerializer, dataList );
+			state._annotationIO.writeData( state._dataId, _dataSerializer, dataList );
 
 		} catch ( Exception e ) {
 			throw new IllegalArgumentException( e.getMessage() );
@@ -518,18 +853,19 @@ public class AnnotationServiceImpl implements AnnotationService {
 	}
 	
 
-	protected void removeTilesFromIO( String layer, List<TileIndex> tiles ) {
+	protected void removeTilesFromIO( LayerState state, List<TileIndex> tiles ) {
+		removeTilesFromIO( state, state._dataId, tiles );
+	}
+
+
+	private void removeTilesFromIO( LayerState state, String id, List<TileIndex> tiles ) {
 
 		if ( tiles.size() == 0 ) {
 			return;
 		}
 		
 		try {
-
-			LayerConfiguration config = getLayerConfiguration( layer, null );
-			PyramidIO io = config.produce( PyramidIO.class );
-            String dataId = config.getPropertyValue(LayerConfiguration.DATA_ID);
-			io.removeTiles( dataId, tiles );
+			state._pyramidIO.removeTiles( id, tiles );
 			
 		} catch ( Exception e ) {
 			throw new IllegalArgumentException( e.getMessage() );
@@ -538,17 +874,13 @@ public class AnnotationServiceImpl implements AnnotationService {
 	}
 	
 	
-	protected void removeDataFromIO( String layer, Pair<String, Long> data ) {
+	protected void removeDataFromIO( LayerState state, Pair<String, Long> data ) {
 		
 		List<Pair<String, Long>> dataList = new LinkedList<>();
 		dataList.add( data );
 
 		try {
-
-			LayerConfiguration config = getLayerConfiguration( layer, null );
-			AnnotationIO io = config.produce( AnnotationIO.class );
-            String dataId = config.getPropertyValue(LayerConfiguration.DATA_ID);
-			io.removeData( dataId, dataList );
+			state._annotationIO.removeData( state._dataId, dataList );
 			
 		} catch ( Exception e ) {
 			throw new IllegalArgumentException( e.getMessage() );
@@ -557,7 +889,12 @@ public class AnnotationServiceImpl implements AnnotationService {
 	}
 	
 	
-	protected List< AnnotationTile > readTilesFromIO( String layer, List<TileIndex> indices ) {
+	protected List< AnnotationTile > readTilesFromIO( LayerState state, List<TileIndex> indices ) {
+		return readTilesFromIO( state, state._dataId, indices );
+	}
+
+
+	private List< AnnotationTile > readTilesFromIO( LayerState state, String id, List<TileIndex> indices ) {
 
         List< AnnotationTile > tiles = new LinkedList<>();
         Set<TileIndex> readTiles = new HashSet<>();
@@ -567,16 +904,7 @@ public class AnnotationServiceImpl implements AnnotationService {
 		}
 		
 		try {
-			LayerConfiguration config = getLayerConfiguration( layer, null );
-			PyramidIO io = config.produce( PyramidIO.class );
-			TileSerializer<Map<String, List<Pair<String, Long>>>> serializer =
-				SerializationTypeChecker.checkBinClass(config.produce(TileSerializer.class),
-				                                       getRuntimeBinClass(),
-				                                       getRuntimeTypeDescriptor());
-
-            String dataId = config.getPropertyValue(LayerConfiguration.DATA_ID);
-
-			for ( AnnotationTile tile : AnnotationTile.convertFromRaw( io.readTiles(dataId, serializer, indices) ) ) {
+			for ( AnnotationTile tile : AnnotationTile.convertFromRaw( state._pyramidIO.readTiles( id, state._tileSerializer, indices ) ) ) {
 				if (!readTiles.contains(tile.getDefinition())) {
 					readTiles.add(tile.getDefinition());
 					tiles.add(tile);
@@ -589,7 +917,7 @@ public class AnnotationServiceImpl implements AnnotationService {
 		return tiles;		
 	}
 	
-	protected List<AnnotationData<?>> readDataFromIO( String layer, List<Pair<String,Long>> certificates ) {
+	protected List<AnnotationData<?>> readDataFromIO( LayerState state, List<Pair<String,Long>> certificates ) {
 		
 		List<AnnotationData<?>> data = new LinkedList<>();
 		
@@ -598,11 +926,7 @@ public class AnnotationServiceImpl implements AnnotationService {
 		}
 		
 		try {
-
-			LayerConfiguration config = getLayerConfiguration( layer, null );
-            String dataId = config.getPropertyValue(LayerConfiguration.DATA_ID);
-			AnnotationIO io = config.produce( AnnotationIO.class );
-			data = io.readData( dataId, _dataSerializer, certificates );
+			data = state._annotationIO.readData( state._dataId, _dataSerializer, certificates );
 			
 		} catch ( Exception e ) {
 			throw new IllegalArgumentException( e.getMessage() );
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.annotation.filter.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.oculusinfo.annotation.AnnotationData;
+import com.oculusinfo.annotation.impl.JSONAnnotation;
+import com.oculusinfo.annotation.util.AnnotationGenerator;
+
+public class ScriptableFilterTest {
+
+    private static double [] BOUNDS = { 180, 85.05, -180, -85.05};
+    private static String [] GROUPS = {"Urgent", "High", "Medium", "Low"};
+    static final int NUM_ENTRIES = 200;
+
+    private List<AnnotationData<?>> _annotations;
+
+    @Before
+    public void setup () throws Exception {
+        AnnotationGenerator generator = new AnnotationGenerator( BOUNDS, GROUPS );
+        Random random = new Random( 17 );
+        _annotations = new ArrayList<>();
+        for ( AnnotationData<?> annotation : generator.generateJSONAnnotations( NUM_ENTRIES ) ) {
+            JSONObject json = annotation.toJSON();
+            // give about half the annotations a numeric priority, and a few a string one
+            int kind = random.nextInt( 10 );
+            if ( kind < 5 ) {
+                json.getJSONObject( "data" ).put( "priority", random.nextInt( 6 ) );
+            } else if ( kind < 7 ) {
+                json.getJSONObject( "data" ).put( "priority", "3" );
+            }
+            _annotations.add( JSONAnnotation.fromJSON( json ) );
+        }
+    }
+
+    private List<AnnotationData<?>> filter( AnnotationPredicate predicate ) {
+        List<AnnotationData<?>> accepted = new ArrayList<>();
+        for ( AnnotationData<?> annotation : _annotations ) {
+            if ( predicate.accept( annotation ) ) {
+                accepted.add( annotation );
+            }
+        }
+        return accepted;
+    }
+
+    private List<Integer> acceptedIndices( AnnotationPredicate predicate ) {
+        List<Integer> accepted = new ArrayList<>();
+        for ( int i=0; i<_annotations.size(); i++ ) {
+            if ( predicate.accept( _annotations.get(i) ) ) {
+                accepted.add( i );
+            }
+        }
+        return accepted;
+    }
+
+    @Test
+    public void testComparisonsMatchScript () throws Exception {
+        String [] scripts = {
+            "annotation.group === 'Urgent'",
+            "annotation.group != \"Low\"",
+            "annotation.level < 4",
+            "annotation.level >= 2",
+            "annotation.range.max > 3",
+            "annotation.x <= 0",
+            "annotation.y > 10.5",
+            "annotation.data.priority >= 3",
+            "annotation.data.priority == 3",
+            "annotation.data.priority !== 3",
+            "(annotation.data.missing < 1)",
+            "annotation.data == 3"
+        };
+        for ( String script : scripts ) {
+            ComparisonPredicate comparison = ComparisonPredicate.parse( script );
+            Assert.assertNotNull( script, comparison );
+            CompiledScriptPredicate compiled = new CompiledScriptPredicate( script );
+            Assert.assertEquals( script, acceptedIndices( compiled ), acceptedIndices( comparison ) );
+        }
+    }
+
+    @Test
+    public void testComplexScriptsAreCompiled () {
+        Assert.assertNull( ComparisonPredicate.parse( "annotation.level < 4 && annotation.group == 'High'" ) );
+        Assert.assertNull( ComparisonPredicate.parse( "annotation.data.comment.indexOf('a') >= 0" ) );
+
+        AnnotationPredicate predicate = ScriptableFilter.getPredicate( "test-layer", "annotation.level < 4 && annotation.group == 'High'" );
+        Assert.assertTrue( predicate instanceof CompiledScriptPredicate );
+        Assert.assertSame( predicate, ScriptableFilter.getPredicate( "test-layer", "annotation.level < 4 && annotation.group == 'High'" ) );
+
+        for ( AnnotationData<?> annotation : filter( predicate ) ) {
+            Assert.assertTrue( annotation.getLevel() < 4 );
+            Assert.assertEquals( "High", annotation.getGroup() );
+        }
+    }
+
+    @Test
+    public void testFilterAnnotations () {
+        ScriptableFilter filter = new ScriptableFilter( "test-layer", "annotation.group == 'Medium'" );
+        List<AnnotationData<?>> filtered = filter.filterAnnotations( _annotations, null );
+        Assert.assertFalse( filtered.isEmpty() );
+        for ( AnnotationData<?> annotation : filtered ) {
+            Assert.assertEquals( "Medium", annotation.getGroup() );
+        }
+
+        // no script means no filtering; a broken script filters everything out
+        Assert.assertSame( _annotations, new ScriptableFilter( "test-layer", null ).filterAnnotations( _annotations, null ) );
+        Assert.assertTrue( new ScriptableFilter( "test-layer", "annotation.level <" ).filterAnnotations( _annotations, null ).isEmpty() );
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.annotation.rest;
+
+import com.oculusinfo.annotation.AnnotationData;
+import com.oculusinfo.annotation.AnnotationTile;
+import com.oculusinfo.annotation.filter.AnnotationFilter;
+import com.oculusinfo.annotation.index.AnnotationIndexer;
+import com.oculusinfo.annotation.index.impl.AnnotationIndexerImpl;
+import com.oculusinfo.annotation.init.DefaultAnnotationFilterFactoryProvider;
+import com.oculusinfo.annotation.init.DefaultAnnotationIOFactoryProvider;
+import com.oculusinfo.annotation.init.providers.StandardAnnotationFilterFactoryProvider;
+import com.oculusinfo.annotation.init.providers.StandardAnnotationIOFactoryProvider;
+import com.oculusinfo.annotation.io.AnnotationIO;
+import com.oculusinfo.annotation.io.serialization.JSONAnnotationDataSerializer;
+import com.oculusinfo.annotation.util.AnnotationGenerator;
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.io.DefaultPyramidIOFactoryProvider;
+import com.oculusinfo.binning.io.PyramidIO;
+import com.oculusinfo.binning.io.serialization.DefaultTileSerializerFactoryProvider;
+import com.oculusinfo.binning.io.serialization.TileSerializer;
+import com.oculusinfo.factory.providers.FactoryProvider;
+import com.oculusinfo.tile.init.providers.StandardImageRendererFactoryProvider;
+import com.oculusinfo.tile.init.providers.StandardLayerConfigurationProvider;
+import com.oculusinfo.tile.init.providers.StandardPyramidIOFactoryProvider;
+import com.oculusinfo.tile.init.providers.StandardTilePyramidFactoryProvider;
+import com.oculusinfo.tile.init.providers.StandardTileSerializerFactoryProvider;
+import com.oculusinfo.tile.init.providers.StandardTileTransformerFactoryProvider;
+import com.oculusinfo.tile.rendering.LayerConfiguration;
+import com.oculusinfo.tile.rest.config.ConfigService;
+import com.oculusinfo.tile.rest.layer.LayerService;
+import com.oculusinfo.tile.rest.layer.LayerServiceImpl;
+import org.json.JSONArray;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks that reads of annotation layers don't wait on writes to other layers, and stay
+ * consistent while their own layer is being written.
+ */
+public class AnnotationServiceStressTests {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( AnnotationServiceStressTests.class );
+	private static final String UNIT_TEST_CONFIG_JSON = "unit-test-config.json";
+	private static final double [] BOUNDS = { 180, 85.05, -180, -85.05 };
+	private static final String [] LAYERS = { "test-layer0", "test-layer1", "test-layer2", "test-layer3" };
+	private static final int INITIAL_ANNOTATIONS = 20;
+	private static final int MAX_WRITES = 150;
+	private static final int WRITERS = 2;
+	// How long to wait for something that should happen at once, before deciding it is blocked
+	private static final long TIMEOUT_SECONDS = 30;
+
+	private LayerService _layerService;
+	private AnnotationService _service;
+	private String[] _groups;
+	private List<String> _dataIds = new ArrayList<>();
+	// If set, tile writes stop inside writeTilesToIO, with their layer locked, until released
+	private volatile WriteGate _gate;
+
+	private static class WriteGate {
+		final CountDownLatch _entered = new CountDownLatch( 1 );
+		final CountDownLatch _released = new CountDownLatch( 1 );
+
+		void pass () {
+			_entered.countDown();
+			try {
+				_released.await( TIMEOUT_SECONDS, TimeUnit.SECONDS );
+			} catch ( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@Before
+	public void setup () throws Exception {
+		Set<FactoryProvider<PyramidIO>> tileIoSet = new HashSet<>();
+		tileIoSet.addAll( Arrays.asList( DefaultPyramidIOFactoryProvider.values() ) );
+		Set<FactoryProvider<AnnotationIO>> annotationIoSet = new HashSet<>();
+		annotationIoSet.addAll( Arrays.asList( DefaultAnnotationIOFactoryProvider.values() ) );
+		Set<FactoryProvider<TileSerializer<?>>> serializerSet = new HashSet<>();
+		serializerSet.addAll( Arrays.asList( DefaultTileSerializerFactoryProvider.values() ) );
+		Set<FactoryProvider<AnnotationFilter>> filterIoSet = new HashSet<>();
+		filterIoSet.addAll( Arrays.asList( DefaultAnnotationFilterFactoryProvider.values() ) );
+
+		FactoryProvider<LayerConfiguration> layerConfigurationProvider = new StandardLayerConfigurationProvider(
+			new StandardPyramidIOFactoryProvider( tileIoSet ),
+			new StandardTilePyramidFactoryProvider(),
+			new StandardTileSerializerFactoryProvider( serializerSet ),
+			new StandardImageRendererFactoryProvider(),
+			new StandardTileTransformerFactoryProvider()
+		);
+
+		File configFile = new File( this.getClass().getClassLoader().getResource( UNIT_TEST_CONFIG_JSON ).toURI() );
+		String configFileContent = new String( Files.readAllBytes( Paths.get( configFile.getPath() ) ), StandardCharsets.UTF_8 );
+		ConfigService configService = mock( ConfigService.class );
+		when( configService.replaceProperties( any( File.class ) ) ).thenReturn( configFileContent );
+
+		_layerService = new LayerServiceImpl( "res:///" + UNIT_TEST_CONFIG_JSON, layerConfigurationProvider, configService );
+		for ( String layer : LAYERS ) {
+			_dataIds.add( _layerService.getLayerConfiguration( layer, null ).<String>getPropertyValue( LayerConfiguration.DATA_ID ) );
+		}
+		JSONArray groupsJson = _layerService.getLayerConfiguration( LAYERS[0], null ).getPropertyValue( AnnotationServiceImpl.GROUPS );
+		_groups = new String[groupsJson.length()];
+		for ( int i = 0; i < groupsJson.length(); i++ ) {
+			_groups[i] = groupsJson.getString( i );
+		}
+
+		_service = new AnnotationServiceImpl( _layerService,
+		                                      new JSONAnnotationDataSerializer(),
+		                                      new AnnotationIndexerImpl(),
+		                                      new StandardAnnotationIOFactoryProvider( annotationIoSet ),
+		                                      new StandardAnnotationFilterFactoryProvider( filterIoSet ) ) {
+			@Override
+			protected void writeTilesToIO( LayerState state, List<AnnotationTile> tiles ) {
+				WriteGate gate = _gate;
+				if ( null != gate ) {
+					gate.pass();
+				}
+				super.writeTilesToIO( state, tiles );
+			}
+		};
+	}
+
+	@After
+	public void teardown () {
+		_service = null;
+		for ( String dataId : _dataIds ) {
+			delete( new File( dataId ) );
+		}
+	}
+
+	private static void delete( File file ) {
+		File[] children = file.listFiles();
+		if ( null != children ) {
+			for ( File child : children ) {
+				delete( child );
+			}
+		}
+		file.delete();
+	}
+
+	private List<AnnotationData<?>> readTile( String layer, TileIndex tile ) {
+		List<AnnotationData<?>> annotations = new ArrayList<>();
+		List<List<AnnotationData<?>>> data = _service.read( layer, tile, null );
+		if ( null != data ) {
+			for ( List<AnnotationData<?>> bin : data ) {
+				annotations.addAll( bin );
+			}
+		}
+		return annotations;
+	}
+
+	private Set<String> readUUIDs( String layer ) {
+		Set<String> uuids = new HashSet<>();
+		for ( AnnotationData<?> annotation : readTile( layer, new TileIndex( 0, 0, 0 ) ) ) {
+			Assert.assertTrue( "Duplicate annotation read", uuids.add( annotation.getUUID().toString() ) );
+		}
+		return uuids;
+	}
+
+	private void writeInitialAnnotations () {
+		AnnotationGenerator generator = new AnnotationGenerator( BOUNDS, _groups );
+		for ( String layer : LAYERS ) {
+			for ( int i = 0; i < INITIAL_ANNOTATIONS; i++ ) {
+				_service.write( layer, generator.generateJSONAnnotation() );
+			}
+		}
+	}
+
+	@Test
+	public void testReadsDontWaitOnWritesToOtherLayers () throws Exception {
+		writeInitialAnnotations();
+
+		final String writtenLayer = LAYERS[0];
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final AtomicInteger written = new AtomicInteger( 0 );
+		final WriteGate gate = new WriteGate();
+		_gate = gate;
+		Thread writer = new Thread( new Runnable() {
+			public void run() {
+				AnnotationGenerator writeGenerator = new AnnotationGenerator( BOUNDS, _groups );
+				try {
+					// Range annotations are written without passing through writeTilesToIO, so
+					// keep writing until one stops there
+					while ( gate._entered.getCount() > 0 ) {
+						_service.write( writtenLayer, writeGenerator.generateJSONAnnotation() );
+						written.incrementAndGet();
+					}
+				} catch ( Throwable t ) {
+					failure.compareAndSet( null, t );
+				}
+			}
+		} );
+		writer.start();
+
+		ExecutorService readers = Executors.newFixedThreadPool( LAYERS.length - 1 );
+		try {
+			Assert.assertTrue( "Write never reached the pyramid IO",
+			                   gate._entered.await( TIMEOUT_SECONDS, TimeUnit.SECONDS ) );
+
+			// The writer now holds its layer mid-write; every other layer must still be readable
+			List<Future<Set<String>>> reads = new ArrayList<>();
+			for ( final String layer : Arrays.copyOfRange( LAYERS, 1, LAYERS.length ) ) {
+				reads.add( readers.submit( new Callable<Set<String>>() {
+					public Set<String> call() {
+						return readUUIDs( layer );
+					}
+				} ) );
+			}
+			for ( Future<Set<String>> read : reads ) {
+				Assert.assertEquals( INITIAL_ANNOTATIONS, read.get( TIMEOUT_SECONDS, TimeUnit.SECONDS ).size() );
+			}
+		} finally {
+			_gate = null;
+			gate._released.countDown();
+			readers.shutdownNow();
+			writer.join();
+		}
+
+		if ( null != failure.get() ) {
+			throw new AssertionError( failure.get() );
+		}
+		Assert.assertEquals( INITIAL_ANNOTATIONS + written.get(), readUUIDs( writtenLayer ).size() );
+	}
+
+	@Test
+	public void testReadsStayConsistentDuringWrites () throws Exception {
+		writeInitialAnnotations();
+
+		final String writtenLayer = LAYERS[0];
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final AtomicBoolean done = new AtomicBoolean( false );
+		final AtomicInteger writes = new AtomicInteger( 0 );
+		final AtomicInteger written = new AtomicInteger( 0 );
+		List<Thread> writers = new ArrayList<>();
+		for ( int w = 0; w < WRITERS; w++ ) {
+			writers.add( new Thread( new Runnable() {
+				public void run() {
+					AnnotationGenerator writeGenerator = new AnnotationGenerator( BOUNDS, _groups );
+					try {
+						while ( writes.incrementAndGet() <= MAX_WRITES ) {
+							_service.write( writtenLayer, writeGenerator.generateJSONAnnotation() );
+							written.incrementAndGet();
+						}
+					} catch ( Throwable t ) {
+						failure.compareAndSet( null, t );
+					}
+				}
+			} ) );
+		}
+
+		final AtomicInteger sameLayerReads = new AtomicInteger( 0 );
+		Thread sameLayerReader = new Thread( new Runnable() {
+			public void run() {
+				try {
+					// Every read must see at least the initial annotations, each exactly once
+					do {
+						Assert.assertTrue( readUUIDs( writtenLayer ).size() >= INITIAL_ANNOTATIONS );
+						sameLayerReads.incrementAndGet();
+					} while ( !done.get() );
+				} catch ( Throwable t ) {
+					failure.compareAndSet( null, t );
+				}
+			}
+		} );
+
+		sameLayerReader.start();
+		for ( Thread writer : writers ) writer.start();
+		for ( Thread writer : writers ) writer.join();
+		done.set( true );
+		sameLayerReader.join();
+
+		if ( null != failure.get() ) {
+			throw new AssertionError( failure.get() );
+		}
+
+		LOGGER.info( written.get() + " writes, during " + sameLayerReads.get() + " reads of the layer being written" );
+
+		Assert.assertEquals( MAX_WRITES, written.get() );
+		Assert.assertTrue( sameLayerReads.get() > 0 );
+
+		// Every annotation written must be readable, exactly once
+		Assert.assertEquals( INITIAL_ANNOTATIONS + written.get(), readUUIDs( writtenLayer ).size() );
+		for ( String layer : Arrays.copyOfRange( LAYERS, 1, LAYERS.length ) ) {
+			Assert.assertEquals( INITIAL_ANNOTATIONS, readUUIDs( layer ).size() );
+		}
+	}
+}
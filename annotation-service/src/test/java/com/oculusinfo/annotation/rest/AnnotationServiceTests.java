@@ -24,10 +24,12 @@
 package com.oculusinfo.annotation.rest;
 
 import com.oculusinfo.annotation.AnnotationData;
+import com.oculusinfo.annotation.AnnotationTile;
 import com.oculusinfo.annotation.filter.AnnotationFilter;
 import com.oculusinfo.annotation.impl.JSONAnnotation;
 import com.oculusinfo.annotation.index.AnnotationIndexer;
 import com.oculusinfo.annotation.index.impl.AnnotationIndexerImpl;
+import com.oculusinfo.annotation.index.impl.RangeAnnotationIndex;
 import com.oculusinfo.annotation.init.DefaultAnnotationFilterFactoryProvider;
 import com.oculusinfo.annotation.init.DefaultAnnotationIOFactoryProvider;
 import com.oculusinfo.annotation.init.providers.StandardAnnotationFilterFactoryProvider;
@@ -36,12 +38,16 @@ import com.oculusinfo.annotation.io.AnnotationIO;
 import com.oculusinfo.annotation.io.serialization.AnnotationSerializer;
 import com.oculusinfo.annotation.io.serialization.JSONAnnotationDataSerializer;
 import com.oculusinfo.annotation.util.AnnotationGenerator;
+import com.oculusinfo.binning.TileAndBinIndices;
 import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.TilePyramid;
 import com.oculusinfo.binning.io.DefaultPyramidIOFactoryProvider;
 import com.oculusinfo.binning.io.PyramidIO;
 import com.oculusinfo.binning.io.serialization.DefaultTileSerializerFactoryProvider;
+import com.oculusinfo.binning.io.serialization.SerializationTypeChecker;
 import com.oculusinfo.binning.io.serialization.TileSerializer;
 import com.oculusinfo.factory.providers.FactoryProvider;
+import com.oculusinfo.factory.util.Pair;
 import com.oculusinfo.tile.init.providers.StandardImageRendererFactoryProvider;
 import com.oculusinfo.tile.init.providers.StandardLayerConfigurationProvider;
 import com.oculusinfo.tile.init.providers.StandardPyramidIOFactoryProvider;
@@ -73,6 +79,7 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 
@@ -452,6 +459,143 @@ public class AnnotationServiceTests {
 		}
 	}
 
+    @Test
+    public void wideRangeAnnotationTest() throws Exception {
+        /*
+          A range annotation covering most of the world down to level 14 would cover hundreds of
+          millions of tiles at that level; it should instead be stored once per range index shard
+          of each level, and still be found in each tile it covers.
+        */
+        final int MAX_LEVEL = 14;
+        TilePyramid pyramid = _layerService.getLayerConfiguration( _layerId, null ).produce( TilePyramid.class );
+        TileIndex inside = pyramid.rootToTile( 10.0, 10.0, MAX_LEVEL, AnnotationIndexer.NUM_BINS, AnnotationIndexer.NUM_BINS );
+        TileIndex outside = pyramid.rootToTile( 175.0, 84.0, MAX_LEVEL, AnnotationIndexer.NUM_BINS, AnnotationIndexer.NUM_BINS );
+        File rangeDir = new File( _dataId + "-ranges" );
+
+        JSONObject data = new JSONObject();
+        data.put( "comment", "wide" );
+        AnnotationData<?> annotation = new JSONAnnotation( -170.0, 170.0, -80.0, 80.0, MAX_LEVEL,
+                                                           new Pair<>( 0, MAX_LEVEL ), _groups[0], data );
+        String uuid = annotation.getUUID().toString();
+
+        RangeAnnotationIndex rangeIndex = new RangeAnnotationIndex( pyramid );
+        int shards = 0;
+        for ( int level = 0; level <= MAX_LEVEL; ++level ) {
+            int levelShards = rangeIndex.getShards( annotation, level ).size();
+            Assert.assertTrue( levelShards <= 1 << (2 * RangeAnnotationIndex.SHARD_LEVEL) );
+            shards += levelShards;
+        }
+
+        try {
+            _service.write( _layerId, annotation );
+            Assert.assertEquals( shards, countFiles( rangeDir ) );
+
+            Assert.assertTrue( containsAnnotation( readTile( inside ), uuid ) );
+            Assert.assertTrue( containsAnnotation( readTile( new TileIndex( 0, 0, 0 ) ), uuid ) );
+            Assert.assertFalse( containsAnnotation( readTile( outside ), uuid ) );
+
+            // a fresh service must find it from what was stored
+            _service = new AnnotationServiceImpl( _layerService,
+                new JSONAnnotationDataSerializer(),
+                new AnnotationIndexerImpl(),
+                new StandardAnnotationIOFactoryProvider( new HashSet<>( Arrays.asList( DefaultAnnotationIOFactoryProvider.values() ) ) ),
+                new StandardAnnotationFilterFactoryProvider( new HashSet<>( Arrays.asList( DefaultAnnotationFilterFactoryProvider.values() ) ) ) );
+            Assert.assertTrue( containsAnnotation( readTile( inside ), uuid ) );
+
+            _service.remove( _layerId, annotation.getCertificate() );
+            Assert.assertFalse( containsAnnotation( readTile( inside ), uuid ) );
+            Assert.assertEquals( 0, countFiles( rangeDir ) );
+
+        } finally {
+            deleteRecursively( rangeDir );
+        }
+    }
+
+    @Test
+    public void legacyRangeAnnotationTest() throws Exception {
+        /*
+          Earlier versions stored range annotations in every tile they covered, and had no range
+          indices at all; such annotations must still be read, and must be removed from those tiles.
+        */
+        final int MAX_LEVEL = 3;
+        LayerConfiguration config = ((AnnotationServiceImpl) _service).getLayerConfiguration( _layerId, null );
+        TilePyramid pyramid = config.produce( TilePyramid.class );
+        PyramidIO pyramidIO = config.produce( PyramidIO.class );
+        TileSerializer<Map<String, List<Pair<String, Long>>>> serializer =
+            SerializationTypeChecker.checkBinClass( config.produce( TileSerializer.class ),
+                                                    AnnotationServiceImpl.getRuntimeBinClass(),
+                                                    AnnotationServiceImpl.getRuntimeTypeDescriptor() );
+        AnnotationIO annotationIO = config.produce( AnnotationIO.class );
+        File rangeDir = new File( _dataId + "-ranges" );
+        deleteRecursively( rangeDir );
+
+        JSONObject data = new JSONObject();
+        data.put( "comment", "legacy" );
+        AnnotationData<?> annotation = new JSONAnnotation( 10.0, 30.0, 10.0, 30.0, MAX_LEVEL,
+                                                           new Pair<>( 0, MAX_LEVEL ), _groups[0], data );
+        String uuid = annotation.getUUID().toString();
+
+        // store it the way earlier versions did
+        List<TileAndBinIndices> indices = new AnnotationIndexerImpl().getIndices( annotation, pyramid );
+        List<AnnotationTile> tiles = new ArrayList<>();
+        List<TileIndex> tileIndices = new ArrayList<>();
+        for ( TileAndBinIndices index : indices ) {
+            AnnotationTile tile = new AnnotationTile( index.getTile() );
+            tile.addDataToBin( index.getBin(), annotation );
+            tiles.add( tile );
+            tileIndices.add( index.getTile() );
+        }
+        pyramidIO.writeTiles( _dataId, serializer, AnnotationTile.convertToRaw( tiles ) );
+        List<AnnotationData<?>> dataList = new ArrayList<>();
+        dataList.add( annotation );
+        annotationIO.writeData( _dataId, new JSONAnnotationDataSerializer(), dataList );
+
+        try {
+            TileIndex inside = indices.get( indices.size() - 1 ).getTile();
+            Assert.assertTrue( containsAnnotation( readTile( inside ), uuid ) );
+
+            _service.remove( _layerId, annotation.getCertificate() );
+            Assert.assertFalse( containsAnnotation( readTile( inside ), uuid ) );
+            Assert.assertTrue( pyramidIO.readTiles( _dataId, serializer, tileIndices ).isEmpty() );
+        } finally {
+            pyramidIO.removeTiles( _dataId, tileIndices );
+            deleteRecursively( rangeDir );
+        }
+    }
+
+    private boolean containsAnnotation( List<AnnotationData<?>> annotations, String uuid ) {
+        for ( AnnotationData<?> annotation : annotations ) {
+            if ( annotation.getUUID().toString().equals( uuid ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int countFiles( File file ) {
+        if ( file.isFile() ) {
+            return 1;
+        }
+        int count = 0;
+        File[] children = file.listFiles();
+        if ( null != children ) {
+            for ( File child : children ) {
+                count += countFiles( child );
+            }
+        }
+        return count;
+    }
+
+    private void deleteRecursively( File file ) {
+        File[] children = file.listFiles();
+        if ( null != children ) {
+            for ( File child : children ) {
+                deleteRecursively( child );
+            }
+        }
+        file.delete();
+    }
+
     private List<AnnotationData<?>> readTile( TileIndex tile ) {
         List<AnnotationData<?>> annotations = new ArrayList<>();
         List<List<AnnotationData<?>>> data = _service.read( _layerId, tile, null );
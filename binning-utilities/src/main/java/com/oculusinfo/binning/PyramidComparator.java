@@ -157,8 +157,26 @@ public class PyramidComparator implements Serializable {
 	 */
 	public long getComparisonKey (double rawX, double rawY) {
 		TileIndex index = _pyramid.rootToTile(rawX, rawY, _comparisonLevel);
-		long x = index.getX();
-		long y = index.getY();
+		long z = getMortonCode(index.getX(), index.getY());
+
+		// Apply fence bit
+		return (0x01L << (2 * (_comparisonLevel + 1))) | z;
+	}
+
+	/**
+	 * Interleave the bits of the given x and y tile coordinates into a Morton
+	 * code. Within a single level, ordering tiles by this code groups
+	 * together tiles that are spatially close, at every coarser level.
+	 * 
+	 * @param tileX The x coordinate of a tile; only the lower 32 bits are used
+	 * 
+	 * @param tileY The y coordinate of a tile; only the lower 32 bits are used
+	 * 
+	 * @return The Morton (Z-order) code of the given tile coordinates
+	 */
+	public static long getMortonCode (long tileX, long tileY) {
+		long x = tileX & BITS[5];
+		long y = tileY & BITS[5];
 
 		x = (x | (x << SHIFTS[4])) & BITS[4];
 		x = (x | (x << SHIFTS[3])) & BITS[3];
@@ -172,10 +190,7 @@ public class PyramidComparator implements Serializable {
 		y = (y | (y << SHIFTS[1])) & BITS[1];
 		y = (y | (y << SHIFTS[0])) & BITS[0];
 
-		long z = x | (y << 1);
-
-		// Apply fence bit
-		return (0x01L << (2 * (_comparisonLevel + 1))) | z;
+		return x | (y << 1);
 	}
 
 
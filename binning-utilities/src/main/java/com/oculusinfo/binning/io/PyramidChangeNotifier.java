@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.io;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Lets anything holding derived copies of pyramid data - parsed metadata, for instance - know
+ * when a pyramid IO in this process rewrites that data, so it can drop its copies.  Pyramid IO
+ * implementations call {@link #pyramidChanged(String)} after writing tiles or metadata.
+ */
+public final class PyramidChangeNotifier {
+	private static final List<PyramidChangeListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+	private PyramidChangeNotifier () {
+	}
+
+	public static void addListener (PyramidChangeListener listener) {
+		LISTENERS.add(listener);
+	}
+
+	public static void removeListener (PyramidChangeListener listener) {
+		LISTENERS.remove(listener);
+	}
+
+	/**
+	 * Tell all listeners that the tiles or metadata of a pyramid have been written
+	 *
+	 * @param pyramidId The id of the pyramid, as passed to the writing pyramid IO
+	 */
+	public static void pyramidChanged (String pyramidId) {
+		for (PyramidChangeListener listener: LISTENERS) {
+			listener.onPyramidChanged(pyramidId);
+		}
+	}
+
+	public interface PyramidChangeListener {
+		public void onPyramidChanged (String pyramidId);
+	}
+}
@@ -4,11 +4,14 @@ import com.oculusinfo.binning.BinIndex;
 import com.oculusinfo.binning.TileData;
 import com.oculusinfo.binning.TileIndex;
 import com.oculusinfo.binning.TilePyramid;
+import com.oculusinfo.binning.impl.DenseTileData;
 import com.oculusinfo.binning.impl.SparseTileData;
 import com.oculusinfo.binning.io.PyramidIO;
 import com.oculusinfo.binning.io.serialization.TileSerializer;
 import com.oculusinfo.binning.util.JsonUtilities;
 import org.apache.commons.lang.StringEscapeUtils;
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
@@ -39,8 +42,9 @@ import java.awt.geom.Rectangle2D;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -48,11 +52,18 @@ import java.util.Set;
 
 /**
  * Created by cmenezes on 2015-06-04.
+ *
+ * Reads count tiles from an Elasticsearch index by running a two-level histogram aggregation over
+ * each tile's bounds.  All the tiles of a single request are fetched in one multi-search
+ * round-trip, and the resulting tiles are kept for a short time, per filter, so that
+ * overlapping requests don't go back to the cluster.
  */
 public class ElasticsearchPyramidIO implements PyramidIO {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(ElasticsearchPyramidIO.class);
 	public static final int BINS = 256;
+	public static final long DEFAULT_CACHE_TTL_MILLIS = 60000L;
+	public static final int DEFAULT_CACHE_SIZE = 256;
 
 	private Client client;
 
@@ -64,6 +75,10 @@ public class ElasticsearchPyramidIO implements PyramidIO {
 	private final int numZoomlevels;
 	private List<Double> maxValues;
 
+	// Recently read tiles, keyed by filter and tile index; null tiles record tiles with no data
+	private final long cacheTTL;
+	private final Map<String, CachedTile> tileCache;
+
 	public ElasticsearchPyramidIO(
 		String esClusterName,
 		String esIndex,
@@ -73,29 +88,81 @@ public class ElasticsearchPyramidIO implements PyramidIO {
 		int esTransportPort,
 		TilePyramid tilePyramid,
 		int zoomLevelPrecompute) {
+		this(esClusterName, esIndex, xField, yField, esTransportAddress, esTransportPort, tilePyramid, zoomLevelPrecompute,
+		     DEFAULT_CACHE_TTL_MILLIS, DEFAULT_CACHE_SIZE);
+	}
 
+	/**
+	 * @param cacheTTL How long, in milliseconds, read tiles are kept for reuse; 0 to disable caching
+	 * @param cacheSize The maximum number of tiles kept for reuse
+	 */
+	public ElasticsearchPyramidIO(
+		String esClusterName,
+		String esIndex,
+		String xField,
+		String yField,
+		String esTransportAddress,
+		int esTransportPort,
+		TilePyramid tilePyramid,
+		int zoomLevelPrecompute,
+		long cacheTTL,
+		int cacheSize) {
+		this(createClient(esClusterName, esTransportAddress, esTransportPort), esIndex, xField, yField, tilePyramid,
+		     zoomLevelPrecompute, cacheTTL, cacheSize);
+	}
+
+	/**
+	 * Create a pyramid IO that reads through an existing client
+	 */
+	ElasticsearchPyramidIO(
+		Client client,
+		String esIndex,
+		String xField,
+		String yField,
+		TilePyramid tilePyramid,
+		int zoomLevelPrecompute,
+		long cacheTTL,
+		final int cacheSize) {
+
+		this.client = client;
 		this.index = esIndex;
 		this.xField = xField;
 		this.yField = yField;
 		this.tilePyramid = tilePyramid;
 		this.numZoomlevels = zoomLevelPrecompute;
+		this.cacheTTL = cacheTTL;
+		this.tileCache = Collections.synchronizedMap(new LinkedHashMap<String, CachedTile>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
 
-		if ( this.client == null ) {
-			LOGGER.debug("Existing node not found.");
-			try{
-				Settings settings = ImmutableSettings.settingsBuilder()
-					.put("cluster.name", esClusterName)
-					.put("client.transport.sniff", false)
-					.put("sniffOnConnection", true).build();
-				this.client = new TransportClient(settings)
-					.addTransportAddress(new InetSocketTransportAddress(esTransportAddress, esTransportPort));
-
-			}catch (IllegalArgumentException e){
-				LOGGER.debug("Illegal arguments to Elasticsearch node builder.");
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedTile> eldest) {
+				return size() > cacheSize;
 			}
+		});
+	}
+
+	private static Client createClient(String esClusterName, String esTransportAddress, int esTransportPort) {
+		try{
+			Settings settings = ImmutableSettings.settingsBuilder()
+				.put("cluster.name", esClusterName)
+				.put("client.transport.sniff", false)
+				.put("sniffOnConnection", true).build();
+			return new TransportClient(settings)
+				.addTransportAddress(new InetSocketTransportAddress(esTransportAddress, esTransportPort));
+
+		}catch (IllegalArgumentException e){
+			LOGGER.debug("Illegal arguments to Elasticsearch node builder.");
+			return null;
 		}
-		else {
-			LOGGER.debug("An Elasticsearch client already exists.");
+	}
+
+	private static class CachedTile {
+		final TileData<?> tile;
+		final long expiry;
+
+		CachedTile(TileData<?> tile, long expiry) {
+			this.tile = tile;
+			this.expiry = expiry;
 		}
 	}
 
@@ -110,21 +177,11 @@ public class ElasticsearchPyramidIO implements PyramidIO {
 			));
 	}
 
-	private SearchResponse timeFilteredRequest(double startX, double endX, double startY, double endY, JSONObject filterJSON){
-
-		// the first filter added excludes everything outside of the tile boundary
-		// on both the xField and the yField
-		BoolFilterBuilder boundaryFilter = FilterBuilders.boolFilter();
-
-		boundaryFilter.must(
-			FilterBuilders.rangeFilter(this.xField)
-				.gte(startX) //startx is min val
-				.lte(endX),
-			FilterBuilders.rangeFilter(this.yField)
-				.gte(endY) //endy is min val
-				.lte(startY)
-		);
+	// Translate the request's filter JSON into elasticsearch filters; these are shared by the
+	// requests for every tile.
+	private List<FilterBuilder> buildFilters(JSONObject filterJSON){
 
+		List<FilterBuilder> filters = new ArrayList<>();
 		Map<String, Object> filterMap = null;
 		// transform filter list json to a map
 		try {
@@ -151,7 +208,7 @@ public class ElasticsearchPyramidIO implements PyramidIO {
 						for (Object key : termsMap.keySet()){
 							termsList.add((String)termsMap.get(key));
 						}
-						boundaryFilter.must(FilterBuilders.termsFilter(filterPath, termsList).execution("or"));
+						filters.add(FilterBuilders.termsFilter(filterPath, termsList).execution("or"));
 						break;
 					case "range":
 						// Note range filter requires a numeric value to filter on,
@@ -165,21 +222,41 @@ public class ElasticsearchPyramidIO implements PyramidIO {
 						if (filter.containsKey("to") && filter.get("to") != null){
 							rangeFilterBuilder.to(filter.get("to"));
 						}
-						boundaryFilter.must(rangeFilterBuilder);
+						filters.add(rangeFilterBuilder);
 						break;
 					case "UDF":
 						// build a user defined facet
 						BoolQueryBuilder boolQuery = new BoolQueryBuilder();
 						boolQuery.must(QueryBuilders.queryStringQuery(StringEscapeUtils.escapeJavaScript((String) filter.get("query"))).field("body.en"));
-						boundaryFilter.must(FilterBuilders.queryFilter(boolQuery));
+						filters.add(FilterBuilders.queryFilter(boolQuery));
 						break;
 					default:
 						LOGGER.error("Unsupported filter type");
 				}
 			}
 		}
-		SearchRequestBuilder searchRequest =
-			baseQuery(boundaryFilter)
+		return filters;
+	}
+
+	private SearchRequestBuilder tileRequest(double startX, double endX, double startY, double endY, List<FilterBuilder> filters){
+
+		// the first filter added excludes everything outside of the tile boundary
+		// on both the xField and the yField
+		BoolFilterBuilder boundaryFilter = FilterBuilders.boolFilter();
+
+		boundaryFilter.must(
+			FilterBuilders.rangeFilter(this.xField)
+				.gte(startX) //startx is min val
+				.lte(endX),
+			FilterBuilders.rangeFilter(this.yField)
+				.gte(endY) //endy is min val
+				.lte(startY)
+		);
+		for (FilterBuilder filter : filters) {
+			boundaryFilter.must(filter);
+		}
+
+		return baseQuery(boundaryFilter)
 			.addAggregation(
 				AggregationBuilders.histogram("xField")
 					.field(this.xField)
@@ -192,10 +269,6 @@ public class ElasticsearchPyramidIO implements PyramidIO {
 							.minDocCount(1)
 					)
 			);
-
-		return searchRequest
-				.execute()
-				.actionGet();
 	}
 
 	private Long getHistogramIntervalFromBounds(double start, double end) {
@@ -236,49 +309,76 @@ public class ElasticsearchPyramidIO implements PyramidIO {
 
 	}
 
-	private Map<Integer, Map> parseAggregations(Histogram date_agg, TileIndex tileIndex) {
-		List<? extends Histogram.Bucket> dateBuckets = date_agg.getBuckets();
-
-		Map<Integer, Map> result = new HashMap<>();
-
-		long maxval = 0;
-
-		for (Histogram.Bucket dateBucket : dateBuckets) {
-			Histogram cluster_agg = dateBucket.getAggregations().get("yField");
-			List<? extends Histogram.Bucket> clusterBuckets = cluster_agg.getBuckets();
-
-			BinIndex xBinIndex = tilePyramid.rootToBin(dateBucket.getKeyAsNumber().doubleValue(), 0, tileIndex);
-			int xBin = xBinIndex.getX();
-			Map<Integer,Long> intermediate = new HashMap<>();
-			result.put(xBin, intermediate);
-
-			for( Histogram.Bucket clusterBucket : clusterBuckets) {
-				//given the bin coordinates, see if there's any data in those bins, add values to existing bins
-				BinIndex binIndex = tilePyramid.rootToBin(dateBucket.getKeyAsNumber().doubleValue(), clusterBucket.getKeyAsNumber().doubleValue(), tileIndex);
-				int yBin = binIndex.getY();
-
-				if (result.containsKey(xBin) && result.get(xBin).containsKey(yBin)) {
-					intermediate.put(yBin, (long) intermediate.get(yBin) + clusterBucket.getDocCount());
-				}
-				else if (result.containsKey(xBin) && !(intermediate.containsKey(yBin))) {
-					intermediate.put(yBin, clusterBucket.getDocCount());
-				}
-				if (maxval < clusterBucket.getDocCount()){
-					maxval = clusterBucket.getDocCount();
+	// Sum the bucket counts of the aggregation directly into the bins of the tile
+	private TileData<Long> parseAggregations(Histogram xAgg, TileIndex tileIndex) {
+		int xBins = tileIndex.getXBins();
+		int yBins = tileIndex.getYBins();
+		long[] counts = new long[xBins * yBins];
+		int occupied = 0;
+
+		for (Histogram.Bucket xBucket : xAgg.getBuckets()) {
+			Histogram yAgg = xBucket.getAggregations().get("yField");
+			double x = xBucket.getKeyAsNumber().doubleValue();
+
+			for (Histogram.Bucket yBucket : yAgg.getBuckets()) {
+				BinIndex binIndex = tilePyramid.rootToBin(x, yBucket.getKeyAsNumber().doubleValue(), tileIndex);
+				// Histogram keys are rounded down to the interval, so can fall just outside the tile
+				int xBin = Math.min(Math.max(binIndex.getX(), 0), xBins - 1);
+				int yBin = Math.min(Math.max(binIndex.getY(), 0), yBins - 1);
+				int bin = xBin + yBin * xBins;
+				if (0 == counts[bin]) {
+					++occupied;
 				}
+				counts[bin] += yBucket.getDocCount();
 			}
 		}
 
-		return result;
+		// Fill a dense tile if most bins have data, a sparse one otherwise
+		if (occupied > counts.length / 2) {
+			List<Long> data = new ArrayList<>(counts.length);
+			for (long count : counts) {
+				data.add(count);
+			}
+			return new DenseTileData<>(tileIndex, 0L, data);
+		} else {
+			TileData<Long> tile = new SparseTileData<>(tileIndex, 0L);
+			for (int bin = 0; bin < counts.length; ++bin) {
+				if (0 != counts[bin]) {
+					tile.setBin(bin % xBins, bin / xBins, counts[bin]);
+				}
+			}
+			return tile;
+		}
 	}
 
 	@Override
 	public <T> List<TileData<T>> readTiles(String pyramidId, TileSerializer<T> serializer, Iterable<TileIndex> tiles, JSONObject properties) throws IOException{
 
-		List<TileData<T>> results = new LinkedList<TileData<T>>();
+		// Slots for each requested tile, in request order; tiles without data stay null
+		List<TileData<T>> slots = new ArrayList<>();
+		String filterKey = (null == properties ? "" : properties.toString()) + ":";
+		long now = System.currentTimeMillis();
 
-		// iterate over the tile indices
+		// Take what we can from the cache, and gather a single multi-search for the rest
+		List<TileIndex> toRead = new ArrayList<>();
+		List<Integer> toReadSlots = new ArrayList<>();
 		for (TileIndex tileIndex: tiles) {
+			CachedTile cached = tileCache.get(filterKey + tileIndex);
+			if (null != cached && cached.expiry > now) {
+				slots.add(this.<T>asRequestedType(cached.tile));
+			} else {
+				toReadSlots.add(slots.size());
+				slots.add(null);
+				toRead.add(tileIndex);
+			}
+		}
+		if (toRead.isEmpty()) {
+			return occupiedSlots(slots);
+		}
+
+		List<FilterBuilder> filters = buildFilters(properties);
+		MultiSearchRequestBuilder multiSearch = this.client.prepareMultiSearch();
+		for (TileIndex tileIndex: toRead) {
 			Rectangle2D rect = tilePyramid.getTileBounds(tileIndex);
 
 			// get minimum/start time, max/end time
@@ -287,15 +387,54 @@ public class ElasticsearchPyramidIO implements PyramidIO {
 			double startY = rect.getMaxY();
 			double endY = rect.getY();
 
-			SearchResponse sr = timeFilteredRequest(startX, endX, startY, endY, properties);
+			multiSearch.add(tileRequest(startX, endX, startY, endY, filters));
+		}
+
+		MultiSearchResponse.Item[] responses = multiSearch.execute().actionGet().getResponses();
+		long expiry = System.currentTimeMillis() + cacheTTL;
+		List<String> failures = new ArrayList<>();
+		for (int i = 0; i < responses.length; ++i) {
+			TileIndex tileIndex = toRead.get(i);
+			if (responses[i].isFailure()) {
+				// Don't cache failed tiles, so the next request tries them again
+				failures.add(tileIndex + ": " + responses[i].getFailureMessage());
+				continue;
+			}
+
+			TileData<Long> tileData = null;
+			SearchResponse sr = responses[i].getResponse();
 			if (responseHasData(sr)) {
-				Histogram date_agg = sr.getAggregations().get("xField");
-				Map<Integer, Map> tileMap = parseAggregations(date_agg, tileIndex);
-				SparseTileData tileData = new SparseTileData(tileIndex,tileMap, 0);
-				results.add(tileData);
+				Histogram xAgg = sr.getAggregations().get("xField");
+				tileData = parseAggregations(xAgg, tileIndex);
+				slots.set(toReadSlots.get(i), this.<T>asRequestedType(tileData));
+			}
+			if (cacheTTL > 0) {
+				tileCache.put(filterKey + tileIndex, new CachedTile(tileData, expiry));
 			}
 		}
+		if (!failures.isEmpty()) {
+			throw new IOException("Error reading " + failures.size() + " of " + toRead.size()
+			                      + " tiles from elasticsearch: " + failures);
+		}
+
+		return occupiedSlots(slots);
+	}
+
+	// Tiles read by this IO are always counts, whatever serializer the caller passes in, so
+	// there is nothing to check the requested tile type against; callers are expected to ask
+	// for Long tiles, as with any other PyramidIO given a mismatched serializer.
+	@SuppressWarnings("unchecked")
+	private <T> TileData<T> asRequestedType(TileData<?> tile) {
+		return (TileData<T>) tile;
+	}
 
+	private static <T> List<TileData<T>> occupiedSlots(List<TileData<T>> slots) {
+		List<TileData<T>> results = new ArrayList<>(slots.size());
+		for (TileData<T> tile: slots) {
+			if (null != tile) {
+				results.add(tile);
+			}
+		}
 		return results;
 	}
 
@@ -307,7 +446,7 @@ public class ElasticsearchPyramidIO implements PyramidIO {
 
 	@Override
 	public <T> List<TileData<T>> readTiles(String pyramidId, TileSerializer<T> serializer, Iterable<TileIndex> tiles) throws IOException {
-		return readTiles(pyramidId,serializer,tiles);
+		return readTiles(pyramidId, serializer, tiles, null);
 	}
 
 	@Override
@@ -35,6 +35,14 @@ public class ElasticsearchPyramidIOFactory extends SharedInstanceFactory<Pyramid
 		"es.num.zoom.levels",
 		"Number of levels to precompute when configuring the layer",
 		3);
+	public static IntegerProperty ES_CACHE_TTL = new IntegerProperty(
+		"es.cache.ttl",
+		"How long, in seconds, tiles read from elasticsearch are kept for reuse by requests with the same filter; 0 to disable",
+		(int) (ElasticsearchPyramidIO.DEFAULT_CACHE_TTL_MILLIS / 1000));
+	public static IntegerProperty ES_CACHE_SIZE = new IntegerProperty(
+		"es.cache.size",
+		"The maximum number of tiles read from elasticsearch kept for reuse",
+		ElasticsearchPyramidIO.DEFAULT_CACHE_SIZE);
 
 	// data properties
 	public static StringProperty ES_INDEX = new StringProperty(
@@ -61,6 +69,8 @@ public class ElasticsearchPyramidIOFactory extends SharedInstanceFactory<Pyramid
 		addProperty(ES_FIELD_X);
 		addProperty(ES_FIELD_Y);
 		addProperty(NUM_ZOOM_LEVELS);
+		addProperty(ES_CACHE_TTL);
+		addProperty(ES_CACHE_SIZE);
 	}
 
 	@Override
@@ -73,13 +83,16 @@ public class ElasticsearchPyramidIOFactory extends SharedInstanceFactory<Pyramid
 			int transportPort = getPropertyValue(ES_TRANSPORT_PORT);
 
 			Integer numZoomLevels = getPropertyValue(NUM_ZOOM_LEVELS);
+			long cacheTTL = getPropertyValue(ES_CACHE_TTL) * 1000L;
+			int cacheSize = getPropertyValue(ES_CACHE_SIZE);
 
 			String elasticIndex = getPropertyValue(ES_INDEX);
 			String esFieldX = getPropertyValue(ES_FIELD_X);
 			String esFieldY = getPropertyValue(ES_FIELD_Y);
 			TilePyramid tilePyramid = getRoot().produce( TilePyramid.class );
 
-			return new ElasticsearchPyramidIO(clusterName, elasticIndex, esFieldX, esFieldY, transportAddress, transportPort, tilePyramid, numZoomLevels );
+			return new ElasticsearchPyramidIO(clusterName, elasticIndex, esFieldX, esFieldY, transportAddress, transportPort, tilePyramid, numZoomLevels,
+			                                  cacheTTL, cacheSize );
 
 		}catch (Exception e){
 			LOGGER.error("Error creating ES pyramidio", e);
@@ -31,6 +31,7 @@ import java.util.Properties;
 
 import com.oculusinfo.binning.TileData;
 import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.io.PyramidChangeNotifier;
 import com.oculusinfo.binning.io.PyramidIO;
 import com.oculusinfo.binning.io.serialization.TileSerializer;
 import org.json.JSONObject;
@@ -64,11 +65,13 @@ public class FileBasedPyramidIO implements PyramidIO {
 	                            Iterable<TileData<T>> data) throws IOException {
 
 		_source.writeTiles(basePath, serializer, data);
+		PyramidChangeNotifier.pyramidChanged(basePath);
 	}
 
 	@Override
 	public void writeMetaData (String basePath, String metaData) throws IOException {
 		_source.writeMetaData(basePath, metaData);
+		PyramidChangeNotifier.pyramidChanged(basePath);
 	}
 
 	@Override
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.io.impl;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Shared access to the tables of a single HBase connection, as used by the HBase pyramid and
+ * annotation IO classes.
+ *
+ * Rather than opening and closing a table around every operation, this keeps:
+ * <ul>
+ * <li>A pool of idle table handles for each table.  Table handles aren't thread-safe, so each is
+ *     used by one operation at a time, and returned to the pool afterwards.</li>
+ * <li>One buffered mutator per table, through which all writes and deletes go, flushing in
+ *     batches of the configured buffer size, and at the end of each operation.</li>
+ * <li>One region locator per table, used to split multi-gets into batches that each go to a
+ *     single region, of at most the configured batch size.</li>
+ * </ul>
+ * Scans also borrow their table handle from the pool, and close their scanner before returning.
+ */
+public class HBaseAccess implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(HBaseAccess.class);
+
+	public static final int DEFAULT_WRITE_BUFFER_SIZE = 2 * 1024 * 1024;
+	public static final int DEFAULT_READ_BATCH_SIZE   = 100;
+	// The maximum number of idle handles kept for each table
+	private static final int MAX_IDLE_TABLES = 16;
+
+
+
+	private Connection                                  _connection;
+	private long                                        _writeBufferSize;
+	private int                                         _readBatchSize;
+	private ConcurrentMap<TableName, Queue<Table>>      _idleTables;
+	private ConcurrentMap<TableName, BufferedMutator>   _mutators;
+	private ConcurrentMap<TableName, RegionLocator>     _locators;
+
+	public HBaseAccess (Connection connection) {
+		this(connection, DEFAULT_WRITE_BUFFER_SIZE, DEFAULT_READ_BATCH_SIZE);
+	}
+
+	/**
+	 * @param connection The connection through which to access HBase
+	 * @param writeBufferSize The size, in bytes, to which writes are buffered before being sent
+	 * @param readBatchSize The maximum number of rows read from a single region in one request
+	 */
+	public HBaseAccess (Connection connection, long writeBufferSize, int readBatchSize) {
+		_connection = connection;
+		_writeBufferSize = writeBufferSize;
+		_readBatchSize = Math.max(1, readBatchSize);
+		_idleTables = new ConcurrentHashMap<>();
+		_mutators = new ConcurrentHashMap<>();
+		_locators = new ConcurrentHashMap<>();
+	}
+
+	public Connection getConnection () {
+		return _connection;
+	}
+
+	/**
+	 * Get a handle to the given table, for the exclusive use of the caller until it is handed back
+	 * with {@link #releaseTable(Table)}.
+	 */
+	public Table getTable (TableName tableName) throws IOException {
+		Queue<Table> idle = _idleTables.get(tableName);
+		if (null != idle) {
+			Table table = idle.poll();
+			if (null != table) return table;
+		}
+		return _connection.getTable(tableName);
+	}
+
+	/**
+	 * Hand back a table handle obtained from {@link #getTable(TableName)}.
+	 */
+	public void releaseTable (Table table) {
+		TableName tableName = table.getName();
+		Queue<Table> idle = _idleTables.get(tableName);
+		if (null == idle) {
+			idle = new ConcurrentLinkedQueue<>();
+			Queue<Table> existing = _idleTables.putIfAbsent(tableName, idle);
+			if (null != existing) idle = existing;
+		}
+		if (idle.size() < MAX_IDLE_TABLES) {
+			idle.offer(table);
+		} else {
+			closeQuietly(table);
+		}
+	}
+
+	private BufferedMutator getMutator (TableName tableName) throws IOException {
+		BufferedMutator mutator = _mutators.get(tableName);
+		if (null == mutator) {
+			BufferedMutatorParams params = new BufferedMutatorParams(tableName).writeBufferSize(_writeBufferSize);
+			mutator = _connection.getBufferedMutator(params);
+			BufferedMutator existing = _mutators.putIfAbsent(tableName, mutator);
+			if (null != existing) {
+				closeQuietly(mutator);
+				mutator = existing;
+			}
+		}
+		return mutator;
+	}
+
+	private RegionLocator getRegionLocator (TableName tableName) throws IOException {
+		RegionLocator locator = _locators.get(tableName);
+		if (null == locator) {
+			locator = _connection.getRegionLocator(tableName);
+			RegionLocator existing = _locators.putIfAbsent(tableName, locator);
+			if (null != existing) {
+				closeQuietly(locator);
+				locator = existing;
+			}
+		}
+		return locator;
+	}
+
+	/**
+	 * Write (or delete) a set of rows, returning once they have all been sent to HBase.
+	 */
+	public void mutate (TableName tableName, List<? extends Mutation> mutations) throws IOException {
+		if (mutations.isEmpty()) return;
+
+		BufferedMutator mutator = getMutator(tableName);
+		mutator.mutate(mutations);
+		mutator.flush();
+	}
+
+	/**
+	 * Read a set of rows.  Each request sent holds at most one batch of rows from each region, so
+	 * that no region server is asked for too many rows at once, while the client still reads from
+	 * all regions in parallel.
+	 *
+	 * @return The results, in the same order as the gets.
+	 */
+	public Result[] get (TableName tableName, List<Get> gets) throws IOException {
+		Result[] results = new Result[gets.size()];
+		if (gets.isEmpty()) return results;
+
+		// Group the gets by region, remembering the position of each
+		RegionLocator locator = getRegionLocator(tableName);
+		Map<String, List<Integer>> byRegion = new LinkedHashMap<>();
+		int mostInRegion = 0;
+		for (int i = 0; i < gets.size(); ++i) {
+			String region = locator.getRegionLocation(gets.get(i).getRow()).getRegionInfo().getEncodedName();
+			List<Integer> positions = byRegion.get(region);
+			if (null == positions) {
+				positions = new ArrayList<>();
+				byRegion.put(region, positions);
+			}
+			positions.add(i);
+			mostInRegion = Math.max(mostInRegion, positions.size());
+		}
+
+		Table table = getTable(tableName);
+		try {
+			// Each round takes the next batch from every region
+			for (int start = 0; start < mostInRegion; start += _readBatchSize) {
+				List<Integer> roundPositions = new ArrayList<>();
+				for (List<Integer> positions: byRegion.values()) {
+					int end = Math.min(start + _readBatchSize, positions.size());
+					if (start < end) roundPositions.addAll(positions.subList(start, end));
+				}
+				List<Get> round = new ArrayList<>(roundPositions.size());
+				for (int position: roundPositions) {
+					round.add(gets.get(position));
+				}
+				Result[] roundResults = table.get(round);
+				for (int i = 0; i < roundPositions.size(); ++i) {
+					results[roundPositions.get(i)] = roundResults[i];
+				}
+			}
+		} finally {
+			releaseTable(table);
+		}
+		return results;
+	}
+
+	/**
+	 * Read all the rows covered by a scan.  The scan should be bounded - all results are read
+	 * before returning.
+	 */
+	public List<Result> scan (TableName tableName, Scan scan) throws IOException {
+		List<Result> results = new ArrayList<>();
+		Table table = getTable(tableName);
+		try {
+			ResultScanner scanner = table.getScanner(scan);
+			try {
+				for (Result result: scanner) {
+					results.add(result);
+				}
+			} finally {
+				scanner.close();
+			}
+		} finally {
+			releaseTable(table);
+		}
+		return results;
+	}
+
+	/**
+	 * Drop all handles to the given table, flushing any pending writes; used when a table is
+	 * dropped.
+	 */
+	public void invalidate (TableName tableName) {
+		BufferedMutator mutator = _mutators.remove(tableName);
+		if (null != mutator) closeQuietly(mutator);
+		RegionLocator locator = _locators.remove(tableName);
+		if (null != locator) closeQuietly(locator);
+		Queue<Table> idle = _idleTables.remove(tableName);
+		if (null != idle) {
+			for (Table table: idle) closeQuietly(table);
+		}
+	}
+
+	/**
+	 * Flush any pending writes and release all table handles.  The connection itself is left open.
+	 */
+	@Override
+	public void close () {
+		for (TableName tableName: new ArrayList<>(_mutators.keySet())) invalidate(tableName);
+		for (TableName tableName: new ArrayList<>(_locators.keySet())) invalidate(tableName);
+		for (TableName tableName: new ArrayList<>(_idleTables.keySet())) invalidate(tableName);
+	}
+
+	private static void closeQuietly (Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			LOGGER.warn("Error closing HBase resource", e);
+		}
+	}
+}
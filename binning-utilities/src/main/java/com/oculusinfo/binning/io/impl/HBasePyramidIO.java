@@ -25,7 +25,10 @@
 package com.oculusinfo.binning.io.impl;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
@@ -33,18 +36,29 @@ import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
 import com.oculusinfo.binning.TileData;
 import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.io.PyramidChangeNotifier;
 import com.oculusinfo.binning.io.PyramidIO;
 import com.oculusinfo.binning.io.serialization.TileSerializer;
 import org.json.JSONObject;
 
 
 public class HBasePyramidIO implements PyramidIO {
+	private static final Logger LOGGER = Logger.getLogger(HBasePyramidIO.class);
 	private static final String META_DATA_INDEX      = "metadata";
+	// The table attribute in which we record the row key layout of a table
+	private static final String ROW_KEY_LAYOUT_KEY   = "tile.row.key.layout";
+	// The most row key positions by which two tiles may be separated and still be read in the same scan
+	private static final int    MAX_SCAN_GAP         = 8;
+	// The fewest tiles worth reading with a scan rather than with gets
+	private static final int    MIN_SCAN_ROWS        = 3;
+	// The most rows fetched from the server in one round trip of a scan
+	private static final int    MAX_SCAN_CACHING     = 1000;
 
 	public static class HBaseColumn {
 		byte[] family;
@@ -59,6 +73,118 @@ public class HBasePyramidIO implements PyramidIO {
 
 
 
+	/**
+	 * The ways in which the row key of a tile may be laid out.
+	 * <ul>
+	 * <li>STRING keys are the "level,x,y" row ids tables have always used.  They sort by level, then
+	 *     x, then y - but as strings, so tiles adjacent on a level can lie far apart in the table.</li>
+	 * <li>MORTON keys are a single byte holding the level, followed by the 8-byte, big-endian Morton
+	 *     (Z-order) code of the tile's x and y coordinates.  Tiles near each other on a level are
+	 *     generally near each other in the table, so a block of tiles can be read with a few short
+	 *     scans.</li>
+	 * </ul>
+	 * The layout of a table is fixed when it is created.
+	 */
+	public static enum RowKeyLayout {
+		STRING {
+			@Override
+			public byte[] getRowKey (TileIndex tile) {
+				return rowKeyFromTileIndex(tile);
+			}
+			@Override
+			public TileIndex getTileIndex (byte[] rowKey) {
+				return tileIndexFromRowId(new String(rowKey, StandardCharsets.US_ASCII));
+			}
+			@Override
+			public long getOrderKey (TileIndex tile) {
+				// x and y are padded to the same number of digits within a level, so string order is x, then y
+				return ((long) tile.getX() << 32) | (tile.getY() & 0xFFFFFFFFL);
+			}
+			@Override
+			public byte[] getRowKey (int level, long orderKey) {
+				return rowKeyFromTileIndex(new TileIndex(level, (int) (orderKey >>> 32), (int) orderKey));
+			}
+		},
+		MORTON {
+			@Override
+			public byte[] getRowKey (TileIndex tile) {
+				byte[] key = new byte[MORTON_KEY_LENGTH];
+				key[0] = (byte) tile.getLevel();
+				Bytes.putLong(key, 1, mortonCode(tile.getX(), tile.getY()));
+				return key;
+			}
+			@Override
+			public TileIndex getTileIndex (byte[] rowKey) {
+				long code = Bytes.toLong(rowKey, 1);
+				return new TileIndex(rowKey[0], compactBits(code), compactBits(code >>> 1));
+			}
+			@Override
+			public long getOrderKey (TileIndex tile) {
+				return mortonCode(tile.getX(), tile.getY());
+			}
+			@Override
+			public byte[] getRowKey (int level, long orderKey) {
+				byte[] key = new byte[MORTON_KEY_LENGTH];
+				key[0] = (byte) level;
+				Bytes.putLong(key, 1, orderKey);
+				return key;
+			}
+		};
+
+		/**
+		 * Get the row key under which the given tile is stored
+		 */
+		abstract public byte[] getRowKey (TileIndex tile);
+
+		/**
+		 * Get the tile stored under the given row key
+		 */
+		abstract public TileIndex getTileIndex (byte[] rowKey);
+
+		/**
+		 * Get a key that orders the tiles of a single level the same way their row keys do, so
+		 * that sorting tiles by (level, order key) sorts them into row key order
+		 */
+		abstract public long getOrderKey (TileIndex tile);
+
+		/**
+		 * Get the row key of the tile with the given level and order key, as returned by
+		 * {@link #getOrderKey(TileIndex)}
+		 */
+		abstract public byte[] getRowKey (int level, long orderKey);
+	}
+
+	private static final int MORTON_KEY_LENGTH = 9;
+
+	// Interleave the bits of x and y, with x in the even bits and y in the odd bits
+	private static long mortonCode (int x, int y) {
+		return spreadBits(x) | (spreadBits(y) << 1);
+	}
+
+	// Spread the 32 bits of a value into the even bits of a long
+	private static long spreadBits (int value) {
+		long bits = value & 0xFFFFFFFFL;
+		bits = (bits | (bits << 16)) & 0x0000FFFF0000FFFFL;
+		bits = (bits | (bits << 8))  & 0x00FF00FF00FF00FFL;
+		bits = (bits | (bits << 4))  & 0x0F0F0F0F0F0F0F0FL;
+		bits = (bits | (bits << 2))  & 0x3333333333333333L;
+		bits = (bits | (bits << 1))  & 0x5555555555555555L;
+		return bits;
+	}
+
+	// The inverse of spreadBits - gather the even bits of a long into an int
+	private static int compactBits (long code) {
+		long bits = code & 0x5555555555555555L;
+		bits = (bits | (bits >>> 1))  & 0x3333333333333333L;
+		bits = (bits | (bits >>> 2))  & 0x0F0F0F0F0F0F0F0FL;
+		bits = (bits | (bits >>> 4))  & 0x00FF00FF00FF00FFL;
+		bits = (bits | (bits >>> 8))  & 0x0000FFFF0000FFFFL;
+		bits = (bits | (bits >>> 16)) & 0x00000000FFFFFFFFL;
+		return (int) bits;
+	}
+
+
+
 	private static final byte[]      EMPTY_BYTES          = new byte[0];
 	protected static final byte[]      TILE_FAMILY_NAME     = "tileData".getBytes();
 	public static final HBaseColumn  TILE_COLUMN          = new HBaseColumn(TILE_FAMILY_NAME, EMPTY_BYTES);
@@ -69,22 +195,62 @@ public class HBasePyramidIO implements PyramidIO {
 	private Configuration   _config;
 	private Admin           _admin;
 	private Connection      _connection;
-	private HBaseTilePutter _putter;
+	private HBaseAccess     _access;
+	private RowKeyLayout    _layout;
+	// The row key layout of each table we've seen
+	private ConcurrentMap<String, RowKeyLayout> _tableLayouts;
 
 	public HBasePyramidIO (String zookeeperQuorum, String zookeeperPort, String hbaseMaster)
 		throws IOException {
+		this(zookeeperQuorum, zookeeperPort, hbaseMaster,
+		     HBaseAccess.DEFAULT_WRITE_BUFFER_SIZE, HBaseAccess.DEFAULT_READ_BATCH_SIZE);
+	}
 
+	/**
+	 * @param writeBufferSize The size, in bytes, to which tile writes are buffered before being sent
+	 * @param readBatchSize The maximum number of tiles read from a single region in one request
+	 */
+	public HBasePyramidIO (String zookeeperQuorum, String zookeeperPort, String hbaseMaster,
+	                       long writeBufferSize, int readBatchSize)
+		throws IOException {
+		this(zookeeperQuorum, zookeeperPort, hbaseMaster, writeBufferSize, readBatchSize, RowKeyLayout.STRING);
+	}
+
+	/**
+	 * @param writeBufferSize The size, in bytes, to which tile writes are buffered before being sent
+	 * @param readBatchSize The maximum number of tiles read from a single region in one request
+	 * @param layout The row key layout with which to create new tables.  Existing tables are read
+	 *               and written with whatever layout they were created.
+	 */
+	public HBasePyramidIO (String zookeeperQuorum, String zookeeperPort, String hbaseMaster,
+	                       long writeBufferSize, int readBatchSize, RowKeyLayout layout)
+		throws IOException {
+		this(createConnection(zookeeperQuorum, zookeeperPort, hbaseMaster), writeBufferSize, readBatchSize, layout);
+	}
+
+	/*
+	 * Use an existing connection.  Mostly useful for testing.
+	 */
+	HBasePyramidIO (Connection connection, long writeBufferSize, int readBatchSize, RowKeyLayout layout) throws IOException {
+		_connection = connection;
+		_config = connection.getConfiguration();
+		_admin = _connection.getAdmin();
+		_access = new HBaseAccess(_connection, writeBufferSize, readBatchSize);
+		_layout = layout;
+		_tableLayouts = new ConcurrentHashMap<>();
+	}
+
+	private static Connection createConnection (String zookeeperQuorum, String zookeeperPort, String hbaseMaster)
+		throws IOException {
 		Logger.getLogger("org.apache.zookeeper").setLevel(Level.WARN);
 		Logger.getLogger("org.apache.hadoop").setLevel(Level.WARN);
 
-		_config = HBaseConfiguration.create();
-		_config.set("hbase.zookeeper.quorum", zookeeperQuorum);
-		_config.set("hbase.zookeeper.property.clientPort", zookeeperPort);
-		_config.set("hbase.master", hbaseMaster);
-		_config.set("hbase.client.keyvalue.maxsize", "0");
-		_connection = ConnectionFactory.createConnection(_config);
-		_admin = _connection.getAdmin();
-		_putter = new StandardHBaseTilePutter();
+		Configuration config = HBaseConfiguration.create();
+		config.set("hbase.zookeeper.quorum", zookeeperQuorum);
+		config.set("hbase.zookeeper.property.clientPort", zookeeperPort);
+		config.set("hbase.master", hbaseMaster);
+		config.set("hbase.client.keyvalue.maxsize", "0");
+		return ConnectionFactory.createConnection(config);
 	}
 
 
@@ -93,10 +259,57 @@ public class HBasePyramidIO implements PyramidIO {
 	 * Determine the row ID we use in HBase for a given tile index
 	 */
 	public static String rowIdFromTileIndex (TileIndex tile) {
+		return new String(rowKeyFromTileIndex(tile), StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Determine the row key we use in HBase for a given tile index - the bytes of its row ID,
+	 * "level,x,y", with level padded to two digits, and x and y padded to the minimum possible
+	 * number of digits for the level.  This is written directly, rather than formatted, as it is
+	 * calculated for every tile read or written.
+	 */
+	public static byte[] rowKeyFromTileIndex (TileIndex tile) {
+		int level = tile.getLevel();
+		int x = tile.getX();
+		int y = tile.getY();
+		if (level < 0 || x < 0 || y < 0) {
+			// Not a real tile, but keep whatever key such tiles have always had
+			int digits = (int) Math.floor(Math.log10(1 << level))+1;
+			return String.format("%02d,%0"+digits+"d,%0"+digits+"d", level, x, y).getBytes(StandardCharsets.US_ASCII);
+		}
+
 		// Use the minimum possible number of digits for the tile key
-		int digits = (int) Math.floor(Math.log10(1 << tile.getLevel()))+1;
-		return String.format("%02d,%0"+digits+"d,%0"+digits+"d",
-		                     tile.getLevel(), tile.getX(), tile.getY());
+		int levelSize = 1 << level;
+		int digits = levelSize > 0 ? decimalDigits(levelSize) : 1;
+		int levelDigits = Math.max(2, decimalDigits(level));
+		int xDigits = Math.max(digits, decimalDigits(x));
+		int yDigits = Math.max(digits, decimalDigits(y));
+
+		byte[] key = new byte[levelDigits + xDigits + yDigits + 2];
+		int position = writeDigits(key, 0, level, levelDigits);
+		key[position++] = ',';
+		position = writeDigits(key, position, x, xDigits);
+		key[position++] = ',';
+		writeDigits(key, position, y, yDigits);
+		return key;
+	}
+
+	private static int decimalDigits (int value) {
+		int digits = 1;
+		while (value >= 10) {
+			value /= 10;
+			++digits;
+		}
+		return digits;
+	}
+
+	// Write a non-negative value, zero-padded to the given number of digits
+	private static int writeDigits (byte[] target, int offset, int value, int digits) {
+		for (int i = offset + digits - 1; i >= offset; --i) {
+			target[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		return offset + digits;
 	}
 
 	/**
@@ -114,6 +327,7 @@ public class HBasePyramidIO implements PyramidIO {
 	 * Close down this pyramid IO
 	 */
 	public void close () throws IOException {
+		_access.close();
 		_admin.close();
 	}
 
@@ -125,14 +339,37 @@ public class HBasePyramidIO implements PyramidIO {
 		return _config;
 	}
 
+	/**
+	 * Get the row key layout with which new tables are created.
+	 */
+	public RowKeyLayout getRowKeyLayout () {
+		return _layout;
+	}
 
-	/*
-	 * Gets an existing table (without creating it)
+	/**
+	 * Get the row key layout of the given table.  Tables which don't record a layout predate
+	 * the choice, and so use string row keys; tables which don't yet exist will be created with
+	 * our configured layout.
 	 */
-	private Table getTable (String tableName) throws IOException {
-		return _connection.getTable(TableName.valueOf(tableName));
+	public RowKeyLayout getRowKeyLayout (String tableName) {
+		RowKeyLayout layout = _tableLayouts.get(tableName);
+		if (null == layout) {
+			try {
+				TableName name = TableName.valueOf(tableName);
+				if (!_admin.tableExists(name)) return _layout;
+
+				String value = _admin.getTableDescriptor(name).getValue(ROW_KEY_LAYOUT_KEY);
+				layout = (null == value) ? RowKeyLayout.STRING : RowKeyLayout.valueOf(value);
+				_tableLayouts.put(tableName, layout);
+			} catch (IOException|IllegalArgumentException e) {
+				LOGGER.warn("Couldn't determine the row key layout of table "+tableName, e);
+				return _layout;
+			}
+		}
+		return layout;
 	}
 
+
 	/*
 	 * Given a put request (a request to put data into a table), add a single
 	 * entry into the request
@@ -163,6 +400,19 @@ public class HBasePyramidIO implements PyramidIO {
 		return existingPut;
 	}
 
+	/*
+	 * As above, but given the row key directly
+	 */
+	static protected Put addToPut (Put existingPut, byte[] rowKey, HBaseColumn column, byte[] data) {
+		if (null == existingPut) {
+			existingPut = new Put(rowKey);
+		}
+
+		existingPut.addColumn(column.family, column.qualifier, data);
+
+		return existingPut;
+	}
+
 	/*
 	 * Write a series of rows out to the given table
 	 *
@@ -171,11 +421,8 @@ public class HBasePyramidIO implements PyramidIO {
 	 * @param rows
 	 *            The rows to write
 	 */
-	protected void writeRows (String tableName, List<Row> rows) throws InterruptedException, IOException {
-		Table table = getTable(tableName);
-		Object[] results = new Object[rows.size()];
-		table.batch(rows, results);
-		table.close();
+	protected void writeRows (String tableName, List<? extends Mutation> rows) throws IOException {
+		_access.mutate(TableName.valueOf(tableName), rows);
 	}
 
 	private Map<HBaseColumn, byte[]> decodeRawResult (Result row, HBaseColumn[] columns) {
@@ -203,39 +450,147 @@ public class HBasePyramidIO implements PyramidIO {
 	 *         the map. Rows which returned no data have a null instead of a
 	 *         map.
 	 */
-	private List<Map<HBaseColumn, byte[]>> readRows (String tableName, List<String> rows, HBaseColumn... columns) throws IOException {
-		Table table = getTable(tableName);
-
+	private List<Map<HBaseColumn, byte[]>> readRows (String tableName, List<byte[]> rows, HBaseColumn... columns) throws IOException {
 		List<Get> gets = new ArrayList<Get>(rows.size());
-		for (String rowId: rows) {
-			Get get = new Get(rowId.getBytes());
+		for (byte[] rowKey: rows) {
+			Get get = new Get(rowKey);
 			for (HBaseColumn column: columns) {
 				get.addColumn(column.family, column.qualifier);
 			}
 			gets.add(get);
 		}
 
-		Result[] results = table.get(gets);
+		Result[] results = _access.get(TableName.valueOf(tableName), gets);
 		List<Map<HBaseColumn, byte[]>> allResults = new ArrayList<Map<HBaseColumn,byte[]>>(rows.size());
 		for (Result result: results) {
 			allResults.add(decodeRawResult(result, columns));
 		}
-		table.close();
 		return allResults;
 	}
 
+	/*
+	 * Read several rows of data from a table with spatially ordered row keys.  Runs of requested
+	 * rows whose keys lie close together are each read with a single bounded scan; the remaining
+	 * rows are read as individual gets.
+	 *
+	 * @return The results, as for readRows.
+	 */
+	private List<Map<HBaseColumn, byte[]>> readRowsByRange (String tableName, final List<byte[]> rows,
+	                                                         HBaseColumn... columns) throws IOException {
+		TableName name = TableName.valueOf(tableName);
+		int numRows = rows.size();
+		List<Map<HBaseColumn, byte[]>> allResults = new ArrayList<Map<HBaseColumn, byte[]>>(Collections.<Map<HBaseColumn, byte[]>>nCopies(numRows, null));
+
+		// Put the requested rows in row key order
+		List<Integer> order = new ArrayList<Integer>(numRows);
+		for (int i = 0; i < numRows; ++i) order.add(i);
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare (Integer a, Integer b) {
+				return Bytes.compareTo(rows.get(a), rows.get(b));
+			}
+		});
+
+		List<Integer> getPositions = new ArrayList<Integer>();
+		int start = 0;
+		while (start < numRows) {
+			// Find the run of rows close enough together to be worth scanning
+			int end = start + 1;
+			while (end < numRows && MAX_SCAN_GAP >= mortonDistance(rows.get(order.get(end - 1)), rows.get(order.get(end)))) {
+				++end;
+			}
+
+			if (end - start < MIN_SCAN_ROWS) {
+				getPositions.addAll(order.subList(start, end));
+			} else {
+				byte[] firstRow = rows.get(order.get(start));
+				byte[] lastRow = rows.get(order.get(end - 1));
+				// The stop row is exclusive, so stop just past the last row we want
+				Scan scan = new Scan(firstRow, Bytes.add(lastRow, new byte[] {0}));
+				for (HBaseColumn column: columns) {
+					scan.addColumn(column.family, column.qualifier);
+				}
+				scan.setCaching((int) Math.min(MAX_SCAN_CACHING, mortonDistance(firstRow, lastRow) + 1));
+				scan.setCacheBlocks(true);
+
+				Map<byte[], Result> scanned = new TreeMap<byte[], Result>(Bytes.BYTES_COMPARATOR);
+				for (Result result: _access.scan(name, scan)) {
+					scanned.put(result.getRow(), result);
+				}
+				for (int i = start; i < end; ++i) {
+					int position = order.get(i);
+					Result result = scanned.get(rows.get(position));
+					if (null != result) {
+						allResults.set(position, decodeRawResult(result, columns));
+					}
+				}
+			}
+			start = end;
+		}
+
+		if (!getPositions.isEmpty()) {
+			List<Get> gets = new ArrayList<Get>(getPositions.size());
+			for (int position: getPositions) {
+				Get get = new Get(rows.get(position));
+				for (HBaseColumn column: columns) {
+					get.addColumn(column.family, column.qualifier);
+				}
+				gets.add(get);
+			}
+			Result[] results = _access.get(name, gets);
+			for (int i = 0; i < results.length; ++i) {
+				allResults.set(getPositions.get(i), decodeRawResult(results[i], columns));
+			}
+		}
+		return allResults;
+	}
+
+	// The number of Morton codes separating two Morton row keys, or Long.MAX_VALUE if they are on
+	// different levels (or aren't both Morton row keys).
+	private static long mortonDistance (byte[] firstRow, byte[] secondRow) {
+		if (MORTON_KEY_LENGTH != firstRow.length || MORTON_KEY_LENGTH != secondRow.length
+		    || firstRow[0] != secondRow[0]) {
+			return Long.MAX_VALUE;
+		}
+		long distance = Bytes.toLong(secondRow, 1) - Bytes.toLong(firstRow, 1);
+		return distance < 0 ? Long.MAX_VALUE : distance;
+	}
+
 
 
 	@Override
 	public void initializeForWrite (String tableName) throws IOException {
+		initializeForWrite(tableName, null);
+	}
+
+	/**
+	 * Initialize a table for writing, pre-splitting it into regions at the
+	 * given row keys if it doesn't already exist. Existing tables are left
+	 * untouched.
+	 *
+	 * @param tableName The name of the table to initialize
+	 * @param splitKeys The row keys at which to split the new table into
+	 *            regions; null or empty for a single initial region.
+	 */
+	public void initializeForWrite (String tableName, byte[][] splitKeys) throws IOException {
 		if ( !_admin.tableExists(TableName.valueOf(tableName)) ) {
 			try {
 				HTableDescriptor tableDesc = new HTableDescriptor(TableName.valueOf(tableName));
 				HColumnDescriptor metadataFamily = new HColumnDescriptor(METADATA_FAMILY_NAME);
 				tableDesc.addFamily(metadataFamily);
 				HColumnDescriptor tileFamily = new HColumnDescriptor(TILE_FAMILY_NAME);
+				if (RowKeyLayout.MORTON == _layout) {
+					// Neighbouring tiles are read together, so warm the block cache as regions open
+					tileFamily.setPrefetchBlocksOnOpen(true);
+				}
 				tableDesc.addFamily(tileFamily);
-				_admin.createTable(tableDesc);
+				tableDesc.setValue(ROW_KEY_LAYOUT_KEY, _layout.name());
+				if (null == splitKeys || 0 == splitKeys.length) {
+					_admin.createTable(tableDesc);
+				} else {
+					_admin.createTable(tableDesc, splitKeys);
+				}
+				_tableLayouts.put(tableName, _layout);
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
@@ -245,37 +600,42 @@ public class HBasePyramidIO implements PyramidIO {
 
 	/**
 	 * Get a distributable object that knows how to create HBase puts, so we can distribute our work across a cluster.
+	 * The puts it creates use our configured row key layout.
 	 */
 	public HBaseTilePutter getPutter () {
-		return _putter;
+		return createPutter(_layout);
+	}
+
+	/**
+	 * Get a distributable object that knows how to create HBase puts for the given table, using
+	 * that table's row key layout.
+	 */
+	public HBaseTilePutter getPutter (String tableName) {
+		return createPutter(getRowKeyLayout(tableName));
+	}
+
+	protected HBaseTilePutter createPutter (RowKeyLayout layout) {
+		return new StandardHBaseTilePutter(layout);
 	}
 
 	@Override
 	public <T> void writeTiles (String tableName, TileSerializer<T> serializer,
 	                            Iterable<TileData<T>> data) throws IOException {
-		List<Row> rows = new ArrayList<Row>();
-		HBaseTilePutter putter = getPutter();
+		List<Put> rows = new ArrayList<Put>();
+		HBaseTilePutter putter = getPutter(tableName);
 		for (TileData<T> tile: data) {
 			rows.add(putter.getPutForTile(tile, serializer));
 		}
-		try {
-			writeRows(tableName, rows);
-		} catch (InterruptedException e) {
-			throw new IOException("Error writing tiles to HBase", e);
-		}
+		writeRows(tableName, rows);
+		PyramidChangeNotifier.pyramidChanged(tableName);
 	}
 
 	@Override
 	public void writeMetaData (String tableName, String metaData) throws IOException {
-		try {
-			List<Row> rows = new ArrayList<Row>();
-			rows.add(addToPut(null, META_DATA_INDEX, METADATA_COLUMN, metaData.getBytes()));
-			Put put = new Put(META_DATA_INDEX.getBytes());
-			put.addColumn(METADATA_FAMILY_NAME, EMPTY_BYTES, metaData.getBytes());
-			writeRows(tableName, rows);
-		} catch (InterruptedException e) {
-			throw new IOException("Error writing metadata to HBase", e);
-		}
+		List<Put> rows = new ArrayList<Put>();
+		rows.add(addToPut(null, META_DATA_INDEX, METADATA_COLUMN, metaData.getBytes()));
+		writeRows(tableName, rows);
+		PyramidChangeNotifier.pyramidChanged(tableName);
 	}
 
 	@Override
@@ -306,12 +666,18 @@ public class HBasePyramidIO implements PyramidIO {
 											   TileSerializer<T> serializer,
 											   Iterable<TileIndex> tiles,
 											   HBaseColumn... columns) throws IOException {
-		List<String> rowIds = new ArrayList<String>();
+		RowKeyLayout layout = getRowKeyLayout(tableName);
+		List<byte[]> rowIds = new ArrayList<byte[]>();
 		for (TileIndex tile: tiles) {
-			rowIds.add(rowIdFromTileIndex(tile));
+			rowIds.add(layout.getRowKey(tile));
 		}
 
-		List<Map<HBaseColumn, byte[]>> rawResults = readRows(tableName, rowIds, columns);
+		List<Map<HBaseColumn, byte[]>> rawResults;
+		if (RowKeyLayout.MORTON == layout) {
+			rawResults = readRowsByRange(tableName, rowIds, columns);
+		} else {
+			rawResults = readRows(tableName, rowIds, columns);
+		}
 
 		List<TileData<T>> results = new LinkedList<TileData<T>>();
 
@@ -338,8 +704,8 @@ public class HBasePyramidIO implements PyramidIO {
 	public <T> InputStream getTileStream (String tableName,
 	                                      TileSerializer<T> serializer,
 	                                      TileIndex tile) throws IOException {
-		List<String> rowIds = new ArrayList<String>();
-		rowIds.add(rowIdFromTileIndex(tile));
+		List<byte[]> rowIds = new ArrayList<byte[]>();
+		rowIds.add(getRowKeyLayout(tableName).getRowKey(tile));
 
 		List<Map<HBaseColumn, byte[]>> rawResults = readRows(tableName, rowIds, TILE_COLUMN);
 		Iterator<Map<HBaseColumn, byte[]>> iData = rawResults.iterator();
@@ -357,7 +723,7 @@ public class HBasePyramidIO implements PyramidIO {
 
 	@Override
 	public String readMetaData (String tableName) throws IOException {
-		List<Map<HBaseColumn, byte[]>> rawData = readRows(tableName, Collections.singletonList(META_DATA_INDEX), METADATA_COLUMN);
+		List<Map<HBaseColumn, byte[]>> rawData = readRows(tableName, Collections.singletonList(META_DATA_INDEX.getBytes()), METADATA_COLUMN);
 
 		if (null == rawData) return null;
 		if (rawData.isEmpty()) return null;
@@ -370,27 +736,27 @@ public class HBasePyramidIO implements PyramidIO {
 	@Override
 	public void removeTiles (String tableName, Iterable<TileIndex> tiles) throws IOException {
 
-		List<String> rowIds = new ArrayList<>();
+		RowKeyLayout layout = getRowKeyLayout(tableName);
+		List<byte[]> rowIds = new ArrayList<>();
 		for (TileIndex tile: tiles) {
-			rowIds.add( rowIdFromTileIndex( tile ) );
+			rowIds.add( layout.getRowKey( tile ) );
 		}
 		deleteRows(tableName, rowIds, TILE_COLUMN);
 	}
 
-	private void deleteRows (String tableName, List<String> rows, HBaseColumn... columns) throws IOException {
+	private void deleteRows (String tableName, List<byte[]> rows, HBaseColumn... columns) throws IOException {
 
-		Table table = getTable(tableName);
-		List<Delete> deletes = new LinkedList<Delete>();
-		for (String rowId: rows) {
-			Delete delete = new Delete(rowId.getBytes());
-			deletes.add(delete);
+		List<Delete> deletes = new ArrayList<Delete>(rows.size());
+		for (byte[] rowKey: rows) {
+			deletes.add(new Delete(rowKey));
 		}
-		table.delete(deletes);
-		table.close();
+		_access.mutate(TableName.valueOf(tableName), deletes);
 	}
 
 	public void dropTable( String tableName ) {
 
+		_access.invalidate(TableName.valueOf(tableName));
+		_tableLayouts.remove(tableName);
 		try {
 			_admin.disableTable(TableName.valueOf(tableName));
 			_admin.deleteTable(TableName.valueOf(tableName));
@@ -405,12 +771,26 @@ public class HBasePyramidIO implements PyramidIO {
 		public <T> Put getPutForTile (TileData<T> tile, TileSerializer<T> serializer) throws IOException;
 	}
 	public static class StandardHBaseTilePutter implements HBaseTilePutter {
+		private RowKeyLayout _layout;
+
+		public StandardHBaseTilePutter () {
+			this(RowKeyLayout.STRING);
+		}
+
+		public StandardHBaseTilePutter (RowKeyLayout layout) {
+			_layout = layout;
+		}
+
+		protected byte[] getRowKey (TileIndex tile) {
+			return _layout.getRowKey(tile);
+		}
+
 		@Override
 		public <T> Put getPutForTile(TileData<T> tile, TileSerializer<T> serializer) throws IOException {
 			ByteArrayOutputStream baos = new ByteArrayOutputStream();
 			serializer.serialize(tile, baos);
 
-			return addToPut(null, rowIdFromTileIndex(tile.getDefinition()),
+			return addToPut(null, getRowKey(tile.getDefinition()),
 				TILE_COLUMN, baos.toByteArray());
 		}
 	}
@@ -26,6 +26,8 @@ package com.oculusinfo.binning.io.impl;
 import com.oculusinfo.binning.io.PyramidIO;
 import com.oculusinfo.factory.ConfigurableFactory;
 import com.oculusinfo.factory.SharedInstanceFactory;
+import com.oculusinfo.factory.properties.EnumProperty;
+import com.oculusinfo.factory.properties.IntegerProperty;
 import com.oculusinfo.factory.properties.StringProperty;
 
 import org.slf4j.Logger;
@@ -47,6 +49,15 @@ public class HBasePyramidIOFactory extends SharedInstanceFactory<PyramidIO> {
 	public static StringProperty HBASE_MASTER = new StringProperty("hbase.master",
 		   "Only used if type=\"hbase\".  An HBase configuration parameter, this should match the similar value in hbase-site.xml.  There is no default for this property.",
 		   null);
+	public static IntegerProperty HBASE_WRITE_BUFFER_SIZE = new IntegerProperty("hbase.write.buffer.size",
+		   "Only used if type=\"hbase\".  The size, in bytes, to which writes are buffered before being sent to HBase.",
+		   HBaseAccess.DEFAULT_WRITE_BUFFER_SIZE);
+	public static IntegerProperty HBASE_READ_BATCH_SIZE = new IntegerProperty("hbase.read.batch.size",
+		   "Only used if type=\"hbase\".  The maximum number of rows read from a single HBase region in one request.",
+		   HBaseAccess.DEFAULT_READ_BATCH_SIZE);
+	public static EnumProperty<HBasePyramidIO.RowKeyLayout> HBASE_ROW_KEY_LAYOUT = new EnumProperty<HBasePyramidIO.RowKeyLayout>("hbase.row.key.layout",
+		   "Only used if type=\"hbase\".  The row key layout with which to create new tables - STRING, for \"level,x,y\" keys, or MORTON, for spatially ordered keys that let blocks of tiles be read with scans.  Existing tables keep the layout with which they were created.",
+		   HBasePyramidIO.RowKeyLayout.class, HBasePyramidIO.RowKeyLayout.STRING);
 	
 	public HBasePyramidIOFactory(ConfigurableFactory<?> parent, List<String> path) {
 		super("hbase", PyramidIO.class, parent, path);
@@ -54,6 +65,9 @@ public class HBasePyramidIOFactory extends SharedInstanceFactory<PyramidIO> {
 		addProperty(HBASE_ZOOKEEPER_QUORUM);
 		addProperty(HBASE_ZOKEEPER_PORT);
 		addProperty(HBASE_MASTER);
+		addProperty(HBASE_WRITE_BUFFER_SIZE);
+		addProperty(HBASE_READ_BATCH_SIZE);
+		addProperty(HBASE_ROW_KEY_LAYOUT);
 	}
 
 	@Override
@@ -62,7 +76,10 @@ public class HBasePyramidIOFactory extends SharedInstanceFactory<PyramidIO> {
 			String quorum = getPropertyValue(HBASE_ZOOKEEPER_QUORUM);
 			String port = getPropertyValue(HBASE_ZOKEEPER_PORT);
 			String master = getPropertyValue(HBASE_MASTER);
-			return new HBasePyramidIO(quorum, port, master);
+			int writeBufferSize = getPropertyValue(HBASE_WRITE_BUFFER_SIZE);
+			int readBatchSize = getPropertyValue(HBASE_READ_BATCH_SIZE);
+			HBasePyramidIO.RowKeyLayout layout = getPropertyValue(HBASE_ROW_KEY_LAYOUT);
+			return new HBasePyramidIO(quorum, port, master, writeBufferSize, readBatchSize, layout);
 		}
 		catch (Exception e) {
 			LOGGER.error("Error trying to create HBasePyramidIO", e);
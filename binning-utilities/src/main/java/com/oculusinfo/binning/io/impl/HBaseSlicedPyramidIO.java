@@ -52,7 +52,6 @@ public class HBaseSlicedPyramidIO extends HBasePyramidIO {
 
 
 	private boolean         _doPyramidding;
-	private HBaseTilePutter _putter;
 
 	public HBaseSlicedPyramidIO (String zookeeperQuorum, String zookeeperPort, String hbaseMaster)
 		throws IOException {
@@ -60,13 +59,27 @@ public class HBaseSlicedPyramidIO extends HBasePyramidIO {
 		setPyramidding(true);
 	}
 
-	@Override public HBaseTilePutter getPutter () {
-		return _putter;
+	public HBaseSlicedPyramidIO (String zookeeperQuorum, String zookeeperPort, String hbaseMaster,
+	                             long writeBufferSize, int readBatchSize)
+		throws IOException {
+		super(zookeeperQuorum, zookeeperPort, hbaseMaster, writeBufferSize, readBatchSize);
+		setPyramidding(true);
+	}
+
+	public HBaseSlicedPyramidIO (String zookeeperQuorum, String zookeeperPort, String hbaseMaster,
+	                             long writeBufferSize, int readBatchSize, RowKeyLayout layout)
+		throws IOException {
+		super(zookeeperQuorum, zookeeperPort, hbaseMaster, writeBufferSize, readBatchSize, layout);
+		setPyramidding(true);
+	}
+
+	@Override
+	protected HBaseTilePutter createPutter (RowKeyLayout layout) {
+		return new SlicedHBaseTilePutter(_doPyramidding, layout);
 	}
 
 	public void setPyramidding (boolean doPyramidding) {
 		_doPyramidding = doPyramidding;
-		_putter = new SlicedHBaseTilePutter(_doPyramidding);
 	}
 
 	public static HBaseColumn getSliceColumn (int minSlice, int maxSlice) {
@@ -198,6 +211,11 @@ public class HBaseSlicedPyramidIO extends HBasePyramidIO {
 	public static class SlicedHBaseTilePutter extends StandardHBaseTilePutter {
 		private boolean _doPyramidding;
 		public SlicedHBaseTilePutter (boolean doPyramidding) {
+			this(doPyramidding, RowKeyLayout.STRING);
+		}
+
+		public SlicedHBaseTilePutter (boolean doPyramidding, RowKeyLayout layout) {
+			super(layout);
 			_doPyramidding = doPyramidding;
 		}
 
@@ -227,7 +245,7 @@ public class HBaseSlicedPyramidIO extends HBasePyramidIO {
 					TileData<List<T>> slice = new DenseTileMultiSliceView<T>(tile, startSlice, endSlice).harden();
 					ByteArrayOutputStream baos = new ByteArrayOutputStream();
 					serializer.serialize(slice, baos);
-					existingPut = addToPut(existingPut, rowIdFromTileIndex(tile.getDefinition()),
+					existingPut = addToPut(existingPut, getRowKey(tile.getDefinition()),
 						getSliceColumn(startSlice, endSlice), baos.toByteArray());
 				}
 
@@ -42,6 +42,9 @@ public class HBaseSlicedPyramidIOFactory extends SharedInstanceFactory<PyramidIO
 		addProperty(HBasePyramidIOFactory.HBASE_ZOOKEEPER_QUORUM);
 		addProperty(HBasePyramidIOFactory.HBASE_ZOKEEPER_PORT);
 		addProperty(HBasePyramidIOFactory.HBASE_MASTER);
+		addProperty(HBasePyramidIOFactory.HBASE_WRITE_BUFFER_SIZE);
+		addProperty(HBasePyramidIOFactory.HBASE_READ_BATCH_SIZE);
+		addProperty(HBasePyramidIOFactory.HBASE_ROW_KEY_LAYOUT);
 	}
 
 	@Override
@@ -50,7 +53,10 @@ public class HBaseSlicedPyramidIOFactory extends SharedInstanceFactory<PyramidIO
 			String quorum = getPropertyValue(HBasePyramidIOFactory.HBASE_ZOOKEEPER_QUORUM);
 			String port = getPropertyValue(HBasePyramidIOFactory.HBASE_ZOKEEPER_PORT);
 			String master = getPropertyValue(HBasePyramidIOFactory.HBASE_MASTER);
-			return new HBaseSlicedPyramidIO(quorum, port, master);
+			int writeBufferSize = getPropertyValue(HBasePyramidIOFactory.HBASE_WRITE_BUFFER_SIZE);
+			int readBatchSize = getPropertyValue(HBasePyramidIOFactory.HBASE_READ_BATCH_SIZE);
+			HBasePyramidIO.RowKeyLayout layout = getPropertyValue(HBasePyramidIOFactory.HBASE_ROW_KEY_LAYOUT);
+			return new HBaseSlicedPyramidIO(quorum, port, master, writeBufferSize, readBatchSize, layout);
 		}
 		catch (Exception e) {
 			LOGGER.error("Error trying to create HBaseSlicedPyramidIO", e);
@@ -40,6 +40,7 @@ import java.util.Properties;
 
 import com.oculusinfo.binning.TileData;
 import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.io.PyramidChangeNotifier;
 import com.oculusinfo.binning.io.PyramidIO;
 import com.oculusinfo.binning.io.serialization.TileSerializer;
 import org.json.JSONObject;
@@ -204,6 +205,7 @@ public class JDBCPyramidIO implements PyramidIO {
 
 			ps.executeBatch();
 			_connection.commit();
+			PyramidChangeNotifier.pyramidChanged(pyramidId);
 		} catch (Exception e) {
 			throw new IOException("Error writing tiles.", e);
 		} finally {
@@ -264,6 +266,7 @@ public class JDBCPyramidIO implements PyramidIO {
 
 			stmt = _connection.createStatement();
 			stmt.execute(sb.toString());
+			PyramidChangeNotifier.pyramidChanged(pyramidId);
 		} catch (SQLException e) {
 			throw new IOException("Error writing metadata.", e);
 		} finally {
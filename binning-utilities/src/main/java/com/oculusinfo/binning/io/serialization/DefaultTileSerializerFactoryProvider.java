@@ -32,6 +32,8 @@ import java.util.List;
 import java.util.Map;
 
 import com.oculusinfo.binning.io.serialization.impl.*;
+import com.oculusinfo.binning.util.HyperLogLog;
+import com.oculusinfo.binning.util.TDigest;
 import com.oculusinfo.binning.util.TypeDescriptor;
 import com.oculusinfo.factory.ConfigurableFactory;
 import com.oculusinfo.factory.providers.AbstractFactoryProvider;
@@ -106,6 +108,45 @@ public final class DefaultTileSerializerFactoryProvider
 
 
 
+	// Sketch serializers
+	public static final DefaultTileSerializerFactoryProvider HYPERLOGLOG_AVRO =
+		new DefaultTileSerializerFactoryProvider("hyperloglog_avro", new Constructor() {
+				@Override
+				public ConfigurableFactory<? extends TileSerializer<?>> create (ConfigurableFactory<?> parent,
+				                                                                List<String> path) {
+					return new HyperLogLogAvroSerializerFactory(parent, path);
+				}
+			});
+
+	public static final DefaultTileSerializerFactoryProvider TDIGEST_AVRO =
+		new DefaultTileSerializerFactoryProvider("tdigest_avro", new Constructor() {
+				@Override
+				public ConfigurableFactory<? extends TileSerializer<?>> create (ConfigurableFactory<?> parent,
+				                                                                List<String> path) {
+					return new TDigestAvroSerializerFactory(parent, path);
+				}
+			});
+
+	public static final DefaultTileSerializerFactoryProvider HYPERLOGLOG_KRYO =
+		new DefaultTileSerializerFactoryProvider("hyperloglog_kryo", new Constructor() {
+				@Override
+				public ConfigurableFactory<? extends TileSerializer<?>> create (ConfigurableFactory<?> parent,
+				                                                                List<String> path) {
+					return new KryoSerializerFactory<HyperLogLog>(parent, path, new TypeDescriptor(HyperLogLog.class));
+				}
+			});
+
+	public static final DefaultTileSerializerFactoryProvider TDIGEST_KRYO =
+		new DefaultTileSerializerFactoryProvider("tdigest_kryo", new Constructor() {
+				@Override
+				public ConfigurableFactory<? extends TileSerializer<?>> create (ConfigurableFactory<?> parent,
+				                                                                List<String> path) {
+					return new KryoSerializerFactory<TDigest>(parent, path, new TypeDescriptor(TDigest.class));
+				}
+			});
+
+
+
 	// Generified serializer types
 	// Single-value serialziers
 	public static final List<DefaultTileSerializerFactoryProvider> PRIMITIVES =
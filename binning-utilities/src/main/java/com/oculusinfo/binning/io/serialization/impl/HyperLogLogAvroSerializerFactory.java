@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.oculusinfo.binning.io.serialization.impl;
+
+import java.util.List;
+
+import com.oculusinfo.binning.io.serialization.TileSerializer;
+import com.oculusinfo.binning.io.serialization.TileSerializerFactory;
+import com.oculusinfo.binning.util.HyperLogLog;
+import com.oculusinfo.factory.ConfigurableFactory;
+
+/**
+ * This serializer factory constructs a
+ * {@link com.oculusinfo.binning.io.serialization.impl.HyperLogLogAvroSerializer},
+ * for use with tiles whose bin values are HyperLogLog distinct-count sketches.
+ */
+public class HyperLogLogAvroSerializerFactory extends ConfigurableFactory<TileSerializer<HyperLogLog>> {
+	public static final String NAME = "hyperloglog-a";
+
+	// This is the only way to get a generified class object, but because of erasure, it's guaranteed to work.
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	private static Class<TileSerializer<HyperLogLog>> getGenericSerializerClass () {
+		return (Class) TileSerializer.class;
+	}
+
+
+
+	public HyperLogLogAvroSerializerFactory (ConfigurableFactory<?> parent, List<String> path) {
+		super(NAME, getGenericSerializerClass(), parent, path);
+	}
+
+	@Override
+	protected TileSerializer<HyperLogLog> create () {
+		return new HyperLogLogAvroSerializer(TileSerializerFactory.getCodecFactory(this));
+	}
+}
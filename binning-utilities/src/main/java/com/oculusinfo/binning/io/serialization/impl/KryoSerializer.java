@@ -14,6 +14,7 @@ import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import com.oculusinfo.binning.TileData;
@@ -21,6 +22,8 @@ import com.oculusinfo.binning.TileIndex;
 import com.oculusinfo.binning.impl.DenseTileData;
 import com.oculusinfo.binning.impl.SparseTileData;
 import com.oculusinfo.binning.io.serialization.TileSerializer;
+import com.oculusinfo.binning.util.HyperLogLog;
+import com.oculusinfo.binning.util.TDigest;
 import com.oculusinfo.binning.util.TypeDescriptor;
 import com.oculusinfo.factory.util.Pair;
 
@@ -170,6 +173,8 @@ public class KryoSerializer<T> implements TileSerializer<T> {
 
 			// Our own standard types
 			kryo.register(Pair.class);
+			kryo.register(HyperLogLog.class, new HyperLogLogKryoSerializer());
+			kryo.register(TDigest.class, new TDigestKryoSerializer());
 
 			// And our custom classes
 			for (Class<?> ctr: _classesToRegister) {
@@ -179,6 +184,35 @@ public class KryoSerializer<T> implements TileSerializer<T> {
 		}
 	}
 
+	// Sketches are written in their own compact binary forms, rather than field-by-field
+	private static class HyperLogLogKryoSerializer extends Serializer<HyperLogLog> {
+		@Override
+		public void write (Kryo kryo, Output output, HyperLogLog sketch) {
+			byte[] bytes = sketch.toBytes();
+			output.writeInt(bytes.length, true);
+			output.writeBytes(bytes);
+		}
+
+		@Override
+		public HyperLogLog read (Kryo kryo, Input input, Class<HyperLogLog> type) {
+			return HyperLogLog.fromBytes(input.readBytes(input.readInt(true)));
+		}
+	}
+
+	private static class TDigestKryoSerializer extends Serializer<TDigest> {
+		@Override
+		public void write (Kryo kryo, Output output, TDigest digest) {
+			byte[] bytes = digest.toBytes();
+			output.writeInt(bytes.length, true);
+			output.writeBytes(bytes);
+		}
+
+		@Override
+		public TDigest read (Kryo kryo, Input input, Class<TDigest> type) {
+			return TDigest.fromBytes(input.readBytes(input.readInt(true)));
+		}
+	}
+
 	/**
 	 * This is just a quick wrapping InputStream to get around a bug in apache commons bzip
 	 * uncompression, where when it is passed a buffer into which to read, and told to offset by
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.oculusinfo.binning.io.serialization.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.generic.GenericRecord;
+
+import com.oculusinfo.binning.io.serialization.AvroSchemaComposer;
+import com.oculusinfo.binning.io.serialization.GenericAvroSerializer;
+import com.oculusinfo.binning.util.TDigest;
+import com.oculusinfo.binning.util.TypeDescriptor;
+
+/**
+ * A serializer to serialize tiles whose bin values are t-digest quantile sketches.  Each bin is
+ * stored as the sketch's compact binary form (see {@link TDigest#toBytes()}), so
+ * tiles can be read back and merged with further data.
+ */
+public class TDigestAvroSerializer extends GenericAvroSerializer<TDigest> {
+	private static final long serialVersionUID = 1L;
+
+	private static final String SCHEMA =
+		"{\n" +
+		"  \"name\":\"recordType\",\n" +
+		"  \"namespace\":\"ar.avro\",\n" +
+		"  \"type\":\"record\",\n" +
+		"  \"fields\":[\n" +
+		"    {\"name\":\"value\", \"type\":\"bytes\"}\n" +
+		"  ]\n" +
+		"}";
+
+
+
+	private transient Schema _schema = null;
+
+	public TDigestAvroSerializer (CodecFactory compressionCodec) {
+		super(compressionCodec, new TypeDescriptor(TDigest.class));
+	}
+
+	@Override
+	protected String getRecordSchemaFile () {
+		throw new UnsupportedOperationException("Sketch types have standard schema; schema files should not be required.");
+	}
+
+	@Override
+	protected Schema createRecordSchema () throws IOException {
+		if (null == _schema) {
+			_schema = new AvroSchemaComposer().add(SCHEMA).resolved();
+		}
+		return _schema;
+	}
+
+	@Override
+	protected TDigest getValue (GenericRecord bin) {
+		if (null == bin || null == bin.get("value")) {
+			return null;
+		}
+		ByteBuffer buffer = (ByteBuffer) bin.get("value");
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return TDigest.fromBytes(bytes);
+	}
+
+	@Override
+	protected void setValue (GenericRecord bin, TDigest value) throws IOException {
+		if (null == value) throw new IOException("Null value for bin");
+		bin.put("value", ByteBuffer.wrap(value.toBytes()));
+	}
+}
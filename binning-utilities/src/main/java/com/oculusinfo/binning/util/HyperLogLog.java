@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.oculusinfo.binning.util;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A HyperLogLog sketch, for estimating the number of distinct values seen in
+ * a stream using a fixed, small amount of memory.
+ *
+ * Sketches are immutable; {@link #merge(HyperLogLog)} returns a new sketch and
+ * never modifies either input, so a single sketch may safely be shared between
+ * several bins or tiles.  Merging is exactly associative and commutative.
+ *
+ * Small sketches are kept in a sparse form (one int per non-empty register),
+ * and are only expanded into a full register array once that becomes the
+ * cheaper representation; memory use is therefore bounded by 2^precision
+ * bytes no matter how many values are offered.
+ */
+public class HyperLogLog implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public static final int MIN_PRECISION     = 4;
+	public static final int MAX_PRECISION     = 16;
+	public static final int DEFAULT_PRECISION = 12;
+
+	private static final byte SPARSE_FORMAT = 0;
+	private static final byte DENSE_FORMAT  = 1;
+
+
+
+	/**
+	 * Hash an arbitrary value into 64 bits.  Numbers are hashed by value, so
+	 * that, for instance, an Integer and a Long with the same value hash
+	 * identically; everything else is hashed by its string form.  The hash
+	 * is stable across JVMs, which Object.hashCode is not.
+	 */
+	public static long hash (Object value) {
+		if (null == value) return mix(0L);
+		if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+			return mix(((Number) value).longValue());
+		if (value instanceof Double || value instanceof Float) {
+			double d = ((Number) value).doubleValue();
+			if (d == Math.rint(d) && !Double.isInfinite(d) && Math.abs(d) < Long.MAX_VALUE)
+				return mix((long) d);
+			return mix(Double.doubleToLongBits(d));
+		}
+
+		// 64-bit FNV-1a over the characters of the string form, then mixed
+		String string = value.toString();
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < string.length(); ++i) {
+			h ^= string.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	// The finalization step of MurmurHash3, to spread bits over the whole word
+	private static long mix (long h) {
+		h ^= (h >>> 33);
+		h *= 0xff51afd7ed558ccdL;
+		h ^= (h >>> 33);
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= (h >>> 33);
+		return h;
+	}
+
+	/**
+	 * Create a sketch containing a single value
+	 */
+	public static HyperLogLog of (int precision, Object value) {
+		HyperLogLog result = new HyperLogLog(precision);
+		long h = hash(value);
+		int index = (int) (h >>> (64 - precision));
+		int rank = Math.min(Long.numberOfLeadingZeros(h << precision), 64 - precision) + 1;
+		result._sparse = new int[] {encode(index, rank)};
+		return result;
+	}
+
+	private static int encode (int index, int rank) {
+		return (index << 8) | rank;
+	}
+
+
+
+	private final int _precision;
+	// Sorted register entries, encoded as (index << 8 | rank); null once dense
+	private int[]     _sparse;
+	// Full register array; null while sparse
+	private byte[]    _registers;
+
+	/**
+	 * Create an empty sketch.
+	 *
+	 * @param precision The number of bits of each hash used to choose a
+	 *            register; the sketch has 2^precision registers, and a
+	 *            relative standard error of about 1.04/sqrt(2^precision).
+	 */
+	public HyperLogLog (int precision) {
+		if (precision < MIN_PRECISION || precision > MAX_PRECISION)
+			throw new IllegalArgumentException("HyperLogLog precision must be between "+MIN_PRECISION+" and "+MAX_PRECISION+", was "+precision);
+		_precision = precision;
+		_sparse = new int[0];
+		_registers = null;
+	}
+
+	public int getPrecision () {
+		return _precision;
+	}
+
+	private int getNumRegisters () {
+		return 1 << _precision;
+	}
+
+	// Past this many entries, the sparse form takes more room than the dense one
+	private int getSparseLimit () {
+		return getNumRegisters() / 4;
+	}
+
+	/**
+	 * Combine this sketch with another of the same precision.  Neither input
+	 * is modified.
+	 *
+	 * @return A sketch estimating the number of distinct values seen by
+	 *         either input
+	 */
+	public HyperLogLog merge (HyperLogLog that) {
+		if (null == that || that.isEmpty()) return this;
+		if (this.isEmpty()) return that;
+		if (_precision != that._precision)
+			throw new IllegalArgumentException("Attempt to merge HyperLogLog sketches of differing precision ("+_precision+" and "+that._precision+")");
+
+		HyperLogLog result = new HyperLogLog(_precision);
+		if (null != _sparse && null != that._sparse) {
+			int[] merged = mergeSparse(_sparse, that._sparse);
+			if (merged.length <= getSparseLimit()) {
+				result._sparse = merged;
+				return result;
+			}
+			result._sparse = null;
+			result._registers = new byte[getNumRegisters()];
+			applySparse(result._registers, merged);
+		} else {
+			result._sparse = null;
+			if (null != _registers) {
+				result._registers = Arrays.copyOf(_registers, _registers.length);
+				that.applyTo(result._registers);
+			} else {
+				result._registers = Arrays.copyOf(that._registers, that._registers.length);
+				applyTo(result._registers);
+			}
+		}
+		return result;
+	}
+
+	private static int[] mergeSparse (int[] a, int[] b) {
+		int[] result = new int[a.length + b.length];
+		int i = 0, j = 0, n = 0;
+		while (i < a.length && j < b.length) {
+			int ia = a[i] >>> 8;
+			int ib = b[j] >>> 8;
+			if (ia < ib) result[n++] = a[i++];
+			else if (ib < ia) result[n++] = b[j++];
+			else {
+				result[n++] = Math.max(a[i++], b[j++]);
+			}
+		}
+		while (i < a.length) result[n++] = a[i++];
+		while (j < b.length) result[n++] = b[j++];
+		return n == result.length ? result : Arrays.copyOf(result, n);
+	}
+
+	private static void applySparse (byte[] registers, int[] sparse) {
+		for (int entry: sparse) {
+			int index = entry >>> 8;
+			byte rank = (byte) (entry & 0xff);
+			if (registers[index] < rank) registers[index] = rank;
+		}
+	}
+
+	private void applyTo (byte[] registers) {
+		if (null != _sparse) {
+			applySparse(registers, _sparse);
+		} else {
+			for (int i = 0; i < registers.length; ++i)
+				if (registers[i] < _registers[i]) registers[i] = _registers[i];
+		}
+	}
+
+	public boolean isEmpty () {
+		return null != _sparse && 0 == _sparse.length;
+	}
+
+	/**
+	 * Estimate the number of distinct values offered to this sketch.
+	 */
+	public long cardinality () {
+		int m = getNumRegisters();
+		double sum = 0.0;
+		int zeros = 0;
+		if (null != _sparse) {
+			zeros = m - _sparse.length;
+			sum = zeros;
+			for (int entry: _sparse) sum += Math.scalb(1.0, -(entry & 0xff));
+		} else {
+			for (byte rank: _registers) {
+				if (0 == rank) ++zeros;
+				sum += Math.scalb(1.0, -rank);
+			}
+		}
+
+		double alpha;
+		if (16 == m) alpha = 0.673;
+		else if (32 == m) alpha = 0.697;
+		else if (64 == m) alpha = 0.709;
+		else alpha = 0.7213 / (1.0 + 1.079 / m);
+
+		double estimate = alpha * m * m / sum;
+		// Small-range correction: linear counting is more accurate while
+		// there are still empty registers.  With 64-bit hashes, no
+		// large-range correction is needed.
+		if (estimate <= 2.5 * m && zeros > 0)
+			estimate = m * Math.log((double) m / zeros);
+		return Math.round(estimate);
+	}
+
+
+
+	/**
+	 * Get a compact binary form of this sketch, readable by
+	 * {@link #fromBytes(byte[])}.  Sparse sketches take 3 bytes per non-empty
+	 * register; dense ones take one byte per register.
+	 */
+	public byte[] toBytes () {
+		ByteBuffer buffer;
+		if (null != _sparse) {
+			buffer = ByteBuffer.allocate(6 + 3 * _sparse.length);
+			buffer.put((byte) _precision);
+			buffer.put(SPARSE_FORMAT);
+			buffer.putInt(_sparse.length);
+			for (int entry: _sparse) {
+				buffer.putShort((short) (entry >>> 8));
+				buffer.put((byte) (entry & 0xff));
+			}
+		} else {
+			buffer = ByteBuffer.allocate(2 + _registers.length);
+			buffer.put((byte) _precision);
+			buffer.put(DENSE_FORMAT);
+			buffer.put(_registers);
+		}
+		return buffer.array();
+	}
+
+	public static HyperLogLog fromBytes (byte[] bytes) {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		HyperLogLog result = new HyperLogLog(buffer.get());
+		byte format = buffer.get();
+		if (SPARSE_FORMAT == format) {
+			int[] sparse = new int[buffer.getInt()];
+			for (int i = 0; i < sparse.length; ++i) {
+				int index = buffer.getShort() & 0xffff;
+				int rank = buffer.get();
+				sparse[i] = encode(index, rank);
+			}
+			result._sparse = sparse;
+		} else if (DENSE_FORMAT == format) {
+			result._sparse = null;
+			result._registers = new byte[result.getNumRegisters()];
+			buffer.get(result._registers);
+		} else {
+			throw new IllegalArgumentException("Unrecognized HyperLogLog format "+format);
+		}
+		return result;
+	}
+
+
+
+	@Override
+	public boolean equals (Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof HyperLogLog)) return false;
+		HyperLogLog that = (HyperLogLog) obj;
+		if (_precision != that._precision) return false;
+		if (null != _sparse && null != that._sparse) return Arrays.equals(_sparse, that._sparse);
+		byte[] mine = new byte[getNumRegisters()];
+		byte[] theirs = new byte[getNumRegisters()];
+		applyTo(mine);
+		that.applyTo(theirs);
+		return Arrays.equals(mine, theirs);
+	}
+
+	@Override
+	public int hashCode () {
+		byte[] registers = new byte[getNumRegisters()];
+		applyTo(registers);
+		return 31 * _precision + Arrays.hashCode(registers);
+	}
+
+	@Override
+	public String toString () {
+		return "HyperLogLog[precision="+_precision+", cardinality="+cardinality()+"]";
+	}
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.oculusinfo.binning.util;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * A merging t-digest, for estimating quantiles of a stream of numbers using a
+ * bounded amount of memory.
+ *
+ * The digest keeps a sorted list of weighted centroids, compressed so that
+ * centroids near the extremes of the distribution stay small (and hence
+ * accurate) while those in the middle may grow.  With compression δ, a digest
+ * never holds more than about δ centroids, however many values it has seen.
+ *
+ * Digests are immutable; {@link #merge(TDigest)} returns a new digest and never
+ * modifies either input.  Merging is associative up to the accuracy of the
+ * digest - the order in which digests are combined may change individual
+ * centroids, but not the error bounds of the quantiles they produce.
+ */
+public class TDigest implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public static final double DEFAULT_COMPRESSION = 100.0;
+
+
+
+	/**
+	 * Create a digest containing a single value
+	 */
+	public static TDigest of (double compression, double value) {
+		return new TDigest(compression, new double[] {value}, new double[] {1.0}, 1, value, value);
+	}
+
+
+
+	private final double   _compression;
+	private final double[] _means;
+	private final double[] _weights;
+	private final int      _size;
+	private final double   _totalWeight;
+	private final double   _min;
+	private final double   _max;
+
+	/**
+	 * Create an empty digest.
+	 *
+	 * @param compression The compression factor of the digest; larger values
+	 *            give more accurate quantiles at the cost of more centroids.
+	 */
+	public TDigest (double compression) {
+		this(compression, new double[0], new double[0], 0, Double.NaN, Double.NaN);
+	}
+
+	private TDigest (double compression, double[] means, double[] weights, int size, double min, double max) {
+		if (!(compression >= 1.0))
+			throw new IllegalArgumentException("T-digest compression must be at least 1, was "+compression);
+		_compression = compression;
+		_means = means;
+		_weights = weights;
+		_size = size;
+		double total = 0.0;
+		for (int i = 0; i < size; ++i) total += weights[i];
+		_totalWeight = total;
+		_min = min;
+		_max = max;
+	}
+
+	public double getCompression () {
+		return _compression;
+	}
+
+	/** The number of values this digest represents */
+	public double getCount () {
+		return _totalWeight;
+	}
+
+	/** The number of centroids currently held by this digest */
+	public int getCentroidCount () {
+		return _size;
+	}
+
+	public double getMin () {
+		return _min;
+	}
+
+	public double getMax () {
+		return _max;
+	}
+
+	public boolean isEmpty () {
+		return 0 == _size;
+	}
+
+	/**
+	 * Combine this digest with another.  Neither input is modified.  The
+	 * result uses the compression of this digest.
+	 */
+	public TDigest merge (TDigest that) {
+		if (null == that || that.isEmpty()) return this;
+		if (this.isEmpty()) return that;
+
+		// Merge our two sorted centroid lists, then compress the result
+		int n = _size + that._size;
+		double[] means = new double[n];
+		double[] weights = new double[n];
+		int i = 0, j = 0, k = 0;
+		while (i < _size && j < that._size) {
+			if (_means[i] <= that._means[j]) {
+				means[k] = _means[i]; weights[k] = _weights[i]; ++i;
+			} else {
+				means[k] = that._means[j]; weights[k] = that._weights[j]; ++j;
+			}
+			++k;
+		}
+		for (; i < _size; ++i, ++k) {
+			means[k] = _means[i]; weights[k] = _weights[i];
+		}
+		for (; j < that._size; ++j, ++k) {
+			means[k] = that._means[j]; weights[k] = that._weights[j];
+		}
+		return compress(_compression, means, weights, n,
+		                Math.min(_min, that._min), Math.max(_max, that._max));
+	}
+
+	// The k1 scale function; centroids may only be merged while they span at
+	// most one unit of k.
+	private static double scale (double compression, double q) {
+		return compression / (2.0 * Math.PI) * Math.asin(2.0 * q - 1.0);
+	}
+
+	// Compress the given sorted centroids in place
+	private static TDigest compress (double compression, double[] means, double[] weights, int n,
+	                                 double min, double max) {
+		double total = 0.0;
+		for (int i = 0; i < n; ++i) total += weights[i];
+
+		int size = 0;
+		double weightSoFar = 0.0;
+		double currentMean = means[0];
+		double currentWeight = weights[0];
+		double kLow = scale(compression, 0.0);
+		for (int i = 1; i < n; ++i) {
+			double proposedWeight = currentWeight + weights[i];
+			double q = Math.min(1.0, (weightSoFar + proposedWeight) / total);
+			if (scale(compression, q) - kLow <= 1.0) {
+				currentMean += (means[i] - currentMean) * weights[i] / proposedWeight;
+				currentWeight = proposedWeight;
+			} else {
+				means[size] = currentMean;
+				weights[size] = currentWeight;
+				++size;
+				weightSoFar += currentWeight;
+				kLow = scale(compression, Math.min(1.0, weightSoFar / total));
+				currentMean = means[i];
+				currentWeight = weights[i];
+			}
+		}
+		means[size] = currentMean;
+		weights[size] = currentWeight;
+		++size;
+
+		return new TDigest(compression, means, weights, size, min, max);
+	}
+
+	/**
+	 * Estimate the value at a given quantile.
+	 *
+	 * @param q The quantile, from 0 to 1
+	 * @return The estimated value, or NaN if this digest is empty
+	 */
+	public double quantile (double q) {
+		if (isEmpty()) return Double.NaN;
+		if (q <= 0.0) return _min;
+		if (q >= 1.0) return _max;
+
+		// Each centroid is treated as sitting at the middle of its weight;
+		// interpolate linearly between neighbouring centroids, and between
+		// the outer centroids and the known extrema.
+		double target = q * _totalWeight;
+		double cumulative = 0.0;
+		double previousPosition = 0.0;
+		double previousValue = _min;
+		for (int i = 0; i < _size; ++i) {
+			double position = cumulative + _weights[i] / 2.0;
+			if (target < position) {
+				return interpolate(previousPosition, previousValue, position, _means[i], target);
+			}
+			cumulative += _weights[i];
+			previousPosition = position;
+			previousValue = _means[i];
+		}
+		return interpolate(previousPosition, previousValue, _totalWeight, _max, target);
+	}
+
+	private static double interpolate (double x0, double y0, double x1, double y1, double x) {
+		if (x1 <= x0) return y1;
+		return y0 + (y1 - y0) * (x - x0) / (x1 - x0);
+	}
+
+
+
+	/**
+	 * Get a compact binary form of this digest, readable by
+	 * {@link #fromBytes(byte[])}.  This takes 16 bytes per centroid, plus a
+	 * small fixed header.
+	 */
+	public byte[] toBytes () {
+		ByteBuffer buffer = ByteBuffer.allocate(28 + 16 * _size);
+		buffer.putDouble(_compression);
+		buffer.putDouble(_min);
+		buffer.putDouble(_max);
+		buffer.putInt(_size);
+		for (int i = 0; i < _size; ++i) {
+			buffer.putDouble(_means[i]);
+			buffer.putDouble(_weights[i]);
+		}
+		return buffer.array();
+	}
+
+	public static TDigest fromBytes (byte[] bytes) {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		double compression = buffer.getDouble();
+		double min = buffer.getDouble();
+		double max = buffer.getDouble();
+		int size = buffer.getInt();
+		double[] means = new double[size];
+		double[] weights = new double[size];
+		for (int i = 0; i < size; ++i) {
+			means[i] = buffer.getDouble();
+			weights[i] = buffer.getDouble();
+		}
+		return new TDigest(compression, means, weights, size, min, max);
+	}
+
+
+
+	@Override
+	public boolean equals (Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof TDigest)) return false;
+		TDigest that = (TDigest) obj;
+		if (_compression != that._compression || _size != that._size) return false;
+		if (0 == _size) return true;
+		if (_min != that._min || _max != that._max) return false;
+		for (int i = 0; i < _size; ++i) {
+			if (_means[i] != that._means[i] || _weights[i] != that._weights[i]) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode () {
+		int hash = Double.valueOf(_compression).hashCode();
+		for (int i = 0; i < _size; ++i) {
+			hash = 31 * hash + Double.valueOf(_means[i]).hashCode();
+			hash = 31 * hash + Double.valueOf(_weights[i]).hashCode();
+		}
+		return hash;
+	}
+
+	@Override
+	public String toString () {
+		return "TDigest[count="+_totalWeight+", centroids="+_size+", median="+quantile(0.5)+"]";
+	}
+}
@@ -132,6 +132,21 @@ public class PyramidComparatorTests {
 			}
 		}
 	}
+
+	@Test
+	public void testMortonCodes () {
+		for (int x = 0; x < 8; ++x) {
+			for (int y = 0; y < 8; ++y) {
+				int order = _order.get(y).get(x);
+				Assert.assertEquals(String.format("Bad morton code for [%d, %d]", x, y),
+				                    order - 1, PyramidComparator.getMortonCode(x, y));
+			}
+		}
+		// Make sure the full range of tile coordinates is interleaved properly
+		Assert.assertEquals(0x5555555555555555L, PyramidComparator.getMortonCode(0xFFFFFFFFL, 0));
+		Assert.assertEquals(0xAAAAAAAAAAAAAAAAL, PyramidComparator.getMortonCode(0, 0xFFFFFFFFL));
+	}
+
 	@Test
 	public void testTileComparisons () {
 		for (int L1 = 0; L1 < 5; ++L1) {
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.io.impl;
+
+import com.oculusinfo.binning.BinIndex;
+import com.oculusinfo.binning.TileData;
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.TilePyramid;
+import com.oculusinfo.binning.impl.AOITilePyramid;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.NodeBuilder;
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests reading tiles from an embedded, local elasticsearch node
+ */
+public class ElasticsearchPyramidIOTest {
+	private static final String INDEX = "es-pyramid-test";
+	private static final int POINTS = 200;
+
+	private static File _dataDir;
+	private static Node _node;
+	private static Client _client;
+	private static int _nextId;
+
+	private TilePyramid _pyramid;
+
+	@BeforeClass
+	public static void startNode () throws Exception {
+		_dataDir = Files.createTempDirectory("es-pyramid-test").toFile();
+		_node = NodeBuilder.nodeBuilder()
+			.local(true)
+			.clusterName("es-pyramid-test-"+System.nanoTime())
+			.settings(ImmutableSettings.settingsBuilder()
+			          .put("path.home", _dataDir.getAbsolutePath())
+			          .put("http.enabled", false)
+			          .put("index.number_of_shards", 1)
+			          .put("index.number_of_replicas", 0))
+			.node();
+		_client = _node.client();
+		_client.admin().indices().prepareCreate(INDEX)
+			.addMapping("datum", "x", "type=double", "y", "type=double", "value", "type=integer")
+			.get();
+		_client.admin().cluster().prepareHealth(INDEX).setWaitForGreenStatus().get();
+
+		BulkRequestBuilder bulk = _client.prepareBulk();
+		for (int i = 0; i < POINTS; ++i) {
+			bulk.add(_client.prepareIndex(INDEX, "datum", ""+(_nextId++)).setSource(point(i)));
+		}
+		bulk.setRefresh(true).get();
+	}
+
+	@AfterClass
+	public static void stopNode () throws Exception {
+		_client.close();
+		_node.close();
+		deleteRecursively(_dataDir);
+	}
+
+	private static void deleteRecursively (File file) {
+		File[] children = file.listFiles();
+		if (null != children) {
+			for (File child: children) deleteRecursively(child);
+		}
+		file.delete();
+	}
+
+	// Points sit on even coordinates, so each falls exactly on a histogram bucket key at level 1
+	private static Map<String, Object> point (int i) {
+		Map<String, Object> source = new HashMap<>();
+		source.put("x", (double) ((i * 37) % 512) * 2);
+		source.put("y", (double) ((i * 91) % 512) * 2);
+		source.put("value", i);
+		return source;
+	}
+
+	@Before
+	public void setup () {
+		_pyramid = new AOITilePyramid(0, 0, 1024, 1024);
+	}
+
+	private ElasticsearchPyramidIO createIO (long cacheTTL) {
+		return new ElasticsearchPyramidIO(_client, INDEX, "x", "y", _pyramid, 1, cacheTTL, 100);
+	}
+
+	private List<TileIndex> levelOneTiles () {
+		return Arrays.asList(new TileIndex(1, 0, 0), new TileIndex(1, 1, 0),
+		                     new TileIndex(1, 0, 1), new TileIndex(1, 1, 1));
+	}
+
+	private static long total (TileData<?> tile) {
+		long sum = 0;
+		for (int x = 0; x < tile.getDefinition().getXBins(); ++x) {
+			for (int y = 0; y < tile.getDefinition().getYBins(); ++y) {
+				sum += ((Number) tile.getBin(x, y)).longValue();
+			}
+		}
+		return sum;
+	}
+
+	@Test
+	public void testReadRequestTiles () throws Exception {
+		ElasticsearchPyramidIO io = createIO(0);
+
+		// Figure out where each point should end up
+		Map<TileIndex, Long> expectedTotals = new HashMap<>();
+		Map<TileIndex, Map<BinIndex, Long>> expectedBins = new HashMap<>();
+		for (int i = 0; i < POINTS; ++i) {
+			Map<String, Object> p = point(i);
+			double x = (Double) p.get("x");
+			double y = (Double) p.get("y");
+			TileIndex tile = _pyramid.rootToTile(x, y, 1);
+			BinIndex bin = _pyramid.rootToBin(x, y, tile);
+			Long total = expectedTotals.get(tile);
+			expectedTotals.put(tile, null == total ? 1L : total + 1L);
+			if (!expectedBins.containsKey(tile)) expectedBins.put(tile, new HashMap<BinIndex, Long>());
+			Long count = expectedBins.get(tile).get(bin);
+			expectedBins.get(tile).put(bin, null == count ? 1L : count + 1L);
+		}
+
+		List<TileData<Long>> tiles = io.readTiles("test", null, levelOneTiles());
+		Assert.assertEquals(expectedTotals.size(), tiles.size());
+		for (TileData<Long> tile: tiles) {
+			TileIndex index = tile.getDefinition();
+			Assert.assertEquals(expectedTotals.get(index).longValue(), total(tile));
+			for (Map.Entry<BinIndex, Long> entry: expectedBins.get(index).entrySet()) {
+				BinIndex bin = entry.getKey();
+				Assert.assertEquals(entry.getValue(), tile.getBin(bin.getX(), bin.getY()));
+			}
+		}
+	}
+
+	@Test
+	public void testFilteredRead () throws Exception {
+		ElasticsearchPyramidIO io = createIO(0);
+
+		JSONObject filter = new JSONObject();
+		filter.put("lowValues", new JSONObject("{\"type\": \"range\", \"path\": \"value\", \"from\": 0, \"to\": 49}"));
+
+		long sum = 0;
+		for (TileData<Long> tile: io.<Long>readTiles("test", null, levelOneTiles(), filter)) {
+			sum += total(tile);
+		}
+		Assert.assertEquals(50, sum);
+	}
+
+	@Test
+	public void testCachedRead () throws Exception {
+		ElasticsearchPyramidIO cachingIO = createIO(60000);
+		ElasticsearchPyramidIO uncachedIO = createIO(0);
+		List<TileIndex> tiles = Arrays.asList(new TileIndex(0, 0, 0));
+
+		long before = total(cachingIO.<Long>readTiles("test", null, tiles).get(0));
+		Assert.assertEquals(POINTS, before);
+
+		// Add one more point, which the caching IO shouldn't see until its cache expires
+		_client.prepareIndex(INDEX, "datum", ""+(_nextId++)).setSource(point(0)).setRefresh(true).get();
+		try {
+			Assert.assertEquals(POINTS, total(cachingIO.<Long>readTiles("test", null, tiles).get(0)));
+			Assert.assertEquals(POINTS + 1, total(uncachedIO.<Long>readTiles("test", null, tiles).get(0)));
+		} finally {
+			_client.prepareDelete(INDEX, "datum", ""+(_nextId - 1)).setRefresh(true).get();
+		}
+	}
+
+	@Test
+	public void testPartlyCachedReadKeepsRequestOrder () throws Exception {
+		ElasticsearchPyramidIO io = createIO(60000);
+		List<TileIndex> tiles = levelOneTiles();
+
+		// Cache the last tile only, so it is served before the others are searched
+		io.<Long>readTiles("test", null, tiles.subList(3, 4));
+
+		List<TileData<Long>> read = io.readTiles("test", null, tiles);
+		Assert.assertEquals(tiles.size(), read.size());
+		for (int i = 0; i < tiles.size(); ++i) {
+			Assert.assertEquals(tiles.get(i), read.get(i).getDefinition());
+		}
+	}
+
+	@Test
+	public void testFailedRead () throws Exception {
+		ElasticsearchPyramidIO io = createIO(60000);
+
+		// A range that can't be parsed as a number fails every search
+		JSONObject filter = new JSONObject();
+		filter.put("badValues", new JSONObject("{\"type\": \"range\", \"path\": \"value\", \"from\": \"low\"}"));
+
+		for (int attempt = 0; attempt < 2; ++attempt) {
+			try {
+				io.readTiles("test", null, levelOneTiles(), filter);
+				Assert.fail("Failed searches should fail the read");
+			} catch (IOException e) {
+				// Every failed tile should be named, and none should have been cached as empty
+				for (TileIndex tile: levelOneTiles()) {
+					Assert.assertTrue(e.getMessage().contains(tile.toString()));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.io.impl;
+
+import com.oculusinfo.binning.TileData;
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.impl.DenseTileData;
+import com.oculusinfo.binning.io.serialization.TileSerializer;
+import com.oculusinfo.binning.io.serialization.impl.PrimitiveAvroSerializer;
+import org.apache.avro.file.CodecFactory;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares reading viewports of tiles from a string-keyed table, which reads them with multi-gets,
+ * against reading them from a Morton-keyed table, which reads them with scans.  Needs a local
+ * HBase instance.
+ */
+@Ignore
+public class HBasePyramidIOBenchmark {
+	private static final int LEVEL      = 8;
+	private static final int BLOCK      = 64;
+	private static final int BINS       = 64;
+	private static final int ITERATIONS = 200;
+	// Viewport sizes, in tiles, of a few typical screens
+	private static final int[][] VIEWPORTS = {{4, 3}, {6, 4}, {8, 5}};
+
+	@Test
+	public void testViewportReadSpeed () throws Exception {
+		TileSerializer<Double> serializer = new PrimitiveAvroSerializer<>(Double.class, CodecFactory.deflateCodec(4));
+		HBasePyramidIO stringIO = new HBasePyramidIO("localhost", "2181", "localhost:16000",
+			HBaseAccess.DEFAULT_WRITE_BUFFER_SIZE, HBaseAccess.DEFAULT_READ_BATCH_SIZE, HBasePyramidIO.RowKeyLayout.STRING);
+		HBasePyramidIO mortonIO = new HBasePyramidIO("localhost", "2181", "localhost:16000",
+			HBaseAccess.DEFAULT_WRITE_BUFFER_SIZE, HBaseAccess.DEFAULT_READ_BATCH_SIZE, HBasePyramidIO.RowKeyLayout.MORTON);
+		String stringTable = "hbpioBenchmark-string";
+		String mortonTable = "hbpioBenchmark-morton";
+		try {
+			stringIO.initializeForWrite(stringTable);
+			mortonIO.initializeForWrite(mortonTable);
+			Random random = new Random(31);
+			for (int x = 0; x < BLOCK; ++x) {
+				List<TileData<Double>> column = new ArrayList<>();
+				for (int y = 0; y < BLOCK; ++y) {
+					TileData<Double> tile = new DenseTileData<>(new TileIndex(LEVEL, x, y, BINS, BINS));
+					for (int bx = 0; bx < BINS; ++bx) {
+						for (int by = 0; by < BINS; ++by) {
+							tile.setBin(bx, by, random.nextDouble());
+						}
+					}
+					column.add(tile);
+				}
+				stringIO.writeTiles(stringTable, serializer, column);
+				mortonIO.writeTiles(mortonTable, serializer, column);
+			}
+
+			for (int[] viewport: VIEWPORTS) {
+				List<List<TileIndex>> requests = new ArrayList<>();
+				for (int i = 0; i < ITERATIONS; ++i) {
+					int x0 = random.nextInt(BLOCK - viewport[0]);
+					int y0 = random.nextInt(BLOCK - viewport[1]);
+					List<TileIndex> request = new ArrayList<>();
+					for (int y = y0 + viewport[1] - 1; y >= y0; --y) {
+						for (int x = x0; x < x0 + viewport[0]; ++x) {
+							request.add(new TileIndex(LEVEL, x, y, BINS, BINS));
+						}
+					}
+					requests.add(request);
+				}
+
+				// Warm both tables up before timing them
+				for (List<TileIndex> request: requests.subList(0, 10)) {
+					stringIO.readTiles(stringTable, serializer, request);
+					mortonIO.readTiles(mortonTable, serializer, request);
+				}
+
+				long startGets = System.currentTimeMillis();
+				for (List<TileIndex> request: requests) {
+					Assert.assertEquals(request.size(), stringIO.readTiles(stringTable, serializer, request).size());
+				}
+				long endGets = System.currentTimeMillis();
+
+				long startScans = System.currentTimeMillis();
+				for (List<TileIndex> request: requests) {
+					Assert.assertEquals(request.size(), mortonIO.readTiles(mortonTable, serializer, request).size());
+				}
+				long endScans = System.currentTimeMillis();
+
+				System.out.println("Viewport "+viewport[0]+"x"+viewport[1]+":");
+				System.out.println("\tTime per viewport with gets:  "+((endGets - startGets) / (double) ITERATIONS)+"ms");
+				System.out.println("\tTime per viewport with scans: "+((endScans - startScans) / (double) ITERATIONS)+"ms");
+			}
+		} finally {
+			stringIO.dropTable(stringTable);
+			mortonIO.dropTable(mortonTable);
+			stringIO.close();
+			mortonIO.close();
+		}
+	}
+}
@@ -0,0 +1,438 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.io.impl;
+
+import com.oculusinfo.binning.TileData;
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.impl.DenseTileData;
+import com.oculusinfo.binning.io.serialization.TileSerializer;
+import com.oculusinfo.binning.io.serialization.impl.PrimitiveAvroSerializer;
+import org.apache.avro.file.CodecFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Tests HBasePyramidIO, and the HBase access layer under it, against an in-memory stand-in for
+ * HBase.  The stand-in splits each table into two regions, at the start of level 5, and records
+ * how it is used.
+ */
+public class HBasePyramidIOTest {
+	private static final String TABLE = "hbpioTest";
+	private static final byte[] SPLIT_KEY = "05".getBytes();
+
+	private InMemoryHBase _hbase;
+	private HBasePyramidIO _io;
+	private TileSerializer<Integer> _serializer;
+
+	@Before
+	public void setup () throws Exception {
+		_hbase = new InMemoryHBase();
+		_io = new HBasePyramidIO(_hbase.getConnection(), 1024, 3, HBasePyramidIO.RowKeyLayout.STRING);
+		_serializer = new PrimitiveAvroSerializer<>(Integer.class, CodecFactory.nullCodec());
+	}
+
+	@Test
+	public void testRowIdsMatchFormattedIds () {
+		Random random = new Random(13);
+		for (int level = 0; level < 25; ++level) {
+			int size = 1 << level;
+			int[] coordinates = {0, size - 1, random.nextInt(size), random.nextInt(size)};
+			for (int x: coordinates) {
+				for (int y: coordinates) {
+					TileIndex index = new TileIndex(level, x, y);
+					int digits = (int) Math.floor(Math.log10(1 << level))+1;
+					String expected = String.format("%02d,%0"+digits+"d,%0"+digits+"d", level, x, y);
+					Assert.assertEquals(expected, HBasePyramidIO.rowIdFromTileIndex(index));
+					Assert.assertArrayEquals(expected.getBytes(), HBasePyramidIO.rowKeyFromTileIndex(index));
+					Assert.assertEquals(index, HBasePyramidIO.tileIndexFromRowId(expected));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testReadWriteRemove () throws Exception {
+		List<TileData<Integer>> tiles = new ArrayList<>();
+		List<TileIndex> indices = new ArrayList<>();
+		for (int level = 2; level < 8; ++level) {
+			for (int i = 0; i < 4; ++i) {
+				TileIndex index = new TileIndex(level, i, i + 1, 1, 1);
+				TileData<Integer> tile = new DenseTileData<>(index);
+				tile.setBin(0, 0, level * 100 + i);
+				tiles.add(tile);
+				indices.add(index);
+			}
+		}
+		// Interleave levels, so the reads have to be regrouped by region
+		List<TileIndex> toRead = new ArrayList<>();
+		for (int i = 0; i < indices.size(); ++i) {
+			toRead.add(indices.get((i * 7) % indices.size()));
+		}
+		toRead.add(new TileIndex(9, 1, 1, 1, 1));
+
+		_io.initializeForWrite(TABLE);
+		_io.writeTiles(TABLE, _serializer, tiles);
+		_io.writeMetaData(TABLE, "{\"test\": true}");
+		Assert.assertEquals(tiles.size() + 1, _hbase.rowCount(TABLE));
+
+		List<TileData<Integer>> read = _io.readTiles(TABLE, _serializer, toRead);
+		Assert.assertEquals(indices.size(), read.size());
+		for (int i = 0; i < read.size(); ++i) {
+			TileIndex index = toRead.get(i);
+			Assert.assertEquals(index, read.get(i).getDefinition());
+			Assert.assertEquals(index.getLevel() * 100 + index.getX(), read.get(i).getBin(0, 0).intValue());
+		}
+		Assert.assertEquals("{\"test\": true}", _io.readMetaData(TABLE));
+
+		// Every get batch must be within the batch size, and within a single region
+		Assert.assertFalse(_hbase._getBatches.isEmpty());
+		for (List<byte[]> batch: _hbase._getBatches) {
+			Assert.assertTrue(batch.size() <= 3);
+			boolean firstRegion = Bytes.compareTo(batch.get(0), SPLIT_KEY) < 0;
+			for (byte[] row: batch) {
+				Assert.assertEquals(firstRegion, Bytes.compareTo(row, SPLIT_KEY) < 0);
+			}
+		}
+		// One table handle, reused for every read
+		Assert.assertEquals(1, _hbase._tablesOpened);
+
+		_io.removeTiles(TABLE, indices);
+		Assert.assertEquals(0, _io.readTiles(TABLE, _serializer, indices).size());
+		Assert.assertEquals(1, _hbase.rowCount(TABLE));
+		// All writes and deletes went through a single buffered mutator
+		Assert.assertEquals(1, _hbase._mutatorsOpened);
+
+		_io.close();
+		Assert.assertEquals(0, _hbase._pendingMutations.size());
+	}
+
+	@Test
+	public void testMortonRowKeys () {
+		HBasePyramidIO.RowKeyLayout layout = HBasePyramidIO.RowKeyLayout.MORTON;
+		Random random = new Random(17);
+		for (int level = 0; level < 32; ++level) {
+			long size = 1L << level;
+			for (int i = 0; i < 10; ++i) {
+				TileIndex index = new TileIndex(level, (int) (random.nextDouble() * size), (int) (random.nextDouble() * size));
+				Assert.assertEquals(index, layout.getTileIndex(layout.getRowKey(index)));
+			}
+		}
+
+		// Keys sort by level, then in Z order within a level
+		TileIndex[] ordered = {
+			new TileIndex(3, 0, 0), new TileIndex(3, 1, 0), new TileIndex(3, 0, 1), new TileIndex(3, 1, 1),
+			new TileIndex(3, 2, 0), new TileIndex(3, 3, 1), new TileIndex(3, 0, 2), new TileIndex(3, 7, 7),
+			new TileIndex(4, 0, 0)
+		};
+		for (int i = 1; i < ordered.length; ++i) {
+			Assert.assertTrue(Bytes.compareTo(layout.getRowKey(ordered[i - 1]), layout.getRowKey(ordered[i])) < 0);
+		}
+	}
+
+	@Test
+	public void testMortonTablesReadWithScans () throws Exception {
+		HBasePyramidIO mortonIO = new HBasePyramidIO(_hbase.getConnection(), 1024, 100, HBasePyramidIO.RowKeyLayout.MORTON);
+		mortonIO.initializeForWrite(TABLE);
+		List<TileData<Integer>> tiles = new ArrayList<>();
+		for (int x = 0; x < 8; ++x) {
+			for (int y = 0; y < 8; ++y) {
+				TileData<Integer> tile = new DenseTileData<>(new TileIndex(5, x, y, 1, 1));
+				tile.setBin(0, 0, x * 10 + y);
+				tiles.add(tile);
+			}
+		}
+		TileData<Integer> outlier = new DenseTileData<>(new TileIndex(5, 30, 30, 1, 1));
+		outlier.setBin(0, 0, 330);
+		tiles.add(outlier);
+		mortonIO.writeTiles(TABLE, _serializer, tiles);
+
+		// A viewport, in row order, with a repeated tile, an isolated tile, and a missing tile
+		List<TileIndex> toRead = new ArrayList<>();
+		for (int y = 7; y >= 4; --y) {
+			for (int x = 0; x < 4; ++x) {
+				toRead.add(new TileIndex(5, x, y, 1, 1));
+			}
+		}
+		toRead.add(new TileIndex(5, 2, 5, 1, 1));
+		toRead.add(new TileIndex(5, 30, 30, 1, 1));
+		toRead.add(new TileIndex(5, 20, 20, 1, 1));
+
+		// Our string-keyed IO must also read the table according to its layout
+		for (HBasePyramidIO io: new HBasePyramidIO[] {mortonIO, _io}) {
+			_hbase._scans = 0;
+			_hbase._getBatches.clear();
+			List<TileData<Integer>> read = io.readTiles(TABLE, _serializer, toRead);
+			Assert.assertEquals(toRead.size() - 1, read.size());
+			for (int i = 0; i < read.size(); ++i) {
+				TileIndex index = toRead.get(i);
+				Assert.assertEquals(index, read.get(i).getDefinition());
+				Assert.assertEquals(index.getX() * 10 + index.getY(), read.get(i).getBin(0, 0).intValue());
+			}
+			// The viewport is a single run of row keys; only the isolated tiles should be read with gets
+			Assert.assertEquals(1, _hbase._scans);
+			int gets = 0;
+			for (List<byte[]> batch: _hbase._getBatches) gets += batch.size();
+			Assert.assertEquals(2, gets);
+		}
+
+		// String-keyed tables are still read with gets, whatever the configured layout
+		String stringTable = TABLE + "-strings";
+		_io.initializeForWrite(stringTable);
+		_io.writeTiles(stringTable, _serializer, tiles);
+		_hbase._scans = 0;
+		Assert.assertEquals(16, mortonIO.readTiles(stringTable, _serializer, toRead.subList(0, 16)).size());
+		Assert.assertEquals(0, _hbase._scans);
+
+		mortonIO.close();
+	}
+
+
+
+	/*
+	 * Just enough of HBase for HBasePyramidIO, implemented with proxies.
+	 */
+	private static class InMemoryHBase {
+		private Map<TableName, NavigableMap<byte[], List<Cell>>> _tables = new TreeMap<>();
+		private List<Mutation> _pendingMutations = new ArrayList<>();
+		private Map<TableName, HTableDescriptor> _descriptors = new HashMap<>();
+		private List<List<byte[]>> _getBatches = new ArrayList<>();
+		private int _scans = 0;
+		private int _tablesOpened = 0;
+		private int _mutatorsOpened = 0;
+
+		int rowCount (String table) {
+			return getRows(TableName.valueOf(table)).size();
+		}
+
+		private NavigableMap<byte[], List<Cell>> getRows (TableName table) {
+			NavigableMap<byte[], List<Cell>> rows = _tables.get(table);
+			if (null == rows) {
+				rows = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+				_tables.put(table, rows);
+			}
+			return rows;
+		}
+
+		Connection getConnection () {
+			return proxy(Connection.class, new Handler() {
+				@Override
+				Object handle (String method, Object[] args) throws Exception {
+					switch (method) {
+					case "getConfiguration":  return new Configuration(false);
+					case "getAdmin":          return getAdmin();
+					case "getTable":          ++_tablesOpened; return getTable((TableName) args[0]);
+					case "getRegionLocator":  return getRegionLocator((TableName) args[0]);
+					case "getBufferedMutator":
+						++_mutatorsOpened;
+						return getMutator(((BufferedMutatorParams) args[0]).getTableName());
+					default:                  return unsupported(method);
+					}
+				}
+			});
+		}
+
+		private Admin getAdmin () {
+			return proxy(Admin.class, new Handler() {
+				@Override
+				Object handle (String method, Object[] args) throws Exception {
+					switch (method) {
+					case "tableExists":        return _descriptors.containsKey((TableName) args[0]);
+					case "getTableDescriptor": return _descriptors.get((TableName) args[0]);
+					case "createTable":
+						HTableDescriptor descriptor = (HTableDescriptor) args[0];
+						_descriptors.put(descriptor.getTableName(), descriptor);
+						return null;
+					case "close":              return null;
+					default:            return unsupported(method);
+					}
+				}
+			});
+		}
+
+		private RegionLocator getRegionLocator (final TableName table) {
+			final HRegionInfo[] regions = {
+				new HRegionInfo(table, new byte[0], SPLIT_KEY),
+				new HRegionInfo(table, SPLIT_KEY, new byte[0])
+			};
+			return proxy(RegionLocator.class, new Handler() {
+				@Override
+				Object handle (String method, Object[] args) throws Exception {
+					switch (method) {
+					case "getRegionLocation":
+						HRegionInfo region = regions[Bytes.compareTo((byte[]) args[0], SPLIT_KEY) < 0 ? 0 : 1];
+						return new HRegionLocation(region, ServerName.valueOf("localhost", 16020, 0L));
+					case "close":
+						return null;
+					default:
+						return unsupported(method);
+					}
+				}
+			});
+		}
+
+		private Table getTable (final TableName table) {
+			return proxy(Table.class, new Handler() {
+				@Override
+				@SuppressWarnings("unchecked")
+				Object handle (String method, Object[] args) throws Exception {
+					switch (method) {
+					case "getName":
+						return table;
+					case "get":
+						List<Get> gets = (List<Get>) args[0];
+						List<byte[]> batch = new ArrayList<>();
+						Result[] results = new Result[gets.size()];
+						for (int i = 0; i < gets.size(); ++i) {
+							byte[] row = gets.get(i).getRow();
+							batch.add(row);
+							List<Cell> cells = getRows(table).get(row);
+							results[i] = Result.create(null == cells ? new ArrayList<Cell>() : cells);
+						}
+						_getBatches.add(batch);
+						return results;
+					case "getScanner":
+						++_scans;
+						Scan scan = (Scan) args[0];
+						final List<Result> scanned = new ArrayList<>();
+						for (List<Cell> cells: getRows(table).subMap(scan.getStartRow(), true, scan.getStopRow(), false).values()) {
+							scanned.add(Result.create(cells));
+						}
+						return proxy(ResultScanner.class, new Handler() {
+							@Override
+							Object handle (String method, Object[] args) throws Exception {
+								switch (method) {
+								case "iterator": return scanned.iterator();
+								case "close":    return null;
+								default:         return unsupported(method);
+								}
+							}
+						});
+					case "close":
+						return null;
+					default:
+						return unsupported(method);
+					}
+				}
+			});
+		}
+
+		private BufferedMutator getMutator (final TableName table) {
+			return proxy(BufferedMutator.class, new Handler() {
+				@Override
+				@SuppressWarnings("unchecked")
+				Object handle (String method, Object[] args) throws Exception {
+					switch (method) {
+					case "getName":
+						return table;
+					case "mutate":
+						if (args[0] instanceof Mutation) {
+							_pendingMutations.add((Mutation) args[0]);
+						} else {
+							_pendingMutations.addAll((List<Mutation>) args[0]);
+						}
+						return null;
+					case "flush":
+					case "close":
+						for (Mutation mutation: _pendingMutations) {
+							NavigableMap<byte[], List<Cell>> rows = getRows(table);
+							if (mutation instanceof Delete) {
+								rows.remove(mutation.getRow());
+							} else if (mutation instanceof Put) {
+								List<Cell> cells = new ArrayList<>();
+								for (List<Cell> familyCells: mutation.getFamilyCellMap().values()) {
+									for (Cell cell: familyCells) {
+										cells.add(new KeyValue(CellUtil.cloneRow(cell), CellUtil.cloneFamily(cell),
+										                       CellUtil.cloneQualifier(cell), CellUtil.cloneValue(cell)));
+									}
+								}
+								rows.put(mutation.getRow(), cells);
+							}
+						}
+						_pendingMutations.clear();
+						return null;
+					default:
+						return unsupported(method);
+					}
+				}
+			});
+		}
+
+		private static Object unsupported (String method) {
+			throw new UnsupportedOperationException(method);
+		}
+
+		private static <T> T proxy (Class<T> type, Handler handler) {
+			return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler));
+		}
+
+		private static abstract class Handler implements InvocationHandler {
+			@Override
+			public Object invoke (Object proxy, Method method, Object[] args) throws Throwable {
+				switch (method.getName()) {
+				case "hashCode": return System.identityHashCode(proxy);
+				case "equals":   return proxy == args[0];
+				case "toString": return "InMemoryHBase " + method.getDeclaringClass().getSimpleName();
+				default:         return handle(method.getName(), null == args ? new Object[0] : args);
+				}
+			}
+
+			abstract Object handle (String method, Object[] args) throws Exception;
+		}
+	}
+}
@@ -40,6 +40,8 @@ import com.oculusinfo.binning.impl.DenseTileData;
 import com.oculusinfo.binning.impl.SparseTileData;
 import com.oculusinfo.binning.io.serialization.SerializationTypeChecker;
 import com.oculusinfo.binning.io.serialization.TileSerializer;
+import com.oculusinfo.binning.util.HyperLogLog;
+import com.oculusinfo.binning.util.TDigest;
 import com.oculusinfo.binning.util.TypeDescriptor;
 import com.oculusinfo.factory.ConfigurationException;
 
@@ -180,6 +182,20 @@ public class KryoSerializationTests extends SerializerTestUtils {
 		testRoundTripSparse(new TypeDescriptor(String.class), EMPTY, "invalid", "a", "bb", "ccc", "dddd");
 	}
 
+	@Test
+	public void testSketches () throws Exception {
+		HyperLogLog small = HyperLogLog.of(8, "a").merge(HyperLogLog.of(8, "b"));
+		HyperLogLog large = new HyperLogLog(8);
+		for (int i=0; i<1000; ++i) large = large.merge(HyperLogLog.of(8, i));
+		testRoundTripDense(new TypeDescriptor(HyperLogLog.class), EMPTY, small, large, new HyperLogLog(8), small);
+		testRoundTripSparse(new TypeDescriptor(HyperLogLog.class), EMPTY, new HyperLogLog(8), small, large);
+
+		TDigest digest = new TDigest(20);
+		for (int i=0; i<1000; ++i) digest = digest.merge(TDigest.of(20, i));
+		testRoundTripDense(new TypeDescriptor(TDigest.class), EMPTY, digest, TDigest.of(20, 3.5), new TDigest(20), digest);
+		testRoundTripSparse(new TypeDescriptor(TDigest.class), EMPTY, new TDigest(20), digest, TDigest.of(20, -1.0));
+	}
+
 	@Test
 	public void testCustom () throws Exception {
 		testRoundTripDense(new TypeDescriptor(CustomTestData.class),
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.io.serialization.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.apache.avro.file.CodecFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.oculusinfo.binning.TileData;
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.impl.DenseTileData;
+import com.oculusinfo.binning.impl.SparseTileData;
+import com.oculusinfo.binning.io.serialization.DefaultTileSerializerFactoryProvider;
+import com.oculusinfo.binning.io.serialization.TileSerializer;
+import com.oculusinfo.binning.util.HyperLogLog;
+import com.oculusinfo.binning.util.TDigest;
+import com.oculusinfo.binning.util.TypeDescriptor;
+
+// Test that sketch-valued tiles survive avro serialization
+public class SketchAvroSerializerTests {
+	private <T> TileData<T> roundTrip (TileSerializer<T> serializer, TileData<T> input) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		serializer.serialize(input, baos);
+		baos.flush();
+		baos.close();
+
+		ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
+		return serializer.deserialize(input.getDefinition(), bais);
+	}
+
+	private <T> void assertTilesEqual (TileData<T> expected, TileData<T> actual) {
+		Assert.assertEquals(expected.getDefinition(), actual.getDefinition());
+		TileIndex index = expected.getDefinition();
+		for (int x=0; x<index.getXBins(); ++x) {
+			for (int y=0; y<index.getYBins(); ++y) {
+				Assert.assertEquals(expected.getBin(x, y), actual.getBin(x, y));
+			}
+		}
+	}
+
+	@Test
+	public void testHyperLogLogRoundTrip () throws Exception {
+		TileSerializer<HyperLogLog> serializer = new HyperLogLogAvroSerializer(CodecFactory.nullCodec());
+		Assert.assertEquals(new TypeDescriptor(HyperLogLog.class), serializer.getBinTypeDescription());
+
+		TileIndex index = new TileIndex(0, 0, 0, 2, 2);
+		HyperLogLog large = new HyperLogLog(10);
+		for (int i=0; i<5000; ++i) large = large.merge(HyperLogLog.of(10, "user"+i));
+
+		TileData<HyperLogLog> dense = new DenseTileData<>(index, new HyperLogLog(10));
+		dense.setBin(0, 0, HyperLogLog.of(10, "a"));
+		dense.setBin(1, 1, large);
+		TileData<HyperLogLog> denseOut = roundTrip(serializer, dense);
+		assertTilesEqual(dense, denseOut);
+		Assert.assertEquals(large.cardinality(), denseOut.getBin(1, 1).cardinality());
+
+		TileData<HyperLogLog> sparse = new SparseTileData<>(index, new HyperLogLog(10));
+		sparse.setBin(1, 0, large);
+		assertTilesEqual(sparse, roundTrip(serializer, sparse));
+	}
+
+	@Test
+	public void testTDigestRoundTrip () throws Exception {
+		TileSerializer<TDigest> serializer = new TDigestAvroSerializer(CodecFactory.nullCodec());
+		Assert.assertEquals(new TypeDescriptor(TDigest.class), serializer.getBinTypeDescription());
+
+		TileIndex index = new TileIndex(0, 0, 0, 2, 2);
+		TDigest digest = new TDigest(50);
+		for (int i=0; i<5000; ++i) digest = digest.merge(TDigest.of(50, i % 97));
+
+		TileData<TDigest> dense = new DenseTileData<>(index, new TDigest(50));
+		dense.setBin(0, 1, digest);
+		dense.setBin(1, 0, TDigest.of(50, 2.5));
+		TileData<TDigest> denseOut = roundTrip(serializer, dense);
+		assertTilesEqual(dense, denseOut);
+		Assert.assertEquals(digest.quantile(0.9), denseOut.getBin(0, 1).quantile(0.9), 0.0);
+
+		TileData<TDigest> sparse = new SparseTileData<>(index, new TDigest(50));
+		sparse.setBin(1, 1, digest);
+		assertTilesEqual(sparse, roundTrip(serializer, sparse));
+	}
+
+	@Test
+	public void testFactoryRegistration () {
+		Assert.assertNotNull(DefaultTileSerializerFactoryProvider.valueOf("hyperloglog_avro"));
+		Assert.assertNotNull(DefaultTileSerializerFactoryProvider.valueOf("tdigest_avro"));
+		Assert.assertNotNull(DefaultTileSerializerFactoryProvider.valueOf("hyperloglog_kryo"));
+		Assert.assertNotNull(DefaultTileSerializerFactoryProvider.valueOf("tdigest_kryo"));
+	}
+}
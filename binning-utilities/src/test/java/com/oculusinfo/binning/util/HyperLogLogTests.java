@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HyperLogLogTests {
+	private static HyperLogLog sketchRange (int precision, int start, int end) {
+		HyperLogLog result = new HyperLogLog(precision);
+		for (int i=start; i<end; ++i) result = result.merge(HyperLogLog.of(precision, "value "+i));
+		return result;
+	}
+
+	@Test
+	public void testSmallCountsAreExact () {
+		Assert.assertEquals(0L, new HyperLogLog(12).cardinality());
+		Assert.assertEquals(1L, HyperLogLog.of(12, "a").cardinality());
+		HyperLogLog sketch = sketchRange(12, 0, 10);
+		Assert.assertEquals(10L, sketch.cardinality());
+		// Duplicates don't count
+		Assert.assertEquals(10L, sketch.merge(sketchRange(12, 0, 10)).cardinality());
+	}
+
+	@Test
+	public void testLargeCountAccuracy () {
+		int n = 100000;
+		long estimate = sketchRange(12, 0, n).cardinality();
+		// Standard error at precision 12 is about 1.6%; allow 3 sigma
+		Assert.assertEquals(n, estimate, n * 0.05);
+	}
+
+	@Test
+	public void testMergeIsAssociativeAndCommutative () {
+		HyperLogLog a = sketchRange(10, 0, 50);
+		HyperLogLog b = sketchRange(10, 25, 3000);
+		HyperLogLog c = sketchRange(10, 2000, 2100);
+
+		Assert.assertEquals(a.merge(b).merge(c), a.merge(b.merge(c)));
+		Assert.assertEquals(a.merge(b), b.merge(a));
+		Assert.assertEquals(sketchRange(10, 0, 3000), a.merge(b).merge(c));
+	}
+
+	@Test
+	public void testMergeDoesNotModifyInputs () {
+		HyperLogLog a = sketchRange(10, 0, 5);
+		HyperLogLog b = sketchRange(10, 5, 2000);
+		long aCount = a.cardinality();
+		long bCount = b.cardinality();
+		a.merge(b);
+		b.merge(a);
+		Assert.assertEquals(aCount, a.cardinality());
+		Assert.assertEquals(bCount, b.cardinality());
+	}
+
+	@Test
+	public void testMemoryIsBounded () {
+		// A dense sketch takes one byte per register, no matter how many values it has seen
+		HyperLogLog sketch = sketchRange(8, 0, 20000);
+		Assert.assertEquals(2 + 256, sketch.toBytes().length);
+		// A sparse one takes three bytes per non-empty register
+		Assert.assertEquals(6 + 3, HyperLogLog.of(8, "a").toBytes().length);
+	}
+
+	@Test
+	public void testBytesRoundTrip () {
+		HyperLogLog sparse = sketchRange(10, 0, 20);
+		HyperLogLog dense = sketchRange(10, 0, 5000);
+		Assert.assertEquals(sparse, HyperLogLog.fromBytes(sparse.toBytes()));
+		Assert.assertEquals(dense, HyperLogLog.fromBytes(dense.toBytes()));
+		Assert.assertEquals(dense.cardinality(), HyperLogLog.fromBytes(dense.toBytes()).cardinality());
+	}
+
+	@Test
+	public void testNumbersHashByValue () {
+		Assert.assertEquals(HyperLogLog.hash(3), HyperLogLog.hash(3L));
+		Assert.assertEquals(HyperLogLog.hash(3L), HyperLogLog.hash(3.0));
+		Assert.assertNotEquals(HyperLogLog.hash(3.5), HyperLogLog.hash(3.0));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testMismatchedPrecision () {
+		HyperLogLog.of(10, "a").merge(HyperLogLog.of(11, "b"));
+	}
+}
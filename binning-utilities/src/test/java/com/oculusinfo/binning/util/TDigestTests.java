@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.util;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TDigestTests {
+	private static TDigest digestOf (double compression, double... values) {
+		TDigest result = new TDigest(compression);
+		for (double value: values) result = result.merge(TDigest.of(compression, value));
+		return result;
+	}
+
+	private static double[] uniform (int n, long seed) {
+		Random random = new Random(seed);
+		double[] values = new double[n];
+		for (int i=0; i<n; ++i) values[i] = random.nextDouble();
+		return values;
+	}
+
+	@Test
+	public void testEmpty () {
+		TDigest digest = new TDigest(100);
+		Assert.assertTrue(digest.isEmpty());
+		Assert.assertTrue(Double.isNaN(digest.quantile(0.5)));
+	}
+
+	@Test
+	public void testSmallDigestsAreExact () {
+		TDigest digest = digestOf(100, 5, 1, 4, 2, 3);
+		Assert.assertEquals(5, digest.getCentroidCount());
+		Assert.assertEquals(1.0, digest.quantile(0.0), 0.0);
+		Assert.assertEquals(3.0, digest.quantile(0.5), 1E-12);
+		Assert.assertEquals(5.0, digest.quantile(1.0), 0.0);
+	}
+
+	@Test
+	public void testQuantileAccuracy () {
+		TDigest digest = digestOf(100, uniform(20000, 1L));
+		Assert.assertEquals(20000.0, digest.getCount(), 0.0);
+		for (double q: new double[] {0.001, 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 0.999}) {
+			Assert.assertEquals(q, digest.quantile(q), 0.01);
+		}
+	}
+
+	@Test
+	public void testMemoryIsBounded () {
+		TDigest digest = digestOf(50, uniform(50000, 2L));
+		Assert.assertTrue(digest.getCentroidCount() <= 51);
+	}
+
+	@Test
+	public void testMergeOrderWithinErrorBounds () {
+		TDigest a = digestOf(100, uniform(5000, 3L));
+		TDigest b = digestOf(100, uniform(5000, 4L));
+		TDigest c = digestOf(100, uniform(5000, 5L));
+		TDigest left = a.merge(b).merge(c);
+		TDigest right = a.merge(b.merge(c));
+		TDigest swapped = c.merge(a).merge(b);
+		Assert.assertEquals(left.getCount(), right.getCount(), 0.0);
+		Assert.assertEquals(left.getMin(), swapped.getMin(), 0.0);
+		Assert.assertEquals(left.getMax(), swapped.getMax(), 0.0);
+		for (double q: new double[] {0.01, 0.1, 0.5, 0.9, 0.99}) {
+			Assert.assertEquals(left.quantile(q), right.quantile(q), 0.01);
+			Assert.assertEquals(left.quantile(q), swapped.quantile(q), 0.01);
+		}
+	}
+
+	@Test
+	public void testMergeDoesNotModifyInputs () {
+		TDigest a = digestOf(100, 1, 2, 3);
+		TDigest b = digestOf(100, 10, 20, 30);
+		TDigest merged = a.merge(b);
+		Assert.assertEquals(digestOf(100, 1, 2, 3), a);
+		Assert.assertEquals(digestOf(100, 10, 20, 30), b);
+		Assert.assertEquals(6.0, merged.getCount(), 0.0);
+	}
+
+	@Test
+	public void testBytesRoundTrip () {
+		TDigest digest = digestOf(100, uniform(3000, 6L));
+		TDigest copy = TDigest.fromBytes(digest.toBytes());
+		Assert.assertEquals(digest, copy);
+		Assert.assertEquals(digest.quantile(0.37), copy.quantile(0.37), 0.0);
+		Assert.assertEquals(new TDigest(100), TDigest.fromBytes(new TDigest(100).toBytes()));
+	}
+}
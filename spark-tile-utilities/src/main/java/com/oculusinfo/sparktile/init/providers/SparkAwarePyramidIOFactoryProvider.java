@@ -28,6 +28,7 @@ import com.google.inject.Inject;
 import com.oculusinfo.binning.io.PyramidIO;
 import com.oculusinfo.factory.ConfigurableFactory;
 import com.oculusinfo.factory.providers.AbstractFactoryProvider;
+import com.oculusinfo.sparktile.rest.tile.caching.LiveTilingSessionRegistry;
 import com.oculusinfo.sparktile.rest.tile.caching.OnDemandTilePyramidIOFactory;
 import com.oculusinfo.sparktile.spark.SparkContextProvider;
 
@@ -38,11 +39,13 @@ import java.util.List;
 public class SparkAwarePyramidIOFactoryProvider extends AbstractFactoryProvider<PyramidIO> {
 	@Inject
 	private SparkContextProvider _contextProvider;
+	@Inject
+	private LiveTilingSessionRegistry _sessions;
 
 	@Override
 	public ConfigurableFactory<PyramidIO> createFactory (String name,
 	                                                     ConfigurableFactory<?> parent,
 	                                                     List<String> path) {
-		return new OnDemandTilePyramidIOFactory(name, parent, path, _contextProvider);
+		return new OnDemandTilePyramidIOFactory(name, parent, path, _contextProvider, _sessions);
 	}
 }
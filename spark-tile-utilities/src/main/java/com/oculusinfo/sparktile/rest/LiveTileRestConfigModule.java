@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.sparktile.rest;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.TypeLiteral;
+import com.google.inject.multibindings.MapBinder;
+import com.oculusinfo.sparktile.rest.tile.LiveTileRequestResource;
+import org.restlet.resource.ServerResource;
+
+/**
+ * Sets up the REST interface by which clients can cancel live tile requests.  Use alongside
+ * the tile service's RestConfigModule.
+ */
+public class LiveTileRestConfigModule extends AbstractModule {
+
+	@Override
+	protected void configure() {
+
+		// Bind REST end points for clients
+		MapBinder<String, Class<? extends ServerResource>> resourceBinder =
+			MapBinder.newMapBinder( binder(),
+				new TypeLiteral<String>() {},
+				new TypeLiteral<Class<? extends ServerResource>>() {} );
+
+		resourceBinder.addBinding( "/{version}/live/requests/{requestId}" ).toInstance( LiveTileRequestResource.class );
+		resourceBinder.addBinding( "/live/requests/{requestId}" ).toInstance( LiveTileRequestResource.class );
+
+		resourceBinder.addBinding( "/{version}/live/users/{user}/requests" ).toInstance( LiveTileRequestResource.class );
+		resourceBinder.addBinding( "/live/users/{user}/requests" ).toInstance( LiveTileRequestResource.class );
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.sparktile.rest.tile;
+
+import com.google.inject.Inject;
+import com.oculusinfo.sparktile.rest.tile.caching.LiveTilingSessionRegistry;
+import com.oculusinfo.tilegen.binning.OnDemandAccumulatorPyramidIO;
+import org.json.JSONObject;
+import org.restlet.data.Status;
+import org.restlet.ext.json.JsonRepresentation;
+import org.restlet.resource.Delete;
+import org.restlet.resource.ResourceException;
+import org.restlet.resource.ServerResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lets clients abandon live tile requests they no longer need, so their Spark jobs stop taking
+ * up the cluster.  A single request is cancelled by the id it was given in its
+ * {@link OnDemandAccumulatorPyramidIO#REQUEST_ID_PROPERTY} property; all the requests of a user,
+ * by the user named in its {@link OnDemandAccumulatorPyramidIO#USER_PROPERTY} property.
+ */
+public class LiveTileRequestResource extends ServerResource {
+	private static final Logger LOGGER = LoggerFactory.getLogger(LiveTileRequestResource.class);
+
+	private LiveTilingSessionRegistry _registry;
+
+	@Inject
+	public LiveTileRequestResource (LiveTilingSessionRegistry registry) {
+		_registry = registry;
+	}
+
+	/**
+	 * DELETE request.  Cancels the named request, or all requests of the named user.  Returns the
+	 * number of requests cancelled.
+	 */
+	@Delete
+	public JsonRepresentation cancel () {
+		try {
+			String requestId = (String) getRequest().getAttributes().get("requestId");
+			String user = (String) getRequest().getAttributes().get("user");
+			int cancelled;
+			if (null != requestId) {
+				cancelled = _registry.cancelRequest(requestId) ? 1 : 0;
+			} else if (null != user) {
+				cancelled = _registry.cancelUserRequests(user);
+			} else {
+				throw new IllegalArgumentException("No request or user given");
+			}
+			JSONObject result = new JSONObject();
+			result.put("cancelled", cancelled);
+			setStatus(Status.SUCCESS_OK);
+			return new JsonRepresentation(result);
+		} catch (Exception e) {
+			LOGGER.warn("Bad live tile cancellation request: ", e);
+			throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST,
+			                            "Unable to cancel live tile requests",
+			                            e);
+		}
+	}
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.sparktile.rest.tile.caching;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.spark.sql.SQLContext;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import scala.Option;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.oculusinfo.tilegen.binning.OnDemandAccumulatorPyramidIO;
+
+
+
+/**
+ * <p>
+ * Keeps live-tiling pyramid IOs alive across requests, so that a dataset is only read, parsed,
+ * and cached once, rather than every time a layer configuration using it is rebuilt.
+ * </p>
+ *
+ * <p>
+ * There is one session - one {@link OnDemandAccumulatorPyramidIO} - per dataset definition,
+ * identified by a hash of that definition.  Sessions whose data hasn't been used for a while have
+ * their cached data dropped, as do the least recently used sessions whenever the total data
+ * cached by all sessions exceeds a cap.  Evicted sessions also drop the tables they registered,
+ * and their pyramid IOs are closed, so they can't load data again.
+ * Measuring cached data means asking Spark about every cached RDD, so it is only checked every so
+ * often.  These limits can be set in tile.properties:
+ * <dl>
+ * <dt>com.oculusinfo.tile.live.maxIdleSeconds</dt>
+ * <dd>How long a dataset may go unused before its cached data is dropped.</dd>
+ *
+ * <dt>com.oculusinfo.tile.live.maxCachedBytes</dt>
+ * <dd>The most memory, in bytes, the data cached by all live datasets together may use.</dd>
+ *
+ * <dt>com.oculusinfo.tile.live.memoryCheckSeconds</dt>
+ * <dd>How often the memory used by cached data is measured, and checked against the cap.</dd>
+ *
+ * <dt>com.oculusinfo.tile.live.requestDeadlineMillis</dt>
+ * <dd>How long a live tile request may run before its Spark jobs are cancelled.  Requests may set
+ * an earlier deadline of their own, but not a later one.  By default, requests have no
+ * deadline.</dd>
+ * </dl>
+ * </p>
+ */
+@Singleton
+public class LiveTilingSessionRegistry {
+	private static final Logger LOGGER = LoggerFactory.getLogger(LiveTilingSessionRegistry.class);
+
+	public static final long DEFAULT_MAX_IDLE_SECONDS = 30 * 60;
+	public static final long DEFAULT_MAX_CACHED_BYTES = 2L * 1024 * 1024 * 1024;
+	public static final long DEFAULT_MEMORY_CHECK_SECONDS = 60;
+
+
+
+	/**
+	 * Usage statistics of the session for a single dataset.  These outlive evictions, so a
+	 * dataset that is repeatedly evicted and reloaded can be spotted.
+	 */
+	public static class DatasetStats {
+		private long _hits;
+		private long _misses;
+		private long _evictions;
+		private long _cachedBytes;
+		private long _lastAccess;
+
+		private DatasetStats () {
+		}
+
+		private DatasetStats (DatasetStats base) {
+			_hits = base._hits;
+			_misses = base._misses;
+			_evictions = base._evictions;
+			_cachedBytes = base._cachedBytes;
+			_lastAccess = base._lastAccess;
+		}
+
+		/** The number of requests that found the dataset already loaded */
+		public long getHits () {
+			return _hits;
+		}
+
+		/** The number of requests that had to load the dataset */
+		public long getMisses () {
+			return _misses;
+		}
+
+		/** The number of times the dataset's cached data has been dropped */
+		public long getEvictions () {
+			return _evictions;
+		}
+
+		/** The memory used by the dataset's cached data, as of the last time it was checked */
+		public long getCachedBytes () {
+			return _cachedBytes;
+		}
+
+		/** The time, in milliseconds since the epoch, at which the dataset was last requested */
+		public long getLastAccess () {
+			return _lastAccess;
+		}
+	}
+
+	private static class Session {
+		final SQLContext                   _sqlContext;
+		final OnDemandAccumulatorPyramidIO _pyramidIO;
+		final DatasetStats                 _stats;
+		Session (SQLContext sqlContext, Option<Object> requestDeadline, DatasetStats stats) {
+			_sqlContext = sqlContext;
+			_pyramidIO = new OnDemandAccumulatorPyramidIO(sqlContext, requestDeadline);
+			_stats = stats;
+		}
+	}
+
+
+
+	private long                      _maxIdleMillis  = DEFAULT_MAX_IDLE_SECONDS * 1000;
+	private long                      _maxCachedBytes = DEFAULT_MAX_CACHED_BYTES;
+	private long                      _memoryCheckMillis = DEFAULT_MEMORY_CHECK_SECONDS * 1000;
+	private AtomicLong                _lastMemoryCheck = new AtomicLong(0L);
+	private Option<Object>            _requestDeadline = Option.empty();
+	// Live sessions, in least-to-most recently used order
+	private Map<String, Session>      _sessions       = new LinkedHashMap<>(16, 0.75f, true);
+	private Map<String, DatasetStats> _stats          = new HashMap<>();
+
+	@Inject(optional = true)
+	public void setMaxIdleSeconds (@Named("com.oculusinfo.tile.live.maxIdleSeconds") long maxIdleSeconds) {
+		_maxIdleMillis = maxIdleSeconds * 1000;
+	}
+
+	@Inject(optional = true)
+	public void setRequestDeadline (@Named("com.oculusinfo.tile.live.requestDeadlineMillis") long requestDeadlineMillis) {
+		_requestDeadline = Option.<Object>apply(requestDeadlineMillis);
+	}
+
+	@Inject(optional = true)
+	public void setMaxCachedBytes (@Named("com.oculusinfo.tile.live.maxCachedBytes") long maxCachedBytes) {
+		_maxCachedBytes = maxCachedBytes;
+	}
+
+	@Inject(optional = true)
+	public void setMemoryCheckSeconds (@Named("com.oculusinfo.tile.live.memoryCheckSeconds") long memoryCheckSeconds) {
+		_memoryCheckMillis = memoryCheckSeconds * 1000;
+	}
+
+	/**
+	 * Get the hash by which a dataset definition is known
+	 */
+	public static String getDatasetKey (JSONObject datasetDefinition) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			md.update(datasetDefinition.toString().getBytes("UTF-8"));
+			return Hex.encodeHexString(md.digest());
+		} catch (Exception e) {
+			// Every JVM has SHA-256 and UTF-8; if not, fall back on the definition itself.
+			return datasetDefinition.toString();
+		}
+	}
+
+	/**
+	 * Get the pyramid IO for the given dataset, creating it if no live session has it.
+	 *
+	 * @param datasetDefinition The definition of the dataset
+	 * @param sqlc The SQL context in which to load the dataset, should it need loading
+	 */
+	public OnDemandAccumulatorPyramidIO getPyramidIO (JSONObject datasetDefinition, SQLContext sqlc) {
+		String key = getDatasetKey(datasetDefinition);
+		long now = System.currentTimeMillis();
+		List<Session> evicted = new ArrayList<>();
+		OnDemandAccumulatorPyramidIO pyramidIO;
+		synchronized (_sessions) {
+			// Drop idle sessions before looking ours up, so it is reloaded if it has been idle
+			for (Iterator<Session> i = _sessions.values().iterator(); i.hasNext();) {
+				Session session = i.next();
+				if (now - session._stats._lastAccess > _maxIdleMillis) {
+					i.remove();
+					evicted.add(session);
+				}
+			}
+
+			Session session = _sessions.get(key);
+			if (null != session && sqlc != session._sqlContext) {
+				// Spark has been restarted since this session was created
+				_sessions.remove(key);
+				session = null;
+			}
+			if (null == session) {
+				DatasetStats stats = _stats.get(key);
+				if (null == stats) {
+					stats = new DatasetStats();
+					_stats.put(key, stats);
+				}
+				session = new Session(sqlc, _requestDeadline, stats);
+				_sessions.put(key, session);
+				++stats._misses;
+			} else {
+				++session._stats._hits;
+			}
+			session._stats._lastAccess = now;
+			pyramidIO = session._pyramidIO;
+		}
+
+		long lastCheck = _lastMemoryCheck.get();
+		if (now - lastCheck >= _memoryCheckMillis && _lastMemoryCheck.compareAndSet(lastCheck, now)) {
+			evicted.addAll(checkMemoryCap(key));
+		}
+
+		for (Session session: evicted) {
+			evict(session);
+		}
+		return pyramidIO;
+	}
+
+	/*
+	 * Measure the data cached by each session, then remove, and return, the least recently used
+	 * sessions (other than the one named) until the data cached by those remaining fits under our
+	 * memory cap.  Measuring goes to Spark, so is done without holding the _sessions lock.
+	 */
+	private List<Session> checkMemoryCap (String keep) {
+		Map<String, Session> sessions;
+		synchronized (_sessions) {
+			sessions = new HashMap<>(_sessions);
+		}
+		Map<String, Long> sizes = new HashMap<>();
+		for (Map.Entry<String, Session> entry: sessions.entrySet()) {
+			sizes.put(entry.getKey(), entry.getValue()._pyramidIO.getCachedMemorySize());
+		}
+
+		List<Session> evicted = new ArrayList<>();
+		synchronized (_sessions) {
+			long total = 0L;
+			for (Map.Entry<String, Session> entry: _sessions.entrySet()) {
+				Session session = entry.getValue();
+				// Sessions created since we measured haven't cached anything yet
+				if (session == sessions.get(entry.getKey())) {
+					session._stats._cachedBytes = sizes.get(entry.getKey());
+				}
+				total += session._stats._cachedBytes;
+			}
+			for (Iterator<Map.Entry<String, Session>> i = _sessions.entrySet().iterator(); i.hasNext() && total > _maxCachedBytes;) {
+				Map.Entry<String, Session> entry = i.next();
+				if (!keep.equals(entry.getKey())) {
+					i.remove();
+					evicted.add(entry.getValue());
+					total -= entry.getValue()._stats._cachedBytes;
+				}
+			}
+		}
+		return evicted;
+	}
+
+	private void evict (Session session) {
+		LOGGER.info("Evicting live dataset, holding {} bytes of cached data", session._stats._cachedBytes);
+		// Closed, not just emptied, so requests still holding it can't cache its data outside our cap
+		session._pyramidIO.close();
+		synchronized (_sessions) {
+			++session._stats._evictions;
+			session._stats._cachedBytes = 0L;
+		}
+	}
+
+	/**
+	 * Cancel the Spark jobs of a live tile request the client no longer needs, in whichever
+	 * dataset it is running.
+	 *
+	 * @return True if the request was found running
+	 */
+	public boolean cancelRequest (String requestId) {
+		List<Session> sessions;
+		synchronized (_sessions) {
+			sessions = new ArrayList<>(_sessions.values());
+		}
+		boolean cancelled = false;
+		for (Session session: sessions) {
+			cancelled = session._pyramidIO.cancelRequest(requestId) || cancelled;
+		}
+		return cancelled;
+	}
+
+	/**
+	 * Cancel the Spark jobs of every live tile request of the given user, in every dataset - for
+	 * instance, once the user has moved on to another view.
+	 *
+	 * @return The number of requests cancelled
+	 */
+	public int cancelUserRequests (String user) {
+		List<Session> sessions;
+		synchronized (_sessions) {
+			sessions = new ArrayList<>(_sessions.values());
+		}
+		int cancelled = 0;
+		for (Session session: sessions) {
+			cancelled += session._pyramidIO.cancelUserRequests(user);
+		}
+		return cancelled;
+	}
+
+	/**
+	 * Get a snapshot of the usage statistics of each dataset we have seen, by dataset key.
+	 */
+	public Map<String, DatasetStats> getStats () {
+		Map<String, DatasetStats> stats = new HashMap<>();
+		synchronized (_sessions) {
+			for (Map.Entry<String, DatasetStats> entry: _stats.entrySet()) {
+				stats.put(entry.getKey(), new DatasetStats(entry.getValue()));
+			}
+		}
+		return Collections.unmodifiableMap(stats);
+	}
+}
@@ -41,14 +41,25 @@ public class OnDemandTilePyramidIOFactory extends ConfigurableFactory<PyramidIO>
 
 	@Inject
 	private SparkContextProvider _contextProvider;
+	private LiveTilingSessionRegistry _sessions;
 
     public OnDemandTilePyramidIOFactory (ConfigurableFactory<?> parent, List<String> path, SparkContextProvider contextProvider) {
         this("live", parent, path, contextProvider);
     }
 
     public OnDemandTilePyramidIOFactory (String name, ConfigurableFactory<?> parent, List<String> path, SparkContextProvider contextProvider) {
+        this(name, parent, path, contextProvider, null);
+    }
+
+    /**
+     * @param sessions The registry through which pyramid IOs are shared between requests for the
+     *                 same dataset.  If null, each product gets its own pyramid IO.
+     */
+    public OnDemandTilePyramidIOFactory (String name, ConfigurableFactory<?> parent, List<String> path,
+                                         SparkContextProvider contextProvider, LiveTilingSessionRegistry sessions) {
         super(name, PyramidIO.class, parent, path);
         _contextProvider = contextProvider;
+        _sessions = sessions;
         addProperty(PyramidIOFactory.INITIALIZATION_DATA);
     }
 
@@ -56,6 +67,9 @@ public class OnDemandTilePyramidIOFactory extends ConfigurableFactory<PyramidIO>
 	protected PyramidIO create () {
 		try {
 			JSONObject config = getPropertyValue(PyramidIOFactory.INITIALIZATION_DATA);
+			if (null != _sessions && null != config) {
+				return _sessions.getPyramidIO(config, _contextProvider.getSQLContext(config));
+			}
 			return new OnDemandAccumulatorPyramidIO(_contextProvider.getSQLContext(config));
 		}
 		catch (Exception e) {
@@ -70,6 +70,9 @@ import com.oculusinfo.tile.TileServiceConfiguration;
  * <dd>A :-separated list of jars to add to the spark job.  Binning-utilities, tile-generation, and hbase
  * are automatically added; anything else (such as custom tiling jars) must be added here.</dd>
  * </dl>
+ * The context uses the fair scheduler, so that live tile requests, each run in a pool for its layer
+ * or user, don't queue up behind each other; this can be overridden with spark.scheduler.mode in
+ * the layer configuration.
  * </p>
  *
  * @author nkronenfeld
@@ -169,6 +172,8 @@ public class SparkContextProviderImpl implements SparkContextProvider {
 			config.setSparkHome(_sparkHome);
 			config.setJars(_jars);
 			config.set("spark.logConf", "true");
+			// Let live tile requests share the context fairly; each runs in a pool for its layer or user
+			config.set("spark.scheduler.mode", "FAIR");
 
 			// Copy in configuration properties that begin with "akka." and "spark."
 			if (null != configuration) {
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.sparktile.rest.tile.caching;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.SparkContext;
+import org.apache.spark.sql.SQLContext;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.tilegen.binning.OnDemandAccumulatorPyramidIO;
+
+public class LiveTilingSessionRegistryTests {
+	private static final String PYRAMID_ID = "live session registry tests";
+
+	private static SparkContext _sc;
+	private static SQLContext   _sqlc;
+	private static File         _dataFile;
+
+	private LiveTilingSessionRegistry _registry;
+
+	@BeforeClass
+	public static void setupClass () throws Exception {
+		_sc = new SparkContext("local", "test", new SparkConf(false).set("spark.driver.allowMultipleContexts", "true"));
+		_sqlc = new SQLContext(_sc);
+
+		_dataFile = File.createTempFile("live-session-registry-test", ".csv");
+		try (FileWriter writer = new FileWriter(_dataFile)) {
+			for (int n = 0; n < 8; ++n) {
+				writer.write(String.format("%f,%f\n", (double) n, (double) (7 - n)));
+			}
+		}
+	}
+
+	@AfterClass
+	public static void teardownClass () {
+		_sc.stop();
+		_sc = null;
+		_sqlc = null;
+		_dataFile.delete();
+	}
+
+	@Before
+	public void setup () {
+		_registry = new LiveTilingSessionRegistry();
+		// Measure cached data on every request
+		_registry.setMemoryCheckSeconds(0);
+	}
+
+	@After
+	public void teardown () {
+		_registry = null;
+	}
+
+	private static JSONObject getDefinition (String name) throws Exception {
+		return new JSONObject("{\"name\": \""+name+"\"}");
+	}
+
+	private static Properties getProperties () {
+		Properties properties = new Properties();
+		properties.setProperty("oculus.binning.source.location.0", _dataFile.getAbsolutePath());
+		properties.setProperty("oculus.binning.projection.autobounds", "false");
+		properties.setProperty("oculus.binning.projection.type", "areaofinterest");
+		properties.setProperty("oculus.binning.projection.minX", "0.0");
+		properties.setProperty("oculus.binning.projection.maxX", "7.9999");
+		properties.setProperty("oculus.binning.projection.minY", "0.0");
+		properties.setProperty("oculus.binning.projection.maxY", "7.9999");
+		properties.setProperty("oculus.binning.parsing.separator", ",");
+		properties.setProperty("oculus.binning.parsing.x.index", "0");
+		properties.setProperty("oculus.binning.parsing.y.index", "1");
+		properties.setProperty("oculus.binning.index.type", "cartesian");
+		properties.setProperty("oculus.binning.index.field.0", "x");
+		properties.setProperty("oculus.binning.index.field.1", "y");
+		properties.setProperty("oculus.binning.levels.0", "0");
+		return properties;
+	}
+
+	// Get the pyramid IO for the named dataset, and read a tile from it, so its data is cached
+	private OnDemandAccumulatorPyramidIO load (String name) throws Exception {
+		OnDemandAccumulatorPyramidIO pyramidIO = _registry.getPyramidIO(getDefinition(name), _sqlc);
+		pyramidIO.initializeForRead(PYRAMID_ID, 1, 1, getProperties());
+		Assert.assertEquals(1, pyramidIO.readTiles(PYRAMID_ID, null, Arrays.asList(new TileIndex(0, 0, 0, 1, 1))).size());
+		return pyramidIO;
+	}
+
+	private LiveTilingSessionRegistry.DatasetStats getStats (String name) throws Exception {
+		return _registry.getStats().get(LiveTilingSessionRegistry.getDatasetKey(getDefinition(name)));
+	}
+
+	@Test
+	public void testHitsAndMisses () throws Exception {
+		OnDemandAccumulatorPyramidIO a = _registry.getPyramidIO(getDefinition("a"), _sqlc);
+		Assert.assertSame(a, _registry.getPyramidIO(getDefinition("a"), _sqlc));
+		Assert.assertNotSame(a, _registry.getPyramidIO(getDefinition("b"), _sqlc));
+
+		Assert.assertEquals(1, getStats("a").getHits());
+		Assert.assertEquals(1, getStats("a").getMisses());
+		Assert.assertEquals(0, getStats("b").getHits());
+		Assert.assertEquals(1, getStats("b").getMisses());
+		Assert.assertNull(getStats("c"));
+	}
+
+	@Test
+	public void testSparkRestart () throws Exception {
+		OnDemandAccumulatorPyramidIO a = _registry.getPyramidIO(getDefinition("a"), _sqlc);
+		Assert.assertNotSame(a, _registry.getPyramidIO(getDefinition("a"), new SQLContext(_sc)));
+		Assert.assertEquals(2, getStats("a").getMisses());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction () throws Exception {
+		Set<String> tablesBefore = new HashSet<>(Arrays.asList(_sqlc.tableNames()));
+		OnDemandAccumulatorPyramidIO a = load("a");
+		OnDemandAccumulatorPyramidIO b = load("b");
+		// Use a again, making b the least recently used, and measuring both
+		Assert.assertSame(a, _registry.getPyramidIO(getDefinition("a"), _sqlc));
+		long aBytes = getStats("a").getCachedBytes();
+		long bBytes = getStats("b").getCachedBytes();
+		Assert.assertTrue(aBytes > 0L);
+		Assert.assertTrue(bBytes > 0L);
+		Assert.assertEquals(tablesBefore.size() + 2, _sqlc.tableNames().length);
+
+		// Only room for one of them - the least recently used should go
+		_registry.setMaxCachedBytes(aBytes + bBytes - 1);
+		_registry.getPyramidIO(getDefinition("c"), _sqlc);
+
+		Assert.assertEquals(0, getStats("a").getEvictions());
+		Assert.assertEquals(aBytes, getStats("a").getCachedBytes());
+		Assert.assertEquals(1, getStats("b").getEvictions());
+		Assert.assertEquals(0L, getStats("b").getCachedBytes());
+		Assert.assertEquals(0L, b.getCachedMemorySize());
+		Assert.assertEquals(tablesBefore.size() + 1, _sqlc.tableNames().length);
+
+		// The evicted IO can't be used to load its data again
+		Assert.assertTrue(b.isClosed());
+		try {
+			b.initializeForRead(PYRAMID_ID, 1, 1, getProperties());
+			Assert.fail("An evicted pyramid IO should refuse to load data");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		Assert.assertEquals(tablesBefore.size() + 1, _sqlc.tableNames().length);
+
+		// b gets a new session, and its data is read again
+		OnDemandAccumulatorPyramidIO newB = load("b");
+		Assert.assertNotSame(b, newB);
+		Assert.assertEquals(2, getStats("b").getMisses());
+
+		_registry.setMaxCachedBytes(0L);
+		_registry.getPyramidIO(getDefinition("c"), _sqlc);
+		Assert.assertEquals(tablesBefore, new HashSet<>(Arrays.asList(_sqlc.tableNames())));
+	}
+
+	@Test
+	public void testRequestedSessionIsKept () throws Exception {
+		OnDemandAccumulatorPyramidIO a = load("a");
+		_registry.setMaxCachedBytes(0L);
+		Assert.assertSame(a, _registry.getPyramidIO(getDefinition("a"), _sqlc));
+		Assert.assertEquals(0, getStats("a").getEvictions());
+		Assert.assertTrue(a.getCachedMemorySize() > 0L);
+		a.dropTables();
+	}
+}
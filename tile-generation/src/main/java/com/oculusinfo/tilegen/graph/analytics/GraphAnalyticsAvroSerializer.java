@@ -108,9 +108,24 @@ extends GenericAvroArraySerializer<GraphAnalyticsRecord> {
     			  						communityListTOJava(entry));
     }
     
+    // Nested schemas, resolved once rather than for every community and edge written
+    transient private Schema _communitySchema;
+    transient private Schema _interEdgeSchema;
+    transient private Schema _intraEdgeSchema;
+
+    private void resolveCommunitySchemas (Schema mainSchema) {
+        if (null == _communitySchema) {
+            Schema eltSchema = mainSchema.getField("communities").schema().getElementType();
+            _interEdgeSchema = eltSchema.getField("interEdges").schema().getElementType();
+            _intraEdgeSchema = eltSchema.getField("intraEdges").schema().getElementType();
+            _communitySchema = eltSchema;
+        }
+    }
+
     private List<GenericRecord> communityListToAvro (Schema mainSchema, List<GraphCommunity> elts) {
-        Schema eltSchema = mainSchema.getField("communities").schema().getElementType();
-        List<GenericRecord> result = new ArrayList<>();
+        resolveCommunitySchemas(mainSchema);
+        Schema eltSchema = _communitySchema;
+        List<GenericRecord> result = new ArrayList<>(elts.size());
         for (int i=0; i < elts.size(); ++i) {
             GenericRecord elt = new GenericData.Record(eltSchema);
             GraphCommunity rawElt = elts.get(i);
@@ -133,7 +148,7 @@ extends GenericAvroArraySerializer<GraphAnalyticsRecord> {
             List<Double> statsList = rawElt.getStatsList();
             elt.put("statsList", statsList);
             
-            Schema interEschema = eltSchema.getField("interEdges").schema().getElementType();
+            Schema interEschema = _interEdgeSchema;
             List<GenericRecord> interE = new ArrayList<>();
             List<GraphEdge> interEdges = rawElt.getInterEdges();
             for (int n=0; n < interEdges.size(); n++) {
@@ -148,7 +163,7 @@ extends GenericAvroArraySerializer<GraphAnalyticsRecord> {
             }
             elt.put("interEdges", interE);            
             
-            Schema intraEschema = eltSchema.getField("intraEdges").schema().getElementType();
+            Schema intraEschema = _intraEdgeSchema;
             List<GenericRecord> intraE = new ArrayList<>();
             List<GraphEdge> intraEdges = rawElt.getIntraEdges();
             for (int n=0; n < intraEdges.size(); n++) {
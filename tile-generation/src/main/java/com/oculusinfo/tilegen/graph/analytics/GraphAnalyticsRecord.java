@@ -27,9 +27,7 @@ package com.oculusinfo.tilegen.graph.analytics;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 //import scala.Int;
 
 
@@ -174,41 +172,6 @@ public class GraphAnalyticsRecord implements Serializable {
 		return string.replace("\\\"", "\"").replace("\\\\", "\\");
 	}
 
-	private static String eat(String from, String prefix) {
-		if (from.startsWith(prefix)) {
-			return from.substring(prefix.length());
-		}
-		throw new IllegalArgumentException("String " + from
-				+ " didn't begin with expected prefix " + prefix);
-	}
-
-	private static int getQuotedStringEnd(String from) {
-		if (from.startsWith("null"))
-			return 4;
-		if (!from.startsWith("\""))
-			throw new IllegalArgumentException(
-					"Quoted string didn't start with quote");
-		int lastQuote = 0;
-		while (true) {
-			lastQuote = from.indexOf("\"", lastQuote + 1);
-			if (lastQuote < 0)
-				throw new IllegalArgumentException(
-						"Couldn't find the end of quoted string");
-			int slashes = 0;
-			for (int i = lastQuote - 1; i >= 0; --i) {
-				if ('\\' == from.charAt(i)) {
-					++slashes;
-				} else {
-					break;
-				}
-			}
-			if (0 == (slashes % 2)) {
-				// final quote - we're done
-				return lastQuote + 1;
-			}
-		}
-	}
-
 	@Override
 	public String toString() {
 		String result = ("{\"numCommunities\": " + _numCommunities + ", "
@@ -272,132 +235,65 @@ public class GraphAnalyticsRecord implements Serializable {
 	}
 
 	public static GraphAnalyticsRecord fromString(String value) {
-		value = eat(value, "{\"numCommunities\": ");
-		int end = value.indexOf(",");
-		int numCommunities = Integer.parseInt(value.substring(0, end));
+		RecordReader reader = new RecordReader(value);
+		reader.expect("{\"numCommunities\": ");
+		int numCommunities = Integer.parseInt(reader.token());
 
-		value = eat(value.substring(end), ", \"communities\": [");
+		reader.expect(", \"communities\": [");
 		List<GraphCommunity> communities = new ArrayList<>();
 		
-		while (value.startsWith("{")) {
-			value = eat(value, "{\"hierLevel\": ");
-			end = value.indexOf(", ");
-			int hierLevel = Integer.parseInt(value.substring(0, end));
+		while (reader.startsWith("{")) {
+			reader.expect("{\"hierLevel\": ");
+			int hierLevel = Integer.parseInt(reader.token());
 			
-			value = eat(value.substring(end), ", \"id\": ");
-			end = value.indexOf(", ");
-			long id = Long.parseLong(value.substring(0, end));
+			reader.expect(", \"id\": ");
+			long id = Long.parseLong(reader.token());
 			
-			value = eat(value.substring(end), ", \"coords\": [");
-			end = value.indexOf(",");
-			double x = Double.parseDouble(value.substring(0, end));
-			value = eat(value.substring(end), ", ");
-			end = value.indexOf("], ");
-			double y = Double.parseDouble(value.substring(0, end));
+			reader.expect(", \"coords\": [");
+			double x = Double.parseDouble(reader.token());
+			reader.expect(", ");
+			double y = Double.parseDouble(reader.token());
 			
-			value = eat(value.substring(end), "], \"radius\": ");
-			end = value.indexOf(", ");
-			double radius = Double.parseDouble(value.substring(0, end));			
+			reader.expect("], \"radius\": ");
+			double radius = Double.parseDouble(reader.token());
 			
-			value = eat(value.substring(end), ", \"degree\": ");
-			end = value.indexOf(", ");
-			int degree = Integer.parseInt(value.substring(0, end));
+			reader.expect(", \"degree\": ");
+			int degree = Integer.parseInt(reader.token());
 			
-			value = eat(value.substring(end), ", \"numNodes\": ");
-			end = value.indexOf(", ");
-			long numNodes = Long.parseLong(value.substring(0, end));				
+			reader.expect(", \"numNodes\": ");
+			long numNodes = Long.parseLong(reader.token());
 
-			value = eat(value.substring(end), ", \"metadata\": ");
-			end = getQuotedStringEnd(value);
-			String metadata = unescapeString(value.substring(0, end));
+			reader.expect(", \"metadata\": ");
+			String metadata = unescapeString(reader.quotedString());
 			
-			value = eat(value.substring(end), ", \"isPrimaryNode\": ");
-			end = value.indexOf(", ");
-			boolean bIsPrimaryNode = Boolean.parseBoolean(value.substring(0, end));
+			reader.expect(", \"isPrimaryNode\": ");
+			boolean bIsPrimaryNode = Boolean.parseBoolean(reader.token());
 			
-			value = eat(value.substring(end), ", \"parentID\": ");
-			end = value.indexOf(", ");
-			long parentID = Long.parseLong(value.substring(0, end));
+			reader.expect(", \"parentID\": ");
+			long parentID = Long.parseLong(reader.token());
 			
-			value = eat(value.substring(end), ", \"parentCoords\": [");
-			end = value.indexOf(",");
-			double parentX = Double.parseDouble(value.substring(0, end));
-			value = eat(value.substring(end), ", ");
-			end = value.indexOf("], ");
-			double parentY = Double.parseDouble(value.substring(0, end));			
+			reader.expect(", \"parentCoords\": [");
+			double parentX = Double.parseDouble(reader.token());
+			reader.expect(", ");
+			double parentY = Double.parseDouble(reader.token());
 			
-			value = eat(value.substring(end), "], \"parentRadius\": ");
-			end = value.indexOf(", ");
-			double parentRadius = Double.parseDouble(value.substring(0, end));
+			reader.expect("], \"parentRadius\": ");
+			double parentRadius = Double.parseDouble(reader.token());
 			
-			value = eat(value.substring(end), ", \"statsList\": [");
+			reader.expect(", \"statsList\": [");
 			List<Double> statsList = new ArrayList<>();
-			
-			while (!value.startsWith("]")) {
-				end = value.indexOf(", ");
-				double currentValue = Double.parseDouble(value.substring(0, end));	
-				
-				statsList.add(currentValue);	// add currentValue to the list
-				
-				value = value.substring(end + 1);
-				if (value.startsWith(", "))
-					value = eat(value, ", ");			
-			}			
-			
-			value = eat(value.substring(end), "], \"interEdges\": [");
-			List<GraphEdge> interEdges = new ArrayList<>();
-			
-			while (value.startsWith("{")) {
-				value = eat(value, "{\"dstID\": ");
-				end = value.indexOf(", ");
-				long dstID = Long.parseLong(value.substring(0, end));
-				
-				value = eat(value.substring(end), ", \"dstCoords\": [");
-				end = value.indexOf(",");
-				double dstX = Double.parseDouble(value.substring(0, end));
-				value = eat(value.substring(end), ", ");
-				end = value.indexOf("], ");
-				double dstY = Double.parseDouble(value.substring(0, end));
-							
-				value = eat(value.substring(end), "], \"weight\": ");
-				end = value.indexOf("}");
-				long weight = Long.parseLong(value.substring(0, end));			
-				
-				GraphEdge currentEdge = new GraphEdge(dstID, dstX, dstY, weight);
-				interEdges.add(currentEdge);	// add currentEdge to the list
-				
-				value = value.substring(end + 1);
-				if (value.startsWith(", "))
-					value = eat(value, ", ");
+			while (!reader.startsWith("]")) {
+				statsList.add(Double.parseDouble(reader.token()));
+				reader.skip(", ");
 			}
 			
-			value = eat(value.substring(end-1), "], \"intraEdges\": [");
-			List<GraphEdge> intraEdges = new ArrayList<>();
+			reader.expect("], \"interEdges\": [");
+			List<GraphEdge> interEdges = readEdges(reader);
+			
+			reader.expect("], \"intraEdges\": [");
+			List<GraphEdge> intraEdges = readEdges(reader);
+			reader.expect("]}");
 			
-			while (value.startsWith("{")) {
-				value = eat(value, "{\"dstID\": ");
-				end = value.indexOf(", ");
-				long dstID = Long.parseLong(value.substring(0, end));
-				
-				value = eat(value.substring(end), ", \"dstCoords\": [");
-				end = value.indexOf(",");
-				double dstX = Double.parseDouble(value.substring(0, end));
-				value = eat(value.substring(end), ", ");
-				end = value.indexOf("], ");
-				double dstY = Double.parseDouble(value.substring(0, end));
-							
-				value = eat(value.substring(end), "], \"weight\": ");
-				end = value.indexOf("}");
-				long weight = Long.parseLong(value.substring(0, end));			
-				
-				GraphEdge currentEdge = new GraphEdge(dstID, dstX, dstY, weight);
-				intraEdges.add(currentEdge);	// add currentEdge to the list
-				
-				value = value.substring(end + 1);
-				if (value.startsWith(", "))
-					value = eat(value, ", ");
-			}			
-
 			GraphCommunity currentCommunity = new GraphCommunity(
 						hierLevel,
 						id,
@@ -416,72 +312,183 @@ public class GraphAnalyticsRecord implements Serializable {
 					);
 			
 			communities.add(currentCommunity);	// add currentCommunity to the list
-
-			value = value.substring(end + 1);
-			if (value.startsWith(", "))
-				value = eat(value, ", ");
+			reader.skip(", ");
 		}
+		reader.expect("]}");
 
 		return new GraphAnalyticsRecord(numCommunities, communities);
-	}	
+	}
 	
-	private static void addCommunityInPlace(
-			LinkedList<GraphCommunity> accumulatedCommunities,
-			GraphCommunity newCommunity) {
-		ListIterator<GraphCommunity> i = accumulatedCommunities.listIterator();
-		int size = 0;
-		while (true) {
-			if (i.hasNext()) {
-				GraphCommunity next = i.next();
-				size++;
-				int hierLevel = next.getHierLevel();
-				if (hierLevel != newCommunity.getHierLevel()) {
-					throw new IllegalArgumentException("Cannot aggegrate communities from different hierarchy levels.");
-				}
+	private static List<GraphEdge> readEdges(RecordReader reader) {
+		List<GraphEdge> edges = new ArrayList<>();
+		while (reader.startsWith("{")) {
+			reader.expect("{\"dstID\": ");
+			long dstID = Long.parseLong(reader.token());
+			
+			reader.expect(", \"dstCoords\": [");
+			double dstX = Double.parseDouble(reader.token());
+			reader.expect(", ");
+			double dstY = Double.parseDouble(reader.token());
+			
+			reader.expect("], \"weight\": ");
+			long weight = Long.parseLong(reader.token());
+			reader.expect("}");
+			
+			edges.add(new GraphEdge(dstID, dstX, dstY, weight));	// add current edge to the list
+			reader.skip(", ");
+		}
+		return edges;
+	}
+	
+	/**
+	 * Cursor over the string form of a record, so parsing walks the string once
+	 * instead of copying its remainder at every field.
+	 */
+	private static class RecordReader {
+		private final String _value;
+		private int _position;
+
+		RecordReader(String value) {
+			_value = value;
+			_position = 0;
+		}
+
+		boolean startsWith(String prefix) {
+			return _value.startsWith(prefix, _position);
+		}
+
+		void expect(String prefix) {
+			if (!startsWith(prefix)) {
+				throw new IllegalArgumentException("String " + _value.substring(_position)
+						+ " didn't begin with expected prefix " + prefix);
+			}
+			_position += prefix.length();
+		}
+
+		void skip(String prefix) {
+			if (startsWith(prefix)) {
+				_position += prefix.length();
+			}
+		}
 
-				// Rank communities based on degree for lowest hierarchy level, OR
-				// rank by number of internal nodes for hierarchy levels > 0
-				if ((hierLevel==0 && next.getDegree() < newCommunity.getDegree()) || 		//TODO -- ideally, could use 'weighted degree' here 
-				   (hierLevel>0 && next.getNumNodes() < newCommunity.getNumNodes())) {
-					
-					// Insert the new community if it is larger (ie contains more raw nodes)
-					i.previous();
-					i.add(newCommunity);
-					size++;
-					i.next();
-					
-					if (!i.hasNext() && size == MAX_COMMUNITIES+1) {	// already at end of list but is 1 element too big
-						i.remove();
-						--size;
-					}
-					else {
-						// ... and trim the list to MAX_COMMUNITIES elements
-						while (i.hasNext() && size < MAX_COMMUNITIES) {
-							i.next();
-							++size;
-						}
-						while (i.hasNext()) {
-							i.next();
-							i.remove();
-						}
-					}
-
-					return;
+		// A bare value, ending at the next separator or closing bracket
+		String token() {
+			int end = _position;
+			while (end < _value.length()) {
+				char c = _value.charAt(end);
+				if (',' == c || ']' == c || '}' == c)
+					break;
+				++end;
+			}
+			String token = _value.substring(_position, end);
+			_position = end;
+			return token;
+		}
+
+		// A quoted string (or null), with its quotes and escapes intact
+		String quotedString() {
+			int start = _position;
+			if (startsWith("null")) {
+				_position += 4;
+				return _value.substring(start, _position);
+			}
+			if (!startsWith("\""))
+				throw new IllegalArgumentException("Quoted string didn't start with quote");
+			int lastQuote = start;
+			while (true) {
+				lastQuote = _value.indexOf('"', lastQuote + 1);
+				if (lastQuote < 0)
+					throw new IllegalArgumentException("Couldn't find the end of quoted string");
+				int slashes = 0;
+				for (int i = lastQuote - 1; i > start && '\\' == _value.charAt(i); --i) {
+					++slashes;
 				}
-			} else {
-				if (size < MAX_COMMUNITIES) {
-					i.add(newCommunity);
+				if (0 == (slashes % 2)) {
+					// final quote - we're done
+					_position = lastQuote + 1;
+					return _value.substring(start, _position);
 				}
-				return;
 			}
 		}
 	}
+	
+	// Rank communities based on degree for lowest hierarchy level, OR
+	// rank by number of internal nodes for hierarchy levels > 0
+	private static long getRank(GraphCommunity community) {
+		return (0 == community.getHierLevel() ? community.getDegree() : community.getNumNodes());	//TODO -- ideally, could use 'weighted degree' here
+	}
+	
+	/**
+	 * Fixed-capacity collection of the largest communities in a record, largest
+	 * first.  Communities and their ranks are kept in parallel arrays, so adding a
+	 * community is a scan of primitive ranks and at most one array shift, with no
+	 * per-community allocation.
+	 */
+	private static class TopCommunities {
+		private final int _maxSize;
+		private final GraphCommunity[] _communities;
+		private final long[] _ranks;
+		private int _size;
+
+		TopCommunities(List<GraphCommunity> initialCommunities) {
+			_maxSize = MAX_COMMUNITIES;
+			int capacity = Math.max(_maxSize, initialCommunities.size());
+			_communities = new GraphCommunity[capacity];
+			_ranks = new long[capacity];
+			_size = 0;
+			for (GraphCommunity community: initialCommunities) {
+				_communities[_size] = community;
+				_ranks[_size] = getRank(community);
+				++_size;
+			}
+		}
+
+		/**
+		 * Add a community ahead of the first one that ranks lower than it, keeping at
+		 * most MAX_COMMUNITIES communities.  Communities ranked equally keep the order
+		 * in which they were added.
+		 */
+		void add(GraphCommunity newCommunity) {
+			int hierLevel = newCommunity.getHierLevel();
+			long rank = getRank(newCommunity);
+			int index = 0;
+			while (index < _size) {
+				if (_communities[index].getHierLevel() != hierLevel) {
+					throw new IllegalArgumentException("Cannot aggegrate communities from different hierarchy levels.");
+				}
+				if (_ranks[index] < rank)
+					break;
+				++index;
+			}
+
+			if (index < _size) {
+				// Insert the new community if it is larger (ie contains more raw nodes),
+				// and trim the list to MAX_COMMUNITIES elements
+				int newSize = Math.max(Math.min(_size + 1, _maxSize), index + 1);
+				int shifted = Math.min(_size, newSize - 1) - index;
+				System.arraycopy(_communities, index, _communities, index + 1, shifted);
+				System.arraycopy(_ranks, index, _ranks, index + 1, shifted);
+				for (int i = newSize; i < _size; ++i) {
+					_communities[i] = null;
+				}
+				_communities[index] = newCommunity;
+				_ranks[index] = rank;
+				_size = newSize;
+			} else if (_size < _maxSize) {
+				_communities[_size] = newCommunity;
+				_ranks[_size] = rank;
+				++_size;
+			}
+		}
+
+		void addAll(List<GraphCommunity> newCommunities) {
+			for (int i = 0; i < newCommunities.size(); ++i) {
+				add(newCommunities.get(i));
+			}
+		}
 
-	private static void addCommunitiesInPlace(
-			LinkedList<GraphCommunity> accumulatedCommunities,
-			List<GraphCommunity> newCommunities) {
-		for (GraphCommunity newCommunity : newCommunities) {
-			addCommunityInPlace(accumulatedCommunities, newCommunity);
+		List<GraphCommunity> toList() {
+			return Arrays.asList(Arrays.copyOf(_communities, _size));
 		}
 	}
 
@@ -494,13 +501,13 @@ public class GraphAnalyticsRecord implements Serializable {
 			return null;
 
 		int numCommunities = records[0].getNumCommunities();
-		LinkedList<GraphCommunity> communities = new LinkedList<>(records[0].getCommunities());
+		TopCommunities communities = new TopCommunities(records[0].getCommunities());
 
 		for (int i = 1; i < records.length; ++i) {
 			numCommunities += records[i].getNumCommunities();
-			addCommunitiesInPlace(communities, records[i].getCommunities());
+			communities.addAll(records[i].getCommunities());
 		}
-		return new GraphAnalyticsRecord(numCommunities, communities);
+		return new GraphAnalyticsRecord(numCommunities, communities.toList());
 	}
 
 	/**
@@ -513,16 +520,107 @@ public class GraphAnalyticsRecord implements Serializable {
 			return null;
 		
 		int numCommunities = record.getNumCommunities() + 1;
-		LinkedList<GraphCommunity> accumulatedCommunities = new LinkedList<>(record.getCommunities());
-		addCommunityInPlace(accumulatedCommunities, newCommunity);
+		TopCommunities accumulatedCommunities = new TopCommunities(record.getCommunities());
+		accumulatedCommunities.add(newCommunity);
 
-		return new GraphAnalyticsRecord(numCommunities, accumulatedCommunities);		
+		return new GraphAnalyticsRecord(numCommunities, accumulatedCommunities.toList());
 	}
 
-	private static void minInPlace(GraphCommunity accumulatedMin,
-			List<GraphCommunity> newMin) {
-		for (int i = 0; i < newMin.size(); ++i) {
-			accumulatedMin.minInPlace(newMin.get(i));
+	/**
+	 * Running per-attribute minimum or maximum over a number of communities, held in
+	 * primitives so that no intermediate communities, coordinate pairs or lists are
+	 * created along the way.  Stats and edge attributes are reduced over every entry
+	 * of every community's lists.
+	 */
+	private static class CommunityExtremum {
+		private final boolean _max;
+		private int _hierLevel;
+		private long _id;
+		private double _x, _y, _radius;
+		private int _degree;
+		private long _numNodes;
+		private long _parentID;
+		private double _parentX, _parentY, _parentRadius;
+		private double _stat;
+		private long _interDstID, _interWeight;
+		private double _interX, _interY;
+		private long _intraDstID, _intraWeight;
+		private double _intraX, _intraY;
+
+		CommunityExtremum(boolean max) {
+			_max = max;
+			int intStart = (max ? Integer.MIN_VALUE : Integer.MAX_VALUE);
+			long longStart = (max ? Long.MIN_VALUE : Long.MAX_VALUE);
+			double doubleStart = (max ? Double.MIN_VALUE : Double.MAX_VALUE);
+			_hierLevel = _degree = intStart;
+			_id = _numNodes = _parentID = longStart;
+			_interDstID = _interWeight = _intraDstID = _intraWeight = longStart;
+			_x = _y = _radius = _parentX = _parentY = _parentRadius = _stat = doubleStart;
+			_interX = _interY = _intraX = _intraY = doubleStart;
+		}
+
+		private int pick(int a, int b) {
+			return (_max ? Math.max(a, b) : Math.min(a, b));
+		}
+
+		private long pick(long a, long b) {
+			return (_max ? Math.max(a, b) : Math.min(a, b));
+		}
+
+		private double pick(double a, double b) {
+			return (_max ? Math.max(a, b) : Math.min(a, b));
+		}
+
+		void add(GraphCommunity community) {
+			_hierLevel = pick(_hierLevel, community.getHierLevel());
+			_id = pick(_id, community.getID());
+			_x = pick(_x, community.getCoords().getFirst());
+			_y = pick(_y, community.getCoords().getSecond());
+			_radius = pick(_radius, community.getRadius());
+			_degree = pick(_degree, community.getDegree());
+			_numNodes = pick(_numNodes, community.getNumNodes());
+			_parentID = pick(_parentID, community.getParentID());
+			_parentX = pick(_parentX, community.getParentCoords().getFirst());
+			_parentY = pick(_parentY, community.getParentCoords().getSecond());
+			_parentRadius = pick(_parentRadius, community.getParentRadius());
+
+			List<Double> stats = community.getStatsList();
+			for (int i = 0; i < stats.size(); ++i) {
+				_stat = pick(_stat, stats.get(i));
+			}
+			List<GraphEdge> interEdges = community.getInterEdges();
+			for (int i = 0; i < interEdges.size(); ++i) {
+				GraphEdge edge = interEdges.get(i);
+				_interDstID = pick(_interDstID, edge.getDstID());
+				_interX = pick(_interX, edge.getDstCoords().getFirst());
+				_interY = pick(_interY, edge.getDstCoords().getSecond());
+				_interWeight = pick(_interWeight, edge.getWeight());
+			}
+			List<GraphEdge> intraEdges = community.getIntraEdges();
+			for (int i = 0; i < intraEdges.size(); ++i) {
+				GraphEdge edge = intraEdges.get(i);
+				_intraDstID = pick(_intraDstID, edge.getDstID());
+				_intraX = pick(_intraX, edge.getDstCoords().getFirst());
+				_intraY = pick(_intraY, edge.getDstCoords().getSecond());
+				_intraWeight = pick(_intraWeight, edge.getWeight());
+			}
+		}
+
+		GraphCommunity toCommunity() {
+			return new GraphCommunity(_hierLevel,
+			                          _id,
+			                          new Pair<Double, Double>(_x, _y),
+			                          _radius,
+			                          _degree,
+			                          _numNodes,
+			                          "",
+			                          false,
+			                          _parentID,
+			                          new Pair<Double, Double>(_parentX, _parentY),
+			                          _parentRadius,
+			                          Arrays.asList(_stat),
+			                          Arrays.asList(new GraphEdge(_interDstID, _interX, _interY, _interWeight)),
+			                          Arrays.asList(new GraphEdge(_intraDstID, _intraX, _intraY, _intraWeight)));
 		}
 	}
 
@@ -538,37 +636,18 @@ public class GraphAnalyticsRecord implements Serializable {
 			return null;
 
 		int minNumCommunities = Integer.MAX_VALUE;
-		List<GraphEdge> minEdgeList = Arrays.asList(new GraphEdge(Long.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE, Long.MAX_VALUE));
-		GraphCommunity minCommunity = new GraphCommunity(Integer.MAX_VALUE,
-														Long.MAX_VALUE,
-														new Pair<Double, Double>(Double.MAX_VALUE, Double.MAX_VALUE),
-														Double.MAX_VALUE,
-														Integer.MAX_VALUE,
-														Long.MAX_VALUE,
-														"",
-														false,
-														Long.MAX_VALUE,
-														new Pair<Double, Double>(Double.MAX_VALUE, Double.MAX_VALUE),
-														Double.MAX_VALUE,
-														Arrays.asList(Double.MAX_VALUE),
-														minEdgeList,
-														minEdgeList);
+		CommunityExtremum minCommunity = new CommunityExtremum(false);
 
 		for (GraphAnalyticsRecord record : records) {
 			if (null != record) {
 				minNumCommunities = Math.min(minNumCommunities, record.getNumCommunities());
-				minInPlace(minCommunity, record.getCommunities());
+				for (GraphCommunity community: record.getCommunities()) {
+					minCommunity.add(community);
+				}
 			}
 		}
-		return new GraphAnalyticsRecord(minNumCommunities, Arrays.asList(minCommunity));
+		return new GraphAnalyticsRecord(minNumCommunities, Arrays.asList(minCommunity.toCommunity()));
 	}
-		
-	private static void maxInPlace(GraphCommunity accumulatedMin,
-			List<GraphCommunity> newMin) {
-		for (int i = 0; i < newMin.size(); ++i) {
-			accumulatedMin.maxInPlace(newMin.get(i));
-		}
-	}	
 
 	/**
 	 * Get maximums of all counts across some number of records.
@@ -582,28 +661,16 @@ public class GraphAnalyticsRecord implements Serializable {
 			return null;
 
 		int maxNumCommunities = 0;
-		List<GraphEdge> maxEdgeList = Arrays.asList(new GraphEdge(Long.MIN_VALUE, Double.MIN_VALUE, Double.MIN_VALUE, Long.MIN_VALUE));
-		GraphCommunity maxCommunity = new GraphCommunity(Integer.MIN_VALUE,
-														Long.MIN_VALUE,
-														new Pair<Double, Double>(Double.MIN_VALUE, Double.MIN_VALUE),
-														Double.MIN_VALUE,
-														Integer.MIN_VALUE,
-														Long.MIN_VALUE,
-														"",
-														false,
-														Long.MIN_VALUE,
-														new Pair<Double, Double>(Double.MIN_VALUE, Double.MIN_VALUE),
-														Double.MIN_VALUE,
-														Arrays.asList(Double.MIN_VALUE),
-														maxEdgeList,
-														maxEdgeList);
+		CommunityExtremum maxCommunity = new CommunityExtremum(true);
 
 		for (GraphAnalyticsRecord record : records) {
 			if (null != record) {
 				maxNumCommunities = Math.max(maxNumCommunities, record.getNumCommunities());
-				maxInPlace(maxCommunity, record.getCommunities());
+				for (GraphCommunity community: record.getCommunities()) {
+					maxCommunity.add(community);
+				}
 			}
 		}
-		return new GraphAnalyticsRecord(maxNumCommunities, Arrays.asList(maxCommunity));
+		return new GraphAnalyticsRecord(maxNumCommunities, Arrays.asList(maxCommunity.toCommunity()));
 	}
 }
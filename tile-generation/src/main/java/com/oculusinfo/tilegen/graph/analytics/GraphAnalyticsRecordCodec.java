@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tilegen.graph.analytics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.oculusinfo.factory.util.Pair;
+
+/**
+ * Compact binary encoding of GraphAnalyticsRecords, for moving records between
+ * processes without going through their string form.
+ * 
+ * Counts and IDs are written as variable-length (zig-zag) integers, coordinates,
+ * radii and stats as raw doubles, and metadata as a length-prefixed UTF-8 string.
+ * Communities are written in record order, so a decoded record equals the original.
+ * 
+ * The codec is registered with Kryo for GraphAnalyticsRecord by
+ * GraphAnalyticsTileRegistrator, via {@link RecordSerializer}.
+ */
+public class GraphAnalyticsRecordCodec {
+	private GraphAnalyticsRecordCodec () {
+	}
+
+	public static byte[] toBytes (GraphAnalyticsRecord record) {
+		Output output = new Output(256, -1);
+		write(record, output);
+		return output.toBytes();
+	}
+
+	public static GraphAnalyticsRecord fromBytes (byte[] bytes) {
+		return read(new Input(bytes));
+	}
+
+	public static void write (GraphAnalyticsRecord record, Output output) {
+		output.writeInt(record.getNumCommunities(), true);
+		List<GraphCommunity> communities = record.getCommunities();
+		output.writeInt(communities.size(), true);
+		for (int i = 0; i < communities.size(); ++i) {
+			writeCommunity(communities.get(i), output);
+		}
+	}
+
+	public static GraphAnalyticsRecord read (Input input) {
+		int numCommunities = input.readInt(true);
+		int size = input.readInt(true);
+		List<GraphCommunity> communities = new ArrayList<>(size);
+		for (int i = 0; i < size; ++i) {
+			communities.add(readCommunity(input));
+		}
+		return new GraphAnalyticsRecord(numCommunities, communities);
+	}
+
+	private static void writeCommunity (GraphCommunity community, Output output) {
+		output.writeInt(community.getHierLevel(), false);
+		output.writeLong(community.getID(), false);
+		output.writeDouble(community.getCoords().getFirst());
+		output.writeDouble(community.getCoords().getSecond());
+		output.writeDouble(community.getRadius());
+		output.writeInt(community.getDegree(), false);
+		output.writeLong(community.getNumNodes(), false);
+		output.writeString(community.getMetadata());
+		output.writeBoolean(community.isPrimaryNode());
+		output.writeLong(community.getParentID(), false);
+		output.writeDouble(community.getParentCoords().getFirst());
+		output.writeDouble(community.getParentCoords().getSecond());
+		output.writeDouble(community.getParentRadius());
+
+		List<Double> stats = community.getStatsList();
+		output.writeInt(stats.size(), true);
+		for (int i = 0; i < stats.size(); ++i) {
+			output.writeDouble(stats.get(i));
+		}
+		writeEdges(community.getInterEdges(), output);
+		writeEdges(community.getIntraEdges(), output);
+	}
+
+	private static GraphCommunity readCommunity (Input input) {
+		int hierLevel = input.readInt(false);
+		long id = input.readLong(false);
+		double x = input.readDouble();
+		double y = input.readDouble();
+		double radius = input.readDouble();
+		int degree = input.readInt(false);
+		long numNodes = input.readLong(false);
+		String metadata = input.readString();
+		boolean bIsPrimaryNode = input.readBoolean();
+		long parentID = input.readLong(false);
+		double parentX = input.readDouble();
+		double parentY = input.readDouble();
+		double parentRadius = input.readDouble();
+
+		int numStats = input.readInt(true);
+		List<Double> stats = new ArrayList<>(numStats);
+		for (int i = 0; i < numStats; ++i) {
+			stats.add(input.readDouble());
+		}
+		List<GraphEdge> interEdges = readEdges(input);
+		List<GraphEdge> intraEdges = readEdges(input);
+
+		return new GraphCommunity(hierLevel, id, new Pair<Double, Double>(x, y), radius,
+		                          degree, numNodes, metadata, bIsPrimaryNode, parentID,
+		                          new Pair<Double, Double>(parentX, parentY), parentRadius,
+		                          stats, interEdges, intraEdges);
+	}
+
+	private static void writeEdges (List<GraphEdge> edges, Output output) {
+		output.writeInt(edges.size(), true);
+		for (int i = 0; i < edges.size(); ++i) {
+			GraphEdge edge = edges.get(i);
+			output.writeLong(edge.getDstID(), false);
+			output.writeDouble(edge.getDstCoords().getFirst());
+			output.writeDouble(edge.getDstCoords().getSecond());
+			output.writeLong(edge.getWeight(), false);
+		}
+	}
+
+	private static List<GraphEdge> readEdges (Input input) {
+		int size = input.readInt(true);
+		List<GraphEdge> edges = new ArrayList<>(size);
+		for (int i = 0; i < size; ++i) {
+			long dstID = input.readLong(false);
+			double dstX = input.readDouble();
+			double dstY = input.readDouble();
+			long weight = input.readLong(false);
+			edges.add(new GraphEdge(dstID, dstX, dstY, weight));
+		}
+		return edges;
+	}
+
+	/**
+	 * Kryo serializer for GraphAnalyticsRecords using this codec
+	 */
+	public static class RecordSerializer extends Serializer<GraphAnalyticsRecord> {
+		@Override
+		public void write (Kryo kryo, Output output, GraphAnalyticsRecord record) {
+			GraphAnalyticsRecordCodec.write(record, output);
+		}
+
+		@Override
+		public GraphAnalyticsRecord read (Kryo kryo, Input input, Class<GraphAnalyticsRecord> type) {
+			return GraphAnalyticsRecordCodec.read(input);
+		}
+	}
+}
@@ -33,7 +33,7 @@ public class GraphAnalyticsTileRegistrator extends TileRegistrator {
 	@Override
 	public void registerClasses (Kryo kryo) {
 		super.registerClasses(kryo);
-		kryo.register(GraphAnalyticsRecord.class);
+		kryo.register(GraphAnalyticsRecord.class, new GraphAnalyticsRecordCodec.RecordSerializer());
 		kryo.register(int[].class);
 		kryo.register(long[].class);
 		kryo.register(String[].class);
@@ -141,6 +141,7 @@ public class TileRegistrator implements KryoRegistrator {
 
 		kryo.register(StringScoreAnalytic.class);
 		kryo.register(StringScoreBinningAnalytic.class);
+		kryo.register(SpaceSavingStringScoreBinningAnalytic.class);
 		kryo.register(StringScoreTileAnalytic.class);
 		kryo.register(OrderedStringTileAnalytic.class);
 		kryo.register(CategoryValueAnalytic.class);
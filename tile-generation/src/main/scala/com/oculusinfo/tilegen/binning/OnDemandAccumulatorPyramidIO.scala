@@ -37,6 +37,8 @@ import java.lang.{Iterable => JavaIterable}
 import java.lang.{Integer => JavaInt}
 import java.util.{List => JavaList}
 import java.util.Properties
+import java.util.UUID
+import java.util.concurrent.atomic.AtomicInteger
 
 import org.json.JSONObject
 
@@ -64,20 +66,56 @@ import com.oculusinfo.binning.io.PyramidIO
 import com.oculusinfo.binning.io.serialization.TileSerializer
 import com.oculusinfo.binning.metadata.PyramidMetaData
 import com.oculusinfo.tilegen.datasets.{CSVDataSource, CSVReader, TilingTask}
+import com.oculusinfo.tilegen.live.LiveTileJobs
 import com.oculusinfo.tilegen.util.PropertiesWrapper
-import com.oculusinfo.tilegen.tiling.analytics.{TileAnalytic, AnalysisDescription}
+import com.oculusinfo.tilegen.tiling.analytics.{TileAnalytic, AnalysisDescription, BinningAnalytic, NumericType}
+import com.oculusinfo.tilegen.tiling.analytics.{NumericSumAnalytic, NumericMaxAnalytic, NumericMinAnalytic}
+import com.oculusinfo.tilegen.util.ExtendedNumeric
 
 
 
 
+object OnDemandAccumulatorPyramidIO {
+	/** The tile request property naming the user whose fair-scheduler pool should run the request */
+	val USER_PROPERTY = "user"
+	/** The tile request property giving the id by which the request can be cancelled */
+	val REQUEST_ID_PROPERTY = "requestId"
+	/**
+	 * The tile request property giving how long, in milliseconds, the request may run.  This can
+	 * only shorten the server's deadline, never extend it.
+	 */
+	val DEADLINE_PROPERTY = "deadline"
+
+	// Distinguishes the tables of different instances reading the same pyramid
+	private val instances = new AtomicInteger(0)
+}
+
 /**
  * This class reads and caches a data set for live queries of its tiles
+ *
+ * Each tile request runs as its own cancellable job group (see LiveTileJobs), in a fair-scheduler
+ * pool for its user, if the request names one, or for its layer otherwise.  Users share a bounded
+ * set of pools; see LiveTileJobs.
+ *
+ * @param defaultDeadline How long, in milliseconds, tile requests may run; None for no limit.
+ *                        Requests may ask for an earlier deadline, but not a later one.
  */
-class OnDemandAccumulatorPyramidIO (sqlc: SQLContext) extends PyramidIO with Logging {
+class OnDemandAccumulatorPyramidIO (sqlc: SQLContext, defaultDeadline: Option[Long]) extends PyramidIO with Logging {
+	import OnDemandAccumulatorPyramidIO._
+
+	def this (sqlc: SQLContext) = this(sqlc, None)
+
 	private val sc = sqlc.sparkContext
+	private val jobs = new LiveTileJobs(sc, defaultDeadline)
+	private val instance = OnDemandAccumulatorPyramidIO.instances.getAndIncrement
 	private val tasks = MutableMap[String, TilingTask[_, _, _, _]]()
 	private val metaData = MutableMap[String, PyramidMetaData]()
 	private val accStore = new AccumulatorStore
+	private val cachedTables = MutableSet[String]()
+	// The temporary table registered for each pyramid read from raw data
+	private val registeredTables = MutableMap[String, String]()
+	// Set once we have been closed, after which no pyramid may be loaded again
+	@volatile private var closed = false
 
 	def getTask (pyramidId: String) = tasks(pyramidId)
 
@@ -101,6 +139,7 @@ class OnDemandAccumulatorPyramidIO (sqlc: SQLContext) extends PyramidIO with Log
 	                       dataDescription: Properties): Unit = {
 		if (!tasks.contains(pyramidId)) {
 			tasks.synchronized {
+				checkOpen()
 				if (!tasks.contains(pyramidId)) {
 					// Note our tile width and height appropriately
 					dataDescription.setProperty("oculus.binning.tileWidth", width.toString)
@@ -119,9 +158,13 @@ class OnDemandAccumulatorPyramidIO (sqlc: SQLContext) extends PyramidIO with Log
 						"Cache the data, in a parsed and processed form, if true",
 						Some(true))
 					// Register it as a table
-					val table = TilingTask.rectifyTableName("table "+pyramidId)
+					val table = TilingTask.rectifyTableName("table "+pyramidId+" "+instance)
 					reader.asDataFrame.registerTempTable(table)
-					if (cache) sqlc.cacheTable(table)
+					registeredTables(pyramidId) = table
+					if (cache) {
+						sqlc.cacheTable(table)
+						cachedTables.synchronized(cachedTables += table)
+					}
 
 					// Create our tiling task
 					val newTask = TilingTask(sqlc, table, dataDescription)
@@ -141,6 +184,7 @@ class OnDemandAccumulatorPyramidIO (sqlc: SQLContext) extends PyramidIO with Log
 	def initializeDirectly (pyramidId: String, task: TilingTask[_, _, _, _]): Unit ={
 		if (!tasks.contains(pyramidId)) {
 			tasks.synchronized {
+				checkOpen()
 				if (!tasks.contains(pyramidId)) {
 					task.getTileAnalytics.map(_.addGlobalAccumulator(sc))
 					task.getDataAnalytics.map(_.addGlobalAccumulator(sc))
@@ -154,24 +198,53 @@ class OnDemandAccumulatorPyramidIO (sqlc: SQLContext) extends PyramidIO with Log
                      serializer: TileSerializer[BT],
                      javaTiles: JavaIterable[TileIndex],
                      properties: JSONObject): JavaList[TileData[BT]] = {
-    readTiles( pyramidId, serializer, javaTiles )
+    val props = Option(properties)
+    val user = props.flatMap(p => Option(p.optString(USER_PROPERTY, null)))
+    val pool = user.map(jobs.userPool).getOrElse(LiveTileJobs.layerPool(pyramidId))
+    val requestId = props.flatMap(p => Option(p.optString(REQUEST_ID_PROPERTY, null)))
+    val deadline = props.filter(_.has(DEADLINE_PROPERTY)).map(_.getLong(DEADLINE_PROPERTY))
+    readTiles( pyramidId, serializer, javaTiles, pool, user, requestId, deadline )
   }
 
 	def readTiles[BT] (pyramidId: String,
 	                   serializer: TileSerializer[BT],
-	                   javaTiles: JavaIterable[TileIndex]): JavaList[TileData[BT]] = {
+	                   javaTiles: JavaIterable[TileIndex]): JavaList[TileData[BT]] =
+		readTiles(pyramidId, serializer, javaTiles, LiveTileJobs.layerPool(pyramidId), None, None, None)
+
+	private def readTiles[BT] (pyramidId: String,
+	                           serializer: TileSerializer[BT],
+	                           javaTiles: JavaIterable[TileIndex],
+	                           pool: String,
+	                           user: Option[String],
+	                           requestId: Option[String],
+	                           deadline: Option[Long]): JavaList[TileData[BT]] = {
 		if (!tasks.contains(pyramidId) || null == javaTiles || !javaTiles.iterator.hasNext) {
 			null
 		} else {
 			val tiles = javaTiles.asScala.toArray
 			val task = tasks(pyramidId).asInstanceOf[TilingTask[_, _, _, BT]]
 
-			val results = readTilesAndTasks(pyramidId, serializer, tiles, task)
+			val id = requestId.getOrElse(UUID.randomUUID.toString)
+			val results = jobs.run(pool, id, deadline, user)(readTilesAndTasks(pyramidId, serializer, tiles, task))
 			updateMetaData(pyramidId, results)
 			results.asJava
 		}
 	}
 
+	/**
+	 * Cancel the outstanding jobs of a tile request
+	 *
+	 * @return True if the request was still running
+	 */
+	def cancelRequest (requestId: String): Boolean = jobs.cancel(requestId)
+
+	/**
+	 * Cancel the outstanding jobs of every tile request of the given user
+	 *
+	 * @return The number of requests cancelled
+	 */
+	def cancelUserRequests (user: String): Int = jobs.cancelUser(user)
+
 	def readTilesAndTasks[PT: ClassTag, DT: ClassTag, AT: ClassTag, BT] (
 		pyramidId: String, serializer: TileSerializer[BT],
 		tiles: Array[TileIndex], task: TilingTask[PT, DT, AT, BT]):
@@ -189,11 +262,17 @@ class OnDemandAccumulatorPyramidIO (sqlc: SQLContext) extends PyramidIO with Log
 		// accumulables.
 		val levels = tiles.map(_.getLevel).toSet
 		val add: (PT, PT) => PT = analytic.aggregate
+		// Simple numeric analytics can accumulate into primitive arrays instead of maps of boxed values
+		val primitive = PrimitiveBinOperation.forAnalytic(analytic)
+		def reserve: TileBinAccumulator[PT] = primitive match {
+			case Some((operation, numeric)) => accStore.reservePrimitive(sc, operation, numeric, xBins, yBins)
+			case None => accStore.reserve(sc, add, xBins, yBins)
+		}
 
 		val tileData = levels.map(level =>
 			(level,
 			 tiles.filter(tile => level == tile.getLevel).map(tile =>
-				 (tile -> accStore.reserve(sc, add, xBins, yBins))
+				 (tile -> reserve)
 			 ).toMap
 			)
 		).toMap
@@ -224,7 +303,7 @@ class OnDemandAccumulatorPyramidIO (sqlc: SQLContext) extends PyramidIO with Log
 		val identity: RDD[(Seq[Any], PT, Option[DT])] => RDD[(Seq[Any], PT, Option[DT])] =
 			rdd => rdd
 		val tileType = task.getTileType
-		task.transformRDD(identity).foreach{case (index, value, analyticValue) =>
+		val dataRead = Try(task.transformRDD(identity).foreach{case (index, value, analyticValue) =>
 			{
 				Try(indexScheme.toCartesian(index)).foreach{case (x, y) =>
 					tileData.foreach{case (level, tileInfos) =>
@@ -236,7 +315,7 @@ class OnDemandAccumulatorPyramidIO (sqlc: SQLContext) extends PyramidIO with Log
 								// Can't recover from an accumulator aggregation exception (we
 								// don't know what it has added in, and what it hasn't), so just
 								// move on if we get one.
-								Try(tileInfos(tile).accumulable += (bin, value))
+								Try(tileInfos(tile).add(bin, value))
 								// update data analytic value
 								dataAnalytics.foreach(da =>
 									{
@@ -255,17 +334,21 @@ class OnDemandAccumulatorPyramidIO (sqlc: SQLContext) extends PyramidIO with Log
 					}
 				}
 			}
+		})
+		// If the request failed or was cancelled, free up the accumulables we reserved before giving up
+		dataRead.failed.foreach{e =>
+			tileData.flatMap(_._2).foreach{case (index, data) => accStore.release(data)}
+			throw e
 		}
 
 		// We've got aggregates of each tile's data; convert to tiles.
 		val results = tileData.flatMap(_._2).flatMap{case (index, data) =>
 			{
-				if (data.accumulable.value.isEmpty) {
+				if (data.isEmpty) {
 					Seq[TileData[BT]]()
 				} else {
-					val tileData = data.accumulable.value
 					val typeToUse = tileType.getOrElse(
-						if (tileData.size > xBins*yBins/2) StorageType.Dense
+						if (data.size > xBins*yBins/2) StorageType.Dense
 						else StorageType.Sparse
 					)
 					val defaultBinValue =
@@ -276,9 +359,9 @@ class OnDemandAccumulatorPyramidIO (sqlc: SQLContext) extends PyramidIO with Log
 					}
 
 					// Put the proper value into each bin
-					tileData.foreach{case (bin, value) =>
-						tile.setBin(bin.getX, bin.getY, analytic.finish(value))
-					}
+					data.foreachBin((x, y, value) =>
+						tile.setBin(x, y, analytic.finish(value))
+					)
 
 					// Apply data analytics
 					dataAnalytics.map(da =>
@@ -377,15 +460,86 @@ class OnDemandAccumulatorPyramidIO (sqlc: SQLContext) extends PyramidIO with Log
 	def readMetaData (pyramidId: String): String =
 		getMetaData(pyramidId).map(_.toString).getOrElse(null)
 
+	/**
+	 * The number of bytes of memory currently holding data cached by this pyramid IO
+	 */
+	def getCachedMemorySize: Long = {
+		val rddNames = cachedTables.synchronized(cachedTables.map("In-memory table "+_).toSet)
+		if (rddNames.isEmpty) 0L
+		else sc.getRDDStorageInfo.filter(info => rddNames.contains(info.name)).map(_.memSize).sum
+	}
+
+	/**
+	 * Drop all data cached by this pyramid IO.  Tiles can still be read afterwards, but each read
+	 * will have to go back to the raw data.
+	 */
+	def uncacheTables (): Unit = cachedTables.synchronized {
+		cachedTables.foreach(table =>
+			Try(sqlc.uncacheTable(table)).failed.foreach(e => warn("Error uncaching table "+table, e))
+		)
+		cachedTables.clear()
+	}
+
+	/**
+	 * Drop all data cached by this pyramid IO, and unregister the tables it has read.  Pyramids
+	 * read from raw data are forgotten, so they are read again when next initialized.
+	 */
+	def dropTables (): Unit = tasks.synchronized {
+		uncacheTables()
+		registeredTables.foreach { case (pyramidId, table) =>
+			Try(sqlc.dropTempTable(table)).failed.foreach(e => warn("Error dropping table "+table, e))
+			tasks -= pyramidId
+			metaData -= pyramidId
+		}
+		registeredTables.clear()
+	}
+
+	/**
+	 * Drop our tables for good.  Unlike dropTables, no pyramid can be loaded again afterwards;
+	 * initializing one throws an IllegalStateException.  This keeps anyone still holding a
+	 * discarded IO from quietly caching its data again.
+	 */
+	def close (): Unit = tasks.synchronized {
+		closed = true
+		dropTables()
+	}
+
+	def isClosed: Boolean = closed
+
+	private def checkOpen (): Unit =
+		if (closed) throw new IllegalStateException("Pyramid IO has been closed, and can't load data again")
+
 	def removeTiles (id: String, tiles: JavaIterable[TileIndex]  ) : Unit =
 		throw new IOException("removeTiles not currently supported for OnDemandAccumulatorPyramidIO")
 }
 
 
-case class TileAccumulableInfo[PT: ClassTag] (
+/**
+ * The accumulation of the bins of a single tile over the course of a live tile request.
+ * Values are added on the executors; the aggregated bins are read back on the driver once the
+ * request's job is done.
+ */
+sealed trait TileBinAccumulator[PT] {
+	/** Aggregate a single value into a bin.  Called on executors. */
+	def add (bin: BinIndex, value: PT): Unit
+	/** Whether no values at all have been added */
+	def isEmpty: Boolean
+	/** The number of bins into which values have been added */
+	def size: Int
+	/** Apply a function to the x and y coordinates and aggregate value of each occupied bin */
+	def foreachBin (fn: (Int, Int, PT) => Unit): Unit
+}
+
+case class TileAccumulableInfo[PT] (
 	accumulable: Accumulable[MutableMap[BinIndex, PT], (BinIndex, PT)],
 	param: TileAccumulableParam[PT]
-) {}
+)(implicit val tag: ClassTag[PT]) extends TileBinAccumulator[PT] {
+	def add (bin: BinIndex, value: PT): Unit = accumulable += (bin, value)
+	def isEmpty: Boolean = accumulable.value.isEmpty
+	def size: Int = accumulable.value.size
+	def foreachBin (fn: (Int, Int, PT) => Unit): Unit =
+		accumulable.value.foreach{case (bin, value) => fn(bin.getX, bin.getY, value)}
+}
 
 class TileAccumulableParam[PT] (private var width: Int,
                                 private var height: Int,
@@ -417,11 +571,151 @@ class TileAccumulableParam[PT] (private var width: Int,
 		MutableMap[BinIndex, PT]()
 }
 
+
+
+/**
+ * The ways in which primitive tile accumulators can combine two bin values.  Max and min, like
+ * their analytic counterparts, treat NaN as no value at all.
+ */
+object PrimitiveBinOperation extends Enumeration {
+	type PrimitiveBinOperation = Value
+	val Sum, Max, Min = Value
+
+	/**
+	 * Determine the primitive operation equivalent to a binning analytic, if there is one.  Only
+	 * analytics of types that survive a round trip through a double unchanged qualify.
+	 */
+	def forAnalytic[PT] (analytic: BinningAnalytic[PT, _]): Option[(PrimitiveBinOperation, ExtendedNumeric[PT])] = {
+		val operation = analytic match {
+			case a: NumericSumAnalytic[_] => Some(Sum)
+			case a: NumericMaxAnalytic[_] => Some(Max)
+			case a: NumericMinAnalytic[_] => Some(Min)
+			case _ => None
+		}
+		operation.flatMap(op =>
+			{
+				val numeric = analytic.asInstanceOf[NumericType[PT]].numericType
+				if ("int" == numeric.name || "double" == numeric.name) Some((op, numeric))
+				else None
+			}
+		)
+	}
+}
+import PrimitiveBinOperation.PrimitiveBinOperation
+
+/**
+ * The bins of a single tile, stored in row-major order in a flat array of doubles, along with a
+ * bit set of which bins hold values.  Storage is only allocated once the first value arrives, so
+ * tasks that never touch a tile don't pay for it.
+ */
+class PrimitiveTileBins (val width: Int, val height: Int) extends Serializable {
+	private var values: Array[Double] = null
+	private var occupied: Array[Long] = null
+
+	def isEmpty: Boolean = null == values
+
+	def isOccupied (bin: Int): Boolean =
+		null != occupied && 0L != (occupied(bin >>> 6) & (1L << bin))
+
+	def apply (bin: Int): Double = values(bin)
+
+	def size: Int =
+		if (null == occupied) 0 else occupied.map(java.lang.Long.bitCount).sum
+
+	/** Aggregate a value into a bin, in place */
+	def fold (bin: Int, value: Double, operation: PrimitiveBinOperation): Unit = {
+		if (null == values) {
+			values = new Array[Double](width * height)
+			occupied = new Array[Long]((width * height + 63) >>> 6)
+		}
+		if (isOccupied(bin)) {
+			val current = values(bin)
+			values(bin) = operation match {
+				case PrimitiveBinOperation.Sum => current + value
+				case PrimitiveBinOperation.Max =>
+					if (current.isNaN) value else if (value.isNaN) current else math.max(current, value)
+				case PrimitiveBinOperation.Min =>
+					if (current.isNaN) value else if (value.isNaN) current else math.min(current, value)
+			}
+		} else {
+			values(bin) = value
+			occupied(bin >>> 6) |= (1L << bin)
+		}
+	}
+
+	/** Aggregate all the occupied bins of another set of bins into this one, in place */
+	def merge (that: PrimitiveTileBins, operation: PrimitiveBinOperation): Unit = {
+		if (!that.isEmpty) {
+			var bin = 0
+			val n = that.values.length
+			while (bin < n) {
+				if (that.isOccupied(bin)) fold(bin, that.values(bin), operation)
+				bin += 1
+			}
+		}
+	}
+}
+
+class PrimitiveTileAccumulableParam (private var width: Int,
+                                     private var height: Int,
+                                     private var operation: PrimitiveBinOperation)
+		extends AccumulableParam[PrimitiveTileBins, (Int, Double)]
+{
+	def getOperation = operation
+
+	def reset (w: Int, h: Int, op: PrimitiveBinOperation): Unit = {
+		width = w
+		height = h
+		operation = op
+	}
+	def addAccumulator (r: PrimitiveTileBins, t: (Int, Double)): PrimitiveTileBins = {
+		r.fold(t._1, t._2, operation)
+		r
+	}
+	def addInPlace (r1: PrimitiveTileBins, r2: PrimitiveTileBins): PrimitiveTileBins =
+		if (r1.isEmpty) r2
+		else {
+			r1.merge(r2, operation)
+			r1
+		}
+	def zero (initialValue: PrimitiveTileBins): PrimitiveTileBins =
+		new PrimitiveTileBins(width, height)
+}
+
+/**
+ * A tile accumulator for simple numeric analytics that keeps its bins in primitive arrays
+ * rather than a map of boxed values, folding values into those arrays in place on the executors
+ * and merging them element-wise on the driver.
+ */
+case class PrimitiveTileAccumulableInfo[PT] (
+	accumulable: Accumulable[PrimitiveTileBins, (Int, Double)],
+	param: PrimitiveTileAccumulableParam,
+	numeric: ExtendedNumeric[PT]
+) extends TileBinAccumulator[PT] {
+	def add (bin: BinIndex, value: PT): Unit = {
+		val bins = accumulable.localValue
+		bins.fold(bin.getX + bin.getY * bins.width, numeric.toDouble(value), param.getOperation)
+	}
+	def isEmpty: Boolean = accumulable.value.isEmpty
+	def size: Int = accumulable.value.size
+	def foreachBin (fn: (Int, Int, PT) => Unit): Unit = {
+		val bins = accumulable.value
+		if (!bins.isEmpty) {
+			var bin = 0
+			val n = bins.width * bins.height
+			while (bin < n) {
+				if (bins.isOccupied(bin)) fn(bin % bins.width, bin / bins.width, numeric.fromDouble(bins(bin)))
+				bin += 1
+			}
+		}
+	}
+}
+
 class AccumulatorStore {
 	// Make sure functions only work on the client thread that created the store
 	private val origin = Thread.currentThread
-	private val inUse = MutableMap[ClassTag[_], MutableSet[TileAccumulableInfo[_]]]()
-	private val available = MutableMap[ClassTag[_], Stack[TileAccumulableInfo[_]]]()
+	private val inUse = MutableMap[Any, MutableSet[TileBinAccumulator[_]]]()
+	private val available = MutableMap[Any, Stack[TileBinAccumulator[_]]]()
 
 	// debug info - number of accumulators reserved, in use, etc.
 	def inUseCount = inUse.map(_._2.size).fold(0)(_ + _)
@@ -430,46 +724,89 @@ class AccumulatorStore {
 
 	// debug info - number of bins of data in reserved, in use, etc. accumulators
 	def inUseData =
-		inUse.map(_._2.map(_.accumulable.value.size).fold(0)(_ + _))
+		inUse.map(_._2.toSeq.map(_.size).fold(0)(_ + _))
 			.fold(0)(_ + _)
 	def availableData =
-		available.map(_._2.map(_.accumulable.value.size).fold(0)(_ + _))
+		available.map(_._2.map(_.size).fold(0)(_ + _))
 			.fold(0)(_ + _)
 	def totalData = inUseData + availableData
 
 	def reserve[PT] (sc: SparkContext,
 	                 add: (PT, PT) => PT,
 	                 xBins: Int,
-	                 yBins: Int)(implicit evidence: ClassTag[PT]): TileAccumulableInfo[PT] = {
-		val info: TileAccumulableInfo[PT] =
+	                 yBins: Int)(implicit evidence: ClassTag[PT]): TileAccumulableInfo[PT] =
+		reserveFrom(evidence,
+		            () => {
+			            val param = new TileAccumulableParam[PT](xBins, yBins, add)
+			            val accum = sc.accumulable(MutableMap[BinIndex, PT]())(param)
+			            new TileAccumulableInfo[PT](accum, param)(evidence)
+		            },
+		            (reusable: TileAccumulableInfo[PT]) => reusable.param.reset(xBins, yBins, add))
+
+	/**
+	 * Reserve an accumulator that keeps its bins in primitive arrays.
+	 *
+	 * @param operation How values in the same bin are combined
+	 * @param numeric The numeric type of the bin values
+	 */
+	def reservePrimitive[PT] (sc: SparkContext,
+	                          operation: PrimitiveBinOperation,
+	                          numeric: ExtendedNumeric[PT],
+	                          xBins: Int,
+	                          yBins: Int): PrimitiveTileAccumulableInfo[PT] =
+		reserveFrom(primitiveKey(numeric),
+		            () => {
+			            val param = new PrimitiveTileAccumulableParam(xBins, yBins, operation)
+			            val accum = sc.accumulable(new PrimitiveTileBins(xBins, yBins))(param)
+			            new PrimitiveTileAccumulableInfo[PT](accum, param, numeric)
+		            },
+		            (reusable: PrimitiveTileAccumulableInfo[PT]) => {
+			            reusable.param.reset(xBins, yBins, operation)
+			            reusable.accumulable.setValue(reusable.param.zero(reusable.accumulable.value))
+		            }
+		)
+
+	// Primitive accumulators are pooled by numeric type, so reused ones convert values correctly
+	private def primitiveKey (numeric: ExtendedNumeric[_]): Any =
+		(classOf[PrimitiveTileAccumulableInfo[_]], numeric.name)
+
+	private def reserveFrom[T <: TileBinAccumulator[_]] (key: Any, create: () => T, reset: T => Unit): T = {
+		val info: T =
 			available.synchronized {
-				if (!available.contains(evidence) || available(evidence).isEmpty) {
+				if (!available.contains(key) || available(key).isEmpty) {
 					// None available, create a new one.
-					val param = new TileAccumulableParam[PT](xBins, yBins, add)
-					val accum = sc.accumulable(MutableMap[BinIndex, PT]())(param)
-					new TileAccumulableInfo[PT](accum, param)(evidence)
+					create()
 				} else {
-					val reusable = available(evidence).pop.asInstanceOf[TileAccumulableInfo[PT]]
-					reusable.param.reset(xBins, yBins, add)
+					val reusable = available(key).pop.asInstanceOf[T]
+					reset(reusable)
 					reusable
 				}
 			}
 		inUse.synchronized {
-			if (!inUse.contains(evidence)) {
-				inUse(evidence) = MutableSet[TileAccumulableInfo[_]]()
+			if (!inUse.contains(key)) {
+				inUse(key) = MutableSet[TileBinAccumulator[_]]()
 			}
 		}
-		inUse(evidence) += info
+		inUse(key) += info
 		info
 	}
-	def release[PT] (info: TileAccumulableInfo[PT])(implicit evidence: ClassTag[PT]): Unit = {
-		inUse(evidence) -= info
-		info.accumulable.setValue(info.param.zero(info.accumulable.value))
+
+	def release (info: TileBinAccumulator[_]): Unit = info match {
+		case primitive: PrimitiveTileAccumulableInfo[_] =>
+			primitive.accumulable.setValue(primitive.param.zero(primitive.accumulable.value))
+			releaseTo(primitiveKey(primitive.numeric), primitive)
+		case boxed: TileAccumulableInfo[_] =>
+			boxed.accumulable.setValue(boxed.param.zero(boxed.accumulable.value))
+			releaseTo(boxed.tag, boxed)
+	}
+
+	private def releaseTo (key: Any, info: TileBinAccumulator[_]): Unit = {
+		inUse(key) -= info
 		available.synchronized {
-			if (!available.contains(evidence)) {
-				available(evidence) = Stack[TileAccumulableInfo[_]]()
+			if (!available.contains(key)) {
+				available(key) = Stack[TileBinAccumulator[_]]()
 			}
 		}
-		available(evidence).push(info)
+		available(key).push(info)
 	}
 }
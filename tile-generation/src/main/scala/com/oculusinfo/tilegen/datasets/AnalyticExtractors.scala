@@ -41,6 +41,7 @@ import scala.reflect.ClassTag
 import org.apache.spark.SparkContext
 import com.oculusinfo.binning.TileData
 import com.oculusinfo.binning.TileIndex
+import com.oculusinfo.binning.util.{HyperLogLog, TDigest}
 import com.oculusinfo.factory.ConfigurableFactory
 import com.oculusinfo.tilegen.tiling.analytics._
 import com.oculusinfo.tilegen.util.{TypeConversion, ExtendedNumeric, NumericallyConfigurableFactory, PropertiesWrapper}
@@ -114,6 +115,45 @@ class DefaultAnalyticFactoryProvider extends AnalyticFactoryProvider {
 	}
 }
 
+/**
+ * A factory for sketch-based data analytics - approximate distinct counts or quantiles of the analytic's fields,
+ * written to tile and pyramid metadata.  Distinct counts treat the combination of all listed fields as the value to
+ * count; quantiles use the first listed field.
+ */
+class SketchDataAnalyticFactory (name: String, parent: ConfigurableFactory[_], path: JavaList[String])
+		extends AnalyticFactory(name, parent, path)
+{
+	import SketchAnalyticFactory._
+	addProperty(SKETCH_TYPE)
+	addProperty(PRECISION)
+	addProperty(COMPRESSION)
+	addProperty(QUANTILES)
+
+	override protected def create: AnalysisDescription[_, _] = {
+		getPropertyValue(SKETCH_TYPE).toLowerCase match {
+			case "distinct" =>
+				val precision: Int = getPropertyValue(PRECISION)
+				new MonolithicAnalysisDescription[Seq[Any], HyperLogLog](
+					fields => HyperLogLog.of(precision, if (1 == fields.size) fields(0) else fields.mkString(":")),
+					new DistinctCountTileAnalytic(None, precision))
+			case "quantile" =>
+				val compression: Double = getPropertyValue(COMPRESSION)
+				val quantiles = getPropertyValue(QUANTILES).asScala.map(_.doubleValue())
+				new MonolithicAnalysisDescription[Seq[Any], TDigest](
+					fields => TDigest.of(compression, fields(0).asInstanceOf[Number].doubleValue()),
+					new QuantileTileAnalytic(None, if (quantiles.isEmpty) DEFAULT_QUANTILES else quantiles, compression))
+		}
+	}
+}
+
+class SketchDataAnalyticFactoryProvider extends AnalyticFactoryProvider {
+	def createFactory(name: String,
+	                  parent: ConfigurableFactory[_],
+	                  path: JavaList[String]): ConfigurableFactory[AnalysisDescription[_, _]] = {
+		new SketchDataAnalyticFactory(name, parent, path)
+	}
+}
+
 
 /**
  * A factory to produce analytic extractors
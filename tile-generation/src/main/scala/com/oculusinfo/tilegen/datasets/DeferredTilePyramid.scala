@@ -32,7 +32,7 @@ import scala.collection.JavaConverters._
 import com.oculusinfo.binning.impl.{AOITilePyramid, WebMercatorTilePyramid}
 import com.oculusinfo.binning.{TilePyramid, TilePyramidFactory}
 import com.oculusinfo.factory.ConfigurableFactory
-import com.oculusinfo.factory.properties.BooleanProperty
+import com.oculusinfo.factory.properties.{BooleanProperty, DoubleProperty}
 
 
 /**
@@ -42,10 +42,20 @@ import com.oculusinfo.factory.properties.BooleanProperty
  * time as we are actually capable of calculating the auto-bounds.
  * @param base The base tile pyramid to be provided when auto-bounds is not appropriate
  * @param autoBounds Whether using auto-bounds is appropriate, when possible
+ * @param boundsSample The fraction of records from which to estimate auto-bounds, or 0 to use exact bounds
+ * @param boundsTrim The fraction of sampled coordinates to ignore at each end of each axis when estimating
+ *                   auto-bounds, so that outliers don't stretch the pyramid
  */
-class DeferredTilePyramid (base: TilePyramid, autoBounds: Boolean) {
+class DeferredTilePyramid (base: TilePyramid, autoBounds: Boolean,
+                           val boundsSample: Double = 0.0, val boundsTrim: Double = 0.0) {
+	/** Whether the pyramid produced will need bounds calculated from the data */
+	def usesAutoBounds: Boolean = autoBounds && base.isInstanceOf[AOITilePyramid]
+
+	/** Whether auto-bounds will be estimated from a sample, so that some records may fall outside them */
+	def estimatesBounds: Boolean = usesAutoBounds && boundsSample > 0.0 && boundsSample < 1.0
+
 	def getTilePyramid (boundsFcn: () => (Double, Double, Double, Double)): TilePyramid = {
-		if (autoBounds && base.isInstanceOf[AOITilePyramid]) {
+		if (usesAutoBounds) {
 			val (minX, maxX, minY, maxY) = boundsFcn()
 			return new AOITilePyramid(minX, minY, maxX, maxY)
 		} else {
@@ -61,15 +71,24 @@ object DeferredTilePyramidFactory {
 	var AUTOBOUNDS_PROPERTY = new BooleanProperty("autobounds",
 	                                              "If true, calculate tile pyramid bounds automatically; if false, use values given by properties",
 	                                              true)
+	var AUTOBOUNDS_SAMPLE_PROPERTY = new DoubleProperty("autoboundsSample",
+	                                                   "The fraction of records from which to estimate auto-bounds.  If 0 (or 1), exact bounds are used; otherwise, records outside the estimated bounds are not tiled",
+	                                                   0.0)
+	var AUTOBOUNDS_TRIM_PROPERTY = new DoubleProperty("autoboundsTrim",
+	                                                 "When estimating auto-bounds from a sample, the fraction of sampled coordinates to ignore at each end of each axis",
+	                                                 0.0)
 }
 class DeferredTilePyramidFactory (parent: ConfigurableFactory[_], path: JavaList[String])
 		extends ConfigurableFactory[DeferredTilePyramid](classOf[DeferredTilePyramid], parent, path)
 {
 	import DeferredTilePyramidFactory._
 	addProperty(AUTOBOUNDS_PROPERTY)
+	addProperty(AUTOBOUNDS_SAMPLE_PROPERTY)
+	addProperty(AUTOBOUNDS_TRIM_PROPERTY)
 	addChildFactory(new TilePyramidFactory(this, Seq[String]().asJava))
 
 	override protected def create: DeferredTilePyramid = {
-		new DeferredTilePyramid(produce(classOf[TilePyramid]), getPropertyValue(AUTOBOUNDS_PROPERTY))
+		new DeferredTilePyramid(produce(classOf[TilePyramid]), getPropertyValue(AUTOBOUNDS_PROPERTY),
+		                        getPropertyValue(AUTOBOUNDS_SAMPLE_PROPERTY), getPropertyValue(AUTOBOUNDS_TRIM_PROPERTY))
 	}
 }
@@ -31,6 +31,7 @@ import java.util.{ArrayList, Properties}
 
 
 import scala.collection.mutable.{Map => MutableMap}
+import scala.util.Random
 
 import com.oculusinfo.binning.metadata.PyramidMetaData
 import com.oculusinfo.factory.ConfigurableFactory
@@ -39,9 +40,12 @@ import com.oculusinfo.factory.util.Pair
 import com.oculusinfo.binning.util.JsonUtilities
 import com.oculusinfo.binning.{BinIndex, TileData, TileIndex}
 import com.oculusinfo.tilegen.tiling.analytics.AnalysisDescription
-import com.oculusinfo.tilegen.tiling.{BinningParameters, StandardBinningFunctions, TileIO, UniversalBinner}
+import com.oculusinfo.tilegen.tiling.{BinningParameters, CartesianIndexScheme, IndexScheme, StandardBinningFunctions, TileIO, UniversalBinner}
+import com.oculusinfo.tilegen.util.ExtendedNumeric
 import org.apache.spark.rdd.RDD
-import org.apache.spark.sql.SQLContext
+import org.apache.spark.sql.{DataFrame, Row, SQLContext}
+import org.apache.spark.sql.types._
+import org.apache.spark.storage.StorageLevel
 import org.apache.spark.streaming.dstream.DStream
 
 import scala.reflect.ClassTag
@@ -61,6 +65,97 @@ object TilingTask {
 	def rectifyTableName (rawName: String): String =
 		rawName.split("[^a-zA-Z0-9]+").map(_.toLowerCase.capitalize).mkString("")
 
+	// Types that can be read directly as primitive doubles by columnar tiling
+	private[datasets] def isPrimitiveNumber (dataType: DataType): Boolean = dataType match {
+		case DoubleType | FloatType | LongType | IntegerType | ShortType | ByteType => true
+		case _ => false
+	}
+
+	// Read a primitive numeric column as a double, failing on nulls the same way CartesianSchemaIndexScheme does
+	private[datasets] def getPrimitiveDouble (row: Row, column: Int, dataType: DataType): Double = {
+		if (row.isNullAt(column)) throw new IllegalArgumentException
+		dataType match {
+			case DoubleType => row.getDouble(column)
+			case FloatType => row.getFloat(column).toDouble
+			case LongType => row.getLong(column).toDouble
+			case IntegerType => row.getInt(column).toDouble
+			case ShortType => row.getShort(column).toDouble
+			case ByteType => row.getByte(column).toDouble
+		}
+	}
+
+	/** The most sampled coordinates findBounds brings back to the driver when estimating bounds */
+	private[datasets] val MaxBoundsSamples = 100000
+
+	/**
+	 * Find the cartesian bounds of some data in a single pass.
+	 *
+	 * When estimating, each partition keeps a fixed-size reservoir of the coordinates it samples, so
+	 * that no more than maxSamples coordinates are brought back to the driver, however much data
+	 * there is.
+	 *
+	 * @param data The data whose bounds are wanted
+	 * @param indexScheme The scheme by which to convert data indices to cartesian coordinates
+	 * @param sample The fraction of records from which to estimate bounds; if 1.0 or more, exact bounds are found
+	 * @param trim When estimating bounds, the fraction of sampled coordinates to ignore at each end of each axis
+	 * @param maxSamples The most sampled coordinates to keep, over all partitions
+	 * @return The bounds found, as (minX, maxX, minY, maxY)
+	 */
+	private[datasets] def findBounds[IT, PT, DT] (data: RDD[(IT, PT, DT)], indexScheme: IndexScheme[IT],
+	                                              sample: Double, trim: Double,
+	                                              maxSamples: Int = MaxBoundsSamples): (Double, Double, Double, Double) = {
+		val estimate = sample < 1.0
+		val capacity = if (estimate) (maxSamples / (data.partitions.size max 1)) max 1 else 0
+		val summaries = data.mapPartitionsWithIndex{(partition, records) =>
+			val random = new Random(partition)
+			val reservoir = new Array[(Double, Double)](capacity)
+			var sampled = 0L
+			var (minX, maxX) = (Double.PositiveInfinity, Double.NegativeInfinity)
+			var (minY, maxY) = (Double.PositiveInfinity, Double.NegativeInfinity)
+			records.foreach{record =>
+				val (x, y) = indexScheme.toCartesian(record._1)
+				if (x < minX) minX = x
+				if (x > maxX) maxX = x
+				if (y < minY) minY = y
+				if (y > maxY) maxY = y
+				if (estimate && random.nextDouble() < sample) {
+					// Keep a uniform sample of everything sampled so far
+					val slot = if (sampled < capacity) sampled else (random.nextDouble() * (sampled + 1)).toLong
+					if (slot < capacity) reservoir(slot.toInt) = (x, y)
+					sampled += 1
+				}
+			}
+			Iterator((minX, maxX, minY, maxY, sampled, reservoir.take((sampled min capacity).toInt)))
+		}.collect()
+
+		val minX = summaries.map(_._1).min
+		if (minX.isInfinite) throw new Exception("No parsable data found")
+		// Each coordinate in a partition's reservoir stands for an equal share of all that partition sampled
+		val weighted = summaries.filter(_._6.nonEmpty).flatMap{summary =>
+			val weight = summary._5.toDouble / summary._6.length
+			summary._6.map(coordinates => (coordinates, weight))
+		}
+		if (weighted.isEmpty) {
+			(minX, summaries.map(_._2).max, summaries.map(_._3).min, summaries.map(_._4).max)
+		} else {
+			val (trimmedMinX, trimmedMaxX) = trimmedRange(weighted.map{case ((x, _), weight) => (x, weight)}, trim)
+			val (trimmedMinY, trimmedMaxY) = trimmedRange(weighted.map{case ((_, y), weight) => (y, weight)}, trim)
+			(trimmedMinX, trimmedMaxX, trimmedMinY, trimmedMaxY)
+		}
+	}
+
+	// The range of some weighted values, ignoring the given fraction of their total weight at each end
+	private def trimmedRange (values: Array[(Double, Double)], trim: Double): (Double, Double) = {
+		val sorted = values.sortBy(_._1)
+		val cut = (trim max 0.0) * sorted.map(_._2).sum
+		def firstPastCut (ordered: Seq[(Double, Double)]): Double = {
+			var total = 0.0
+			ordered.find{case (value, weight) => total += weight; total > cut}.getOrElse(ordered.last)._1
+		}
+		val (low, high) = (firstPastCut(sorted), firstPastCut(sorted.reverse))
+		if (low <= high) (low, high) else (high, low)
+	}
+
 	/**
 	 * Create a standard tiling task from necessary ingredients
 	 * @param sqlc A SQL context in which the data, in the form of a DataFrame, has been registered
@@ -277,22 +372,126 @@ abstract class TilingTask[PT: ClassTag, DT: ClassTag, AT: ClassTag, BT]
 
 		tileAnalytics.map(_.addGlobalAccumulator(sc))
 		dataAnalytics.map(_.addGlobalAccumulator(sc))
-		getLevels.map{levels =>
-			tileAnalytics.map(analytic => levels.map(level => analytic.addLevelAccumulator(sc, level)))
-			dataAnalytics.map(analytic => levels.map(level => analytic.addLevelAccumulator(sc, level)))
 
-			val procFcn: RDD[(Seq[Any], PT, Option[DT])] => Unit =
-				rdd => {
+		val procFcn: RDD[(Seq[Any], PT, Option[DT])] => Unit =
+			rdd => {
+				val cached = prepareForTiling(rdd, getIndexScheme)
+				getLevels.map{levels =>
+					tileAnalytics.map(analytic => levels.map(level => analytic.addLevelAccumulator(sc, level)))
+					dataAnalytics.map(analytic => levels.map(level => analytic.addLevelAccumulator(sc, level)))
+
 					val tiles = binner.processData[Seq[Any], PT, AT, DT, BT](rdd, getBinningAnalytic, tileAnalytics, dataAnalytics,
-																																	 StandardBinningFunctions.locateIndexOverLevels(getIndexScheme, getTilePyramid, levels, getNumXBins, getNumYBins),
+																																	 locateIndexOverLevels(getIndexScheme, levels),
 																																	 StandardBinningFunctions.populateTileIdentity,
 																																	 BinningParameters(true, getNumXBins, getNumYBins, getConsolidationPartitions, getConsolidationPartitions, None))
 
 					tileIO.writeTileSet(getTilePyramid, getName, tiles, getTileSerializer,
 															tileAnalytics, dataAnalytics, getName, getDescription)
 				}
+				if (cached) rdd.unpersist(false)
+			}
 
-			process(procFcn, None)
+		process(procFcn, None)
+	}
+
+	/**
+	 * Whether or not this task can be tiled by doColumnarTiling - that is, whether it is a simple, two-column
+	 * cartesian task, with no data analytics, whose index columns are all primitive numbers.
+	 */
+	def supportsColumnarTiling: Boolean =
+		indexer.isInstanceOf[CartesianIndexExtractor] && 2 == indexer.fields.size && dataAnalytics.isEmpty &&
+			columnarSelect.schema.fields.take(2).forall(field => TilingTask.isPrimitiveNumber(field.dataType))
+
+	/**
+	 * Actually perform tiling, and save tiles, reading index columns directly from the rows of our table as primitive
+	 * doubles, and value columns through the valuer's row conversion, rather than going through the generic Seq[Any]
+	 * records used by doTiling.  Produces exactly the same tiles as doTiling; only usable when supportsColumnarTiling
+	 * is true.
+	 *
+	 * @param tileIO An object that knows how to save tiles.
+	 */
+	def doColumnarTiling (tileIO: TileIO): Unit = {
+		if (!supportsColumnarTiling)
+			throw new UnsupportedOperationException("Tiling task "+getName+" can't be tiled by column")
+
+		val binner = new UniversalBinner
+		val sc = sqlc.sparkContext
+		val indexScheme = new CartesianIndexScheme
+		val data = getColumnarData
+		val cached = prepareForTiling(data, indexScheme)
+
+		tileAnalytics.map(_.addGlobalAccumulator(sc))
+		getLevels.map{levels =>
+			tileAnalytics.map(analytic => levels.map(level => analytic.addLevelAccumulator(sc, level)))
+
+			val tiles = binner.processData[(Double, Double), PT, AT, DT, BT](data, getBinningAnalytic, tileAnalytics, dataAnalytics,
+			                                                                 locateIndexOverLevels(indexScheme, levels),
+			                                                                 StandardBinningFunctions.populateTileIdentity,
+			                                                                 BinningParameters(true, getNumXBins, getNumYBins, getConsolidationPartitions, getConsolidationPartitions, None))
+
+			tileIO.writeTileSet(getTilePyramid, getName, tiles, getTileSerializer,
+			                    tileAnalytics, dataAnalytics, getName, getDescription)
+		}
+		if (cached) data.unpersist(false)
+	}
+
+	/*
+	 * Get data ready to be tiled over all our level sets, calculating auto-bounds if they are needed.  If there is
+	 * more than one level set, the data is cached, and auto-bounds are calculated in the same pass that fills the
+	 * cache.  A single level set reads the data only once more, so isn't worth caching.  Returns true if the data was
+	 * cached, in which case callers should unpersist it when done.
+	 */
+	private def prepareForTiling[IT] (data: RDD[(IT, PT, Option[DT])], indexScheme: IndexScheme[IT]): Boolean = {
+		val needsBounds = synchronized(axisBounds.isEmpty) && deferredPyramid.usesAutoBounds &&
+			indexer.isInstanceOf[CartesianIndexExtractor]
+		val cache = getLevels.size > 1
+		if (cache) data.persist(StorageLevel.MEMORY_AND_DISK)
+		if (needsBounds) {
+			val sample = if (deferredPyramid.estimatesBounds) deferredPyramid.boundsSample else 1.0
+			val (minX, maxX, minY, maxY) = TilingTask.findBounds(data, indexScheme, sample, deferredPyramid.boundsTrim)
+			synchronized {
+				axisBounds = Some(padBounds(minX, maxX, minY, maxY))
+				boundsEstimated = sample < 1.0
+			}
+		}
+		cache
+	}
+
+	// Locate records in the given levels, ignoring those outside estimated bounds
+	private def locateIndexOverLevels[IT] (indexScheme: IndexScheme[IT], levels: Seq[Int])
+			: IT => Traversable[(TileIndex, Array[BinIndex])] =
+		if (synchronized(boundsEstimated))
+			StandardBinningFunctions.locateBoundedIndexOverLevels(indexScheme, getTilePyramid, levels, getNumXBins, getNumYBins)
+		else
+			StandardBinningFunctions.locateIndexOverLevels(indexScheme, getTilePyramid, levels, getNumXBins, getNumYBins)
+
+	// The index and value columns of our table, for columnar tiling
+	private lazy val columnarSelect: DataFrame = {
+		val fields = (indexer.fields ++ valuer.fields).map(v => if (v.forall(_.isDigit)) { v } else { "`" + v + "`" })
+		sqlc.sql(fields.mkString("SELECT ", ", ", " FROM "+table))
+	}
+
+	private def getColumnarData: RDD[((Double, Double), PT, Option[DT])] = {
+		val data = columnarSelect
+		val xType = data.schema.fields(0).dataType
+		val yType = data.schema.fields(1).dataType
+		val localValuer = valuer
+		val noAnalysis: Option[DT] = None
+
+		val mappedData = data.rdd.mapPartitions(rows =>
+			rows.map{row =>
+				val x = TilingTask.getPrimitiveDouble(row, 0, xType)
+				val y = TilingTask.getPrimitiveDouble(row, 1, yType)
+				((x, y), localValuer.convertRow(row, 2), noAnalysis)
+			}
+		)
+
+		// If set, filter bins that are out of the level 0 tile bounds
+		if (config.filterToRegion) {
+			val area = getTilePyramid.getTileBounds(new TileIndex(0, 0, 0))
+			mappedData.filter(record => area.contains(record._1._1, record._1._2))
+		} else {
+			mappedData
 		}
 	}
 
@@ -323,6 +522,42 @@ abstract class TilingTask[PT: ClassTag, DT: ClassTag, AT: ClassTag, BT]
 		}
 	}
 
+	/**
+	 * Perform tiling, blurring the binned results with a separable kernel, and save tiles.
+	 *
+	 * @param tileIO An object that knows how to save tiles.
+	 * @param kernelX The horizontal kernel with which to blur bin values
+	 * @param kernelY The vertical kernel with which to blur bin values
+	 * @param numeric Numeric operations on bin values, used to weight them by the kernel
+	 */
+	def doSeparableKernelTiling (tileIO: TileIO, kernelX: Array[Double], kernelY: Array[Double])
+	                            (implicit numeric: ExtendedNumeric[PT]): Unit = {
+		val binner = new UniversalBinner
+		val sc = sqlc.sparkContext
+
+		tileAnalytics.map(_.addGlobalAccumulator(sc))
+		dataAnalytics.map(_.addGlobalAccumulator(sc))
+
+		getLevels.map{levels =>
+			tileAnalytics.map(analytic => levels.map(level => analytic.addLevelAccumulator(sc, level)))
+			dataAnalytics.map(analytic => levels.map(level => analytic.addLevelAccumulator(sc, level)))
+
+			val procFcn: RDD[(Seq[Any], PT, Option[DT])] => Unit =
+				rdd => {
+					val tiles = binner.processDataWithSeparableKernel[Seq[Any], PT, AT, DT, BT](
+						rdd, getBinningAnalytic, tileAnalytics, dataAnalytics,
+						StandardBinningFunctions.locateIndexOverLevels(getIndexScheme, getTilePyramid, levels, getNumXBins, getNumYBins),
+						kernelX, kernelY,
+						BinningParameters(true, getNumXBins, getNumYBins, getConsolidationPartitions, getConsolidationPartitions, None))
+
+					tileIO.writeTileSet(getTilePyramid, getName, tiles, getTileSerializer,
+						tileAnalytics, dataAnalytics, getName, getDescription)
+				}
+
+			process(procFcn, None)
+		}
+	}
+
 	def doLineTiling (tileIO: TileIO): Unit = {
 		val binner = new UniversalBinner
 		val sc = sqlc.sparkContext
@@ -383,9 +618,16 @@ abstract class TilingTask[PT: ClassTag, DT: ClassTag, AT: ClassTag, BT]
 	}
 
 	// Axis-related methods and fields
-	private lazy val axisBounds = getAxisBounds()
+	private var axisBounds: Option[(Double, Double, Double, Double)] = None
+	private var boundsEstimated = false
+
+	// Bounds are calculated at most once, either here, or while caching data for tiling
+	private def getAxisBounds(): (Double, Double, Double, Double) = synchronized {
+		if (axisBounds.isEmpty) axisBounds = Some(queryAxisBounds())
+		axisBounds.get
+	}
 
-	private def getAxisBounds(): (Double, Double, Double, Double) = {
+	private def queryAxisBounds(): (Double, Double, Double, Double) = {
 		val selectStmt =
 			indexer.fields.flatMap(field => List("min(`" + field + "`)", "max(`" + field + "`)"))
 				.mkString("SELECT ", ", ", " FROM " + table)
@@ -397,6 +639,11 @@ abstract class TilingTask[PT: ClassTag, DT: ClassTag, AT: ClassTag, BT]
 		val maxBounds: Seq[Any] = (1 to fields).map(n => bounds(n*2-1))
 		val (minX, minY) = indexer.indexScheme.toCartesian(minBounds)
 		val (maxX, maxY) = indexer.indexScheme.toCartesian(maxBounds)
+		padBounds(minX, maxX, minY, maxY)
+	}
+
+	// Pad maximum bounds slightly, so maximal values fall inside the last bin
+	private def padBounds (minX: Double, maxX: Double, minY: Double, maxY: Double): (Double, Double, Double, Double) = {
 		val (rangeX, rangeY) = (maxX-minX, maxY-minY)
 
 		val maxLevel = {
@@ -43,12 +43,14 @@ import scala.util.{Try, Success, Failure}
 
 import org.apache.avro.file.CodecFactory
 
+import org.apache.spark.sql.Row
+
 import com.oculusinfo.binning.TileData
 import com.oculusinfo.binning.io.serialization.TileSerializer
 import com.oculusinfo.binning.io.serialization.impl.{PairAvroSerializer, PairArrayAvroSerializer, PrimitiveArrayAvroSerializer, PrimitiveAvroSerializer}
 import com.oculusinfo.binning.io.serialization.TileSerializerFactory
 import com.oculusinfo.binning.io.serialization.DefaultTileSerializerFactoryProvider
-import com.oculusinfo.binning.util.TypeDescriptor
+import com.oculusinfo.binning.util.{HyperLogLog, TDigest, TypeDescriptor}
 
 import com.oculusinfo.factory.util.Pair
 import com.oculusinfo.factory.ConfigurableFactory
@@ -84,6 +86,14 @@ abstract class ValueExtractor[PT: ClassTag, BT] extends Serializable {
 	 */
 	def convert: Seq[Any] => PT
 
+	/**
+	 * Convert the value fields of a row, starting at the given column and in the order listed by the fields method,
+	 * directly into a processable value for binning.  By default, this just gathers those fields and calls convert;
+	 * extractors with trivial conversions override it to avoid building the intermediate sequence.
+	 */
+	def convertRow (row: Row, firstColumn: Int): PT =
+		convert((firstColumn until (firstColumn + fields.size)).map(n => row(n)))
+
 	/** The binning analytic needed to aggregate values, and transform them into their binnable form */
 	def binningAnalytic: BinningAnalytic[PT, BT]
 
@@ -130,6 +140,7 @@ object ValueExtractorFactory {
 	subFactoryProviders(FactoryKey(IndirectSeriesValueExtractorFactory.NAME, classOf[IndirectSeriesValueExtractorFactory])) = IndirectSeriesValueExtractorFactory.provider
 	subFactoryProviders(FactoryKey(StringValueExtractorFactory.NAME,         classOf[StringValueExtractorFactory]))         = StringValueExtractorFactory.provider
 	subFactoryProviders(FactoryKey(SubstringValueExtractorFactory.NAME,      classOf[SubstringValueExtractorFactory]))      = SubstringValueExtractorFactory.provider
+	subFactoryProviders(FactoryKey(SketchValueExtractorFactory.NAME,         classOf[SketchValueExtractorFactory]))         = SketchValueExtractorFactory.provider
 
 	/**
 	 * Add a ValueExtractor sub-factory provider to the list of all possible such providers.
@@ -272,6 +283,7 @@ class CountValueExtractor[T: ClassTag, JT] (_serializer: TileSerializer[JT])(imp
 	def name = "count"
 	def fields = Seq[String]()
 	def convert = (s: Seq[Any]) => numeric.fromDouble(1.0)
+	override def convertRow (row: Row, firstColumn: Int): T = numeric.fromDouble(1.0)
 	def binningAnalytic = new NumericSumBinningAnalytic[T, JT]()
 	def getTileAnalytics: Seq[AnalysisDescription[TileData[JT], _]] = {
 		Seq(new AnalysisDescriptionTileWrapper[JT, T](conversion.backwards(_), new NumericMinTileAnalytic[T]()),
@@ -340,6 +352,7 @@ class FieldValueExtractor[T: ClassTag, JT] (field: String, _binningAnalytic: Bin
 	def name = field
 	def fields = Seq(field)
 	override def convert: (Seq[Any]) => T = s => s(0).asInstanceOf[T]
+	override def convertRow (row: Row, firstColumn: Int): T = row(firstColumn).asInstanceOf[T]
 	override def binningAnalytic: BinningAnalytic[T, JT] = _binningAnalytic
 	def getTileAnalytics: Seq[AnalysisDescription[TileData[JT], _]] = {
 		Seq(new AnalysisDescriptionTileWrapper[JT, T](conversion.backwards(_), new NumericMinTileAnalytic[T]()),
@@ -361,6 +374,7 @@ class MeanValueExtractor[T: ClassTag] (field: String, analytic: NumericMeanBinni
 	def name = field
 	def fields = Seq(field)
 	override def convert: (Seq[Any]) => (T, Int) = s => (s(0).asInstanceOf[T], 1)
+	override def convertRow (row: Row, firstColumn: Int): (T, Int) = (row(firstColumn).asInstanceOf[T], 1)
 	override def binningAnalytic: BinningAnalytic[(T, Int), JavaDouble] = analytic
 	def getTileAnalytics: Seq[AnalysisDescription[TileData[JavaDouble], _]] = {
 		val convertFcn: JavaDouble => T = bt => {
@@ -619,6 +633,12 @@ object StringScoreBinningAnalyticFactory {
 		                                        "low, \"low\" for ordering by score from low to high, "+
 		                                        "and \"random\" or \"none\" for no ordering.",
 	                                        "none", Array("low", "high", "alpha", "reverse-alpha", "none"))
+	val HEAVY_HITTER_CAPACITY_PROPERTY = new IntegerProperty("heavyHitterCapacity",
+	                                                         "If positive, the number of strings to keep in a Space-Saving heavy-hitter "+
+		                                                         "sketch for each bin, in place of aggregationLimit.  The sketch bounds "+
+		                                                         "the error in each written score by the bin total divided by this "+
+		                                                         "capacity, where plain truncation can drop frequent strings entirely.",
+	                                                         0)
 
 	protected def getOrder[T] (orderDescription: Option[String])(implicit numeric: ExtendedNumeric[T]):
 			Option[((String, T), (String, T)) => Boolean] =
@@ -645,6 +665,7 @@ object StringScoreBinningAnalyticFactory {
 		factory.addProperty(AGGREGATION_LIMIT_PROPERTY)
 		factory.addProperty(BIN_LIMIT_PROPERTY)
 		factory.addProperty(ORDER_PROPERTY)
+		factory.addProperty(HEAVY_HITTER_CAPACITY_PROPERTY)
 		factory.addChildFactory(new NumericBinningAnalyticFactory(factory, List[String]().asJava))
 	}
 	def getBinningAnalytic[T, JT] (factory: ValueExtractorFactory)
@@ -653,8 +674,13 @@ object StringScoreBinningAnalyticFactory {
 		val aggregationLimit = factory.optionalGet(AGGREGATION_LIMIT_PROPERTY).map(_.intValue())
 		val binLimit = factory.optionalGet(BIN_LIMIT_PROPERTY).map(_.intValue())
 		val ordering = getOrder(factory.optionalGet(ORDER_PROPERTY))
+		val heavyHitterCapacity = factory.optionalGet(HEAVY_HITTER_CAPACITY_PROPERTY).map(_.intValue()).filter(_ > 0)
 		val elementAnalytic = factory.produce(classOf[BinningAnalytic[T, JT]])
-		new StringScoreBinningAnalytic[T, JT](elementAnalytic, aggregationLimit, ordering, binLimit)
+		heavyHitterCapacity.map(capacity =>
+			new SpaceSavingStringScoreBinningAnalytic[T, JT](elementAnalytic, capacity, ordering, binLimit)
+		).getOrElse(
+			new StringScoreBinningAnalytic[T, JT](elementAnalytic, aggregationLimit, ordering, binLimit)
+		)
 	}
 }
 object StringValueExtractorFactory {
@@ -816,3 +842,98 @@ class SubstringValueExtractor[T: ClassTag, JT] (field: String,
 		Seq()
 	override def serializer: TileSerializer[JavaList[Pair[String, JT]]] = _serializer
 }
+
+object SketchValueExtractorFactory {
+	private[datasets] val NAME = "sketch"
+	def provider = ValueExtractorFactory.subFactoryProvider((parent, path) =>
+		new SketchValueExtractorFactory(parent, path))
+}
+/**
+ * A constructor for sketch value extractors - distinct counts or quantiles of a single field, approximated with
+ * mergeable sketches.  All arguments are pass-throughs to the super-class's constructor.
+ *
+ * @see DistinctCountValueExtractor
+ * @see QuantileValueExtractor
+ */
+class SketchValueExtractorFactory (parent: ConfigurableFactory[_], path: JavaList[String])
+		extends ValueExtractorFactory(SketchValueExtractorFactory.NAME, parent, path)
+{
+	addProperty(ValueExtractorFactory.FIELD_PROPERTY)
+	private val analyticFactory = new SketchBinningAnalyticFactory(this, List[String]().asJava)
+	addChildFactory(analyticFactory)
+
+	// The numeric type is irrelevant to sketches; they work on whatever the field holds
+	override protected def typedCreate[T, JT] (tag: ClassTag[T],
+	                                           numeric: ExtendedNumeric[T],
+	                                           conversion: TypeConversion[T, JT]): ValueExtractor[_, _] = {
+		val field = getPropertyValue(ValueExtractorFactory.FIELD_PROPERTY)
+		produce(classOf[BinningAnalytic[_, _]]) match {
+			case analytic: DistinctCountBinningAnalytic =>
+				serializerFactory.setDefaultValue(UberFactory.FACTORY_TYPE, getDefaultSerializerType("%s", classOf[HyperLogLog]))
+				val serializer = checkBinClass(produce(classOf[TileSerializer[_]]), classOf[HyperLogLog], new TypeDescriptor(classOf[HyperLogLog]))
+				new DistinctCountValueExtractor(field, analyticFactory.getPropertyValue(SketchAnalyticFactory.PRECISION),
+				                                analytic, serializer)
+			case analytic: QuantileBinningAnalytic =>
+				serializerFactory.setDefaultValue(UberFactory.FACTORY_TYPE, getDefaultSerializerType("%s", classOf[TDigest]))
+				val serializer = checkBinClass(produce(classOf[TileSerializer[_]]), classOf[TDigest], new TypeDescriptor(classOf[TDigest]))
+				new QuantileValueExtractor(field, analyticFactory.getPropertyValue(SketchAnalyticFactory.COMPRESSION),
+				                           analyticFactory.getQuantiles, analytic, serializer)
+		}
+	}
+}
+
+/**
+ * A value extractor that estimates the number of distinct values of a single field in each bin.
+ *
+ * Tiles record the minimum and maximum per-bin estimates, and the distinct count across the whole tile.
+ *
+ * @param field The field whose distinct values are counted
+ * @param precision The precision of the HyperLogLog sketches used
+ */
+class DistinctCountValueExtractor (field: String, precision: Int,
+                                   analytic: DistinctCountBinningAnalytic,
+                                   _serializer: TileSerializer[HyperLogLog])
+		extends ValueExtractor[HyperLogLog, HyperLogLog] with Serializable
+{
+	def name = field
+	def fields = Seq(field)
+	override def convert: (Seq[Any]) => HyperLogLog = s => HyperLogLog.of(precision, s(0))
+	override def binningAnalytic: BinningAnalytic[HyperLogLog, HyperLogLog] = analytic
+	def getTileAnalytics: Seq[AnalysisDescription[TileData[HyperLogLog], _]] = {
+		val convertFcn: HyperLogLog => Long = bt => if (null == bt) 0L else bt.cardinality()
+		Seq(new AnalysisDescriptionTileWrapper[HyperLogLog, Long](convertFcn, new NumericMinTileAnalytic[Long]()),
+		    new AnalysisDescriptionTileWrapper[HyperLogLog, Long](convertFcn, new NumericMaxTileAnalytic[Long]()),
+		    new AnalysisDescriptionTileWrapper[HyperLogLog, HyperLogLog](bt => if (null == bt) analytic.defaultProcessedValue else bt,
+		                                                                 new DistinctCountTileAnalytic(None, precision)))
+	}
+	override def serializer: TileSerializer[HyperLogLog] = _serializer
+}
+
+/**
+ * A value extractor that estimates quantiles of the (numeric) value of a single field in each bin.
+ *
+ * Tiles record the minimum and maximum per-bin medians, and the configured quantiles across the whole tile.
+ *
+ * @param field The field whose quantiles are estimated
+ * @param compression The compression of the t-digest sketches used
+ * @param quantiles The quantiles to write to tile and pyramid metadata
+ */
+class QuantileValueExtractor (field: String, compression: Double, quantiles: Seq[Double],
+                              analytic: QuantileBinningAnalytic,
+                              _serializer: TileSerializer[TDigest])
+		extends ValueExtractor[TDigest, TDigest] with Serializable
+{
+	def name = field
+	def fields = Seq(field)
+	override def convert: (Seq[Any]) => TDigest = s => TDigest.of(compression, s(0).asInstanceOf[Number].doubleValue())
+	override def binningAnalytic: BinningAnalytic[TDigest, TDigest] = analytic
+	def getTileAnalytics: Seq[AnalysisDescription[TileData[TDigest], _]] = {
+		val convertFcn: TDigest => Double = bt =>
+			if (null == bt || bt.isEmpty) JavaDouble.NaN else bt.quantile(0.5)
+		Seq(new AnalysisDescriptionTileWrapper[TDigest, Double](convertFcn, new NumericMinTileAnalytic[Double](Some("minMedian"))),
+		    new AnalysisDescriptionTileWrapper[TDigest, Double](convertFcn, new NumericMaxTileAnalytic[Double](Some("maxMedian"))),
+		    new AnalysisDescriptionTileWrapper[TDigest, TDigest](bt => if (null == bt) analytic.defaultProcessedValue else bt,
+		                                                         new QuantileTileAnalytic(None, quantiles, compression)))
+	}
+	override def serializer: TileSerializer[TDigest] = _serializer
+}
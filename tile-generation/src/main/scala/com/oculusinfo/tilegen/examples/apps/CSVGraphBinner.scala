@@ -32,7 +32,7 @@ import java.util.Properties
 
 import com.oculusinfo.binning.BinIndex
 import com.oculusinfo.tilegen.datasets.{CSVReader, CSVDataSource, TilingTask}
-import com.oculusinfo.tilegen.tiling.{UniversalBinner, RDDLineBinner, TileIO}
+import com.oculusinfo.tilegen.tiling.{ClippedSegmentRasterizer, UniversalBinner, RDDLineBinner, TileIO}
 import com.oculusinfo.tilegen.util.{EndPointsToLine, PropertiesWrapper}
 import org.apache.spark.SparkContext
 import org.apache.spark.rdd.RDD
@@ -84,6 +84,13 @@ import scala.util.Try
  *   	only pixels within 1 tile-length of an endpoint drawn instead of the whole line segment
  *    	being discarded.  Also, line segments will be faded out as they get farther away from an endpoint
  *
+ *  oculus.binning.line.clipped
+ *  	Boolean = false by default. If = true, then levels above the line level threshold are binned by
+ *   	shipping one record per line segment per tile crossed, and drawing each segment directly into the
+ *    	tiles it crosses, instead of expanding every segment into all its bins first.  This is much cheaper
+ *     	for long segments at deep levels.  This mode can't fade line ends, so it can't be combined with
+ *      	drawends.
+ *
  *  oculus.binning.hierarchical.clusters
  *  	To configure tile generation of hierarchical clustered data.  Set to false [default] for 'regular'
  *   	tile generation (ie non-clustered data).  If set to true then one needs to assign different source
@@ -145,6 +152,7 @@ object CSVGraphBinner {
 	private var _bDrawLineEnds = false	// [Boolean] switch to draw just the ends of very long line segments
 	private var _bLinesAsArcs = false	// [Boolean] switch to draw line segments as straight lines (default) or as clock-wise arcs.
 	private var _bDrawDirectedArcs = false	// [Boolean] switch to draw directed arcs (direction is inferred by clock-wise curve of arc)
+	private var _bClippedLines = false	// [Boolean] switch to draw tile-based line segments one tile at a time
 
 	def processTask[PT: ClassTag,
 	                   DT: ClassTag,
@@ -201,6 +209,13 @@ object CSVGraphBinner {
 
 						val bUsePointBinner = (levels.max <= _lineLevelThres)	// use point-based vs tile-based line-segment binning?
 
+						// Draw tile-based line segments directly into each tile they cross, if requested
+						val clippedRasterizer: Option[ClippedSegmentRasterizer[PT]] =
+							if (_bClippedLines && !bUsePointBinner && task.binTypeTag == scala.reflect.classTag[Double]) {
+								if (_bLinesAsArcs) Some(ClippedSegmentRasterizer.arcs[PT]())
+								else Some(ClippedSegmentRasterizer.lines[PT]())
+							} else None
+
 						val tiles = binner.processDataByLevel(rdd,
 						                                      task.getIndexScheme,
 						                                      task.getBinningAnalytic,
@@ -215,7 +230,8 @@ object CSVGraphBinner {
 						                                      calcLinePixels,
 						                                      bUsePointBinner,
 						                                      _bLinesAsArcs,
-										 					  _bDrawDirectedArcs)
+										 					  _bDrawDirectedArcs,
+						                                      clippedRasterizer)
 						tileIO.writeTileSet(task.getTilePyramid,
 						                    task.getName,
 						                    tiles,
@@ -356,6 +372,12 @@ object CSVGraphBinner {
 			// Draw directed arcs instead of undirected (direction is inferred by clockwise curve of arc)
 			_bDrawDirectedArcs = Try(props.getProperty("oculus.binning.line.directed.arcs").toBoolean).getOrElse(false)
 
+			// Draw tile-based line segments one tile at a time
+			_bClippedLines = Try(props.getProperty("oculus.binning.line.clipped").toBoolean).getOrElse(false)
+			if (_bClippedLines && _bDrawLineEnds)
+				throw new IllegalArgumentException("oculus.binning.line.clipped can't be combined with oculus.binning.line.drawends, "+
+					                                   "since clipped segments can't fade their ends")
+
 			// check if hierarchical mode is enabled
 			var valTemp = props.getProperty("oculus.binning.hierarchical.clusters","false");
 			var hierarchicalClusters = if (valTemp=="true") true else false
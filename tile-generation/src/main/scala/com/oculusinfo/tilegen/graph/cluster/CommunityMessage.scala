@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2015 Uncharted Software Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.oculusinfo.tilegen.graph.cluster
+
+import java.io.ObjectOutputStream
+
+/**
+ * Neighbourhood community data passed to a vertex during louvain clustering.
+ *
+ * Each entry is a (community, communitySigmaTot) key with the summed weight of the edges
+ * connecting the vertex to that community.  Entries are held in parallel primitive arrays
+ * sorted by key, so merging two messages never boxes a value or builds an intermediate map.
+ * Arrays may carry spare capacity while messages are being merged; they are trimmed
+ * before the message is serialized.
+ */
+class CommunityMessage private (private var _communities: Array[Long],
+                                private var _sigmaTots: Array[Long],
+                                private var _weights: Array[Long],
+                                private var _size: Int) extends Serializable {
+
+	/** Create a message with a single community entry */
+	def this(community: Long, sigmaTot: Long, weight: Long) =
+		this(Array(community), Array(sigmaTot), Array(weight), 1)
+
+	/** The number of distinct (community, sigmaTot) entries in this message */
+	def size: Int = _size
+
+	def community(i: Int): Long = _communities(i)
+
+	def sigmaTot(i: Int): Long = _sigmaTots(i)
+
+	def weight(i: Int): Long = _weights(i)
+
+	/**
+	 * Merge two messages, summing the weights of matching entries.  Either argument may be
+	 * modified and returned, so neither should be used again once merged.
+	 */
+	def merge(that: CommunityMessage): CommunityMessage = {
+		val (large, small) = if (_size >= that._size) (this, that) else (that, this)
+		if (small._size <= CommunityMessage.IN_PLACE_MERGE_SIZE) {
+			var i = 0
+			while (i < small._size) {
+				large.add(small._communities(i), small._sigmaTots(i), small._weights(i))
+				i += 1
+			}
+			large
+		} else {
+			mergeSorted(that)
+		}
+	}
+
+	// Add a single entry in place, growing our arrays if necessary
+	private def add(community: Long, sigmaTot: Long, weight: Long): Unit = {
+		val index = indexOf(community, sigmaTot)
+		if (index >= 0) {
+			_weights(index) += weight
+		} else {
+			val insertAt = -index - 1
+			if (_size == _communities.length) {
+				val capacity = math.max(4, _size * 2)
+				_communities = java.util.Arrays.copyOf(_communities, capacity)
+				_sigmaTots = java.util.Arrays.copyOf(_sigmaTots, capacity)
+				_weights = java.util.Arrays.copyOf(_weights, capacity)
+			}
+			val tail = _size - insertAt
+			if (tail > 0) {
+				System.arraycopy(_communities, insertAt, _communities, insertAt + 1, tail)
+				System.arraycopy(_sigmaTots, insertAt, _sigmaTots, insertAt + 1, tail)
+				System.arraycopy(_weights, insertAt, _weights, insertAt + 1, tail)
+			}
+			_communities(insertAt) = community
+			_sigmaTots(insertAt) = sigmaTot
+			_weights(insertAt) = weight
+			_size += 1
+		}
+	}
+
+	// Binary search for a key; returns (-insertionPoint - 1) if it isn't present
+	private def indexOf(community: Long, sigmaTot: Long): Int = {
+		var low = 0
+		var high = _size - 1
+		while (low <= high) {
+			val mid = (low + high) >>> 1
+			val cmp = compareKeys(_communities(mid), _sigmaTots(mid), community, sigmaTot)
+			if (cmp < 0) low = mid + 1
+			else if (cmp > 0) high = mid - 1
+			else return mid
+		}
+		-(low + 1)
+	}
+
+	// Linear merge of two sorted messages into new arrays
+	private def mergeSorted(that: CommunityMessage): CommunityMessage = {
+		val capacity = _size + that._size
+		val communities = new Array[Long](capacity)
+		val sigmaTots = new Array[Long](capacity)
+		val weights = new Array[Long](capacity)
+		var i = 0
+		var j = 0
+		var n = 0
+		while (i < _size || j < that._size) {
+			val cmp =
+				if (j >= that._size) -1
+				else if (i >= _size) 1
+				else compareKeys(_communities(i), _sigmaTots(i), that._communities(j), that._sigmaTots(j))
+			if (cmp <= 0) {
+				communities(n) = _communities(i)
+				sigmaTots(n) = _sigmaTots(i)
+				weights(n) = _weights(i)
+				if (0 == cmp) {
+					weights(n) += that._weights(j)
+					j += 1
+				}
+				i += 1
+			} else {
+				communities(n) = that._communities(j)
+				sigmaTots(n) = that._sigmaTots(j)
+				weights(n) = that._weights(j)
+				j += 1
+			}
+			n += 1
+		}
+		new CommunityMessage(communities, sigmaTots, weights, n)
+	}
+
+	private def compareKeys(communityA: Long, sigmaTotA: Long, communityB: Long, sigmaTotB: Long): Int =
+		if (communityA < communityB) -1
+		else if (communityA > communityB) 1
+		else if (sigmaTotA < sigmaTotB) -1
+		else if (sigmaTotA > sigmaTotB) 1
+		else 0
+
+	private def writeObject(out: ObjectOutputStream): Unit = {
+		if (_communities.length > _size) {
+			_communities = java.util.Arrays.copyOf(_communities, _size)
+			_sigmaTots = java.util.Arrays.copyOf(_sigmaTots, _size)
+			_weights = java.util.Arrays.copyOf(_weights, _size)
+		}
+		out.defaultWriteObject()
+	}
+
+	override def toString: String =
+		(0 until _size).map(i => "("+_communities(i)+","+_sigmaTots(i)+")->"+_weights(i)).mkString("[", ", ", "]")
+}
+
+object CommunityMessage {
+	// Messages at most this size are added entry by entry into the larger message they
+	// are merged with; larger pairs are merged linearly into new arrays.
+	private val IN_PLACE_MERGE_SIZE = 8
+}
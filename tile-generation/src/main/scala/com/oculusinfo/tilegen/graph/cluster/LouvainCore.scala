@@ -31,7 +31,6 @@ import org.apache.spark.graphx._
 import scala.reflect.ClassTag
 import org.apache.spark.broadcast.Broadcast
 import org.apache.spark.graphx.Graph.graphToGraphOps
-import scala.math.BigDecimal.double2bigDecimal
 import org.apache.spark.HashPartitioner
 import org.apache.spark.rdd.RDD
 
@@ -115,8 +114,8 @@ object LouvainCore {
 		println("totalEdgeWeight: "+totalGraphWeight.value)
 		
 		// gather community information from each vertex's local neighborhood
-		var msgRDD = louvainGraph.mapReduceTriplets(sendMsg,mergeMsg)
-		var activeMessages = msgRDD.count() //materializes the msgRDD and caches it in memory
+		// (materialized, along with everything else each cycle, by the count of changed vertices)
+		var msgRDD = louvainGraph.mapReduceTriplets(sendMsg,mergeMsg).cache()
 		
 		var updated = 0L - minProgress
 		var even = false
@@ -124,6 +123,9 @@ object LouvainCore {
 		val maxIter = 100000
 		var stop = 0
 		var updatedLastPhase = 0L
+		// The previous graph's vertices are needed to ship changed vertices to the current graph's
+		// edges, which doesn't happen until the next cycle's messages are computed
+		var prevG: Option[Graph[VertexState,Long]] = None
 		do {
 			count += 1
 			even = ! even
@@ -132,46 +134,41 @@ object LouvainCore {
 			val labeledVerts = louvainVertJoin(louvainGraph,msgRDD,totalGraphWeight,even).cache()
 			
 			// calculate new sigma total value for each community (total weight of each community)
-			val communtiyUpdate = labeledVerts
+			val communityUpdate = labeledVerts
 				.map( {case (vid,vdata) => (vdata.community,vdata.nodeWeight+vdata.internalWeight)})
-				.reduceByKey(_+_).cache()
+				.reduceByKey(_+_)
 			
-			// map each vertex ID to its updated community information
-			val communityMapping = labeledVerts
-				.map( {case (vid,vdata) => (vdata.community,vid)})
-				.join(communtiyUpdate)
-				.map({case (community,(vid,sigmaTot)) => (vid,(community,sigmaTot)) })
-				.cache()
+			// join the community labeled vertices with the updated community info (on copies, since
+			// labeledVerts is cached, and its objects must not change should it be read again)
+			val updatedVerts = labeledVerts
+				.map( {case (vid,vdata) => (vdata.community,(vid,vdata))})
+				.join(communityUpdate)
+				.map({case (community,((vid,vdata),sigmaTot)) =>
+					val updated = copyState(vdata)
+					updated.communitySigmaTot = sigmaTot
+					(vid,updated)
+				}).cache()
 			
-			// join the community labeled vertices with the updated community info
-			val updatedVerts = labeledVerts.join(communityMapping).map{ case (vid,(vdata,communityTuple) ) =>
-				vdata.community = communityTuple._1
-				vdata.communitySigmaTot = communityTuple._2
-				(vid,vdata)
-			}.cache()
-			updatedVerts.count()
-			labeledVerts.unpersist(blocking = false)
-			communtiyUpdate.unpersist(blocking=false)
-			communityMapping.unpersist(blocking=false)
-			
-			val prevG = louvainGraph
+			val oldG = louvainGraph
 			louvainGraph = louvainGraph.outerJoinVertices(updatedVerts)((vid, old, newOpt) => newOpt.getOrElse(old))
 			louvainGraph.cache()
 			
+			// half of the communites can swtich on even cycles
+			// and the other half on odd cycles (to prevent deadlocks)
+			// so we only want to look for progess on odd cycles (after all vertcies have had a chance to move)
+			if (even) updated = 0
+			updated = updated + louvainGraph.vertices.filter(_._2.changed).count  // materializes the new vertices
+			
 			// gather community information from each vertex's local neighborhood
 			val oldMsgs = msgRDD
 			msgRDD = louvainGraph.mapReduceTriplets(sendMsg, mergeMsg).cache()
-			activeMessages = msgRDD.count()  // materializes the graph by forcing computation
 			
 			oldMsgs.unpersist(blocking=false)
+			labeledVerts.unpersist(blocking=false)
 			updatedVerts.unpersist(blocking=false)
-			prevG.unpersistVertices(blocking=false)
+			prevG.foreach(_.unpersistVertices(blocking=false))
+			prevG = Some(oldG)
 			
-			// half of the communites can swtich on even cycles
-			// and the other half on odd cycles (to prevent deadlocks)
-			// so we only want to look for progess on odd cycles (after all vertcies have had a chance to move)
-			if (even) updated = 0
-			updated = updated + louvainGraph.vertices.filter(_._2.changed).count
 			if (!even) {
 				println("  # vertices moved: "+java.text.NumberFormat.getInstance().format(updated))
 				if (updated >= updatedLastPhase - minProgress) stop += 1
@@ -190,8 +187,11 @@ object LouvainCore {
 				val community = vdata.community
 				var k_i_in = vdata.internalWeight
 				var sigmaTot = vdata.communitySigmaTot.toDouble
-				msgs.foreach({ case( (communityId,sigmaTotal),communityEdgeWeight ) =>
-					             if (vdata.community == communityId) k_i_in += communityEdgeWeight})
+				var i = 0
+				while (i < msgs.size) {
+					if (vdata.community == msgs.community(i)) k_i_in += msgs.weight(i)
+					i += 1
+				}
 				val M = totalGraphWeight.value
 				val k_i = vdata.nodeWeight + vdata.internalWeight
 				var q = (k_i_in.toDouble / M) -  ( ( sigmaTot *k_i) / math.pow(M, 2) )
@@ -200,6 +200,8 @@ object LouvainCore {
 			}
 		)
 		val actualQ = newVerts.values.reduce(_+_)
+		prevG.foreach(_.unpersistVertices(blocking=false))
+		
 		
 		//---------------------------
 		//Rename parent communities, if needed, based on max nodeWeight in each community
@@ -222,7 +224,7 @@ object LouvainCore {
 			{
 				val id = n._2._1._1
 				val newCommunityID = n._2._2._1
-				val vdata = n._2._1._2
+				val vdata = copyState(n._2._1._2)	// louvainGraph's vertices are cached
 				vdata.community = newCommunityID
 				(id, vdata)
 			}
@@ -240,8 +242,8 @@ object LouvainCore {
 	 * Creates the messages passed between each vertex to convey neighborhood community data.
 	 */
 	private def sendMsg(et:EdgeTriplet[VertexState,Long]) = {
-		val m1 = (et.dstId,Map((et.srcAttr.community,et.srcAttr.communitySigmaTot)->et.attr))
-		val m2 = (et.srcId,Map((et.dstAttr.community,et.dstAttr.communitySigmaTot)->et.attr))
+		val m1 = (et.dstId,new CommunityMessage(et.srcAttr.community,et.srcAttr.communitySigmaTot,et.attr))
+		val m2 = (et.srcId,new CommunityMessage(et.dstAttr.community,et.dstAttr.communitySigmaTot,et.attr))
 		Iterator(m1, m2)
 	}
 	
@@ -250,18 +252,7 @@ object LouvainCore {
 	/**
 	 *  Merge neighborhood community data into a single message for each vertex
 	 */
-	private def mergeMsg(m1:Map[(Long,Long),Long],m2:Map[(Long,Long),Long]) ={
-		val newMap = scala.collection.mutable.HashMap[(Long,Long),Long]()
-		m1.foreach{case (k,v)=>
-			if (newMap.contains(k)) newMap(k) = newMap(k) + v
-			else newMap(k) = v
-		}
-		m2.foreach{case (k,v)=>
-			if (newMap.contains(k)) newMap(k) = newMap(k) + v
-			else newMap(k) = v
-		}
-		newMap.toMap
-	}
+	private def mergeMsg(m1:CommunityMessage,m2:CommunityMessage) = m1.merge(m2)
 	
 	
 	
@@ -269,21 +260,45 @@ object LouvainCore {
 	 * Join vertices with community data form their neighborhood and select the best community for each vertex to maximize change in modularity.
 	 * Returns a new set of vertices with the updated vertex state.
 	 */
-	private def louvainVertJoin(louvainGraph:Graph[VertexState,Long], msgRDD:VertexRDD[Map[(Long,Long),Long]], totalEdgeWeight:Broadcast[Long], even:Boolean) = {
-		louvainGraph.vertices.innerJoin(msgRDD)( (vid, vdata, msgs)=>
+	private def louvainVertJoin(louvainGraph:Graph[VertexState,Long], msgRDD:VertexRDD[CommunityMessage], totalEdgeWeight:Broadcast[Long], even:Boolean) = {
+		louvainGraph.vertices.innerJoin(msgRDD)( (vid, oldData, msgs)=>
 			{
+				// work on a copy, so the cached vertices of the current graph are left untouched
+				val vdata = copyState(oldData)
+				val M = totalEdgeWeight.value
+				val k_i = vdata.nodeWeight + vdata.internalWeight
 				var bestCommunity = vdata.community
 				var startingCommunityId = bestCommunity
-				var maxDeltaQ = BigDecimal(0.0);
+				var maxDeltaQ = 0.0
+				var maxDeltaQError = 0.0
+				var bestKIIn = 0L
+				var bestSigma = 0L
 				var bestSigmaTot = 0L
-				msgs.foreach{case( (communityId,sigmaTotal),communityEdgeWeight ) =>
-					val deltaQ = q(startingCommunityId, communityId, sigmaTotal, communityEdgeWeight, vdata.nodeWeight, vdata.internalWeight,totalEdgeWeight.value)
-					//println("   communtiy: "+communityId+" sigma:"+sigmaTotal+" edgeweight:"+communityEdgeWeight+"  q:"+deltaQ)
-					if (deltaQ > maxDeltaQ || (deltaQ > 0 && (deltaQ == maxDeltaQ && communityId > bestCommunity))){
+				var i = 0
+				while (i < msgs.size) {
+					val communityId = msgs.community(i)
+					val sigmaTotal = msgs.sigmaTot(i)
+					val isCurrentCommunity = (startingCommunityId == communityId)
+					var k_i_in = if (isCurrentCommunity) msgs.weight(i) + vdata.internalWeight else msgs.weight(i)
+					var sigma_tot = if (isCurrentCommunity) sigmaTotal - k_i else sigmaTotal
+					if (isCurrentCommunity && 0L == sigma_tot) {
+						// leaving an otherwise empty community gains nothing
+						k_i_in = 0L
+					}
+					val deltaQ = q(k_i_in, k_i, sigma_tot, M)
+					val deltaQError = qError(k_i_in, k_i, sigma_tot, M)
+					//println("   communtiy: "+communityId+" sigma:"+sigmaTotal+" edgeweight:"+msgs.weight(i)+"  q:"+deltaQ)
+					val cmp = compareQ(deltaQ, deltaQError, k_i_in, sigma_tot, maxDeltaQ, maxDeltaQError, bestKIIn, bestSigma, k_i, M)
+					if (cmp > 0 || (cmp == 0 && communityId > bestCommunity &&
+						                compareQ(maxDeltaQ, maxDeltaQError, bestKIIn, bestSigma, 0.0, 0.0, 0L, 0L, k_i, M) > 0)) {
 						maxDeltaQ = deltaQ
+						maxDeltaQError = deltaQError
+						bestKIIn = k_i_in
+						bestSigma = sigma_tot
 						bestCommunity = communityId
 						bestSigmaTot = sigmaTotal
 					}
+					i += 1
 				}
 				// only allow changes from low to high communties on even cyces and high to low on odd cycles
 				if ( vdata.community != bestCommunity && ( (even && vdata.community > bestCommunity)  || (!even && vdata.community < bestCommunity)  )  ){
@@ -302,23 +317,67 @@ object LouvainCore {
 	
 	
 	
+	private def copyState(state: VertexState): VertexState = {
+		val copy = new VertexState()
+		copy.community = state.community
+		copy.communitySigmaTot = state.communitySigmaTot
+		copy.internalWeight = state.internalWeight
+		copy.nodeWeight = state.nodeWeight
+		copy.internalNodes = state.internalNodes
+		copy.nodeDegree = state.nodeDegree
+		copy.extraAttributes = state.extraAttributes
+		copy.changed = state.changed
+		copy
+	}
+	
+	
+	
+	// Bound on the relative rounding error of q: the three long-to-double conversions, the
+	// multiply, the divide and the subtract each contribute at most 2^-53, so 8 * 2^-53 of
+	// the operand magnitudes always covers it.
+	private val Q_ERROR_FACTOR = 4.0 * java.lang.Math.ulp(1.0)
+	
+	// Operands up to this magnitude can be compared exactly in long arithmetic
+	private val EXACT_LONG_LIMIT = 1L << 30
+	
 	/**
-	 * Returns the change in modularity that would result from a vertex moving to a specified community.
+	 * Returns the change in modularity (scaled by the total edge weight, M) that would result from a vertex
+	 * of weight k_i with k_i_in of its weight inside a community of total weight sigma_tot joining that
+	 * community.
 	 */
-	private def q(currCommunityId:Long, testCommunityId:Long, testSigmaTot:Long, edgeWeightInCommunity:Long, nodeWeight:Long, internalWeight:Long, totalEdgeWeight:Long) : BigDecimal = {
-		val isCurrentCommunity = (currCommunityId.equals(testCommunityId));
-		val M = BigDecimal(totalEdgeWeight);
-		val k_i_in_L =  if (isCurrentCommunity) edgeWeightInCommunity + internalWeight else edgeWeightInCommunity;
-		val k_i_in = BigDecimal(k_i_in_L);
-		val k_i = BigDecimal(nodeWeight + internalWeight);
-		val sigma_tot = if (isCurrentCommunity) BigDecimal(testSigmaTot) - k_i else BigDecimal(testSigmaTot);
-		
-		var deltaQ =  BigDecimal(0.0);
-		if (!(isCurrentCommunity && sigma_tot.equals(0.0))) {
-			deltaQ = k_i_in - ( k_i * sigma_tot / M)
-			//println(s"      $deltaQ = $k_i_in - ( $k_i * $sigma_tot / $M")
+	private[cluster] def q(k_i_in:Long, k_i:Long, sigma_tot:Long, M:Long) : Double =
+		k_i_in - (k_i.toDouble * sigma_tot / M)
+	
+	/**
+	 * Returns an upper bound on the absolute difference between q(k_i_in, k_i, sigma_tot, M) and the exact
+	 * value it approximates.
+	 */
+	private[cluster] def qError(k_i_in:Long, k_i:Long, sigma_tot:Long, M:Long) : Double =
+		Q_ERROR_FACTOR * (math.abs(k_i_in.toDouble) + math.abs(k_i.toDouble * sigma_tot / M))
+	
+	/**
+	 * Compares two modularity changes for the same vertex, given both their double approximations (with
+	 * error bounds) and the exact operands they were calculated from.  The doubles decide whenever their
+	 * difference exceeds the combined error; otherwise the exact numerators, k_i_in * M - k_i * sigma_tot,
+	 * are compared, so the result is always exact.
+	 */
+	private[cluster] def compareQ(qA:Double, errorA:Double, k_i_inA:Long, sigma_totA:Long,
+	                              qB:Double, errorB:Double, k_i_inB:Long, sigma_totB:Long,
+	                              k_i:Long, M:Long) : Int = {
+		val error = errorA + errorB
+		if (qA - qB > error) 1
+		else if (qB - qA > error) -1
+		else compareQExact(k_i_inA, sigma_totA, k_i_inB, sigma_totB, k_i, M)
+	}
+	
+	// Sign of (k_i_inA - k_i_inB) * M - k_i * (sigma_totA - sigma_totB)
+	private def compareQExact(k_i_inA:Long, sigma_totA:Long, k_i_inB:Long, sigma_totB:Long, k_i:Long, M:Long) : Int = {
+		def small (n: Long) = -EXACT_LONG_LIMIT <= n && n <= EXACT_LONG_LIMIT
+		if (small(k_i_inA) && small(k_i_inB) && small(sigma_totA) && small(sigma_totB) && small(k_i) && small(M)) {
+			java.lang.Long.signum((k_i_inA - k_i_inB) * M - k_i * (sigma_totA - sigma_totB))
+		} else {
+			((BigInt(k_i_inA) - k_i_inB) * M - BigInt(k_i) * (BigInt(sigma_totA) - sigma_totB)).signum
 		}
-		return deltaQ;
 	}
 	
 	
@@ -50,6 +50,7 @@ object ClusteredGraphLayoutApp {
 		val gravity = argParser.getDouble("g", "Amount of gravitational force to use for Force-Directed layout to prevent outer nodes from spreading out too far. Default = 0 (no gravity)", Some(0.0))
 		val isolatedDegreeThres = argParser.getInt("degreeThres", "Degree threshold used to define 'leaf communities'. Such leaf communities are automatically laid out in an outer radial/spiral pattern. Default = 0", Some(0))
 		val communitySizeThres = argParser.getInt("commSizeThres", "Community size threshold used to exclude communities with < communitySizeThres nodes from layout. Default = 0", Some(0))
+		val largeCommunityThres = argParser.getInt("largeCommThres", "Community size (nodes plus intra-community edges) at or above which a community is laid out in its own partition. Default = 10000", Some(10000))
  		
 		val fileStartTime = System.currentTimeMillis()
 		
@@ -70,7 +71,8 @@ object ClusteredGraphLayoutApp {
 		                         gravity,
 		                         isolatedDegreeThres,
 		                         communitySizeThres,
-		                         outputDir)
+		                         outputDir,
+		                         largeCommunityThres)
 		
 		val fileEndTime = System.currentTimeMillis()
 		println("Finished hierarchic graph layout job in "+((fileEndTime-fileStartTime)/60000.0)+" minutes")
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2015 Uncharted Software Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.oculusinfo.tilegen.graph.util
+
+import org.apache.spark.Partitioner
+
+/**
+ *  A partitioner for per-community graph layout that accounts for skew in community sizes.
+ *
+ *  Communities at least as large as a given threshold each get a dedicated partition (so the
+ *  largest communities are laid out concurrently, rather than one after another in the same
+ *  task), and all other communities are hashed into a fixed number of packed partitions.
+ *
+ *  Partitions 0 through numDedicated-1 are the dedicated partitions, in decreasing order of
+ *  community size; the remaining partitions hold packed communities.  Only the large
+ *  communities are listed, so the partitioner stays small however many communities there are.
+ *
+ *  - dedicated = map from large community ID to its partition
+ *  - numPacked = number of partitions into which all other communities are hashed
+ **/
+class CommunityPartitioner(private val dedicated: Map[Long, Int],
+                           val numPacked: Int) extends Partitioner {
+
+	val numDedicated = dedicated.size
+
+	override def numPartitions: Int = numDedicated + numPacked
+
+	override def getPartition(key: Any): Int = key match {
+		case id: Long => dedicated.getOrElse(id, hashPartition(id))
+		case other => hashPartition(other)
+	}
+
+	private def hashPartition(key: Any): Int = {
+		val mod = key.hashCode % numPacked
+		numDedicated + (if (mod < 0) mod + numPacked else mod)
+	}
+
+	override def equals(other: Any): Boolean = other match {
+		case that: CommunityPartitioner =>
+			that.numPacked == numPacked && that.dedicated == dedicated
+		case _ => false
+	}
+
+	override def hashCode: Int = dedicated.hashCode * 31 + numPartitions
+
+	/**
+	 * Summarize the skew of a set of partition loads
+	 *
+	 * @param loads The total size of the communities assigned to each partition
+	 */
+	def describe(loads: Array[Long]): String = {
+		val packedLoads = loads.drop(numDedicated)
+		val maxPacked = if (packedLoads.isEmpty) 0L else packedLoads.max
+		val meanPacked = if (packedLoads.isEmpty) 0.0 else packedLoads.sum.toDouble / packedLoads.length
+		"%d dedicated partitions (largest load %d), %d packed partitions (max load %d, mean load %.1f, imbalance %.2f)".format(
+			numDedicated, if (numDedicated > 0) loads(0) else 0L,
+			packedLoads.length, maxPacked, meanPacked,
+			if (meanPacked > 0) maxPacked / meanPacked else 1.0)
+	}
+}
+
+object CommunityPartitioner {
+	/**
+	 * Create a partitioner for the given large communities
+	 *
+	 * @param largeSizes The size (ie layout cost estimate) of each large community, keyed by
+	 *                   community ID.  Smaller communities need not be included; any that are
+	 *                   will be hashed like the rest.
+	 * @param numPackedPartitions The number of partitions into which to hash small communities
+	 * @param largeCommunityThres The size at or above which a community gets its own partition
+	 */
+	def apply(largeSizes: Iterable[(Long, Long)], numPackedPartitions: Int, largeCommunityThres: Long): CommunityPartitioner = {
+		if (numPackedPartitions < 1) throw new IllegalArgumentException("numPackedPartitions must be > 0")
+
+		val large = largeSizes.filter(_._2 >= largeCommunityThres).toArray.sortBy(s => (-s._2, s._1))
+		val dedicated = large.map(_._1).zipWithIndex.toMap
+
+		new CommunityPartitioner(dedicated, numPackedPartitions)
+	}
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2015 Uncharted Software Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.oculusinfo.tilegen.graph.util
+
+/**
+ * A Barnes-Hut quadtree for the ForceDirected layout, stored in flat primitive arrays so that it
+ * can be rebuilt on every iteration without allocating objects per node.
+ *
+ * Quad nodes follow the same insertion rules as com.oculusinfo.geometry.quadtree.QuadTree
+ * (including collapsing coincident nodes), and the four children of a quad node are stored
+ * contiguously, in NW, NE, SW, SE order.
+ *
+ * Once built, the tree is only read, so it is safe to calculate repulsion for different nodes
+ * from several threads at once.
+ */
+class FlatQuadTree {
+	private var capacity = 0
+	private var numQuads = 0
+	private var depth = 0
+
+	// Quad node bounds (lower left corner, width, height)
+	private var minX: Array[Double] = null
+	private var minY: Array[Double] = null
+	private var width: Array[Double] = null
+	private var height: Array[Double] = null
+	// Quad node center of mass and average node radius
+	private var comX: Array[Double] = null
+	private var comY: Array[Double] = null
+	private var size: Array[Double] = null
+	// Number of nodes under each quad node, the node stored in a leaf (or -1), and the index of
+	// the first child (or -1)
+	private var count: Array[Int] = null
+	private var data: Array[Int] = null
+	private var firstChild: Array[Int] = null
+
+	// The node positions from which the tree was built
+	private var xs: Array[Double] = null
+	private var ys: Array[Double] = null
+	private var rs: Array[Double] = null
+
+	def getNumQuads: Int = numQuads
+
+	def getDepth: Int = depth
+
+	/**
+	 * Rebuild this tree from the given node positions, reusing its storage where possible.
+	 *
+	 * @param x The x coordinate of each node
+	 * @param y The y coordinate of each node
+	 * @param r The radius of each node
+	 * @param numNodes The number of nodes to insert (the first numNodes entries of each array)
+	 */
+	def build (x: Array[Double], y: Array[Double], r: Array[Double], numNodes: Int): Unit = {
+		xs = x
+		ys = y
+		rs = r
+		ensureCapacity(4 * numNodes + 1)
+
+		var bMinX = Double.MaxValue
+		var bMaxX = Double.MinValue
+		var bMinY = Double.MaxValue
+		var bMaxY = Double.MinValue
+		var n = 0
+		while (n < numNodes) {
+			bMinX = math.min(x(n), bMinX)
+			bMaxX = math.max(x(n), bMaxX)
+			bMinY = math.min(y(n), bMinY)
+			bMaxY = math.max(y(n), bMaxY)
+			n += 1
+		}
+
+		numQuads = 0
+		depth = 0
+		newQuad(bMinX, bMinY, bMaxX - bMinX, bMaxY - bMinY)
+		n = 0
+		while (n < numNodes) {
+			// (nodes without a valid position can't be placed in the tree)
+			if (!x(n).isNaN && !y(n).isNaN) insert(n)
+			n += 1
+		}
+	}
+
+	/**
+	 * Add the repulsion felt by one node from all others to a running sum, using quad nodes
+	 * far enough away as pseudo nodes (see ForceDirected.useAsPseudoNode).
+	 *
+	 * @param index The node whose repulsion is desired
+	 * @param k2 The square of the ideal node separation
+	 * @param theta The pseudo node threshold; lower values are more accurate, but slower
+	 * @param sum The running sum to which this node's repulsion is added
+	 * @param stack Scratch space for traversing the tree, of at least stackSize entries
+	 */
+	def addRepulsion (index: Int, k2: Double, theta: Double, sum: RepulsionSum, stack: Array[Int]): Unit = {
+		val x = xs(index)
+		val y = ys(index)
+		val r = rs(index)
+
+		var top = 0
+		stack(0) = 0
+		while (top >= 0) {
+			val q = stack(top)
+			top -= 1
+			val n = count(q)
+			if (1 == n) {
+				val other = data(q)
+				if (other != index) sum.add(x, y, r, xs(other), ys(other), rs(other), 1.0, k2)
+			} else if (n > 1) {
+				val qnLen = math.min(width(q), height(q))
+				val deltaX = x - comX(q)
+				val deltaY = y - comY(q)
+				val dist = math.sqrt(deltaX*deltaX + deltaY*deltaY) - size(q)
+				if (dist > 0 && qnLen <= theta*dist) {
+					// Far enough away to act as a single pseudo node
+					sum.add(x, y, r, comX(q), comY(q), size(q), n, k2)
+				} else {
+					// Recurse into children, NW first
+					val c = firstChild(q)
+					stack(top + 1) = c + 3
+					stack(top + 2) = c + 2
+					stack(top + 3) = c + 1
+					stack(top + 4) = c
+					top += 4
+				}
+			}
+		}
+	}
+
+	/** The scratch stack size needed by addRepulsion for the tree as currently built */
+	def stackSize: Int = 3 * depth + 4
+
+	private def insert (node: Int): Unit = {
+		val x = xs(node)
+		val y = ys(node)
+		var q = 0
+		var level = 0
+		while (true) {
+			count(q) += 1
+
+			// Empty leaf - just store the node
+			if (1 == count(q)) {
+				data(q) = node
+				comX(q) = x
+				comY(q) = y
+				size(q) = rs(node)
+				depth = math.max(depth, level)
+				return
+			}
+
+			// Two nodes in exactly the same place are treated as one (to prevent infinite depth)
+			val old = data(q)
+			if (old >= 0 && 2 == count(q) && xs(old) == x && ys(old) == y) {
+				count(q) = 1
+				return
+			}
+
+			// Move the center of mass and average size by the 1/n contribution of the new node
+			val scale = 1.0 / count(q)
+			comX(q) += scale * (x - comX(q))
+			comY(q) += scale * (y - comY(q))
+			size(q) += scale * (rs(node) - size(q))
+
+			// Leaf becoming internal - split, and push the old node down a level
+			if (old >= 0) {
+				val halfWidth = width(q) / 2
+				val halfHeight = height(q) / 2
+				val c = newQuad(minX(q), minY(q) + halfHeight, halfWidth, halfHeight)
+				newQuad(minX(q) + halfWidth, minY(q) + halfHeight, halfWidth, halfHeight)
+				newQuad(minX(q), minY(q), halfWidth, halfHeight)
+				newQuad(minX(q) + halfWidth, minY(q), halfWidth, halfHeight)
+				firstChild(q) = c
+				data(q) = -1
+				val oldChild = containingChild(q, xs(old), ys(old))
+				count(oldChild) = 1
+				data(oldChild) = old
+				comX(oldChild) = xs(old)
+				comY(oldChild) = ys(old)
+				size(oldChild) = rs(old)
+			}
+
+			q = containingChild(q, x, y)
+			level += 1
+		}
+	}
+
+	// Pick the child quadrant by comparing against the parent's midpoint, so that rounding in
+	// child bounds can never leave a point outside all four children.  Ties go to the same
+	// quadrants QuadTree would choose (NW, then NE, then SW, then SE).
+	private def containingChild (q: Int, x: Double, y: Double): Int = {
+		val c = firstChild(q)
+		val west = x <= minX(c + 1)
+		val north = y >= minY(c)
+		if (north) {
+			if (west) c else c + 1
+		} else {
+			if (west) c + 2 else c + 3
+		}
+	}
+
+	private def newQuad (x: Double, y: Double, w: Double, h: Double): Int = {
+		if (numQuads == capacity) ensureCapacity(2 * capacity)
+		val q = numQuads
+		minX(q) = x
+		minY(q) = y
+		width(q) = w
+		height(q) = h
+		comX(q) = 0.0
+		comY(q) = 0.0
+		size(q) = 0.0
+		count(q) = 0
+		data(q) = -1
+		firstChild(q) = -1
+		numQuads += 1
+		q
+	}
+
+	private def ensureCapacity (minCapacity: Int): Unit = {
+		if (capacity < minCapacity) {
+			val newCapacity = math.max(minCapacity, 16)
+			def grow (a: Array[Double]): Array[Double] = {
+				val b = new Array[Double](newCapacity)
+				if (null != a) System.arraycopy(a, 0, b, 0, numQuads)
+				b
+			}
+			def growInt (a: Array[Int]): Array[Int] = {
+				val b = new Array[Int](newCapacity)
+				if (null != a) System.arraycopy(a, 0, b, 0, numQuads)
+				b
+			}
+			minX = grow(minX)
+			minY = grow(minY)
+			width = grow(width)
+			height = grow(height)
+			comX = grow(comX)
+			comY = grow(comY)
+			size = grow(size)
+			count = growInt(count)
+			data = growInt(data)
+			firstChild = growInt(firstChild)
+			capacity = newCapacity
+		}
+	}
+}
@@ -25,7 +25,14 @@
 
 package com.oculusinfo.tilegen.graph.util
 
+import java.util.Arrays
+import java.util.concurrent.{ForkJoinPool, ForkJoinTask, RecursiveAction}
+
+import scala.collection.mutable.{HashMap => MutableHashMap}
 import scala.util.Random
+
+import org.apache.spark.SparkEnv
+
 import com.oculusinfo.geometry.quadtree.QuadTree
 import com.oculusinfo.geometry.quadtree.QuadNode
 
@@ -52,11 +59,35 @@ import com.oculusinfo.geometry.quadtree.QuadNode
  *  - isolatedDegreeThres = threshold to determine whether or not a community/node is considered 'isolated'.  Isolated nodes are laid out in an outer radial/spiral pattern   
  * 
  *  - Format of output array is (node ID, x, y, radius, numInternalNodes, metaData)
+ *
+ *  Internally, node positions and displacements are kept in primitive arrays, and the Barnes-Hut
+ *  quadtree is a FlatQuadTree rebuilt in place each iteration.  For large layouts, repulsion is
+ *  calculated in parallel on a fork-join pool; each node's repulsion is still summed in a fixed
+ *  order, so results are identical to a serial run (and so deterministic for a given seed).  Inside
+ *  Spark, repulsion uses only as many threads as each task has cores (spark.task.cpus), so as not to
+ *  oversubscribe the cores other tasks are using; outside Spark, it uses every core.  Either can be
+ *  overridden by setting _parallelism.
  **/
 
 object ForceDirected {
 	//----- Static members of ForceDirected
 
+	// Pools used for parallel repulsion calculations, by number of threads
+	private val repulsionPools = MutableHashMap[Int, ForkJoinPool]()
+
+	private def getRepulsionPool (parallelism: Int): ForkJoinPool = repulsionPools.synchronized {
+		repulsionPools.getOrElseUpdate(parallelism, new ForkJoinPool(parallelism))
+	}
+
+	/**
+	 * The number of threads with which to calculate repulsion, by default: the cores given to
+	 * each task if running in Spark, or all cores otherwise.
+	 */
+	def defaultParallelism: Int = Option(SparkEnv.get) match {
+		case Some(env) => env.conf.getInt("spark.task.cpus", 1)
+		case None => Runtime.getRuntime.availableProcessors
+	}
+
 	/**
 	 * Used to create a new Quad Tree object and insert all nodes into it
 	 * 
@@ -114,10 +145,15 @@ object ForceDirected {
 class ForceDirected extends Serializable {
 
 	val QT_NODE_THRES = 20		// num of nodes threshold for whether or not to use quadtree decomposition
+	val PARALLEL_NODE_THRES = 2000	// num of nodes threshold for whether or not to calculate repulsion in parallel
+	val PARALLEL_CHUNK_SIZE = 256	// num of nodes for which each parallel task calculates repulsion
 	val QT_THETA = 1.0			// theta value for quadtree decomposition
 								// (>= 0; lower value gives more accurate repulsion force results, but is less efficient)
 	var _bNodesOverlapping = false	// boolean for whether community circles overlap or not
 	var _nodeOverlapRepulsionFactor = Math.pow(1000.0/256, 2.0)	// constant used for extra strong repulsion if node 'circles' overlap
+	var _iterations = 0		// number of iterations used by the last layout
+	var _iterationTime = 0L	// total time (in ms) spent in force-directed iterations of the last layout
+	var _parallelism: Option[Int] = None	// threads with which to calculate repulsion; if None, ForceDirected.defaultParallelism
 	
 	def run(nodes: Iterable[(Long, Long, Int, String)],
 	        edges: Iterable[(Long, Long, Long)],
@@ -215,24 +251,26 @@ class ForceDirected extends Serializable {
 		else borderPercent*0.01*Math.min(boundingBoxFinal._3, boundingBoxFinal._4)
 		val randSeed = 911
 		var random = new Random(randSeed)
-		var nodeCoords = nodeData.map(n =>
-			{
-				val (id, numInternalNodes, degree, metaData) = n
-				val nodeRadius = if (bUseNodeSizes) {
-					val nodeArea = nodeAreaFactor * boundingBoxArea * numInternalNodes * invTotalInternalNodes
-					Math.sqrt(nodeArea * 0.31831)	//0.31831 = 1/pi
-				}
-				else border 	//else init all radii = border (to ensure a bit of whitespace between nodes)
-				val (x,y) = if (id == parentID) (xC, yC)		// force 'primary node' to be in the centre of bounding area
-				else (random.nextDouble-0.5, random.nextDouble-0.5)
-				(n._1, x, y, nodeRadius, numInternalNodes, degree, metaData)
-			}
-		).toArray
-		
-		// normalize starting coords so they are within the width and height of the bounding box
+		val nodeArray = nodeData.toArray
+		val ids = new Array[Long](numNodes)
+		val px = new Array[Double](numNodes)
+		val py = new Array[Double](numNodes)
+		val pr = new Array[Double](numNodes)
 		for (n <- 0 until numNodes) {
-			val (id, x, y, radius, numInternalNodes, degree, metaData) = nodeCoords(n)
-			nodeCoords(n) = (id, x*boundingBoxFinal._3, y*boundingBoxFinal._4, radius, numInternalNodes, degree, metaData)
+			val (id, numInternalNodes, degree, metaData) = nodeArray(n)
+			val nodeRadius = if (bUseNodeSizes) {
+				val nodeArea = nodeAreaFactor * boundingBoxArea * numInternalNodes * invTotalInternalNodes
+				Math.sqrt(nodeArea * 0.31831)	//0.31831 = 1/pi
+			}
+			else border 	//else init all radii = border (to ensure a bit of whitespace between nodes)
+			val (x,y) = if (id == parentID) (xC, yC)		// force 'primary node' to be in the centre of bounding area
+			else (random.nextDouble-0.5, random.nextDouble-0.5)
+
+			// normalize starting coords so they are within the width and height of the bounding box
+			ids(n) = id
+			px(n) = x*boundingBoxFinal._3
+			py(n) = y*boundingBoxFinal._4
+			pr(n) = nodeRadius
 		}
 		
 		//----- Init variables for controlling force-directed step-size
@@ -250,69 +288,54 @@ class ForceDirected extends Serializable {
 		_nodeOverlapRepulsionFactor = Math.pow(1000.0/Math.min(boundingBoxFinal._3, boundingBoxFinal._4), 2.0)	// constant used for extra strong repulsion if node 'circles' overlap
 
 		//----- Re-format edge data to reference node array indices instead of actual node ID labels (for faster array look-ups below)
-		val edgesArray = reformatEdges(edges, nodeCoords.map(n => n._1))
+		val (edgeSrc, edgeDst, edgeWeights) = reformatEdges(edges, ids)
 
-		val numEdges = edgesArray.length
+		val numEdges = edgeSrc.length
 		
 		//----- Main Force-directed algorithm...
 		var bDone = false
 		var iterations = 1
 		println("Starting Force Directed layout on " + numNodes + " nodes and " + numEdges + " edges...")
 		
+		// node displacements, and quadtree, reused every iteration
+		val deltaX = new Array[Double](numNodes)
+		val deltaY = new Array[Double](numNodes)
+		val quadTree = if (bUseQTDecomp) new FlatQuadTree else null
+		val startTime = System.currentTimeMillis()
+
 		while (!bDone) {
 			
 			_bNodesOverlapping = false
 			
 			// init array of node displacements for this iteration
-			var deltaXY = Array.fill[(Double, Double)](numNodes)((0.0,0.0))
+			Arrays.fill(deltaX, 0.0)
+			Arrays.fill(deltaY, 0.0)
 			
 			//---- Calc repulsion forces between all nodes
 			// (Also, account for node sizes, by adjusting distance between nodes by node radii)
-			if (bUseQTDecomp) {
-				// Use Quadtree Decomposition for repulsion force calculation
-				val qt = ForceDirected.createQuadTree(nodeCoords, numNodes)
-				
-				for (n1 <- 0 until numNodes) {
-					val (x,y,r) = (nodeCoords(n1)._2, nodeCoords(n1)._3, nodeCoords(n1)._4)
-					val qtDeltaXY = calcQTRepulsion(n1, x, y, r, qt.getRoot, k2, QT_THETA)
-					
-					deltaXY(n1) = (deltaXY(n1)._1 + qtDeltaXY._1, deltaXY(n1)._2 + qtDeltaXY._2)
-				}
-			}
-			else {
-				// Use regular repulsion force calculation instead
-				for (n1 <- 0 until numNodes) {
-					for (n2 <- 0 until numNodes) {
-						if (n1 != n2) {
-							// get x, y coords and radii of target and repulsor nodes
-							val xyr_target = (nodeCoords(n1)._2, nodeCoords(n1)._3, nodeCoords(n1)._4)
-							val xyr_repulsor = (nodeCoords(n2)._2, nodeCoords(n2)._3, nodeCoords(n2)._4)
-							
-							val nodeDeltaXY = calcRepulsionDelta(xyr_target, xyr_repulsor, k2)
-							deltaXY(n1) = (deltaXY(n1)._1 + nodeDeltaXY._1, deltaXY(n1)._2 + nodeDeltaXY._2)
-						}
-					}
-				}
-			}
+			calcRepulsion(px, py, pr, numNodes, k2, quadTree, deltaX, deltaY)
 			
 			//---- Calc attraction forces due to all edges
 			// Also, account for node sizes, by adjusting distance between nodes by node radii
 			for (e1 <- 0 until numEdges) {
-				val (srcE, dstE, edgeWeight) = edgesArray(e1)	//get node indices for edge endpoints
+				val srcE = edgeSrc(e1)	//get node indices for edge endpoints
+				val dstE = edgeDst(e1)
 				
-				val xDist = nodeCoords(dstE)._2 - nodeCoords(srcE)._2
-				val yDist = nodeCoords(dstE)._3 - nodeCoords(srcE)._3
-				val dist = Math.sqrt(xDist*xDist + yDist*yDist) - nodeCoords(dstE)._4 - nodeCoords(srcE)._4	// distance minus node radii
+				val xDist = px(dstE) - px(srcE)
+				val yDist = py(dstE) - py(srcE)
+				val dist = Math.sqrt(xDist*xDist + yDist*yDist) - pr(dstE) - pr(srcE)	// distance minus node radii
 				if (dist > 0) {	// only calc attraction force if node circles don't overlap
 					val attractForce = if (bUseEdgeWeights) {
-						val w = eWeightNormFactor*edgeWeight //eWeightSlope*edgeWeight + eWeightOffset
+						val w = eWeightNormFactor*edgeWeights(e1) //eWeightSlope*edgeWeight + eWeightOffset
 						dist * k_inv * w
 					}
 					else
 						dist * k_inv
 					
-					deltaXY(srcE) = (deltaXY(srcE)._1 + xDist*attractForce, deltaXY(srcE)._2 + yDist*attractForce)
-					deltaXY(dstE) = (deltaXY(dstE)._1 - xDist*attractForce, deltaXY(dstE)._2 - yDist*attractForce)
+					deltaX(srcE) += xDist*attractForce
+					deltaY(srcE) += yDist*attractForce
+					deltaX(dstE) -= xDist*attractForce
+					deltaY(dstE) -= yDist*attractForce
 				}
 			}
 			
@@ -321,12 +344,13 @@ class ForceDirected extends Serializable {
 			if (gravity > 0.0) {
 				//Also, account for node sizes using node radii
 				for (n <- 0 until numNodes) {
-					val xDist = xC - nodeCoords(n)._2	// node distance to centre
-					val yDist = yC - nodeCoords(n)._3
-					val dist = Math.sqrt(xDist*xDist + yDist*yDist) - nodeCoords(n)._4	// distance minus node radius
+					val xDist = xC - px(n)	// node distance to centre
+					val yDist = yC - py(n)
+					val dist = Math.sqrt(xDist*xDist + yDist*yDist) - pr(n)	// distance minus node radius
 					if (dist > 0) {
 						val gForce = dist * k_inv * gravity	// gravitational force for this node
-						deltaXY(n) = (deltaXY(n)._1 + xDist*gForce, deltaXY(n)._2 + yDist*gForce)
+						deltaX(n) += xDist*gForce
+						deltaY(n) += yDist*gForce
 					}
 				}
 			}
@@ -335,12 +359,13 @@ class ForceDirected extends Serializable {
 				// if nodes are outside the bounding box
 				val rC = 0.5*Math.min(boundingBoxFinal._3, boundingBoxFinal._4)	// radius thres (smaller value == tighter layout boundary)
 				for (n <- 0 until numNodes) {
-					val xDist = xC - nodeCoords(n)._2	// node distance to centre
-					val yDist = yC - nodeCoords(n)._3
+					val xDist = xC - px(n)	// node distance to centre
+					val yDist = yC - py(n)
 					val dist = Math.sqrt(xDist*xDist + yDist*yDist)
 					if (dist > rC) {
 						val displRatio = (dist - rC)/dist
-						deltaXY(n) = (deltaXY(n)._1 + xDist*displRatio, deltaXY(n)._2 + yDist*displRatio)
+						deltaX(n) += xDist*displRatio
+						deltaY(n) += yDist*displRatio
 					}
 				}
 			}
@@ -350,18 +375,20 @@ class ForceDirected extends Serializable {
 			val energySum0 = energySum
 			energySum = 0.0
 			for (n <- 0 until numNodes) {
-				if (nodeCoords(n)._1 != parentID) {	// leave 'primary node' at fixed position at centre of bounding area
-					val deltaDist = Math.sqrt(deltaXY(n)._1*deltaXY(n)._1 + deltaXY(n)._2*deltaXY(n)._2);
+				if (ids(n) != parentID) {	// leave 'primary node' at fixed position at centre of bounding area
+					val deltaDist = Math.sqrt(deltaX(n)*deltaX(n) + deltaY(n)*deltaY(n));
 					if (deltaDist > temperature) {
 						val normalizedTemp = temperature/deltaDist
-						deltaXY(n) = (deltaXY(n)._1*normalizedTemp, deltaXY(n)._2*normalizedTemp)
+						deltaX(n) *= normalizedTemp
+						deltaY(n) *= normalizedTemp
 					}
-					val finalStepSq = deltaXY(n)._1*deltaXY(n)._1 + deltaXY(n)._2*deltaXY(n)._2
+					val finalStepSq = deltaX(n)*deltaX(n) + deltaY(n)*deltaY(n)
 					largestStepSq = Math.max(largestStepSq, finalStepSq);	// save largest step for this iteration
 					energySum += finalStepSq
 					
 					// save new node coord locations
-					nodeCoords(n) = (nodeCoords(n)._1, nodeCoords(n)._2 + deltaXY(n)._1, nodeCoords(n)._3 + deltaXY(n)._2, nodeCoords(n)._4, nodeCoords(n)._5, nodeCoords(n)._6, nodeCoords(n)._7)
+					px(n) += deltaX(n)
+					py(n) += deltaY(n)
 				}
 			}
 			
@@ -394,6 +421,13 @@ class ForceDirected extends Serializable {
 
 			iterations += 1
 		}
+		_iterations = iterations - 1
+		_iterationTime = System.currentTimeMillis() - startTime
+
+		var nodeCoords = Array.tabulate(numNodes){n =>
+			val (id, numInternalNodes, degree, metaData) = nodeArray(n)
+			(id, px(n), py(n), pr(n), numInternalNodes, degree, metaData)
+		}
 		
 		//---- Use Anti-Overlap algo to tune layout if needed
 		if (_bNodesOverlapping) {
@@ -430,14 +464,15 @@ class ForceDirected extends Serializable {
 		Array.concat(nodeCoords, isolatedNodeCoords)	// return final node coordinates (all node coords concatenated together)
 	}
 	
-	private def reformatEdges(edges: Iterable[(Long, Long, Long)], nodeIds: Array[Long]): Array[(Int, Int, Long)] = {
-		
-		edges.flatMap(e =>
+	private def reformatEdges(edges: Iterable[(Long, Long, Long)], nodeIds: Array[Long]): (Array[Int], Array[Int], Array[Long]) = {
+		// index of the first occurrence of each node ID
+		val nodeIndices = new MutableHashMap[Long, Int]()
+		for (n <- (nodeIds.length - 1) to 0 by -1) nodeIndices(nodeIds(n)) = n
+
+		val validEdges = edges.flatMap(e =>
 			{
-				val srcIndx = nodeIds.indexOf(e._1)
-				val dstIndx = nodeIds.indexOf(e._2)
-				//val srcIndx = nodeCoords.indexOf((e._1,_:Double,_:Double))
-				//val dstIndx = nodeCoords.indexOf((e._2,_:Double,_:Double))
+				val srcIndx = nodeIndices.getOrElse(e._1, -1)
+				val dstIndx = nodeIndices.getOrElse(e._2, -1)
 				
 				if (srcIndx == -1 || dstIndx == -1)
 					Iterator.empty 	// not a valid edge
@@ -446,6 +481,8 @@ class ForceDirected extends Serializable {
 				
 			}
 		).toArray
+
+		(validEdges.map(_._1), validEdges.map(_._2), validEdges.map(_._3))
 	}
 	
 	// Function to manually layout very small communities of <= 4 nodes
@@ -515,68 +552,102 @@ class ForceDirected extends Serializable {
 		nodeResults
 	}
 	
-	// Calculate Node to Node repulsion force
-	def calcRepulsionDelta(target: (Double, Double, Double), repulsor: (Double, Double, Double), k2: Double): (Double, Double) = {
-		
-		//format for 'point' is assumed to be (x,y,radius)
-		var xDist = target._1 - repulsor._1
-		var yDist = target._2 - repulsor._2
-		val r1 = target._3
-		val r2 = repulsor._3
-		// calc distance between two nodes (corrected for node radii)
-		val dist = Math.sqrt(xDist*xDist + yDist*yDist) - r1 - r2	// distance minus node radii
-		if (dist > 0.0) {
-			val repulseForce = k2/(dist*dist)	// repulsion force
-			(xDist*repulseForce, yDist*repulseForce)
+	// Calculate repulsion forces between all nodes, adding them to the given node displacements
+	def calcRepulsion(x: Array[Double], y: Array[Double], r: Array[Double], numNodes: Int, k2: Double,
+	                  quadTree: FlatQuadTree, deltaX: Array[Double], deltaY: Array[Double]): Unit = {
+		if (null != quadTree) {
+			// Use Quadtree Decomposition for repulsion force calculation
+			quadTree.build(x, y, r, numNodes)
+			val parallelism = _parallelism.getOrElse(ForceDirected.defaultParallelism)
+			val bParallel = numNodes >= PARALLEL_NODE_THRES && parallelism > 1
+			val task = new QTRepulsionTask(quadTree, 0, numNodes, k2, QT_THETA, _nodeOverlapRepulsionFactor,
+			                               deltaX, deltaY, if (bParallel) PARALLEL_CHUNK_SIZE else numNodes)
+			if (bParallel) ForceDirected.getRepulsionPool(parallelism).invoke(task)
+			else task.compute()
+			if (task.overlapping) _bNodesOverlapping = true
 		}
 		else {
-			_bNodesOverlapping = true
-			val repulseForce = _nodeOverlapRepulsionFactor*k2	// extra strong repulsion force if node circles overlap!
-			if ((xDist == 0) && (yDist == 0)) {
-				xDist = r1*0.01	// force xDist and yDist to be 1% of radius so repulse calc below doesn't == 0
-				yDist = r2*0.01	// TODO need random directions here!
+			// Use regular repulsion force calculation instead
+			val sum = new RepulsionSum(_nodeOverlapRepulsionFactor)
+			for (n1 <- 0 until numNodes) {
+				sum.reset()
+				for (n2 <- 0 until numNodes) {
+					if (n1 != n2) sum.add(x(n1), y(n1), r(n1), x(n2), y(n2), r(n2), 1.0, k2)
+				}
+				deltaX(n1) += sum.x
+				deltaY(n1) += sum.y
 			}
-			(xDist*repulseForce, yDist*repulseForce)
+			if (sum.overlapping) _bNodesOverlapping = true
 		}
 	}
-	
-	// Calculate QuadTree repulsion force
-	def calcQTRepulsion(index: Int, x: Double, y: Double,
-	                    r: Double, qn: QuadNode, k2: Double,
-	                    theta: Double): (Double, Double) = {
-		
-		if (qn == null) {
-			throw new IllegalArgumentException("quadNode == null") //return (0.0, 0.0)
+}
+
+/**
+ * A running sum of the repulsion felt by one node, from other nodes or pseudo nodes
+ */
+private[util] class RepulsionSum(overlapRepulsionFactor: Double) {
+	var x = 0.0
+	var y = 0.0
+	var overlapping = false
+
+	def reset (): Unit = {
+		x = 0.0
+		y = 0.0
+	}
+
+	// Add the repulsion from a repulsor of the given weight (ie number of nodes)
+	def add (xt: Double, yt: Double, rt: Double, xr: Double, yr: Double, rr: Double,
+	         weight: Double, k2: Double): Unit = {
+		var xDist = xt - xr
+		var yDist = yt - yr
+		// calc distance between two nodes (corrected for node radii)
+		val dist = Math.sqrt(xDist*xDist + yDist*yDist) - rt - rr	// distance minus node radii
+		val repulseForce = if (dist > 0.0) {
+			k2/(dist*dist)	// repulsion force
 		}
-		if (qn.getNumChildren == 0) { // nothing to compute
-			return (0.0, 0.0)
+		else {
+			overlapping = true
+			if ((xDist == 0) && (yDist == 0)) {
+				xDist = rt*0.01	// force xDist and yDist to be 1% of radius so repulse calc below doesn't == 0
+				yDist = rr*0.01	// TODO need random directions here!
+			}
+			overlapRepulsionFactor*k2	// extra strong repulsion force if node circles overlap!
 		}
-		
-		if (qn.getNumChildren == 1) { // leaf
+		x += xDist*repulseForce*weight
+		y += yDist*repulseForce*weight
+	}
+}
+
+/**
+ * Calculates the quadtree repulsion for a range of nodes, splitting the range in half until it
+ * is no bigger than chunkSize.  Each node's repulsion is summed by a single task, in a fixed
+ * order, so the results do not depend on how the work is scheduled.
+ */
+private[util] class QTRepulsionTask(quadTree: FlatQuadTree, start: Int, end: Int, k2: Double, theta: Double,
+                                    overlapRepulsionFactor: Double, deltaX: Array[Double], deltaY: Array[Double],
+                                    chunkSize: Int)
+		extends RecursiveAction {
+	var overlapping = false
 
-			val qnData = qn.getData
-			if (qnData.getId == index) {	// no repulsion for node compared to itself
-				return (0.0, 0.0)
+	override def compute (): Unit = {
+		if (end - start <= chunkSize) {
+			val sum = new RepulsionSum(overlapRepulsionFactor)
+			val stack = new Array[Int](quadTree.stackSize)
+			var n = start
+			while (n < end) {
+				sum.reset()
+				quadTree.addRepulsion(n, k2, theta, sum, stack)
+				deltaX(n) += sum.x
+				deltaY(n) += sum.y
+				n += 1
 			}
-			val currentLeafPosition = qnData
-			val xyDelta = calcRepulsionDelta((x,y,r), (qnData.getX, qnData.getY, qnData.getSize), k2)
-			return xyDelta
+			overlapping = sum.overlapping
+		} else {
+			val mid = (start + end) >>> 1
+			val left = new QTRepulsionTask(quadTree, start, mid, k2, theta, overlapRepulsionFactor, deltaX, deltaY, chunkSize)
+			val right = new QTRepulsionTask(quadTree, mid, end, k2, theta, overlapRepulsionFactor, deltaX, deltaY, chunkSize)
+			ForkJoinTask.invokeAll(left, right)
+			overlapping = left.overlapping || right.overlapping
 		}
-		
-		if (ForceDirected.useAsPseudoNode(qn, (x,y), r, theta)) {	// consider current quadnode as a 'pseudo node'?
-			val (xC, yC) = qn.getCenterOfMass									// use quadnode's Centre of Mass as repulsor's coords
-			val rC = qn.getSize													// and use average radius of all underlying nodes, for this pseudo node
-			val xyDelta = calcRepulsionDelta((x,y,r), (xC, yC, rC), k2)
-			return (xyDelta._1*qn.getNumChildren, xyDelta._2*qn.getNumChildren)	// multiply repulsion results by number of child nodes
-		}
-		
-		// failed to resolve a repulsion, so recurse into all four child quad nodes, and sum results
-		val xyDeltaNW = calcQTRepulsion(index, x, y, r, qn.getNW, k2, theta)
-		val xyDeltaNE = calcQTRepulsion(index, x, y, r, qn.getNE, k2, theta)
-		val xyDeltaSW = calcQTRepulsion(index, x, y, r, qn.getSW, k2, theta)
-		val xyDeltaSE = calcQTRepulsion(index, x, y, r, qn.getSE, k2, theta)
-
-		(xyDeltaNW._1 + xyDeltaNE._1 + xyDeltaSW._1 + xyDeltaSE._1,
-		 xyDeltaNW._2 + xyDeltaNE._2 + xyDeltaSW._2 + xyDeltaSE._2)
 	}
 }
@@ -47,6 +47,9 @@ import org.apache.spark.graphx._
  *  isolatedDegreeThres = degree threshold used to define 'leaf communities'.  Such leaf communities are automatically laid out in an outer radial/spiral pattern.  Default = 0
  *  communitySizeThres = community size threshold used to exclude communities with < communitySizeThres nodes from layout, in order to speed up layout of very large parent communities.
  *  					 Only used for hierarchy level > 0.  Default = 0
+ *  largeCommunityThres = size (number of nodes plus intra-community edges) at or above which a community is laid out in its own
+ *  					 partition; smaller communities are hashed into consolidationPartitions partitions (or as many as the input data has).
+ *  					 Large communities also use ForceDirected's parallel repulsion.  Default = 10000
  *  
  **/ 
 class HierarchicFDLayout extends Serializable {
@@ -65,7 +68,8 @@ class HierarchicFDLayout extends Serializable {
 	                    gravity: Double = 0.0,
 	                    isolatedDegreeThres: Int = 0,
 	                    communitySizeThres: Int = 0,
-	                    outputDir: String) = {
+	                    outputDir: String,
+	                    largeCommunityThres: Int = 10000) = {
 		
 		//TODO -- this class assumes edge weights are Longs.  If this becomes an issue for some datasets, then change expected edge weights to Doubles?
 	  		
@@ -90,6 +94,7 @@ class HierarchicFDLayout extends Serializable {
 		var level = maxHierarchyLevel
 		while (level >= 0) {
 			println("Starting Force Directed Layout for hierarchy level " + level)
+			val levelStartTime = System.currentTimeMillis()
 
 			//val lastLevelLayout = sc.parallelize(localLastLevelLayout)
 			
@@ -147,26 +152,34 @@ class HierarchicFDLayout extends Serializable {
 				}
 			)
 			
-			val groupedEdges = if (consolidationPartitions==0) {	// group intra-community edges by parent ID
-				edgesByParent.groupByKey()
-			} else {
-				edgesByParent.groupByKey(consolidationPartitions)
-			}
+			edgesByParent.cache
 			
-			// now re-map nodes by (parent ID, (node ID, numInternalNodes, degree, metaData)) and group by parent rectangle
-			val groupedNodes = if (consolidationPartitions==0) {
-				parsedNodeData.map(n => (n._2._1, (n._1, n._2._2, n._2._3, n._2._4))).groupByKey()
-			} else {
-				parsedNodeData.map(n => (n._2._1, (n._1, n._2._2, n._2._3, n._2._4))).groupByKey(consolidationPartitions)
-			}
+			// re-map nodes by (parent ID, (node ID, numInternalNodes, degree, metaData))
+			val nodesByParent = parsedNodeData.map(n => (n._2._1, (n._1, n._2._2, n._2._3, n._2._4)))
+			
+			// measure the size of each parent community, and use it to spread the layout work evenly:
+			// large communities each get their own partition, and the rest are hashed together.
+			// Only the large communities are brought back to the driver.
+			val communitySizes = nodesByParent.mapValues(n => 1L).union(edgesByParent.mapValues(e => 1L))
+				.reduceByKey(_ + _)
+			communitySizes.cache
+			val largeCommunities = communitySizes.filter(_._2 >= largeCommunityThres).collect()
+			val numPackedPartitions = if (consolidationPartitions==0) parsedNodeData.partitions.size else consolidationPartitions
+			val partitioner = CommunityPartitioner(largeCommunities, numPackedPartitions, largeCommunityThres)
+			printSkewStats(level, communitySizes, partitioner)
+			communitySizes.unpersist(blocking=false)
+			
+			// group intra-community edges and nodes by parent ID, with the same partitioning
+			val groupedEdges = edgesByParent.groupByKey(partitioner)
+			val groupedNodes = nodesByParent.groupByKey(partitioner)
 			
 			//join raw nodes with intra-community edges (key is parent ID), AND join with lastLevelLayout so have access to parent rectangle coords too
-			val joinedData = groupedNodes.leftOuterJoin(groupedEdges).map{case (parentID, (nodeData, edgesOption)) =>
+			val joinedData = groupedNodes.leftOuterJoin(groupedEdges).mapValues{case (nodeData, edgesOption) =>
 				// create a dummy edge for any communities without intra-cluster edges
 				// (ie for leaf communities containing only 1 node)
 				val edgeResults = edgesOption.getOrElse(Iterable( (-1L, -1L, 0L) ))
-				(parentID, (nodeData, edgeResults))
-			}.join(lastLevelLayout)
+				(nodeData, edgeResults)
+			}.join(lastLevelLayout, partitioner)
 			
 			val bUseNodeSizes = true //(level > 0)
 			val g = if (level > 0) gravity else 0
@@ -247,7 +260,9 @@ class HierarchicFDLayout extends Serializable {
 				lastLevelLayout = levelLayout
 			}
 			nodeDataAll.unpersist(blocking=false)
+			edgesByParent.unpersist(blocking=false)
 			edges.unpersist(blocking=false)
+			println("Finished Force Directed Layout for hierarchy level " + level + " in " + ((System.currentTimeMillis() - levelStartTime)/1000.0) + " seconds")
 			level -= 1
 		}
 		
@@ -294,6 +309,25 @@ class HierarchicFDLayout extends Serializable {
 		//		rawNodeCoords.unpersist(blocking=false)
 	}
 
+	//----------------------
+	// Print community size and partition skew metrics for a hierarchical level.  Sizes are summed
+	// per partition on the cluster, so only (count, max, total) for each partition reaches the driver
+	private def printSkewStats(level: Int, sizes: RDD[(Long, Long)], partitioner: CommunityPartitioner) = {
+		val partitionStats = sizes.map{case (id, size) => (partitioner.getPartition(id), (1L, size, size))}
+			.reduceByKey((a, b) => (a._1 + b._1, a._2 max b._2, a._3 + b._3))
+			.collect()
+		val loads = new Array[Long](partitioner.numPartitions)
+		partitionStats.foreach{case (partition, (count, max, total)) => loads(partition) = total}
+
+		val numCommunities = partitionStats.map(_._2._1).sum
+		val maxSize = if (numCommunities == 0) 0L else partitionStats.map(_._2._2).max
+		val meanSize = if (numCommunities == 0) 0.0 else loads.sum.toDouble / numCommunities
+		println("Hierarchy level " + level + ": " + numCommunities + " communities, max size " + maxSize
+			        + ", mean size " + "%.1f".format(meanSize)
+			        + ", skew (max/mean) " + "%.1f".format(if (meanSize > 0) maxSize / meanSize else 1.0))
+		println("Hierarchy level " + level + " layout partitioning: " + partitioner.describe(loads))
+	}
+
 	//----------------------
 	// For a node location, take the x,y coords and radius, and convert to a bounding box (square) contained
 	// within the circle (square diagonal == circle diameter).  To be used as a bounding box for the FD layout of the next hierarchical level communities
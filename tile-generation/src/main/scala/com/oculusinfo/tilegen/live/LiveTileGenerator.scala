@@ -47,6 +47,14 @@ class LiveTileGenerator[PT: ClassTag,
                                        binAnalytic: BinningAnalytic[PT, BT],
                                        numXBins: Int = 256,
                                        numYBins: Int = 256) {
+	/**
+	 * Generate a tile as part of a live tile request, in that request's fair-scheduler pool, and
+	 * cancellably by the request's id.
+	 */
+	def getTile (tileLevel: Int, tileX: Int, tileY: Int,
+	             jobs: LiveTileJobs, pool: String, requestId: String): TileData[BT] =
+		jobs.run(pool, requestId)(getTile(tileLevel, tileX, tileY))
+
 	def getTile (tileLevel: Int, tileX: Int, tileY: Int): TileData[BT] = {
 		// Localize some of our fields to avoid the need for serialization
 		val localPyramidScheme = pyramidScheme
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2015 Uncharted Software Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tilegen.live
+
+
+
+import java.io.IOException
+import java.util.UUID
+import java.util.concurrent.{ConcurrentHashMap, Executors, ScheduledExecutorService, ThreadFactory, TimeUnit}
+
+import scala.collection.JavaConverters._
+
+import org.apache.spark.{SparkContext, SparkException}
+
+import grizzled.slf4j.Logging
+
+
+
+/**
+ * Thrown when the Spark jobs of a live tile request are cancelled, either explicitly or because the
+ * request ran past its deadline.
+ */
+class LiveTileCancelledException (val requestId: String, message: String, cause: Throwable)
+		extends IOException(message, cause)
+
+object LiveTileJobs {
+	/** The thread-local Spark property that picks the fair-scheduler pool of a job */
+	val POOL_PROPERTY = "spark.scheduler.pool"
+
+	/** The pool in which to run requests when scheduling per layer */
+	def layerPool (layer: String): String = "live-layer-"+layer
+
+	/** The Spark property giving how many pools the requests of all users are spread across */
+	val USER_POOLS_PROPERTY = "spark.tilegen.live.userPools"
+	val DEFAULT_USER_POOLS = 16
+
+	// A single daemon thread enforces the deadlines of all requests
+	private lazy val deadlines: ScheduledExecutorService =
+		Executors.newSingleThreadScheduledExecutor(new ThreadFactory {
+			def newThread (runnable: Runnable): Thread = {
+				val thread = new Thread(runnable, "live-tile-deadlines")
+				thread.setDaemon(true)
+				thread
+			}
+		})
+}
+
+/**
+ * Runs the Spark jobs of live tile requests so that they share the cluster fairly, and can be
+ * abandoned.
+ *
+ * Each request runs in a named fair-scheduler pool - typically one per layer or one per user - so
+ * a heavy request only holds up others in its own pool.  This relies on the context using the fair
+ * scheduler (spark.scheduler.mode=FAIR); pools not configured in its allocation file are created
+ * on first use, with equal weights.  Since user names come from clients, users are hashed onto a
+ * fixed set of pools (live-users-0, live-users-1, ...), so clients can't create pools at will.
+ *
+ * The jobs of each request form a Spark job group, named by the request's id, so they can be
+ * cancelled once the client no longer wants them, and are cancelled automatically should they run
+ * past the request's deadline.  Either way, the caller gets a LiveTileCancelledException.  Request
+ * ids must therefore be unique among the requests running at any one time.
+ *
+ * @param defaultDeadline How long, in milliseconds, requests may run; None for no limit.  Requests
+ *                        may ask for an earlier deadline, but not a later one.
+ * @param numUserPools The number of pools across which users are spread; by default, the value of
+ *                     spark.tilegen.live.userPools, or 16 if that isn't set.
+ */
+class LiveTileJobs (sc: SparkContext, defaultDeadline: Option[Long] = None,
+                    numUserPools: Int = -1) extends Logging {
+	import LiveTileJobs._
+
+	private val userPools =
+		if (numUserPools > 0) numUserPools
+		else sc.getConf.getInt(USER_POOLS_PROPERTY, DEFAULT_USER_POOLS)
+	if (userPools < 1) throw new IllegalArgumentException(USER_POOLS_PROPERTY+" must be positive")
+
+	// The pool of each running request, by request id
+	private val active = new ConcurrentHashMap[String, String]()
+	// The user of each running request made for a user, by request id
+	private val owners = new ConcurrentHashMap[String, String]()
+	// Why each cancelled, but still running, request was cancelled
+	private val cancelled = new ConcurrentHashMap[String, String]()
+
+	/** The pool in which to run requests when scheduling per user */
+	def userPool (user: String): String = "live-users-"+((user.hashCode & Int.MaxValue) % userPools)
+
+	/**
+	 * Run the Spark jobs of a single request.  The jobs must be started from the calling thread.
+	 *
+	 * @param pool The fair-scheduler pool in which to run the jobs
+	 * @param requestId The id by which the request can be cancelled
+	 * @param deadline How long, in milliseconds, the request may run before being cancelled.  If
+	 *                 None, or later than our default deadline, our default deadline is used.
+	 * @param user The user for whom the request is made, if any, so it can be cancelled with the
+	 *             rest of that user's requests
+	 * @param job The work of the request
+	 */
+	def run[T] (pool: String, requestId: String = UUID.randomUUID.toString,
+	            deadline: Option[Long] = None, user: Option[String] = None) (job: => T): T = {
+		val previousPool = sc.getLocalProperty(POOL_PROPERTY)
+		sc.setLocalProperty(POOL_PROPERTY, pool)
+		sc.setJobGroup(requestId, "Live tile request "+requestId, true)
+		active.put(requestId, pool)
+		user.foreach(owners.put(requestId, _))
+		val timeout = effectiveDeadline(deadline).map(millis =>
+			deadlines.schedule(new Runnable {
+				                   def run (): Unit = cancel(requestId, "deadline of "+millis+"ms passed")
+			                   }, millis, TimeUnit.MILLISECONDS)
+		)
+
+		try {
+			job
+		} catch {
+			case e: SparkException if cancelled.containsKey(requestId) =>
+				throw new LiveTileCancelledException(
+					requestId, "Live tile request "+requestId+" cancelled: "+cancelled.get(requestId), e)
+		} finally {
+			timeout.foreach(_.cancel(false))
+			active.remove(requestId)
+			owners.remove(requestId)
+			cancelled.remove(requestId)
+			sc.clearJobGroup()
+			sc.setLocalProperty(POOL_PROPERTY, previousPool)
+		}
+	}
+
+	// Callers may shorten our deadline, but not extend it
+	private def effectiveDeadline (deadline: Option[Long]): Option[Long] =
+		(deadline ++ defaultDeadline).reduceOption(_ min _)
+
+	/**
+	 * Cancel the running jobs of a request.
+	 *
+	 * @return True if the request was running, false if it was not (or had already finished)
+	 */
+	def cancel (requestId: String): Boolean = cancel(requestId, "cancelled by client")
+
+	private def cancel (requestId: String, reason: String): Boolean = {
+		if (active.containsKey(requestId)) {
+			cancelled.putIfAbsent(requestId, reason)
+			info("Cancelling live tile request "+requestId+": "+reason)
+			sc.cancelJobGroup(requestId)
+			true
+		} else {
+			false
+		}
+	}
+
+	/**
+	 * Cancel the running jobs of every request in a pool
+	 *
+	 * @return The number of requests cancelled
+	 */
+	def cancelPool (pool: String): Int =
+		active.asScala.filter(_._2 == pool).keys.count(requestId => cancel(requestId))
+
+	/**
+	 * Cancel the running jobs of every request made for a user - for instance, all the outstanding
+	 * requests of a user who has moved on to another view.  Other users' requests sharing the
+	 * user's pool are left alone.
+	 *
+	 * @return The number of requests cancelled
+	 */
+	def cancelUser (user: String): Int =
+		owners.asScala.filter(_._2 == user).keys.count(requestId => cancel(requestId))
+
+	/** The ids of all requests currently running */
+	def activeRequests: Seq[String] = active.keySet.asScala.toSeq
+}
@@ -34,6 +34,7 @@ import java.util.Properties
 import com.oculusinfo.tilegen.tiling.{HBaseTileIO, LocalTileIO, TileIO}
 import com.oculusinfo.tilegen.util.{ArgumentParser, MissingArgumentException}
 import grizzled.slf4j.Logger
+import org.apache.spark.storage.StorageLevel
 
 /**
  * Base class for pipeline applications.  Performs parsing of a core set of arguments and instantiates
@@ -66,6 +67,9 @@ import grizzled.slf4j.Logger
  *              <dd>The start time for binning.  Format is yyyy/MM/dd.HH:mm:ss.+zzzz</dd>
  *              <dt>end</dt>
  *              <dd>The end time for binning.  Format is yyyy/MM/dd.HH:mm:ss.+zzzz</dd>
+ *              <dt>storagelevel</dt>
+ *              <dd>The storage level at which to persist data shared by several pipeline branches, or NONE.
+ *              Defaults to MEMORY_ONLY.</dd>
  *              </dl>
  */
 abstract class PipelineApp(val jobType: String, val args: Array[String]) {
@@ -122,6 +126,13 @@ abstract class PipelineApp(val jobType: String, val args: Array[String]) {
 	// Create our context
 	protected val sc = argParser.getSparkConnector().createContext(Some(s"$jobType: $name"))
 
+	// Storage level for data shared by several pipeline branches
+	protected val storageLevel: Option[StorageLevel] =
+		argParser.getStringOption("storagelevel",
+		                          "The storage level at which to persist data shared by several pipeline branches, or NONE",
+		                          Some("MEMORY_ONLY"))
+			.filter(_ != "NONE").map(StorageLevel.fromString)
+
 	// Instantiate tileIO
 	protected val tileIO: TileIO = parseHBaseArgs(hbaseParameters)
 
@@ -541,7 +541,9 @@ object PipelineOperations {
 		val tableName = PipelineOperations.getOrGenTableName(input, "heatmap_op")
 
 		val tilingTask = TilingTask(input.sqlContext, tableName, args ++ levelsProps ++ valueProps ++ properties)
-		tilingTask.doTiling(tileIO)
+		// Numeric x and y columns can be read directly as doubles, skipping generic record conversion
+		if (tilingTask.supportsColumnarTiling) tilingTask.doColumnarTiling(tileIO)
+		else tilingTask.doTiling(tileIO)
 
 		PipelineData(input.sqlContext, input.srdd, Option(tableName))
 	}
@@ -605,23 +607,11 @@ object PipelineOperations {
 
 		def withValueType[PT: ClassTag] (task: TilingTask[PT, _, _, _]): PipelineData = {
 			val typedNumeric = numeric.asInstanceOf[ExtendedNumeric[PT]]
-			val tileAnalytics = task.getTileAnalytics
-			val dataAnalytics = task.getDataAnalytics
-			val sc = input.sqlContext.sparkContext
+			// Blur binned tiles with a separable gaussian, rather than spreading each point over
+			// the full two-dimensional kernel before binning.
+			val kernel = StandardBinningFunctions.makeSeparableGaussianKernel(4, 3)
 
-			tileAnalytics.map(_.addGlobalAccumulator(sc))
-			dataAnalytics.map(_.addGlobalAccumulator(sc))
-
-			task.getLevels.foreach { levels =>
-				tileAnalytics.map(analytic => levels.map(level => analytic.addLevelAccumulator(sc, level)))
-				dataAnalytics.map(analytic => levels.map(level => analytic.addLevelAccumulator(sc, level)))
-				val kernel = StandardBinningFunctions.makeGaussianKernel(4, 3)
-
-				task.doParameterizedTiling(tileIO,
-					StandardBinningFunctions.locateIndexOverLevelsWithKernel(kernel, task.getIndexScheme, task.getTilePyramid, levels, task.getNumXBins, task.getNumYBins),
-				  StandardBinningFunctions.populateTileGaussian(kernel)(typedNumeric)
-				)
-			}
+			task.doSeparableKernelTiling(tileIO, kernel, kernel)(typedNumeric)
 
 			PipelineData(input.sqlContext, input.srdd, Option(tableName))
 		}
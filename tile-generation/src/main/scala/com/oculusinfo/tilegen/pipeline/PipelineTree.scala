@@ -26,9 +26,16 @@
  */
 package com.oculusinfo.tilegen.pipeline
 
+import java.security.MessageDigest
+
+import scala.collection.mutable.{ListBuffer, Set => MutableSet}
+import scala.util.{Failure, Success, Try}
+
 import grizzled.slf4j.Logging
+import org.apache.hadoop.fs.{FileSystem, Path}
 import org.apache.spark.sql.types.StructType
 import org.apache.spark.sql.{DataFrame, SQLContext}
+import org.apache.spark.storage.StorageLevel
 
 /**
  * Data that is passed from stage to stage of the tile pipeline.
@@ -45,14 +52,30 @@ case class PipelineData(sqlContext: SQLContext, srdd: DataFrame, tableName: Opti
  * @param name The name of the pipeline stage
  * @param op The transformation operation applied by this stage
  * @param children The children of this stage
+ * @param parameterKey Optional string that uniquely describes the operation and parameters of this stage.  Stages
+ *                     without one are never checkpointed, nor are any of their descendants.
  */
-case class PipelineStage(name: String, op: PipelineData => PipelineData, var children: List[PipelineStage] = List()) {
+case class PipelineStage(name: String, op: PipelineData => PipelineData, var children: List[PipelineStage] = List(),
+                         parameterKey: Option[String] = None) {
 	def addChild(child: PipelineStage): PipelineStage = {
 		children = children :+ child
 		child
 	}
 }
 
+/**
+ * Timing of a single pipeline stage, as reported by PipelineTree.execute
+ *
+ * @param name The name of the pipeline stage
+ * @param milliseconds The time taken by the stage's operation, or by reading its checkpoint
+ * @param fromCheckpoint True if the stage's output was read from a checkpoint rather than computed
+ * @param materialized True if the stage's output was computed within the time given.  If false, a stage whose
+ *                     output is a lazy DataFrame is only timed building its plan, and the cost of running it is
+ *                     counted against whichever later stage first runs an action on it.
+ */
+case class PipelineStageTiming(name: String, milliseconds: Long, fromCheckpoint: Boolean,
+                               materialized: Boolean = false)
+
 /**
  * Functions for executing pipelines.  A pipeline is created by building a tree of PipelineStage
  * objects and passing them to the execute function. Example:
@@ -74,6 +97,18 @@ case class PipelineStage(name: String, op: PipelineData => PipelineData, var chi
  * Pipelines.execute(parent, sqlc)
  * }}}
  *
+ * The output of any stage with more than one child is persisted while those children run, so that it isn't
+ * recomputed for each branch, and released once the last of them finishes.
+ *
+ * If a checkpoint path is given, the outputs of stages at which the pipeline branches, or which feed directly
+ * into a final stage, are also written there as Parquet files, named by a hash of the parameter keys of the stage
+ * and all its ancestors.  When a later execution finds such a file, it reads it rather than running the stage,
+ * and ancestors whose output is then not needed are not run at all.  Checkpoints are not invalidated when input
+ * data changes; remove them to force recomputation.
+ *
+ * Most stages produce lazy DataFrames, so their timings normally only cover building their plans.  When profiling,
+ * each stage's output is computed (and, if it has children, persisted for them) before its timer stops, so that the
+ * cost of each stage is counted against that stage.
  */
 object PipelineTree extends Logging {
 	/**
@@ -81,21 +116,117 @@ object PipelineTree extends Logging {
 	 *
 	 * @param start PipelineStage to start the traversal from
 	 * @param sqlContext Spark SQL context to run the jobs under
-	 * @param input Optional start data.  Data based on an empty DataFrame will be used if not set.
+	 * @param input Optional start data.  Data based on an empty DataFrame will be used if not set.  Pipelines given
+	 *              explicit start data are never checkpointed.
+	 * @param storageLevel The storage level at which to persist the output of stages shared by several children,
+	 *                     or None to never persist them automatically.
+	 * @param checkpointPath Optional directory in which to checkpoint stage outputs.
+	 * @param profile If true, compute the output of each stage as part of that stage, so that its timing covers
+	 *                running it rather than just planning it.  Outputs with children are persisted (at the given
+	 *                storage level, or MEMORY_AND_DISK if none) until those children are done.
+	 * @return The timings of each stage run, in the order in which they were run
 	 */
-	def execute(start: PipelineStage, sqlContext: SQLContext, input: Option[PipelineData] = None) = {
+	def execute(start: PipelineStage, sqlContext: SQLContext, input: Option[PipelineData] = None,
+	            storageLevel: Option[StorageLevel] = Some(StorageLevel.MEMORY_ONLY),
+	            checkpointPath: Option[String] = None, profile: Boolean = false): Seq[PipelineStageTiming] = {
 		// TODO: Should run a check for cycles here (tsort?)
-		def ex(stage: PipelineStage, result: PipelineData): Unit = {
-			logger.info(s"Executing pipeline stage [${stage.name}]")
-			val stageResult = stage.op(result)
-			stage.children.foreach(ex(_, stageResult))
+		val timings = ListBuffer[PipelineStageTiming]()
+		val persisted = MutableSet[DataFrame]()
+		val checkpointFS = checkpointPath.map(path =>
+			new Path(path).getFileSystem(sqlContext.sparkContext.hadoopConfiguration))
+
+		def ex(stage: PipelineStage, parentResult: => PipelineData, parentLineage: Option[String]): Unit = {
+			val lineage = for (parent <- parentLineage; key <- stage.parameterKey) yield
+				hash(parent + "\n" + stage.name + "\n" + key)
+			val checkpoint = for (path <- checkpointPath; id <- lineage if isCheckpointStage(stage)) yield
+				new Path(path, stage.name.replaceAll("\\W", "_") + "-" + id)
+			var release: Option[DataFrame] = None
+
+			def persistForChildren (data: PipelineData, level: StorageLevel): Unit =
+				if (!persisted.contains(data.srdd) && !data.tableName.exists(sqlContext.isCached)) {
+					logger.info(s"Persisting output of pipeline stage [${stage.name}] for ${stage.children.size} children")
+					data.srdd.persist(level)
+					persisted += data.srdd
+					release = Some(data.srdd)
+				}
+
+			// Only computed if a child needs it, so that stages above checkpoints are skipped.
+			lazy val result = {
+				val startTime = System.currentTimeMillis()
+				val (stageResult, fromCheckpoint) = checkpoint match {
+					case Some(location) if checkpointFS.get.exists(location) =>
+						logger.info(s"Reading pipeline stage [${stage.name}] from checkpoint $location")
+						(PipelineData(sqlContext, sqlContext.parquetFile(location.toString)), true)
+					case _ =>
+						logger.info(s"Executing pipeline stage [${stage.name}]")
+						val output = stage.op(parentResult)
+						(checkpoint.map(writeCheckpoint(output, checkpointFS.get, _)).getOrElse(output), false)
+				}
+				if (profile) {
+					// Run the stage now, keeping its output for its children, so they aren't charged for it
+					if (stage.children.nonEmpty)
+						persistForChildren(stageResult, storageLevel.getOrElse(StorageLevel.MEMORY_AND_DISK))
+					stageResult.srdd.count()
+				}
+				val elapsed = System.currentTimeMillis() - startTime
+				timings += PipelineStageTiming(stage.name, elapsed, fromCheckpoint, profile)
+				logger.info(s"Pipeline stage [${stage.name}] took ${elapsed}ms")
+
+				if (stage.children.size > 1 && storageLevel.isDefined)
+					persistForChildren(stageResult, storageLevel.get)
+				stageResult
+			}
+
+			if (stage.children.isEmpty) {
+				// Leaves are the outputs of the pipeline, so always run
+				result
+			} else {
+				stage.children.foreach(ex(_, result, lineage))
+			}
+
+			release.foreach{data =>
+				data.unpersist(false)
+				persisted -= data
+			}
 		}
 
 		input match {
-			case Some(i) => ex(start, i)
+			case Some(i) => ex(start, i, None)
 			case None =>
 				val emptySchema = sqlContext.jsonRDD(sqlContext.sparkContext.emptyRDD[String], new StructType(Array()))
-				ex(start, PipelineData(sqlContext, emptySchema))
+				ex(start, PipelineData(sqlContext, emptySchema), Some(""))
+		}
+
+		if (!timings.isEmpty) {
+			val report = timings.map(timing =>
+				s"${timing.name}: ${timing.milliseconds}ms" + (if (timing.fromCheckpoint) " (from checkpoint)" else "") +
+					(if (timing.materialized) "" else " (planning only, for lazy outputs)"))
+			logger.info("Pipeline stage timings:" + report.mkString("\n\t", "\n\t", ""))
 		}
+		timings.toList
 	}
+
+	// Checkpoint where the pipeline branches or is about to end, rather than after every stage of a linear chain
+	private def isCheckpointStage (stage: PipelineStage): Boolean =
+		stage.children.size > 1 || (1 == stage.children.size && stage.children.head.children.isEmpty)
+
+	private def hash (value: String): String =
+		MessageDigest.getInstance("SHA-1").digest(value.getBytes("UTF-8")).map("%02x".format(_)).mkString
+
+	// Write stage output as Parquet, and read it back so children run against the checkpoint.  Failure to write
+	// (for instance, because of column types Parquet can't store) just leaves the output uncheckpointed.
+	private def writeCheckpoint (data: PipelineData, fs: FileSystem, location: Path): PipelineData =
+		Try {
+			val temporary = new Path(location.getParent, location.getName + ".tmp")
+			fs.delete(temporary, true)
+			data.srdd.saveAsParquetFile(temporary.toString)
+			if (!fs.rename(temporary, location))
+				throw new java.io.IOException(s"Couldn't move checkpoint into place at $location")
+			PipelineData(data.sqlContext, data.sqlContext.parquetFile(location.toString))
+		} match {
+			case Success(checkpointed) => checkpointed
+			case Failure(e) =>
+				logger.warn(s"Couldn't checkpoint pipeline stage output to $location", e)
+				data
+		}
 }
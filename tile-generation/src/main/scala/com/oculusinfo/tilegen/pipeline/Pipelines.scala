@@ -31,6 +31,7 @@ import grizzled.slf4j.Logger
 import org.apache.spark.sql.SQLContext
 import org.apache.spark.sql.DataFrame
 import org.apache.spark.sql.types.StructType
+import org.apache.spark.storage.StorageLevel
 
 object Pipelines {
 
@@ -91,7 +92,7 @@ class Pipelines(val pipelineRoots: Map[String, PipelineStage] = Map.empty,
 	 * @return Updated instance of this object.
 	 */
 	def createPipeline(pipelineId: String) = {
-		Pipelines(pipelineRoots + (pipelineId -> PipelineStage("root", input => input)), pipelineOps)
+		Pipelines(pipelineRoots + (pipelineId -> PipelineStage("root", input => input, parameterKey = Some("root"))), pipelineOps)
 	}
 
 	/**
@@ -113,7 +114,7 @@ class Pipelines(val pipelineRoots: Map[String, PipelineStage] = Map.empty,
 	                     sqlContext: SQLContext) = {
 		val pipelineFunc = pipelineOps(stageType)(stageArgs)
 		findNode(parentStageId, List(pipelineRoots(pipelineId)))
-			.map(_.addChild(PipelineStage(stageId, pipelineFunc)))
+			.map(_.addChild(PipelineStage(stageId, pipelineFunc, parameterKey = Some(parameterKey(stageType, stageArgs)))))
 		this
 	}
 
@@ -132,11 +133,24 @@ class Pipelines(val pipelineRoots: Map[String, PipelineStage] = Map.empty,
 	 *
 	 * @param pipelineId Unique ID of the pipeline.
 	 * @param sqlContext Spark SQL context to run the job under.
+	 * @param storageLevel Storage level at which to persist stage outputs shared by several stages, or None to not
+	 *                     persist them.
+	 * @param checkpointPath Optional directory in which to checkpoint stage outputs, so that reruns can skip
+	 *                       stages whose type and arguments, and those of their ancestors, are unchanged.
+	 * @param profile If true, compute each stage's output as part of that stage, so that stage timings cover
+	 *                running each stage rather than just planning it.
+	 * @return The timings of each stage run.
 	 */
-	def runPipeline(pipelineId: String, sqlContext: SQLContext) = {
-		PipelineTree.execute(pipelineRoots(pipelineId), sqlContext)
+	def runPipeline(pipelineId: String, sqlContext: SQLContext,
+	                storageLevel: Option[StorageLevel] = Some(StorageLevel.MEMORY_ONLY),
+	                checkpointPath: Option[String] = None, profile: Boolean = false) = {
+		PipelineTree.execute(pipelineRoots(pipelineId), sqlContext, None, storageLevel, checkpointPath, profile)
 	}
 
+	// Stage types and arguments fully determine what a stage does, so can be used to recognize unchanged stages
+	private def parameterKey(stageType: String, stageArgs: Map[String, String]): String =
+		stageArgs.toSeq.sorted.map{case (key, value) => key + "=" + value}.mkString(stageType + "(", ", ", ")")
+
 	private def findNode(nodeId: String, toVisit: List[PipelineStage]): Option[PipelineStage] = {
 		toVisit match {
 			case x :: xs if x.name != nodeId => findNode(nodeId, xs ++ x.children)
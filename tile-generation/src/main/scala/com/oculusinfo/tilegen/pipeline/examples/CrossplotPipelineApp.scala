@@ -55,7 +55,7 @@ class CrossplotPipelineApp(args: Array[String]) extends PipelineApp("Crossplot P
 		loadStage.addChild(new PipelineStage("debug0", takeAndPrintOp(10, "LOADED ==> ")))
 			.addChild(cacheStage)
 			.addChild(heatmapStage)
-		PipelineTree.execute(loadStage, new SQLContext(sc))
+		PipelineTree.execute(loadStage, new SQLContext(sc), None, storageLevel)
 
 		// Cleanup the spark context.
 		sc.stop()
@@ -64,7 +64,7 @@ class GeoHeatmapPipelineApp(args: Array[String]) extends PipelineApp("Geo Heatma
 			.addChild(heatmapStage)
 
 		// Execute the created pipeline.
-		PipelineTree.execute(loadStage, new SQLContext(sc))
+		PipelineTree.execute(loadStage, new SQLContext(sc), None, storageLevel)
 
 		// Cleanup the spark context.
 		sc.stop()
@@ -76,3 +76,22 @@ class IntMaxAccumulatorParam extends AccumulatorParam[Int] {
 	def addInPlace(t1: Int, t2: Int): Int = t1 max t2
 	def zero(initialValue: Int) = Int.MinValue
 }
+class LongMinAccumulatorParam extends AccumulatorParam[Long] {
+	def addInPlace(t1: Long, t2: Long): Long = t1 min t2
+	def zero(initialValue: Long) = Long.MaxValue
+}
+class LongMaxAccumulatorParam extends AccumulatorParam[Long] {
+	def addInPlace(t1: Long, t2: Long): Long = t1 max t2
+	def zero(initialValue: Long) = Long.MinValue
+}
+/**
+ * Accumulates fixed-width histograms (or any other array of counts) element by element.  All
+ * arrays added must be the same length as the initial value.
+ */
+class LongArrayAccumulatorParam extends AccumulatorParam[Array[Long]] {
+	def addInPlace(t1: Array[Long], t2: Array[Long]): Array[Long] = {
+		t2.indices.foreach(i => t1(i) += t2(i))
+		t1
+	}
+	def zero(initialValue: Array[Long]) = new Array[Long](initialValue.length)
+}
@@ -28,6 +28,7 @@ package com.oculusinfo.tilegen.tiling
 import com.oculusinfo.tilegen.util.ExtendedNumeric.ExtendedDouble
 
 import scala.collection.mutable.{Map => MutableMap}
+import scala.reflect.ClassTag
 import com.oculusinfo.binning.TilePyramid
 import com.oculusinfo.binning.BinIndex
 import com.oculusinfo.binning.TileIndex
@@ -121,14 +122,123 @@ trait StandardPointBinningFunctions {
     }
 
     // Normalize the kernel
-    for (u <- 0 until kernel.length - 1) {
-      for (v <- 0 until kernel(0).length - 1) {
+    for (u <- 0 until kernel.length) {
+      for (v <- 0 until kernel(0).length) {
         kernel(u)(v) /= sum
       }
     }
     kernel
   }
 
+	/**
+	 * Returns a one-dimensional Gaussian kernel of length radius*2+1, normalized so that the outer
+	 * product of the kernel with itself is the two-dimensional kernel returned by
+	 * makeGaussianKernel with the same arguments.
+	 */
+	def makeSeparableGaussianKernel (radius: Int, sigma: Double): Array[Double] = {
+		val kernel = (-radius to radius).map(u => math.exp(-(u * u) / (2 * sigma * sigma))).toArray
+		val sum = kernel.sum
+		kernel.map(_ / sum)
+	}
+
+	/**
+	 * Determine all the tiles that need a given bin in order to apply a kernel of the given radii
+	 * to their own bins - the tile containing the bin itself, and any neighbours within the kernel
+	 * radius of it.
+	 *
+	 * @param tile The tile containing the bin
+	 * @param bin The bin, in the tile's bin coordinates
+	 * @param radiusX The horizontal radius of the kernel, in bins; must be no more than the
+	 *                width of a tile
+	 * @param radiusY The vertical radius of the kernel, in bins; must be no more than the
+	 *                height of a tile
+	 */
+	def kernelHaloTiles (tile: TileIndex, bin: BinIndex, radiusX: Int, radiusY: Int): Traversable[TileIndex] = {
+		val level = tile.getLevel
+		val pow2 = 1 << level
+		val (xBins, yBins) = (tile.getXBins, tile.getYBins)
+		val uBin = TileIndex.tileBinIndexToUniversalBinIndex(tile, bin)
+
+		val minTileX = (uBin.getX - radiusX max 0) / xBins
+		val maxTileX = (uBin.getX + radiusX min pow2 * xBins - 1) / xBins
+		// Universal bin rows go from the top down, tile rows from the bottom up
+		val minTileRow = (uBin.getY - radiusY max 0) / yBins
+		val maxTileRow = (uBin.getY + radiusY min pow2 * yBins - 1) / yBins
+
+		for (x <- minTileX to maxTileX; row <- minTileRow to maxTileRow)
+		yield new TileIndex(level, x, pow2 - row - 1, xBins, yBins)
+	}
+
+	/**
+	 * Apply a separable kernel to the bins of a tile, including contributions from bins in
+	 * neighbouring tiles within the kernel's radius, as collected via kernelHaloTiles.  The
+	 * result is the same as spreading each input bin over the kernel formed from the outer
+	 * product of the vertical and horizontal kernels - as populateTileGaussian does - and
+	 * aggregating the results, as long as the aggregation is a sum, minimum, or maximum, and the
+	 * kernel is non-negative.
+	 *
+	 * Bins to which no input bin is close enough to contribute are left out of the results.
+	 *
+	 * @param tile The tile to populate
+	 * @param bins The input bins, in universal bin coordinates, with their values
+	 * @param kernelX The horizontal kernel; must be of odd length
+	 * @param kernelY The vertical kernel; must be of odd length
+	 * @param aggregate A function to aggregate values
+	 * @param scale A function to scale a value by a kernel weight
+	 * @return The kernel-weighted values of each bin of the tile, in the tile's bin coordinates
+	 */
+	def convolveTileSeparable[T: ClassTag] (tile: TileIndex, bins: Traversable[(BinIndex, T)],
+	                                        kernelX: Array[Double], kernelY: Array[Double],
+	                                        aggregate: (T, T) => T, scale: (T, Double) => T)
+			: MutableMap[BinIndex, T] = {
+		val (xBins, yBins) = (tile.getXBins, tile.getYBins)
+		val (radiusX, radiusY) = (kernelX.length / 2, kernelY.length / 2)
+		val width = xBins + 2 * radiusX
+		val height = yBins + 2 * radiusY
+		val origin = TileIndex.tileBinIndexToUniversalBinIndex(tile, new BinIndex(0, 0))
+
+		// Lay out our input on a grid padded by the kernel radius on all sides
+		val input = new Array[T](width * height)
+		val inputSet = new Array[Boolean](width * height)
+		bins.foreach { case (bin, value) =>
+			val x = bin.getX - origin.getX + radiusX
+			val y = bin.getY - origin.getY + radiusY
+			if (0 <= x && x < width && 0 <= y && y < height) {
+				val n = x + y * width
+				input(n) = if (inputSet(n)) aggregate(input(n), value) else value
+				inputSet(n) = true
+			}
+		}
+
+		// Apply our horizontal kernel to every row, including padding rows
+		val horizontal = new Array[T](xBins * height)
+		val horizontalSet = new Array[Boolean](xBins * height)
+		for (y <- 0 until height; x <- 0 until xBins; i <- 0 until kernelX.length) {
+			val source = (x + 2 * radiusX - i) + y * width
+			if (inputSet(source)) {
+				val n = x + y * xBins
+				val value = scale(input(source), kernelX(i))
+				horizontal(n) = if (horizontalSet(n)) aggregate(horizontal(n), value) else value
+				horizontalSet(n) = true
+			}
+		}
+
+		// Then our vertical kernel to every column
+		val result = MutableMap[BinIndex, T]()
+		for (y <- 0 until yBins; x <- 0 until xBins) {
+			var value: Option[T] = None
+			for (j <- 0 until kernelY.length) {
+				val source = x + (y + 2 * radiusY - j) * xBins
+				if (horizontalSet(source)) {
+					val scaled = scale(horizontal(source), kernelY(j))
+					value = Some(value.map(aggregate(_, scaled)).getOrElse(scaled))
+				}
+			}
+			value.foreach(v => result(new BinIndex(x, y)) = v)
+		}
+		result
+	}
+
 	/**
 	 * Simple function to spread an input point over several levels of tile pyramid, ignoring
 	 * points that are out of bounds.  Also needs to collect tiles that may overlap with the index
@@ -629,6 +739,31 @@ trait StandardLinearBinningFunctions {
 	 */
 	def closeLinearBinsForTile[T] (start: BinIndex, end: BinIndex, tile: TileIndex, maxBinDistance: Int,
 	                               valuer: BinIndex => T): MutableMap[BinIndex, T] = {
+		val result = MutableMap[BinIndex, T]()
+		foreachCloseLinearBinInTile(start, end, tile, maxBinDistance) { (x, y) =>
+			val bin = new BinIndex(x, y)
+			result(bin) = valuer(bin)
+		}
+		result
+	}
+
+	/**
+	 * Visit all the bins on a single tile that are on the line between two given endpoints,
+	 * exactly as {@link #closeLinearBinsForTile} would find them, but without allocating a bin
+	 * index or a result collection per bin.  This is meant for callers that rasterize many
+	 * segments into a primitive per-tile buffer.
+	 *
+	 * @param start The start bin, in unviersal bin coordinates, of the segment
+	 * @param end The end bin, in universal bin coordinates, of the segment
+	 * @param tile The tile whose bins are desired
+	 * @param maxBinDistance The maximum distance D allowed between either endpoint and a visited
+	 *                       bin.  Distance is calculated as minimum axial distance, not euclidean
+	 *                       distance.
+	 * @param fcn A function called with the x and y coordinates, in tile coordinates, of each
+	 *            bin in the given tile on this line.
+	 */
+	def foreachCloseLinearBinInTile (start: BinIndex, end: BinIndex, tile: TileIndex, maxBinDistance: Int)
+	                                (fcn: (Int, Int) => Unit): Unit = {
 		val (steep, x0, y0, x1, y1) = initializeBresenham(start, end)
 
 		val deltax: Long = x1 - x0
@@ -656,13 +791,13 @@ trait StandardLinearBinningFunctions {
 			y = y + factor*ystep
 		}
 
-		// Get the universal bin of our lower left corner (for offsets)
-		var baseX = if (steep) tileMax.getY else tileMin.getX
-		var baseY = if (steep) tileMin.getX else tileMax.getY
+		val checkDistance = maxBinDistance != Int.MaxValue
+		val (sx, sy, ex, ey) = (start.getX, start.getY, end.getX, end.getY)
+		val (tileMinX, tileMinY) = (tileMin.getX, tileMin.getY)
 
 		// And iterate over our range
-		val result = MutableMap[BinIndex, T]()
-		Range(xx0, xx1).foreach{x =>
+		var x = xx0
+		while (x < xx1) {
 			val curY = y
 			error = error - deltay
 			if (error < 0) {
@@ -671,17 +806,17 @@ trait StandardLinearBinningFunctions {
 			}
 
 			if (minY <= curY && curY <= maxY) {
-				val uBin = if (steep) new BinIndex(curY, x) else new BinIndex(x, curY)
+				val ux = if (steep) curY else x
+				val uy = if (steep) x else curY
 
-				if (maxBinDistance == Int.MaxValue || axialDistance(uBin, start) <= maxBinDistance || axialDistance(uBin, end) <= maxBinDistance) {
-					val bin = TileIndex.universalBinIndexToTileBinIndex(tile, uBin).getBin
-					result(bin) = valuer(bin)
-				} else None
+				if (!checkDistance ||
+					    math.max(math.abs(ux - sx), math.abs(uy - sy)) <= maxBinDistance ||
+					    math.max(math.abs(ux - ex), math.abs(uy - ey)) <= maxBinDistance) {
+					fcn(ux - tileMinX, uy - tileMinY)
+				}
 			}
-			else None
+			x = x + 1
 		}
-
-		result
 	}
 }
 
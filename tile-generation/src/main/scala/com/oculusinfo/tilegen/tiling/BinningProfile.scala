@@ -0,0 +1,461 @@
+/*
+ * Copyright (c) 2015 Uncharted Software Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.oculusinfo.tilegen.tiling
+
+
+
+import java.io.FilterOutputStream
+import java.io.InputStream
+import java.io.OutputStream
+import java.util.UUID
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+
+import scala.collection.mutable.{ArrayBuffer, Map => MutableMap}
+
+import grizzled.slf4j.Logging
+
+import org.apache.spark.SparkContext
+import org.apache.spark.SparkContext._
+import org.apache.spark.scheduler.SparkListener
+import org.apache.spark.scheduler.SparkListenerJobEnd
+import org.apache.spark.scheduler.SparkListenerJobStart
+import org.apache.spark.scheduler.SparkListenerStageCompleted
+import org.apache.spark.scheduler.SparkListenerTaskEnd
+
+import org.json.JSONArray
+import org.json.JSONObject
+
+import com.oculusinfo.binning.TileData
+import com.oculusinfo.binning.TileIndex
+import com.oculusinfo.binning.io.serialization.TileSerializer
+import com.oculusinfo.binning.util.TypeDescriptor
+import com.oculusinfo.tilegen.spark.LongArrayAccumulatorParam
+import com.oculusinfo.tilegen.spark.LongMaxAccumulatorParam
+import com.oculusinfo.tilegen.spark.LongMinAccumulatorParam
+
+
+
+object BinningProfile extends Logging {
+	/** The key, within the custom metadata of a pyramid, under which its binning profile is stored */
+	val METADATA_KEY = "binningProfile"
+	/** The number of equal-width buckets into which the fraction of filled bins per tile is divided */
+	val FILL_BUCKETS = 10
+	/**
+	 * The metrics of a profile which are counted in spark transformations rather than actions, and
+	 * so may overcount when tasks are retried, speculatively executed, or recomputed
+	 */
+	val APPROXIMATE_METRICS = Seq("transform.recordsRead", "transform.recordsRejected",
+	                              "locate.recordsIn", "locate.binEntries",
+	                              "combine.tiles", "combine.denseTiles", "combine.sparseTiles",
+	                              "combine.denseRatio", "combine.binFill")
+
+	private[tiling] val PROFILE_PROPERTY = "com.oculusinfo.tilegen.binning.profile"
+	private[tiling] val MARKER_PROPERTY = "com.oculusinfo.tilegen.binning.profile.marker"
+	private val MARKER_TIMEOUT_SECONDS = 30L
+
+	// Spark provides no way to remove a listener once added, so we add one per context, and
+	// route its events to whichever profiles are running.
+	private val listeners = new java.util.WeakHashMap[SparkContext, BinningProfileListener]()
+
+	private[tiling] def getListener (sc: SparkContext): BinningProfileListener = listeners.synchronized {
+		if (!listeners.containsKey(sc)) {
+			val listener = new BinningProfileListener
+			sc.addSparkListener(listener)
+			listeners.put(sc, listener)
+		}
+		listeners.get(sc)
+	}
+
+	/**
+	 * Wait until the given listener has seen every event posted so far for the given profile.
+	 * Listener events are delivered asynchronously, but in order, so we run a trivial marker job
+	 * and wait until its end has been delivered.
+	 */
+	private[tiling] def synchronizeListener (sc: SparkContext, listener: BinningProfileListener,
+	                                         profileId: String): Unit = {
+		val latch = listener.expectMarker(profileId)
+		sc.setLocalProperty(MARKER_PROPERTY, profileId)
+		try {
+			sc.parallelize(Seq(0), 1).count
+		} finally {
+			sc.setLocalProperty(MARKER_PROPERTY, null)
+		}
+		if (!latch.await(MARKER_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+			warn("Timed out waiting for shuffle metrics for binning profile "+profileId
+				     +"; shuffle metrics may be incomplete")
+	}
+
+	/**
+	 * Get the given percentile of a sorted list of values, using the nearest-rank method.
+	 */
+	def percentile (sortedValues: Seq[Double], p: Double): Double =
+		if (sortedValues.isEmpty) 0.0
+		else {
+			val rank = math.ceil(p / 100.0 * sortedValues.size).toInt
+			sortedValues(((rank - 1) max 0) min (sortedValues.size - 1))
+		}
+
+	private[tiling] def toJSONArray[T] (values: Seq[T]): JSONArray = {
+		val result = new JSONArray()
+		values.foreach(value => result.put(value.asInstanceOf[AnyRef]))
+		result
+	}
+
+	/**
+	 * Wrap a serializer so that the size of each tile it serializes is recorded in the given
+	 * profile, as it is written - for pyramid IOs that don't otherwise expose what they write.
+	 */
+	def measuringSerializer[BT] (serializer: TileSerializer[BT], profile: LevelSetProfile): TileSerializer[BT] =
+		new MeasuringTileSerializer(serializer, profile)
+
+	private class MeasuringTileSerializer[BT] (base: TileSerializer[BT], profile: LevelSetProfile)
+			extends TileSerializer[BT] {
+		def getBinTypeDescription: TypeDescriptor = base.getBinTypeDescription
+		def deserialize (index: TileIndex, rawData: InputStream): TileData[BT] =
+			base.deserialize(index, rawData)
+		def serialize (data: TileData[BT], output: OutputStream): Unit = {
+			val stream = new CountingOutputStream(output)
+			base.serialize(data, stream)
+			profile.recordTileBytes(stream.count)
+		}
+	}
+
+	private class CountingOutputStream (output: OutputStream) extends FilterOutputStream(output) {
+		var count = 0L
+		override def write (b: Int): Unit = {
+			out.write(b)
+			count += 1
+		}
+		override def write (b: Array[Byte], off: Int, len: Int): Unit = {
+			out.write(b, off, len)
+			count += len
+		}
+	}
+}
+
+
+
+/**
+ * A profile of a binning job, collecting structured metrics about each stage of each level set
+ * binned.  Profiling is opt-in - the metrics are gathered with accumulators, which are not free.
+ *
+ * Metrics counted as tiles are written are updated in spark actions, and so are exact.  Those
+ * counted while records are transformed and tiles are created are updated in transformations,
+ * which spark may re-run on task failure, speculation, or recomputation of lost or evicted
+ * partitions; these are approximate upper bounds, and are listed in the profile, under
+ * "approximate".
+ *
+ * The job-level metrics here cover the transformation of raw records into indices and values,
+ * which is done once for all level sets; everything else is kept per level set, in
+ * {@link LevelSetProfile}.
+ *
+ * @param sc The spark context in which the job is running
+ * @param name The name of the data set being binned
+ */
+class BinningProfile (@transient sc: SparkContext, val name: String) extends Serializable {
+	/** The number of raw records read.  Approximate. */
+	val recordsRead = sc.accumulator(0L)
+	/** The number of raw records whose index or value couldn't be determined.  Approximate. */
+	val recordsRejected = sc.accumulator(0L)
+
+	@transient private val levelSetProfiles = ArrayBuffer[LevelSetProfile]()
+
+	/**
+	 * Start profiling a new level set.  All spark jobs run from the calling thread until the
+	 * returned profile is completed are attributed to this level set.
+	 */
+	def startLevelSet (levels: Seq[Int]): LevelSetProfile = {
+		levelSetProfiles.lastOption.foreach(_.complete())
+		val profile = new LevelSetProfile(sc, this, levels)
+		levelSetProfiles += profile
+		profile
+	}
+
+	def levelSets: Seq[LevelSetProfile] = levelSetProfiles.toList
+
+	def toJSON: JSONObject = {
+		val result = new JSONObject()
+		result.put("name", name)
+		result.put("approximate", BinningProfile.toJSONArray(BinningProfile.APPROXIMATE_METRICS))
+
+		val transform = new JSONObject()
+		transform.put("recordsRead", recordsRead.value)
+		transform.put("recordsRejected", recordsRejected.value)
+		result.put("transform", transform)
+
+		val levelSetsJSON = new JSONArray()
+		levelSetProfiles.foreach(levelSet => levelSetsJSON.put(levelSet.toJSON))
+		result.put("levelSets", levelSetsJSON)
+
+		result
+	}
+}
+
+
+
+/**
+ * The part of a binning profile describing a single level set, divided into the locate stage
+ * (finding the tiles and bins of each record), the combine stage (shuffling and aggregating
+ * records into tiles), and the write stage.  Shuffle metrics and per-spark-stage timings are
+ * taken from a spark listener once the level set is complete.
+ */
+class LevelSetProfile private[tiling] (@transient sc: SparkContext,
+                                       @transient val parent: BinningProfile,
+                                       val levels: Seq[Int]) extends Serializable {
+	import BinningProfile._
+
+	val id = UUID.randomUUID.toString
+
+	// Locate
+	/** The number of records located.  Approximate. */
+	val recordsIn = sc.accumulator(0L)
+	/** The number of (tile, bin) entries into which those records were located.  Approximate. */
+	val binEntries = sc.accumulator(0L)
+
+	// Combine - all approximate
+	val denseTiles = sc.accumulator(0L)
+	val sparseTiles = sc.accumulator(0L)
+	/** The number of tiles whose fraction of occupied bins falls into each of FILL_BUCKETS buckets */
+	val binFill = sc.accumulator(new Array[Long](FILL_BUCKETS))(new LongArrayAccumulatorParam)
+
+	// Write
+	val tilesWritten = sc.accumulator(0L)
+	/** The number of tiles written whose serialized size is known */
+	val tilesMeasured = sc.accumulator(0L)
+	val tileBytes = sc.accumulator(0L)
+	// Only meaningful once some tile has been measured
+	val minTileBytes = sc.accumulator(Long.MaxValue)(new LongMinAccumulatorParam)
+	val maxTileBytes = sc.accumulator(Long.MinValue)(new LongMaxAccumulatorParam)
+	/** The time taken, in milliseconds, for each batch of tiles written */
+	val writeLatencies = sc.accumulableCollection(ArrayBuffer[Double]())
+
+	@transient private val listener = getListener(sc)
+	@transient private val startTime = System.currentTimeMillis()
+	@transient private var endTime: Option[Long] = None
+	@transient private var stages: Seq[StageProfile] = Seq()
+
+	sc.setLocalProperty(PROFILE_PROPERTY, id)
+
+	/**
+	 * Record the creation of a tile.  Called on the workers.
+	 *
+	 * @param filledBins The number of bins in the tile with data
+	 * @param totalBins The total number of bins in the tile
+	 * @param dense Whether the tile was stored densely
+	 */
+	def recordTile (filledBins: Int, totalBins: Int, dense: Boolean): Unit = {
+		if (dense) denseTiles += 1L
+		else sparseTiles += 1L
+		val fill = if (totalBins > 0) filledBins.toDouble / totalBins else 0.0
+		val histogram = new Array[Long](FILL_BUCKETS)
+		histogram(((fill * FILL_BUCKETS).toInt max 0) min (FILL_BUCKETS - 1)) = 1L
+		binFill += histogram
+	}
+
+	/**
+	 * Record the writing of a tile, and its serialized size, as written.  Called on the workers,
+	 * from within spark actions.
+	 */
+	def recordTileWrite (bytes: Long): Unit = {
+		tilesWritten += 1L
+		recordTileBytes(bytes)
+	}
+
+	/**
+	 * Record the serialized size of a tile, as written, when the tile itself is counted
+	 * separately.  Called on the workers, from within spark actions.
+	 */
+	def recordTileBytes (bytes: Long): Unit = {
+		tilesMeasured += 1L
+		tileBytes += bytes
+		minTileBytes += bytes
+		maxTileBytes += bytes
+	}
+
+	/**
+	 * Mark this level set as complete, gathering spark stage metrics from the listener.  Further
+	 * calls have no effect.
+	 */
+	def complete (): Unit =
+		if (endTime.isEmpty) {
+			endTime = Some(System.currentTimeMillis())
+			sc.setLocalProperty(PROFILE_PROPERTY, null)
+			synchronizeListener(sc, listener, id)
+			stages = listener.release(id).filter(_.tasks > 0)
+		}
+
+	def toJSON: JSONObject = {
+		val result = new JSONObject()
+		result.put("levels", toJSONArray(levels))
+		result.put("elapsedMs", endTime.getOrElse(System.currentTimeMillis()) - startTime)
+
+		val locate = new JSONObject()
+		locate.put("recordsIn", recordsIn.value)
+		locate.put("binEntries", binEntries.value)
+		result.put("locate", locate)
+
+		val tiles = denseTiles.value + sparseTiles.value
+		val combine = new JSONObject()
+		combine.put("shuffleRecordsWritten", stages.map(_.shuffleRecordsWritten).sum)
+		combine.put("shuffleBytesWritten", stages.map(_.shuffleBytesWritten).sum)
+		combine.put("shuffleRecordsRead", stages.map(_.shuffleRecordsRead).sum)
+		combine.put("shuffleBytesRead", stages.map(_.shuffleBytesRead).sum)
+		combine.put("tiles", tiles)
+		combine.put("denseTiles", denseTiles.value)
+		combine.put("sparseTiles", sparseTiles.value)
+		combine.put("denseRatio", if (tiles > 0) denseTiles.value.toDouble / tiles else 0.0)
+		combine.put("binFill", toJSONArray(binFill.value))
+		result.put("combine", combine)
+
+		val written = tilesWritten.value
+		val latencies = writeLatencies.value.sorted
+		val write = new JSONObject()
+		write.put("tiles", written)
+		write.put("bytes", tileBytes.value)
+		val measured = tilesMeasured.value
+		if (measured > 0) {
+			write.put("meanBytesPerTile", tileBytes.value.toDouble / measured)
+			write.put("minBytesPerTile", minTileBytes.value)
+			write.put("maxBytesPerTile", maxTileBytes.value)
+		}
+		write.put("batches", latencies.size)
+		if (latencies.nonEmpty) {
+			val latency = new JSONObject()
+			latency.put("p50", percentile(latencies, 50))
+			latency.put("p90", percentile(latencies, 90))
+			latency.put("p99", percentile(latencies, 99))
+			latency.put("max", latencies.last)
+			write.put("batchLatencyMs", latency)
+		}
+		result.put("write", write)
+
+		val stagesJSON = new JSONArray()
+		stages.foreach(stage => stagesJSON.put(stage.toJSON))
+		result.put("sparkStages", stagesJSON)
+
+		result
+	}
+}
+
+
+
+/**
+ * Metrics for a single spark stage run as part of a profiled level set
+ */
+private[tiling] class StageProfile (val stageId: Int) {
+	var name = ""
+	var tasks = 0
+	var durationMs = 0L
+	var executorRunTimeMs = 0L
+	var shuffleRecordsWritten = 0L
+	var shuffleBytesWritten = 0L
+	var shuffleRecordsRead = 0L
+	var shuffleBytesRead = 0L
+
+	def toJSON: JSONObject = {
+		val result = new JSONObject()
+		result.put("id", stageId)
+		result.put("name", name)
+		result.put("tasks", tasks)
+		result.put("durationMs", durationMs)
+		result.put("executorRunTimeMs", executorRunTimeMs)
+		result.put("shuffleRecordsWritten", shuffleRecordsWritten)
+		result.put("shuffleBytesWritten", shuffleBytesWritten)
+		result.put("shuffleRecordsRead", shuffleRecordsRead)
+		result.put("shuffleBytesRead", shuffleBytesRead)
+		result
+	}
+}
+
+
+
+/**
+ * Collects task metrics for the stages of any jobs tagged (through the local property
+ * BinningProfile.PROFILE_PROPERTY) with the id of a level set profile.
+ */
+private[tiling] class BinningProfileListener extends SparkListener {
+	import BinningProfile._
+
+	// stage id -> (profile id, stage metrics)
+	private val stages = MutableMap[Int, (String, StageProfile)]()
+	private val markers = MutableMap[String, CountDownLatch]()
+	private val markerJobs = MutableMap[Int, String]()
+
+	def expectMarker (profileId: String): CountDownLatch = synchronized {
+		markers.getOrElseUpdate(profileId, new CountDownLatch(1))
+	}
+
+	/** Get the metrics of all stages run for the given profile, and stop tracking them */
+	def release (profileId: String): Seq[StageProfile] = synchronized {
+		val released = stages.filter(_._2._1 == profileId)
+		stages --= released.keys
+		released.values.map(_._2).toList.sortBy(_.stageId)
+	}
+
+	override def onJobStart (jobStart: SparkListenerJobStart): Unit = synchronized {
+		val properties = Option(jobStart.properties)
+		properties.flatMap(p => Option(p.getProperty(MARKER_PROPERTY))) match {
+			case Some(profileId) => markerJobs(jobStart.jobId) = profileId
+			case None =>
+				properties.flatMap(p => Option(p.getProperty(PROFILE_PROPERTY))).foreach(profileId =>
+					jobStart.stageIds.foreach(stageId =>
+						if (!stages.contains(stageId)) stages(stageId) = (profileId, new StageProfile(stageId))
+					)
+				)
+		}
+	}
+
+	override def onTaskEnd (taskEnd: SparkListenerTaskEnd): Unit = synchronized {
+		for ((profileId, stage) <- stages.get(taskEnd.stageId);
+		     metrics <- Option(taskEnd.taskMetrics)) {
+			stage.tasks += 1
+			stage.executorRunTimeMs += metrics.executorRunTime
+			metrics.shuffleWriteMetrics.foreach{writeMetrics =>
+				stage.shuffleRecordsWritten += writeMetrics.shuffleRecordsWritten
+				stage.shuffleBytesWritten += writeMetrics.shuffleBytesWritten
+			}
+			metrics.shuffleReadMetrics.foreach{readMetrics =>
+				stage.shuffleRecordsRead += readMetrics.recordsRead
+				stage.shuffleBytesRead += readMetrics.totalBytesRead
+			}
+		}
+	}
+
+	override def onStageCompleted (stageCompleted: SparkListenerStageCompleted): Unit = synchronized {
+		val info = stageCompleted.stageInfo
+		stages.get(info.stageId).foreach{case (profileId, stage) =>
+			stage.name = info.name
+			for (start <- info.submissionTime; end <- info.completionTime)
+				stage.durationMs += end - start
+		}
+	}
+
+	override def onJobEnd (jobEnd: SparkListenerJobEnd): Unit = synchronized {
+		markerJobs.remove(jobEnd.jobId).foreach(profileId =>
+			markers.remove(profileId).foreach(_.countDown())
+		)
+	}
+}
@@ -28,10 +28,12 @@ package com.oculusinfo.tilegen.tiling
 
 import java.io.ByteArrayInputStream
 
+import scala.collection.JavaConverters._
 import scala.collection.mutable.{HashSet => MutableSet}
 
 import org.apache.hadoop.hbase.TableName
-import org.apache.hadoop.hbase.client.{ConnectionFactory, Result}
+import org.apache.hadoop.fs.Path
+import org.apache.hadoop.hbase.client.{ConnectionFactory, HTable, Result}
 
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable
 import org.apache.hadoop.hbase.mapred.TableOutputFormat
@@ -43,6 +45,7 @@ import org.apache.spark.SparkContext
 import org.apache.spark.SparkContext._
 import org.apache.spark.rdd.RDD
 
+import com.oculusinfo.binning.TileIndex
 import com.oculusinfo.binning.TilePyramid
 import com.oculusinfo.binning.TileData
 import com.oculusinfo.binning.io.impl.{HBaseSlicedPyramidIO, HBasePyramidIO}
@@ -64,11 +67,17 @@ import com.oculusinfo.tilegen.util.ArgumentParser
  *
  * In the case of HBase, this requires overriding small portions of several
  * basic TileIO methods - which essentially requires us to simply rewrite them.
+ *
+ * If a bulk load directory is given, tiles are not written through the
+ * region servers at all; instead, they are written directly into HFiles in a
+ * subdirectory of that directory, and then handed to HBase's bulk load API.
+ * The bulk load directory must be on the same file system as HBase.
  */
 class HBaseTileIO ( zookeeperQuorum: String,
                     zookeeperPort: String,
                     hbaseMaster: String,
-										slicing: Boolean = false) extends TileIO {
+										slicing: Boolean = false,
+                    bulkLoadDirectory: Option[String] = None) extends TileIO {
 	// We are going to need access to HBasePyramidIO constants and static
 	// methods, for column names, and row ID formation and parsing.
 	import com.oculusinfo.binning.io.impl.HBasePyramidIO._
@@ -82,6 +91,33 @@ class HBaseTileIO ( zookeeperQuorum: String,
 		if (slicing) new HBaseSlicedPyramidIO(zookeeperQuorum, zookeeperPort, hbaseMaster)
 		else new HBasePyramidIO(zookeeperQuorum, zookeeperPort, hbaseMaster)
 
+	/**
+	 * Our standard string row keys sort by level, then x, then y, so sorted writes need to use
+	 * that order too for each partition to cover a contiguous range of rows.  Writes to tables
+	 * with other row key layouts use the order of that layout instead (see
+	 * {@link #getWriteOrderKey(RowKeyLayout)}).
+	 */
+	override def getWriteOrderKey: TileIndex => Long = getWriteOrderKey(RowKeyLayout.STRING)
+
+	/**
+	 * Get the within-level order key that sorts tiles into the row key order of the given layout
+	 */
+	def getWriteOrderKey (layout: RowKeyLayout): TileIndex => Long =
+		(index: TileIndex) => layout.getOrderKey(index)
+
+	/**
+	 * Convert the range boundaries of a write partitioner into HBase row keys, so that a new
+	 * table can be pre-split to match the ranges we are about to write.
+	 *
+	 * @param layout The row key layout of the table to split; the partitioner must have been
+	 *               created using the write order key of the same layout.
+	 */
+	def getSplitKeys (partitioner: TileRangePartitioner, layout: RowKeyLayout): Array[Array[Byte]] =
+		partitioner.bounds.distinct.map{case (level, key) => layout.getRowKey(level, key)}
+
+	def getSplitKeys (partitioner: TileRangePartitioner): Array[Array[Byte]] =
+		getSplitKeys(partitioner, RowKeyLayout.STRING)
+
 
 
 
@@ -151,15 +187,19 @@ class HBaseTileIO ( zookeeperQuorum: String,
 	                                       tileAnalytics: Option[AnalysisDescription[TileData[BT], AT]],
 	                                       dataAnalytics: Option[AnalysisDescription[_, DT]],
 	                                       name: String = "unknown",
-	                                       description: String = "unknown"): Unit = {
+	                                       description: String = "unknown",
+	                                       profile: Option[LevelSetProfile] = None): Unit = {
+		if (bulkLoadDirectory.isDefined) {
+			bulkWriteTileSet(pyramider, baseLocation, data, serializer, tileAnalytics, dataAnalytics,
+			                 name, description, profile)
+			return
+		}
+
 		val pyramidIO = getPyramidIO
 
 		// We need some TableOutputFormat constants in here.
 		import org.apache.hadoop.hbase.mapred.TableOutputFormat._
 
-		// Do any needed table initialization
-		pyramidIO.initializeForWrite(baseLocation)
-
 		// Record and report the total number of tiles we write, because it's
 		// basically free and easy
 		val tileCount = data.context.accumulator(0)
@@ -169,34 +209,6 @@ class HBaseTileIO ( zookeeperQuorum: String,
 		val xbins = data.context.accumulator(0)(new IntMaxAccumulatorParam)
 		val ybins = data.context.accumulator(0)(new IntMaxAccumulatorParam)
 
-    val putter = pyramidIO.getPutter
-
-		// Turn each tile into a table row, noting mins, maxes, and counts as
-		// we go.  Note that none of the min/max/count accumulation is actually
-		// done until the file is writting - this just sets it up, it doesn't
-		// run it
-		val HBaseTiles = data.mapPartitions(iter =>
-			{
-				iter.map(tile =>
-					{
-						val index = tile.getDefinition()
-						val level = index.getLevel()
-
-						// Update count, level bounds, tile sizes
-						tileCount += 1
-						levelSet += level
-						xbins += index.getXBins
-						ybins += index.getYBins
-
-						val put = putter.getPutForTile(tile, serializer)
-
-						(new ImmutableBytesWritable, put)
-					}
-				)
-			}
-		)
-
-
 		// Configure our write job
 		val configuration = pyramidIO.getConfiguration()
 
@@ -204,10 +216,49 @@ class HBaseTileIO ( zookeeperQuorum: String,
 		jobConfig.setOutputFormat(classOf[TableOutputFormat])
 		jobConfig.set(TableOutputFormat.OUTPUT_TABLE, baseLocation)
 
-		// Write tiles.
-		// This also populates the count, min, and max accumulators set up
-		// above.
-		HBaseTiles.saveAsHadoopDataset(jobConfig)
+		// Sort our tiles into the row key order of the table (whether new or pre-existing), and,
+		// if the table is new, pre-split it to match the ranges each partition will write.
+		val layout = pyramidIO.getRowKeyLayout(baseLocation)
+		withOrderedTiles(data, getWriteOrderKey(layout)){(orderedData, partitioner) =>
+			partitioner match {
+				case Some(p) => pyramidIO.initializeForWrite(baseLocation, getSplitKeys(p, layout))
+				case None => pyramidIO.initializeForWrite(baseLocation)
+			}
+			// Write with the row key layout of the table
+			val putter = pyramidIO.getPutter(baseLocation)
+
+			// Turn each tile into a table row, noting mins, maxes, and counts as
+			// we go.  Note that none of the min/max/count accumulation is actually
+			// done until the file is writting - this just sets it up, it doesn't
+			// run it
+			val HBaseTiles = orderedData.mapPartitions(iter =>
+				{
+					iter.map(tile =>
+						{
+							val index = tile.getDefinition()
+							val level = index.getLevel()
+
+							// Update count, level bounds, tile sizes
+							tileCount += 1
+							levelSet += level
+							xbins += index.getXBins
+							ybins += index.getYBins
+
+							val put = putter.getPutForTile(tile, serializer)
+							profile.foreach(_.recordTileWrite(
+								                put.getFamilyCellMap.values.asScala.flatMap(_.asScala).map(_.getValueLength.toLong).sum))
+
+							(new ImmutableBytesWritable, put)
+						}
+					)
+				}
+			)
+
+			// Write tiles.
+			// This also populates the count, min, and max accumulators set up
+			// above.
+			HBaseTiles.saveAsHadoopDataset(jobConfig)
+		}
 		println("Input tiles: "+tileCount)
 		println("Input levels: "+levelSet.value)
 		println("X bins: "+xbins.value)
@@ -225,9 +276,79 @@ class HBaseTileIO ( zookeeperQuorum: String,
 											tileAnalytics, dataAnalytics,
 											xbins.value, ybins.value,
 											name, description)
+		recordProfile(metaData, profile)
 		writeMetaData(baseLocation, metaData)
 
 	}
+
+	/*
+	 * Write a tile set by writing HFiles, then bulk-loading them into our table.
+	 */
+	private def bulkWriteTileSet[BT, AT, DT] (pyramider: TilePyramid,
+	                                          baseLocation: String,
+	                                          data: RDD[TileData[BT]],
+	                                          serializer: TileSerializer[BT],
+	                                          tileAnalytics: Option[AnalysisDescription[TileData[BT], AT]],
+	                                          dataAnalytics: Option[AnalysisDescription[_, DT]],
+	                                          name: String,
+	                                          description: String,
+	                                          profile: Option[LevelSetProfile]): Unit = {
+		val pyramidIO = getPyramidIO
+		val configuration = pyramidIO.getConfiguration()
+
+		// Record the levels we write, and tile sizes
+		val levelSet = data.context.accumulableCollection(MutableSet[Int]())
+		val xbins = data.context.accumulator(0)(new IntMaxAccumulatorParam)
+		val ybins = data.context.accumulator(0)(new IntMaxAccumulatorParam)
+
+		// HFiles must be written in the row key order of the table they are loaded into, whether
+		// it already exists, or will be created below.
+		val layout = pyramidIO.getRowKeyLayout(baseLocation)
+
+		val hfileDirectory = new Path(bulkLoadDirectory.get, baseLocation+"-"+System.currentTimeMillis()).toString
+		println("Writing HFiles to "+hfileDirectory)
+		val (tileCount, partitioner) =
+			HFileTileWriter.writeHFiles(data, serializer, pyramidIO.getPutter(baseLocation), hfileDirectory, configuration,
+			                            getWriteOrderKey(layout),
+			                            (tile: TileData[BT], bytes: Long) => {
+				                            val index = tile.getDefinition()
+				                            levelSet += index.getLevel()
+				                            xbins += index.getXBins
+				                            ybins += index.getYBins
+				                            profile.foreach(_.recordTileWrite(bytes))
+			                            })
+		println("Input tiles: "+tileCount)
+		println("Input levels: "+levelSet.value)
+		println("X bins: "+xbins.value)
+		println("Y bins: "+ybins.value)
+
+		// Pre-split new tables along the ranges we wrote, so each HFile lands in as few regions as
+		// possible, then load our files.
+		pyramidIO.initializeForWrite(baseLocation, getSplitKeys(partitioner, layout))
+		println("Bulk loading HFiles into "+baseLocation)
+		val connection = ConnectionFactory.createConnection(configuration)
+		try {
+			val table = connection.getTable(TableName.valueOf(baseLocation)).asInstanceOf[HTable]
+			try {
+				HFileTileWriter.bulkLoad(hfileDirectory, table, configuration)
+			} finally {
+				table.close()
+			}
+		} finally {
+			connection.close()
+		}
+		val hfilePath = new Path(hfileDirectory)
+		hfilePath.getFileSystem(configuration).delete(hfilePath, true)
+
+		val metaData =
+			combineMetaData(pyramider, baseLocation,
+			                levelSet.value.toSet,
+			                tileAnalytics, dataAnalytics,
+			                xbins.value, ybins.value,
+			                name, description)
+		recordProfile(metaData, profile)
+		writeMetaData(baseLocation, metaData)
+	}
 }
 
 
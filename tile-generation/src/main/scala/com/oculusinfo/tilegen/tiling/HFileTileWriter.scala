@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2015 Uncharted Software Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.oculusinfo.tilegen.tiling
+
+
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable.{Map => MutableMap}
+
+import org.apache.hadoop.conf.Configuration
+import org.apache.hadoop.fs.Path
+import org.apache.hadoop.hbase.{Cell, CellUtil, KeyValue}
+import org.apache.hadoop.hbase.client.HTable
+import org.apache.hadoop.hbase.io.hfile.{CacheConfig, HFileContextBuilder}
+import org.apache.hadoop.hbase.mapreduce.LoadIncrementalHFiles
+import org.apache.hadoop.hbase.regionserver.{BloomType, StoreFile}
+import org.apache.hadoop.hbase.util.Bytes
+
+import org.apache.spark.SerializableWritable
+import org.apache.spark.rdd.RDD
+
+import com.oculusinfo.binning.TileData
+import com.oculusinfo.binning.TileIndex
+import com.oculusinfo.binning.io.impl.HBasePyramidIO.HBaseTilePutter
+import com.oculusinfo.binning.io.serialization.TileSerializer
+
+
+
+/**
+ * Writes tiles directly into HBase HFiles, bypassing the region servers' write-ahead log and
+ * memstore, so that they can then be handed to HBase's bulk-load API.
+ *
+ * Writing the HFiles only needs a file system, not a running HBase cluster; only
+ * {@link #bulkLoad} needs a cluster.
+ */
+object HFileTileWriter {
+	/**
+	 * Write a set of tiles into HFiles under the given directory.  Tiles are sorted into row key
+	 * order first; each resulting partition then writes one HFile per column family, laid out
+	 * as bulk loading expects (outputDirectory/&lt;family&gt;/&lt;file&gt;).
+	 *
+	 * @param tiles The tiles to write
+	 * @param serializer The serializer with which to serialize each tile
+	 * @param putter The putter defining how each tile is laid out into columns - i.e., the same
+	 *               putter a standard write would use
+	 * @param outputDirectory The directory into which to write HFiles.  This directory should not
+	 *                        already exist.
+	 * @param configuration The configuration with which to access the output file system and
+	 *                      write the HFiles
+	 * @param keyFcn The within-level order key that sorts tiles into the row key order of the
+	 *               putter's layout
+	 * @param onTile A function called with each tile as it is written, and the number of value
+	 *               bytes written for it, to allow callers to collect statistics
+	 * @return The number of tiles written, and the partitioner used to sort them into ranges of
+	 *         row keys
+	 */
+	def writeHFiles[T] (tiles: RDD[TileData[T]],
+	                    serializer: TileSerializer[T],
+	                    putter: HBaseTilePutter,
+	                    outputDirectory: String,
+	                    configuration: Configuration,
+	                    keyFcn: TileIndex => Long = TileSorter.rowMajorKey,
+	                    onTile: (TileData[T], Long) => Unit = (tile: TileData[T], bytes: Long) => ()):
+			(Long, TileRangePartitioner) = {
+		val sc = tiles.context
+		val confBC = sc.broadcast(new SerializableWritable(configuration))
+		val tileCount = sc.accumulator(0L)
+		val partitioner = TileSorter.withSortedTiles(tiles, keyFcn){(sortedTiles, partitioner) =>
+			sortedTiles.foreachPartition{iter =>
+				val conf = confBC.value.value
+				val outputPath = new Path(outputDirectory)
+				val fs = outputPath.getFileSystem(conf)
+				val cacheConf = new CacheConfig(conf)
+				val context = new HFileContextBuilder().build()
+				val writers = MutableMap[String, StoreFile.Writer]()
+				def getWriter (family: Array[Byte]): StoreFile.Writer =
+					writers.getOrElseUpdate(Bytes.toString(family),
+						new StoreFile.WriterBuilder(conf, cacheConf, fs)
+							.withOutputDir(new Path(outputPath, Bytes.toString(family)))
+							.withBloomType(BloomType.NONE)
+							.withComparator(KeyValue.COMPARATOR)
+							.withFileContext(context)
+							.build())
+
+				try {
+					iter.foreach{tile =>
+						val put = putter.getPutForTile(tile, serializer)
+						// Within a row, cells must be written in column order too.
+						val cells: Seq[Cell] = put.getFamilyCellMap.values.asScala.flatMap(_.asScala).toSeq
+						cells.sortWith((a, b) => KeyValue.COMPARATOR.compare(a, b) < 0).foreach{cell =>
+							val writer = getWriter(CellUtil.cloneFamily(cell))
+							writer.append(cell)
+							writer.trackTimestamps(cell)
+						}
+						onTile(tile, cells.map(_.getValueLength.toLong).sum)
+						tileCount += 1L
+					}
+				} finally {
+					val now = Bytes.toBytes(System.currentTimeMillis())
+					writers.values.foreach{writer =>
+						writer.appendFileInfo(StoreFile.BULKLOAD_TIME_KEY, now)
+						writer.appendFileInfo(StoreFile.MAJOR_COMPACTION_KEY, Bytes.toBytes(true))
+						writer.appendFileInfo(StoreFile.EXCLUDE_FROM_MINOR_COMPACTION_KEY, Bytes.toBytes(false))
+						writer.appendTrackedTimestampsToMetadata()
+						writer.close()
+					}
+				}
+			}
+			partitioner
+		}
+		confBC.unpersist(false)
+
+		(tileCount.value, partitioner)
+	}
+
+	/**
+	 * Hand a directory of HFiles, as written by {@link #writeHFiles}, to HBase for bulk loading
+	 * into the given table.  HFiles spanning region boundaries are split by HBase as needed.
+	 * Successfully loaded files are moved into HBase's storage, so the directory is left empty.
+	 */
+	def bulkLoad (hfileDirectory: String, table: HTable, configuration: Configuration): Unit =
+		new LoadIncrementalHFiles(configuration).doBulkLoad(new Path(hfileDirectory), table)
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2015 Uncharted Software Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tilegen.tiling
+
+
+
+import java.util.{ArrayList => JavaArrayList}
+
+import grizzled.slf4j.Logging
+
+import scala.collection.JavaConverters._
+import scala.reflect.ClassTag
+import scala.util.Try
+
+import org.apache.spark.SparkContext._
+import org.apache.spark.rdd.RDD
+import org.apache.spark.storage.StorageLevel
+import org.apache.spark.streaming.dstream.DStream
+
+import com.oculusinfo.binning.TileData
+import com.oculusinfo.binning.TileData.StorageType
+import com.oculusinfo.binning.TilePyramid
+import com.oculusinfo.binning.impl.DenseTileData
+import com.oculusinfo.binning.impl.SparseTileData
+import com.oculusinfo.binning.io.serialization.TileSerializer
+import com.oculusinfo.binning.metadata.PyramidMetaData
+import com.oculusinfo.tilegen.tiling.analytics.AnalysisDescription
+import com.oculusinfo.tilegen.tiling.analytics.BinningAnalytic
+import com.oculusinfo.tilegen.tiling.analytics.UnfinishedBinningAnalytic
+
+
+
+object IncrementalTileUpdater {
+	/**
+	 * Pyramid-level metadata values that are merged with their existing values on each update,
+	 * rather than replaced, along with the function used to merge them.
+	 */
+	val MERGED_EXTREMA: Map[String, (Double, Double) => Double] =
+		Map("minimum" -> ((a: Double, b: Double) => a min b),
+		    "maximum" -> ((a: Double, b: Double) => a max b))
+
+	/**
+	 * Merge the pyramid-level extrema of the metadata from before an update into the metadata
+	 * written by the update, which only reflects the tiles the update changed.
+	 *
+	 * @return True if any value was changed
+	 */
+	def mergeExtrema (oldMetaData: PyramidMetaData, newMetaData: PyramidMetaData,
+	                  levels: Seq[Int]): Boolean = {
+		def getValue (metaData: PyramidMetaData, path: Seq[String]): Option[Any] =
+			Option(metaData.getRawData.optJSONObject("meta"))
+				.flatMap(meta => Option(meta.optJSONObject(path(0))))
+				.flatMap(group => Option(group.opt(path(1))))
+
+		val keys = "global" +: levels.map(_.toString)
+		var changed = false
+		for (key <- keys; (name, merge) <- MERGED_EXTREMA) {
+			val path = Seq(key, name)
+			(getValue(oldMetaData, path), getValue(newMetaData, path)) match {
+				case (Some(oldValue: Number), Some(newValue: Number)) =>
+					val merged = merge(oldValue.doubleValue, newValue.doubleValue)
+					if (merged != newValue.doubleValue) {
+						newMetaData.setCustomMetaData(oldValue, path: _*)
+						changed = true
+					}
+				case (Some(oldValue: Number), None) =>
+					newMetaData.setCustomMetaData(oldValue, path: _*)
+					changed = true
+				case _ => {}
+			}
+		}
+		changed
+	}
+
+	// Copy an existing tile, so as not to modify tiles the tile IO may still be holding
+	private[tiling] def copyTile[BT] (tile: TileData[BT]): TileData[BT] = {
+		val index = tile.getDefinition
+		val copy: TileData[BT] = tile match {
+			case sparse: SparseTileData[BT] =>
+				val result = new SparseTileData[BT](index, sparse.getDefaultValue)
+				sparse.getData.asScala.foreach(binValue =>
+					result.setBin(binValue.getFirst.getX, binValue.getFirst.getY, binValue.getSecond)
+				)
+				result
+			case _ =>
+				new DenseTileData[BT](index, tile.getDefaultValue,
+				                      new JavaArrayList[BT](DenseTileData.getData(tile)))
+		}
+		Option(tile.getMetaDataProperties).foreach(_.asScala.foreach(property =>
+			copy.setMetaData(property, tile.getMetaData(property))
+		))
+		copy
+	}
+
+	// Create an empty tile to hold a delta for which there is no existing tile
+	private[tiling] def createTile[PT, BT] (delta: TileData[PT], binAnalytic: BinningAnalytic[PT, BT]): TileData[BT] = {
+		val index = delta.getDefinition
+		val numValues = delta.asInstanceOf[SparseTileData[PT]].getData.asScala.size
+		val defaultBinValue = binAnalytic.finish(binAnalytic.defaultProcessedValue)
+		if (numValues > index.getXBins*index.getYBins/2) new DenseTileData[BT](index, defaultBinValue)
+		else new SparseTileData[BT](index, defaultBinValue)
+	}
+}
+
+/**
+ * Fold newly arrived records into an already-written tile pyramid, without rebinning the whole
+ * data set.
+ *
+ * Each batch of records is binned into sparse delta tiles; only the existing tiles those deltas
+ * touch are read back, each touched bin is aggregated with its delta, and only the changed tiles
+ * are written back out.  Pyramid-level minimum and maximum metadata are merged with their prior
+ * values.
+ *
+ * This is only correct for associative binning analytics whose default processed value is an
+ * identity for aggregation (sums, counts, minima, maxima, and the like).  Because unchanged tiles
+ * aren't re-examined, merged extrema are exact only when bin values move monotonically (e.g.,
+ * sums of non-negative values); otherwise they are bounds on the true values.  Data analytics are
+ * not supported.
+ *
+ * @param tileIO The IO through which to read and write tiles
+ * @param pyramidId The id of the pyramid to update
+ * @param tileScheme The tile pyramid describing the pyramid's projection
+ * @param indexScheme The scheme by which to interpret record indices
+ * @param indexFcn A function to get the index of each record
+ * @param valueFcn A function to get the value of each record
+ * @param binAnalytic The analytic used to aggregate bin values
+ * @param unfinish A function to convert a finished, stored bin value back into a value that can
+ *                 be aggregated by the bin analytic; the inverse of the analytic's finish
+ * @param serializer The serializer with which tiles are read and written
+ * @param tileAnalytics Optional analytics to apply to each changed tile
+ * @param levels The levels of the pyramid to update
+ */
+class IncrementalTileUpdater[RT, IT: ClassTag, PT: ClassTag, AT: ClassTag, BT]
+	(tileIO: TileIO,
+	 pyramidId: String,
+	 tileScheme: TilePyramid,
+	 indexScheme: IndexScheme[IT],
+	 indexFcn: RT => Try[IT],
+	 valueFcn: RT => Try[PT],
+	 binAnalytic: BinningAnalytic[PT, BT],
+	 unfinish: BT => PT,
+	 serializer: TileSerializer[BT],
+	 tileAnalytics: Option[AnalysisDescription[TileData[BT], AT]],
+	 levels: Seq[Int],
+	 xBins: Int = 256,
+	 yBins: Int = 256,
+	 name: String = "unknown",
+	 description: String = "unknown")
+		extends Serializable with Logging
+{
+	import IncrementalTileUpdater._
+
+	private val deltaAnalytic = new UnfinishedBinningAnalytic[PT](binAnalytic)
+	@transient private var accumulatorsAdded = false
+
+	/**
+	 * Apply each batch of records from a stream to the pyramid as it arrives.
+	 */
+	def updateFromStream (stream: DStream[RT]): Unit =
+		stream.foreachRDD(batch => update(batch))
+
+	/**
+	 * Apply a batch of records to the pyramid.
+	 *
+	 * @return The number of tiles changed
+	 */
+	def update (data: RDD[RT]): Long = {
+		val sc = data.context
+		if (!accumulatorsAdded) {
+			tileAnalytics.foreach { analytic =>
+				analytic.addGlobalAccumulator(sc)
+				levels.foreach(level => analytic.addLevelAccumulator(sc, level))
+			}
+			accumulatorsAdded = true
+		}
+
+		// Bin our new data into deltas, with unfinished values.  Our functions are copied locally so
+		// our closures don't drag this updater (and its logger) along with them.
+		val localIndexFcn = indexFcn
+		val localValueFcn = valueFcn
+		val bareData: RDD[(IT, PT, Option[Int])] = data.map(record => (localIndexFcn(record), localValueFcn(record)))
+			.filter(record => record._1.isSuccess && record._2.isSuccess)
+			.map(record => (record._1.get, record._2.get, None))
+		val deltas = new UniversalBinner().processData[IT, PT, Int, Int, PT](
+			bareData, deltaAnalytic, None, None,
+			StandardBinningFunctions.locateIndexOverLevels(indexScheme, tileScheme, levels, xBins, yBins),
+			StandardBinningFunctions.populateTileIdentity,
+			BinningParameters(true, xBins, yBins, None, None, Some(StorageType.Sparse))
+		).map(tile => (TileKey(tile), tile))
+		deltas.persist(StorageLevel.MEMORY_AND_DISK)
+
+		// Read in the tiles those deltas change; those not yet in the pyramid may come back null
+		val existing = tileIO.readTiles(serializer, pyramidId, deltas.map(_._2.getDefinition))
+			.filter(null != _).map(tile => (TileKey(tile), tile))
+
+		// Merge the two
+		val localBinAnalytic = binAnalytic
+		val localUnfinish = unfinish
+		val localTileAnalytics = tileAnalytics
+		val merged = deltas.leftOuterJoin(existing).map { case (key, (delta, existingTile)) =>
+			val tile = existingTile.map(copyTile(_)).getOrElse(createTile(delta, localBinAnalytic))
+			delta.asInstanceOf[SparseTileData[PT]].getData.asScala.foreach { binValue =>
+				val bin = binValue.getFirst
+				val prior = localUnfinish(tile.getBin(bin.getX, bin.getY))
+				tile.setBin(bin.getX, bin.getY,
+				            localBinAnalytic.finish(localBinAnalytic.aggregate(prior, binValue.getSecond)))
+			}
+
+			localTileAnalytics.foreach { ta =>
+				val analyticValue = ta.convert(tile)
+				ta.accumulate(tile.getDefinition, analyticValue)
+				AnalysisDescription.record(analyticValue, ta, tile)
+			}
+
+			tile
+		}
+
+		// Materialize our merged tiles before writing, so that writing can't cause them to be
+		// re-read after being updated.
+		merged.persist(StorageLevel.MEMORY_AND_DISK)
+		val changed = merged.count
+		deltas.unpersist(false)
+
+		if (changed > 0) {
+			val oldMetaData = tileIO.readMetaData(pyramidId)
+			tileIO.writeTileSet(tileScheme, pyramidId, merged, serializer, tileAnalytics, None,
+			                    name, description)
+			oldMetaData.foreach { oldMetaData =>
+				tileIO.readMetaData(pyramidId).foreach { newMetaData =>
+					if (mergeExtrema(oldMetaData, newMetaData, levels))
+						tileIO.writeMetaData(pyramidId, newMetaData)
+				}
+			}
+		}
+		merged.unpersist(false)
+
+		info("Updated "+changed+" tiles of "+pyramidId)
+		changed
+	}
+}
+
+/**
+ * A key by which to match tiles regardless of their bin counts
+ */
+private[tiling] case class TileKey (level: Int, x: Int, y: Int)
+private[tiling] object TileKey {
+	def apply (tile: TileData[_]): TileKey = {
+		val index = tile.getDefinition
+		TileKey(index.getLevel, index.getX, index.getY)
+	}
+}
@@ -33,6 +33,7 @@ import scala.collection.mutable.{Map => MutableMap}
 import scala.reflect.ClassTag
 import scala.util.Try
 
+import org.apache.spark.HashPartitioner
 import org.apache.spark.SparkContext._
 import org.apache.spark.rdd.RDD
 import org.apache.spark.storage.StorageLevel
@@ -51,6 +52,132 @@ class LineSegmentIndexScheme extends IndexScheme[(Double, Double, Double, Double
 }
 
 
+/**
+ * A description of how to rasterize a segment one tile at a time, rather than expanding the
+ * whole segment into universal bins at once.  Long segments at deep levels can cover many
+ * thousands of bins; with a clipped rasterizer, the line binner only ever ships one record per
+ * (segment, tile) pair, and draws each segment directly into the tile being assembled.
+ *
+ * @tparam PT The bin type, when processing and aggregating
+ */
+trait ClippedSegmentRasterizer[PT] extends Serializable {
+	/**
+	 * Determine all the tiles crossed by a segment
+	 *
+	 * @param start The start of the segment, in universal bin coordinates
+	 * @param end The end of the segment, in universal bin coordinates
+	 * @param sample A sample tile, indicating the level and tile size of the desired output tiles
+	 * @return Each tile crossed by the segment, with no duplicates
+	 */
+	def tiles (start: BinIndex, end: BinIndex, sample: TileIndex): TraversableOnce[TileIndex]
+
+	/**
+	 * Visit all the bins of a single tile crossed by a segment
+	 *
+	 * @param start The start of the segment, in universal bin coordinates
+	 * @param end The end of the segment, in universal bin coordinates
+	 * @param tile The tile whose bins are desired
+	 * @param value The value of the segment
+	 * @param fcn A function called with the x and y tile bin coordinates of each bin on the
+	 *            segment, along with the value to aggregate into that bin
+	 */
+	def foreachBin (start: BinIndex, end: BinIndex, tile: TileIndex, value: PT)
+	               (fcn: (Int, Int, PT) => Unit): Unit
+}
+
+object ClippedSegmentRasterizer {
+	/**
+	 * Rasterize segments as straight lines, using the same Bresenham-based line drawing as the
+	 * UniversalBinner line functions.
+	 *
+	 * @param maxBinDistance If set, only bins within this many bins (axially) of an endpoint are
+	 *                       drawn.  Unlike EndPointsToLine, line ends are not faded.
+	 */
+	def lines[PT] (maxBinDistance: Option[Int] = None): ClippedSegmentRasterizer[PT] =
+		new ClippedSegmentRasterizer[PT] {
+			private val distance = maxBinDistance.getOrElse(Int.MaxValue)
+
+			def tiles (start: BinIndex, end: BinIndex, sample: TileIndex): TraversableOnce[TileIndex] =
+				StandardBinningFunctions.closeLinearTiles(start, end, sample, distance).toSet
+
+			def foreachBin (start: BinIndex, end: BinIndex, tile: TileIndex, value: PT)
+			               (fcn: (Int, Int, PT) => Unit): Unit =
+				StandardBinningFunctions.foreachCloseLinearBinInTile(start, end, tile, distance)(
+					(x, y) => fcn(x, y, value))
+		}
+
+	/**
+	 * Rasterize segments as clockwise arcs, using the same arc drawing as the UniversalBinner arc
+	 * functions.
+	 *
+	 * @param limit If set, only bins within this many bins of an endpoint are drawn.
+	 */
+	def arcs[PT] (limit: Option[Int] = None): ClippedSegmentRasterizer[PT] =
+		new ClippedSegmentRasterizer[PT] {
+			def tiles (start: BinIndex, end: BinIndex, sample: TileIndex): TraversableOnce[TileIndex] =
+				StandardBinningFunctions.arcTiles(start, end, sample, limit).toSet
+
+			def foreachBin (start: BinIndex, end: BinIndex, tile: TileIndex, value: PT)
+			               (fcn: (Int, Int, PT) => Unit): Unit = {
+				val xLimit = tile.getXBins
+				val yLimit = tile.getYBins
+				StandardBinningFunctions.arcBinsForTile(start, end, tile, limit).foreach{bin =>
+					val x = bin.getX
+					val y = bin.getY
+					if (0 <= x && x < xLimit && 0 <= y && y < yLimit) fcn(x, y, value)
+				}
+			}
+		}
+}
+
+
+
+/**
+ * The per-tile accumulation buffer used when consolidating clipped segments.  Bin values are
+ * kept in a flat array (primitive when PT is), along with a bit set of which bins have been
+ * touched, so no default value is needed, and the array is only allocated once a segment
+ * actually lands in the tile.
+ */
+private[tiling] class SegmentTileBuffer[PT: ClassTag, DT] (xBins: Int, yBins: Int) extends Serializable {
+	private var values: Array[PT] = null
+	private val occupied = new java.util.BitSet(xBins * yBins)
+	var metaData: Option[DT] = None
+
+	def aggregate (x: Int, y: Int, value: PT, aggregator: (PT, PT) => PT): Unit = {
+		if (null == values) values = new Array[PT](xBins * yBins)
+		val i = x + y * xBins
+		if (occupied.get(i)) {
+			values(i) = aggregator(values(i), value)
+		} else {
+			values(i) = value
+			occupied.set(i)
+		}
+	}
+
+	def aggregateMetaData (value: DT, aggregator: (DT, DT) => DT): Unit =
+		metaData = Some(metaData.map(aggregator(_, value)).getOrElse(value))
+
+	def merge (that: SegmentTileBuffer[PT, DT],
+	           binAggregator: (PT, PT) => PT,
+	           metaDataAggregator: (DT, DT) => DT): SegmentTileBuffer[PT, DT] = {
+		that.foreach((x, y, value) => aggregate(x, y, value, binAggregator))
+		that.metaData.foreach(aggregateMetaData(_, metaDataAggregator))
+		this
+	}
+
+	def size: Int = occupied.cardinality()
+
+	def foreach (fcn: (Int, Int, PT) => Unit): Unit = {
+		var i = occupied.nextSetBit(0)
+		while (i >= 0) {
+			fcn(i % xBins, i / xBins, values(i))
+			i = occupied.nextSetBit(i + 1)
+		}
+	}
+}
+
+
+
 /**
  * This takes an RDD of line segment data (ie pairs of endpoints) and transforms it
  * into a pyramid of tiles.  minBins and maxBins define the min and max valid rane for
@@ -263,6 +390,10 @@ class RDDLineBinner(minBins: Int = 2,
 	 *                       or by tile.  Defaults to using point based consolidation.
 	 * @param linesAsArcs Indicates whether the endpoints have lines drawn between them,
 	 *                    or arcs.  Defaults to lines.
+	 * @param drawDirectedArcs Indicates whether arcs keep the direction of their input endpoints.
+	 * @param clippedRasterizer If set, segments are consolidated by tile and drawn directly into
+	 *                          each tile they cross, one tile at a time, instead of being expanded
+	 *                          by calcLinePixels; usePointBinner is then ignored.
 	 * @tparam IT the index type, convertible to a cartesian pair with the coordinateFromIndex function
 	 * @tparam PT The bin type, when processing and aggregating
 	 * @tparam AT The type of tile-level analytic to calculate for each tile.
@@ -285,7 +416,8 @@ class RDDLineBinner(minBins: Int = 2,
 			 new EndPointsToLine().endpointsToLineBins,
 		 usePointBinner: Boolean = true,
 		 linesAsArcs: Boolean = false,
-		 drawDirectedArcs: Boolean = false):
+		 drawDirectedArcs: Boolean = false,
+		 clippedRasterizer: Option[ClippedSegmentRasterizer[PT]] = None):
 			RDD[TileData[BT]] =
 	{
 		val tileBinToUniBin = (TileIndex.tileBinIndexToUniversalBinIndex)_
@@ -347,7 +479,7 @@ class RDDLineBinner(minBins: Int = 2,
 
 		processData(data, binAnalytic, tileAnalytics, dataAnalytics,
 		            mapOverLevels, xBins, yBins, consolidationPartitions, tileType, calcLinePixels,
-		            usePointBinner, linesAsArcs)
+		            usePointBinner, linesAsArcs, clippedRasterizer)
 	}
 
 
@@ -380,6 +512,9 @@ class RDDLineBinner(minBins: Int = 2,
 	 *                       or by tile.  Defaults to using point based consolidation.
 	 * @param linesAsArcs Indicates whether the endpoints have lines drawn between them,
 	 *                    or arcs.  Defaults to lines.
+	 * @param clippedRasterizer If set, segments are consolidated by tile and drawn directly into
+	 *                          each tile they cross, one tile at a time, instead of being expanded
+	 *                          by calcLinePixels; usePointBinner is then ignored.
 	 * @tparam IT The index type, convertable to tile and bin
 	 * @tparam PT The bin type, when processing and aggregating
 	 * @tparam AT The type of tile-level analytic to calculate for each tile.
@@ -399,7 +534,8 @@ class RDDLineBinner(minBins: Int = 2,
 		 calcLinePixels: (BinIndex, BinIndex, PT) => IndexedSeq[(BinIndex, PT)] =
 			 new EndPointsToLine().endpointsToLineBins,
 		 usePointBinner: Boolean = true,
-		 linesAsArcs: Boolean = false): RDD[TileData[BT]] =
+		 linesAsArcs: Boolean = false,
+		 clippedRasterizer: Option[ClippedSegmentRasterizer[PT]] = None): RDD[TileData[BT]] =
 	{
 		val metaData = processMetaData(data, indexToUniversalBins, dataAnalytics)
 
@@ -439,7 +575,11 @@ class RDDLineBinner(minBins: Int = 2,
 		}
 
 		// Now, combine by-partition bins into global bins, and turn them into tiles.
-		if (usePointBinner) {
+		if (clippedRasterizer.isDefined) {
+			consolidateByClippedSegments(partitionBins, binAnalytic, tileAnalytics, dataAnalytics,
+			                             metaData, consolidationPartitions, tileType,
+			                             clippedRasterizer.get)
+		} else if (usePointBinner) {
 			consolidateByPoints(partitionBins, binAnalytic, tileAnalytics, dataAnalytics,
 			                    metaData, consolidationPartitions, tileType,
 			                    xBins, yBins, uniBinToTileBin, calcLinePixels)
@@ -626,6 +766,108 @@ class RDDLineBinner(minBins: Int = 2,
 
 
 
+	private def consolidateByClippedSegments[PT: ClassTag, AT: ClassTag, DT: ClassTag, BT]
+		(data: RDD[((BinIndex, BinIndex, TileIndex), PT)],
+		 binAnalytic: BinningAnalytic[PT, BT],
+		 tileAnalytics: Option[AnalysisDescription[TileData[BT], AT]],
+		 dataAnalytics: Option[AnalysisDescription[_, DT]],
+		 tileMetaData: Option[RDD[(TileIndex, DT)]],
+		 consolidationPartitions: Option[Int],
+		 tileType: Option[StorageType],
+		 rasterizer: ClippedSegmentRasterizer[PT]):
+			RDD[TileData[BT]] =
+	{
+		// As with consolidateByTiles, we ship segments (one record per tile
+		// crossed) and metadata in two slots of the same record; unlike it, we
+		// never expand segments into bins on the map side, and we draw each
+		// segment into its tile's buffer as it arrives, rather than grouping
+		// all of a tile's segments first.
+		val segmentsByTile: RDD[(TileIndex, (Option[(BinIndex, BinIndex, PT)],
+		                                     Option[DT]))] =
+			data.flatMap{case ((lineStart, lineEnd, sample), value) =>
+				rasterizer.tiles(lineStart, lineEnd, sample).map(tile =>
+					(tile, (Some((lineStart, lineEnd, value)), None))
+				)
+			}
+
+		val metaData: Option[RDD[(TileIndex, (Option[(BinIndex, BinIndex, PT)],
+		                                      Option[DT]))]] =
+			tileMetaData.map(_.map{case (index, metaData) => (index, (None, Some(metaData)))})
+
+		val toTile =
+			if (metaData.isDefined) segmentsByTile union metaData.get
+			else segmentsByTile
+
+		val binAggregator: (PT, PT) => PT = binAnalytic.aggregate(_, _)
+		val metaDataAggregator: (DT, DT) => DT =
+			dataAnalytics.map(da => (a: DT, b: DT) => da.analytic.aggregate(a, b))
+				.getOrElse((a: DT, b: DT) => b)
+
+		type Entry = (TileIndex, (Option[(BinIndex, BinIndex, PT)], Option[DT]))
+		val addToBuffer: (SegmentTileBuffer[PT, DT], Entry) => SegmentTileBuffer[PT, DT] =
+			(buffer, entry) => {
+				val (tile, (segment, metaDatum)) = entry
+				segment.foreach{case (lineStart, lineEnd, value) =>
+					rasterizer.foreachBin(lineStart, lineEnd, tile, value)(
+						(x, y, binValue) => buffer.aggregate(x, y, binValue, binAggregator))
+				}
+				metaDatum.foreach(buffer.aggregateMetaData(_, metaDataAggregator))
+				buffer
+			}
+
+		// Map-side combination is turned off deliberately - a partial tile
+		// buffer is far larger than the handful of segment records it would
+		// replace.
+		val partitioner = new HashPartitioner(RDDLineBinner.getNumSplits(consolidationPartitions, segmentsByTile))
+		toTile
+			.map(entry => (entry._1, entry))
+			.combineByKey[SegmentTileBuffer[PT, DT]](
+				(entry: Entry) => addToBuffer(new SegmentTileBuffer[PT, DT](entry._1.getXBins, entry._1.getYBins), entry),
+				addToBuffer,
+				(a: SegmentTileBuffer[PT, DT], b: SegmentTileBuffer[PT, DT]) => a.merge(b, binAggregator, metaDataAggregator),
+				partitioner, false)
+			.map{case (index, buffer) =>
+				val xLimit = index.getXBins()
+				val yLimit = index.getYBins()
+
+				// Use the type passed in; if no type is passed in, use dense if more than half full.
+				val typeToUse = tileType.getOrElse(
+					if (buffer.size > xLimit*yLimit/2) StorageType.Dense
+					else StorageType.Sparse
+				)
+				val defaultBinValue =
+					binAnalytic.finish(binAnalytic.defaultProcessedValue)
+				val tile: TileData[BT] = typeToUse match {
+					case StorageType.Dense => new DenseTileData[BT](index, defaultBinValue)
+					case StorageType.Sparse => new SparseTileData[BT](index, defaultBinValue)
+				}
+
+				// Put the proper value in each bin
+				buffer.foreach((x, y, value) => tile.setBin(x, y, binAnalytic.finish(value)))
+
+				// Add in any pre-calculated metadata
+				buffer.metaData.foreach(analyticValue =>
+					dataAnalytics.map(da => AnalysisDescription.record(analyticValue, da, tile))
+				)
+
+				// Calculate and add in any tile-level metadata we've been told to calcualte
+				tileAnalytics.map(ta =>
+					{
+						// Figure out the value for this tile
+						val analyticValue = ta.convert(tile)
+						// Add it into any appropriate accumulators
+						ta.accumulate(index, analyticValue)
+						// And store it in the tile's metadata
+						AnalysisDescription.record(analyticValue, ta, tile)
+					}
+				)
+
+				tile
+			}
+	}
+
+
+
 	private def consolidateByTiles[PT: ClassTag, AT: ClassTag, DT: ClassTag, BT]
 		(data: RDD[((BinIndex, BinIndex, TileIndex), PT)],
 		 binAnalytic: BinningAnalytic[PT, BT],
@@ -158,7 +158,8 @@ class SequenceFileTileIO (connection: String) extends TileIO {
 	                                       tileAnalytics: Option[AnalysisDescription[TileData[BT], AT]],
 	                                       dataAnalytics: Option[AnalysisDescription[_, DT]],
 	                                       name: String = "unknown",
-	                                       description: String = "unknown"): Unit = {
+	                                       description: String = "unknown",
+	                                       profile: Option[LevelSetProfile] = None): Unit = {
 		checkBaseLocation(fs, baseLocation, true)
 
 		// Record and report the total number of tiles we write, because it's
@@ -171,44 +172,46 @@ class SequenceFileTileIO (connection: String) extends TileIO {
 		val ybins = data.context.accumulator(0)(new IntMaxAccumulatorParam)
 
 
-		// Turn each tile into a table row, noting mins, maxes, and counts as
-		// we go.  Note that none of the min/max/count accumulation is actually
-		// done until the file is writting - this just sets it up, it doesn't
-		// run it
-		val tileSequence: RDD[(String, Array[Byte])] = data.mapPartitions(iter =>
-			{
-				iter.map(tile =>
-					{
-						val index = tile.getDefinition()
-						val level = index.getLevel()
-
-						// Update count, level bounds, tile sizes
-						tileCount += 1
-						levelSet += level
-						xbins += index.getXBins
-						ybins += index.getYBins
-
-						// Create a Put (a table write object) that will write this tile
-						val baos = new ByteArrayOutputStream()
-						serializer.serialize(tile, baos);
-						baos.close
-						baos.flush
-
-
-						(index.toString, baos.toByteArray)
-					}
-				)
-			}
-		)
+		withOrderedTiles(data){(orderedData, partitioner) =>
+			// Turn each tile into a table row, noting mins, maxes, and counts as
+			// we go.  Note that none of the min/max/count accumulation is actually
+			// done until the file is writting - this just sets it up, it doesn't
+			// run it
+			val tileSequence: RDD[(String, Array[Byte])] = orderedData.mapPartitions(iter =>
+				{
+					iter.map(tile =>
+						{
+							val index = tile.getDefinition()
+							val level = index.getLevel()
+
+							// Update count, level bounds, tile sizes
+							tileCount += 1
+							levelSet += level
+							xbins += index.getXBins
+							ybins += index.getYBins
+
+							// Create a Put (a table write object) that will write this tile
+							val baos = new ByteArrayOutputStream()
+							serializer.serialize(tile, baos);
+							baos.close
+							baos.flush
+							profile.foreach(_.recordTileWrite(baos.size))
+
+							(index.toString, baos.toByteArray)
+						}
+					)
+				}
+			)
 
 
-		// Figure out where to put our new data
-		val fullLocation = getFullLocation(baseLocation)
-		val maxBlock = getBlocks(fs, fullLocation).map(block => getBlockNum(block)).fold(-1)(_ max _)
-		val block = maxBlock+1
-		val blockLocation = getBlockLocation(block, baseLocation)
-		println("Saving block "+block+" to "+blockLocation)
-		tileSequence.saveAsSequenceFile(blockLocation)
+			// Figure out where to put our new data
+			val fullLocation = getFullLocation(baseLocation)
+			val maxBlock = getBlocks(fs, fullLocation).map(block => getBlockNum(block)).fold(-1)(_ max _)
+			val block = maxBlock+1
+			val blockLocation = getBlockLocation(block, baseLocation)
+			println("Saving block "+block+" to "+blockLocation)
+			tileSequence.saveAsSequenceFile(blockLocation)
+		}
 
 
 
@@ -229,6 +232,7 @@ class SequenceFileTileIO (connection: String) extends TileIO {
 											tileAnalytics, dataAnalytics,
 											xbins.value, ybins.value,
 											name, description)
+		recordProfile(metaData, profile)
 		writeMetaData(baseLocation, metaData)
 	}
 
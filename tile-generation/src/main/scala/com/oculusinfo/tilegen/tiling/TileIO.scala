@@ -75,7 +75,7 @@ object TileIO {
 	 * A standard way of creating a tile IO from command-line arguments
 	 */
 	def fromArguments (argParser: KeyValueArgumentSource): TileIO = {
-		argParser.getString(Array("io", "oculus.tileio.type"),
+		val tileIO = argParser.getString(Array("io", "oculus.tileio.type"),
 		                    "TileIO type - where to put tiles.  Legal values are "+
 			                    "hbase, sqlite, or file (DEFAULT).",
 		                    Some("file")
@@ -89,7 +89,14 @@ object TileIO {
 				                    Some("2181")),
 				argParser.getString(Array("hbasemaster", "hbase.master"),
 				                    "The master machine for hbase",
-				                    None)
+				                    None),
+				bulkLoadDirectory =
+					argParser.getStringOption("hbase.bulkload.directory",
+					                          "If set, tiles are written as HFiles into a "+
+						                          "subdirectory of this directory and then "+
+						                          "bulk-loaded into HBase, rather than being "+
+						                          "written through the region servers.",
+					                          None)
 			)
 			case "sqlite" => new SqliteTileIO(
 				argParser.getString(Array("sqlitepath", "oculus.tileio.sqlite.path"),
@@ -103,15 +110,63 @@ object TileIO {
 				                    Some("avro"))
 			)
 		}
+		tileIO.setSortedWrites(
+			argParser.getBoolean("oculus.tileio.sorted",
+			                     "If true, tiles are range-partitioned and sorted by level and "+
+				                     "location before being written, so each partition writes a "+
+				                     "contiguous range of tiles.  Default is true.",
+			                     Some(true)))
 	}
 }
 
 trait TileIO extends Serializable {
+	// Whether or not tiles are sorted before being written
+	private var sortedWrites = true
+
 	/**
 	 * Method to get the i/o class used to read and write pyramids for this IO scheme
 	 */
 	def getPyramidIO : PyramidIO
 
+	/**
+	 * Set whether tiles are range-partitioned by (level, key) and sorted within each partition
+	 * before being written, so that each executor writes a contiguous, ordered range of tiles.
+	 * See {@link #getWriteOrderKey} for the key used.
+	 */
+	def setSortedWrites (sorted: Boolean): TileIO = {
+		sortedWrites = sorted
+		this
+	}
+
+	def isSortingWrites: Boolean = sortedWrites
+
+	/**
+	 * Get the function used to order tiles within a level when sorting them for writing.  By
+	 * default, this is the Morton code of the tile, so that spatially close tiles are written
+	 * together; tile IOs whose underlying storage is keyed differently should override this to
+	 * match their storage order.
+	 */
+	def getWriteOrderKey: TileIndex => Long = TileSorter.mortonKey
+
+	/**
+	 * Put tiles into the order in which they should be written, if sorted writes are enabled, and
+	 * hand them to a function that writes them.
+	 *
+	 * @param keyFcn The function used to order tiles within a level; defaults to
+	 *               {@link #getWriteOrderKey}
+	 * @param write A function that takes the tiles to write, and, if they were sorted, the
+	 *              partitioner used to sort them, and writes them out.
+	 */
+	protected def withOrderedTiles[BT, R] (data: RDD[TileData[BT]], keyFcn: TileIndex => Long = getWriteOrderKey)
+	                                      (write: (RDD[TileData[BT]], Option[TileRangePartitioner]) => R): R =
+		if (sortedWrites) {
+			TileSorter.withSortedTiles(data, keyFcn)((sortedData, partitioner) =>
+				write(sortedData, Some(partitioner))
+			)
+		} else {
+			write(data, None)
+		}
+
 	/**
 	 * Read a set of tiles, of the indicated levels
 	 */
@@ -127,7 +182,17 @@ trait TileIO extends Serializable {
 			}
 		)
 		val tiles: RDD[TileIndex] = tileSets.reduce(_ union _)
-		tiles.mapPartitions(iter =>
+		readTiles(serializer, baseLocation, tiles)
+	}
+
+	/**
+	 * Read the tiles with the given indices.  As with readTileSet, tiles that don't exist in the
+	 * pyramid are skipped or returned as null, depending on the pyramid IO.
+	 */
+	def readTiles[T] (serializer: TileSerializer[T],
+	                  baseLocation: String,
+	                  indices: RDD[TileIndex]): RDD[TileData[T]] =
+		indices.mapPartitions(iter =>
 			{
 				val pyramidIO = getPyramidIO
 				// read tiles in large, but manageable, groups
@@ -139,10 +204,14 @@ trait TileIO extends Serializable {
 				)
 			}
 		)
-	}
 
 	/**
 	 * Write all tiles contained in the given data
+	 *
+	 * @param profile A profile of the level set being written, if one is being collected.  The
+	 *                serialized size of each tile and the time taken to write each batch of
+	 *                tiles are recorded in it, and, once the tiles are written, the whole binning
+	 *                profile is stored in the pyramid metadata.
 	 */
 	def writeTileSet[BT, AT, DT] (pyramider: TilePyramid,
 	                              baseLocation: String,
@@ -151,7 +220,8 @@ trait TileIO extends Serializable {
 	                              tileAnalytics: Option[AnalysisDescription[TileData[BT], AT]],
 	                              dataAnalytics: Option[AnalysisDescription[_, DT]],
 	                              name: String = "unknown",
-	                              description: String = "unknown"): Unit = {
+	                              description: String = "unknown",
+	                              profile: Option[LevelSetProfile] = None): Unit = {
 
 		// Do any needed initialization
 		getPyramidIO.initializeForWrite(baseLocation)
@@ -165,32 +235,43 @@ trait TileIO extends Serializable {
 		val xbins = data.context.accumulator(0)(new IntMaxAccumulatorParam)
 		val ybins = data.context.accumulator(0)(new IntMaxAccumulatorParam)
 
-		println("Writing tile set from")
-		println(data.toDebugString)
-		println("Writing tile set to "+baseLocation)
-
-		// write each tile, storing away info we'll need to write the metadata
-		data.mapPartitions(_.grouped(1024)).foreach(group =>
-			{
-				val pyramidIO = getPyramidIO
-				// Write out tje group of tiles
-				pyramidIO.writeTiles(baseLocation, serializer, group)
-
-				// And collect stats on them
-				group.foreach(tile =>
-					{
-						val index = tile.getDefinition()
-						val level = index.getLevel()
-
-						// Update count, level bounds, tile sizes
-						tileCount += 1
-						levelSet += level
-						xbins += index.getXBins
-						ybins += index.getYBins
+		// Measure tiles as the pyramid IO serializes them, rather than serializing them again
+		val writeSerializer = profile.map(p => BinningProfile.measuringSerializer(serializer, p)).getOrElse(serializer)
+
+		withOrderedTiles(data){(orderedData, partitioner) =>
+			println("Writing tile set from")
+			println(orderedData.toDebugString)
+			println("Writing tile set to "+baseLocation)
+			partitioner.foreach(p => println("Writing tiles in "+p.numPartitions+" sorted ranges"))
+
+			// write each tile, storing away info we'll need to write the metadata
+			orderedData.mapPartitions(_.grouped(1024)).foreach(group =>
+				{
+					val pyramidIO = getPyramidIO
+					// Write out tje group of tiles
+					val writeStart = System.nanoTime()
+					pyramidIO.writeTiles(baseLocation, writeSerializer, group)
+					profile.foreach{p =>
+						p.writeLatencies += (System.nanoTime() - writeStart) / 1000000.0
+						p.tilesWritten += group.size.toLong
 					}
-				)
-			}
-		)
+
+					// And collect stats on them
+					group.foreach(tile =>
+						{
+							val index = tile.getDefinition()
+							val level = index.getLevel()
+
+							// Update count, level bounds, tile sizes
+							tileCount += 1
+							levelSet += level
+							xbins += index.getXBins
+							ybins += index.getYBins
+						}
+					)
+				}
+			)
+		}
 		println("Input tiles: "+tileCount)
 		println("X bins: "+xbins.value)
 		println("Y bins: "+ybins.value)
@@ -204,9 +285,20 @@ trait TileIO extends Serializable {
 											tileAnalytics, dataAnalytics,
 											xbins.value, ybins.value,
 											name, description)
+		recordProfile(metaData, profile)
 		writeMetaData(baseLocation, metaData)
 	}
 
+	/**
+	 * Complete the profile of the level set just written, if any, and store the profile of the
+	 * whole binning job so far in the given metadata.
+	 */
+	protected def recordProfile (metaData: PyramidMetaData, profile: Option[LevelSetProfile]): Unit =
+		profile.foreach{p =>
+			p.complete()
+			metaData.setCustomMetaData(p.parent.toJSON, BinningProfile.METADATA_KEY)
+		}
+
 	/**
 	 * Takes a map of levels to (mins, maxes) and combines them with the current metadata
 	 * that already exists, or creates a new one if none exists.
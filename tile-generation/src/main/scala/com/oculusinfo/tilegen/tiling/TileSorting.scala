@@ -28,11 +28,17 @@ package com.oculusinfo.tilegen.tiling
 
 
 import scala.reflect.ClassTag
+import scala.util.Random
+import scala.util.hashing.byteswap32
 
+import org.apache.spark.Partitioner
 import org.apache.spark.SparkContext._
 import org.apache.spark.rdd.RDD
+import org.apache.spark.storage.StorageLevel
 
 import com.oculusinfo.binning.PyramidComparator
+import com.oculusinfo.binning.TileData
+import com.oculusinfo.binning.TileIndex
 import com.oculusinfo.binning.TilePyramid
 import com.oculusinfo.binning.impl.AOITilePyramid
 
@@ -85,3 +91,158 @@ class TileSorter {
 		).sortByKey().map(_._2)
 	}
 }
+
+
+
+object TileSorter {
+	/** Default number of keys sampled from each partition when determining write ranges */
+	val DEFAULT_SAMPLES_PER_PARTITION = 20
+
+	/**
+	 * The standard within-level write order key for a tile - the Morton code of its coordinates.
+	 */
+	def mortonKey (index: TileIndex): Long =
+		PyramidComparator.getMortonCode(index.getX, index.getY)
+
+	/**
+	 * A within-level write order key that orders tiles by x, then y.  This matches the ordering
+	 * of our string-based HBase row keys.
+	 */
+	def rowMajorKey (index: TileIndex): Long =
+		(index.getX.toLong << 32) | (index.getY.toLong & 0xFFFFFFFFL)
+
+	/**
+	 * Range-partition a set of tiles by (level, key), and sort each partition, so that each
+	 * partition holds a contiguous, ordered range of tiles, and hand the sorted tiles to a
+	 * function that writes them.
+	 *
+	 * Determining the partition ranges takes a pass over the tiles, so the tiles are kept
+	 * cached until the write function returns, rather than being recomputed (and re-applying
+	 * any accumulators updated in computing them) for the write itself.
+	 *
+	 * @param tiles The tiles to sort
+	 * @param keyFcn A function to determine the within-level order of a tile
+	 * @param partitions The number of partitions into which to split the tiles.  Defaults to the
+	 *                   current number of partitions of the tile set.
+	 * @param samplesPerPartition The number of keys to sample from each partition in order to
+	 *                            determine partition boundaries
+	 * @param write A function that takes the sorted tiles, and the partitioner used to sort
+	 *              them, and writes them out
+	 * @return The result of the write function
+	 */
+	def withSortedTiles[T, R] (tiles: RDD[TileData[T]],
+	                           keyFcn: TileIndex => Long,
+	                           partitions: Option[Int] = None,
+	                           samplesPerPartition: Int = DEFAULT_SAMPLES_PER_PARTITION)
+	                          (write: (RDD[TileData[T]], TileRangePartitioner) => R): R = {
+		val keyedTiles = tiles.map{tile =>
+			val index = tile.getDefinition
+			((index.getLevel, keyFcn(index)), tile)
+		}.persist(StorageLevel.MEMORY_AND_DISK)
+		try {
+			val partitioner = TileRangePartitioner.fromSample(keyedTiles.map(_._1),
+			                                                  partitions.getOrElse(tiles.partitions.length),
+			                                                  samplesPerPartition)
+			write(keyedTiles.repartitionAndSortWithinPartitions(partitioner).map(_._2), partitioner)
+		} finally {
+			keyedTiles.unpersist(false)
+		}
+	}
+}
+
+/**
+ * A partitioner that splits (level, key) pairs into contiguous ranges, as
+ * determined by a sorted list of upper bounds.
+ *
+ * @param bounds The upper bound (inclusive) of all but the last partition.  Must be sorted.
+ */
+class TileRangePartitioner (val bounds: Array[(Int, Long)]) extends Partitioner {
+	private val ordering = implicitly[Ordering[(Int, Long)]]
+
+	def numPartitions: Int = bounds.length + 1
+
+	def getPartition (key: Any): Int = {
+		val k = key.asInstanceOf[(Int, Long)]
+		// Partitions are few, and bounds sorted - use a binary search
+		var low = 0
+		var high = bounds.length
+		while (low < high) {
+			val mid = (low + high) >>> 1
+			if (ordering.gt(k, bounds(mid))) low = mid + 1
+			else high = mid
+		}
+		low
+	}
+
+	override def equals (other: Any): Boolean = other match {
+		case that: TileRangePartitioner => bounds.sameElements(that.bounds)
+		case _ => false
+	}
+
+	override def hashCode: Int = bounds.toSeq.hashCode
+}
+
+object TileRangePartitioner {
+	/**
+	 * Determine partition boundaries for a set of keys using a single sampling pass.  Each
+	 * partition contributes a reservoir sample of its keys; each sampled key is then weighted by
+	 * the size of the partition from which it came, and the boundaries are chosen so that each
+	 * output partition receives roughly equal weight.
+	 *
+	 * @param keys The (level, key) pairs to partition
+	 * @param partitions The desired number of partitions
+	 * @param samplesPerPartition The number of keys to sample from each input partition
+	 */
+	def fromSample (keys: RDD[(Int, Long)], partitions: Int, samplesPerPartition: Int): TileRangePartitioner = {
+		if (partitions <= 1) {
+			new TileRangePartitioner(Array[(Int, Long)]())
+		} else {
+			val sampleSize = samplesPerPartition.max(1)
+			// Oversample each partition, so that small input partitioning still gives a decent
+			// number of candidate boundaries
+			val perPartition = (sampleSize * partitions.toDouble / keys.partitions.length).ceil.toInt.max(sampleSize)
+			val sketch = keys.mapPartitionsWithIndex{(partition, iter) =>
+				val random = new Random(byteswap32(partition))
+				val reservoir = new Array[(Int, Long)](perPartition)
+				var seen = 0L
+				iter.foreach{key =>
+					if (seen < perPartition) {
+						reservoir(seen.toInt) = key
+					} else {
+						val replacement = (random.nextDouble * (seen + 1)).toLong
+						if (replacement < perPartition) reservoir(replacement.toInt) = key
+					}
+					seen += 1
+				}
+				Iterator((seen, reservoir.take(seen.min(perPartition).toInt)))
+			}.collect()
+
+			val candidates = sketch.filter(_._1 > 0).flatMap{case (count, sample) =>
+				val weight = count.toDouble / sample.length
+				sample.map(key => (key, weight))
+			}
+			new TileRangePartitioner(determineBounds(candidates, partitions))
+		}
+	}
+
+	/*
+	 * Pick bounds from weighted candidates so each partition gets roughly equal weight.
+	 */
+	private def determineBounds (candidates: Array[((Int, Long), Double)], partitions: Int): Array[(Int, Long)] = {
+		val ordering = implicitly[Ordering[(Int, Long)]]
+		val ordered = candidates.sortBy(_._1)
+		val step = ordered.map(_._2).sum / partitions
+		val bounds = scala.collection.mutable.ArrayBuffer[(Int, Long)]()
+		var cumulative = 0.0
+		var target = step
+		ordered.foreach{case (key, weight) =>
+			cumulative += weight
+			if (cumulative >= target && bounds.length < partitions - 1 &&
+				    (bounds.isEmpty || ordering.gt(key, bounds.last))) {
+				bounds += key
+				target += step
+			}
+		}
+		bounds.toArray
+	}
+}
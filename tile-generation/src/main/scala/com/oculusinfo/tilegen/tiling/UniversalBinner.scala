@@ -28,6 +28,7 @@ package com.oculusinfo.tilegen.tiling
 import grizzled.slf4j.Logging
 import org.apache.spark.Accumulator
 
+import scala.collection.JavaConverters._
 import scala.collection.mutable.{Map => MutableMap}
 import scala.util.Try
 
@@ -46,7 +47,11 @@ import com.oculusinfo.binning.impl.SparseTileData
 import com.oculusinfo.binning.io.serialization.TileSerializer
 import com.oculusinfo.binning.TileData.StorageType
 import com.oculusinfo.tilegen.tiling.analytics.AnalysisDescription
+import com.oculusinfo.tilegen.tiling.analytics.Analytic
 import com.oculusinfo.tilegen.tiling.analytics.BinningAnalytic
+import com.oculusinfo.tilegen.tiling.analytics.{NumericMaxAnalytic, NumericMinAnalytic, NumericSumAnalytic}
+import com.oculusinfo.tilegen.tiling.analytics.UnfinishedBinningAnalytic
+import com.oculusinfo.tilegen.util.ExtendedNumeric
 
 
 
@@ -115,7 +120,13 @@ object UniversalBinner {
 class UniversalBinner extends Logging {
 	import UniversalBinner._
 
-	/** Helper function to mimic RDDBinner interface */
+	/**
+	 * Helper function to mimic RDDBinner interface
+	 *
+	 * @param profile If true, collect a profile of each stage of each level set binned, and
+	 *                store it in the metadata of the pyramid, under the key
+	 *                BinningProfile.METADATA_KEY
+	 */
 	def binAndWriteData[RT: ClassTag, IT: ClassTag, PT: ClassTag,
 	                    AT: ClassTag, DT: ClassTag, BT] (
 		data: RDD[RT],
@@ -135,7 +146,8 @@ class UniversalBinner extends Logging {
 		xBins: Int = 256,
 		yBins: Int = 256,
 		name: String = "unknown",
-		description: String = "unknown") =
+		description: String = "unknown",
+		profile: Boolean = false) =
 	{
 		info("Binning data")
 		info("\tConsolidation partitions: "+consolidationPartitions)
@@ -148,6 +160,7 @@ class UniversalBinner extends Logging {
 		info("\tDescription: "+description)
 
 		val startTime = System.currentTimeMillis()
+		val binningProfile = if (profile) Some(new BinningProfile(data.context, name)) else None
 
 		def transformData[RT: ClassTag, IT: ClassTag, PT: ClassTag, DT: ClassTag]
 			(data: RDD[RT],
@@ -156,12 +169,18 @@ class UniversalBinner extends Logging {
 			 dataAnalytics: Option[AnalysisDescription[RT, DT]] = None):
 				RDD[(IT, PT, Option[DT])] =
 		{
+			val recordsRead = binningProfile.map(_.recordsRead)
+			val recordsRejected = binningProfile.map(_.recordsRejected)
 			// Process the data to remove all but the minimal portion we need for
 			// tiling - index, value, and analytics
 			data.mapPartitions(iter =>
 				iter.map(i => (indexFcn(i), valueFcn(i), dataAnalytics.map(_.convert(i))))
-			).filter(record => record._1.isSuccess && record._2.isSuccess)
-				.map(record =>(record._1.get, record._2.get, record._3))
+			).filter{record =>
+				val accepted = record._1.isSuccess && record._2.isSuccess
+				recordsRead.foreach(_ += 1L)
+				if (!accepted) recordsRejected.foreach(_ += 1L)
+				accepted
+			}.map(record =>(record._1.get, record._2.get, record._3))
 		}
 		val bareData = transformData(data, indexFcn, valueFcn, dataAnalytics)
 
@@ -171,6 +190,7 @@ class UniversalBinner extends Logging {
 		levelSets.foreach(levels =>
 			{
 				val levelStartTime = System.currentTimeMillis()
+				val levelProfile = binningProfile.map(_.startLevelSet(levels))
 				// For each level set, process the bare data into tiles...
 				var tiles = processDataByLevel(bareData,
 				                               indexScheme,
@@ -182,11 +202,12 @@ class UniversalBinner extends Logging {
 				                               xBins,
 				                               yBins,
 				                               consolidationPartitions,
-				                               tileType)
+				                               tileType,
+				                               levelProfile)
 				// ... and write them out.
 				tileIO.writeTileSet(tileScheme, writeLocation, tiles,
 				                    serializer, tileAnalytics, dataAnalytics,
-				                    name, description)
+				                    name, description, levelProfile)
 				val levelEndTime = System.currentTimeMillis()
 				info("Finished binning levels ["+levels.mkString(", ")+"] of data set "
 					     + name + " in " + ((levelEndTime-levelStartTime)/60000.0) + " minutes")
@@ -200,6 +221,7 @@ class UniversalBinner extends Logging {
 			     + levelSets.map(_.size).reduce(_+_)
 			     + " levels (" + levelSets.map(_.mkString(",")).mkString(";") + ") in "
 			     + ((endTime-startTime)/60000.0) + " minutes")
+		binningProfile.foreach(p => info("Binning profile: " + p.toJSON.toString))
 	}
 
 	/** Helper function to mimic RDDBinner interface */
@@ -214,12 +236,14 @@ class UniversalBinner extends Logging {
 		 xBins: Int = 256,
 		 yBins: Int = 256,
 		 consolidationPartitions: Option[Int] = None,
-		 tileType: Option[StorageType] = None): RDD[TileData[BT]] =
+		 tileType: Option[StorageType] = None,
+		 profile: Option[LevelSetProfile] = None): RDD[TileData[BT]] =
 	{
 		processData[IT, PT, AT, DT, BT](data, binAnalytic, tileAnalytics, dataAnalytics,
 		                                StandardBinningFunctions.locateIndexOverLevels(indexScheme, tileScheme, levels, xBins, yBins),
 		                                StandardBinningFunctions.populateTileIdentity,
-		                                BinningParameters(true, xBins, yBins, consolidationPartitions, consolidationPartitions, tileType))
+		                                BinningParameters(true, xBins, yBins, consolidationPartitions, consolidationPartitions, tileType,
+		                                                  profile))
 	}
 
 	/**
@@ -248,10 +272,16 @@ class UniversalBinner extends Logging {
 		 populateTileFcn: (TileIndex, Array[BinIndex], PT) => MutableMap[BinIndex, PT],
 		 parameters: BinningParameters = new BinningParameters()): RDD[TileData[BT]] =
 	{
+		val profile = parameters.profile
+
 		// Convert raw indices into tiles and bins
 		val consolidatedByPartition: RDD[(TileIndex, Array[BinIndex], PT, Option[DT])] =
 			data.flatMap { record =>
 				val indices: Traversable[(TileIndex, Array[BinIndex])] = locateIndexFcn(record._1)
+				profile.foreach{p =>
+					p.recordsIn += 1L
+					p.binEntries += indices.size
+				}
 				val value: PT = record._2
 				val analyticValue: Option[DT] = record._3
 				indices.map(index => (index._1, index._2, value, analyticValue))
@@ -321,6 +351,7 @@ class UniversalBinner extends Logging {
 				case StorageType.Dense => new DenseTileData[BT](index, defaultBinValue)
 				case StorageType.Sparse => new SparseTileData[BT](index, defaultBinValue)
 			}
+			profile.foreach(_.recordTile(numValues, xLimit*yLimit, StorageType.Dense == typeToUse))
 
 			// Populate our tile with basic bin data
 			binValues.foreach{case (bin, value) =>
@@ -349,6 +380,125 @@ class UniversalBinner extends Logging {
 			tile
 		}
 	}
+
+	/**
+	 * Bin data, and blur the binned results with a separable kernel.
+	 *
+	 * Rather than spreading each input value over the kernel before aggregation (which multiplies
+	 * the amount of data to be shuffled by the area of the kernel), points are binned normally,
+	 * each binned tile is sent, along with the strips along its borders within the kernel radius
+	 * of its neighbours, to the tiles that need it, and the kernel is then applied one dimension
+	 * at a time to each tile.  For sums, minima, and maxima with a non-negative kernel, this
+	 * produces the same results as spreading each point with populateTileGaussian using the
+	 * outer product of the two kernels.
+	 *
+	 * @param data The data to tile
+	 * @param binAnalytic The aggregation function to use to tile the data
+	 * @param tileAnalytics Optional analytics to apply to each produced tile
+	 * @param dataAnalytics Optional analytics to apply to each raw data point, and bin along with
+	 *                      the tiles.
+	 * @param locateIndexFcn A function that takes in input index, and indicates which tile(s) it
+	 *                       is on, as in processData
+	 * @param kernelX The horizontal kernel to apply; must be of odd length, and no wider than a
+	 *                tile
+	 * @param kernelY The vertical kernel to apply; must be of odd length, and no taller than a
+	 *                tile
+	 * @param parameters General binning parameters affecting how this tiling will be done.
+	 * @param numeric Numeric operations on bin values, used to weight them by the kernel.  Weighted
+	 *                values are aggregated as doubles, and converted back to the bin type only
+	 *                once per bin, so integral bins are not rounded between the two passes.
+	 */
+	def processDataWithSeparableKernel[IT: ClassTag, PT: ClassTag, AT: ClassTag, DT: ClassTag, BT]
+		(data: RDD[(IT, PT, Option[DT])],
+		 binAnalytic: BinningAnalytic[PT, BT],
+		 tileAnalytics: Option[AnalysisDescription[TileData[BT], AT]],
+		 dataAnalytics: Option[AnalysisDescription[_, DT]],
+		 locateIndexFcn: IT => Traversable[(TileIndex, Array[BinIndex])],
+		 kernelX: Array[Double],
+		 kernelY: Array[Double],
+		 parameters: BinningParameters = new BinningParameters())
+		(implicit numeric: ExtendedNumeric[PT]): RDD[TileData[BT]] =
+	{
+		require(1 == kernelX.length % 2 && 1 == kernelY.length % 2, "Kernels must be of odd length")
+		require(kernelX.length / 2 <= parameters.xBins && kernelY.length / 2 <= parameters.yBins,
+		        "Kernels must be no larger than a tile")
+		val (radiusX, radiusY) = (kernelX.length / 2, kernelY.length / 2)
+		val weightedAnalytic = weightedAggregation(binAnalytic)
+
+		// Bin our data normally, leaving the results unfinished so they can be blurred.
+		val binnedTiles = processData[IT, PT, AT, DT, PT](
+			data, new UnfinishedBinningAnalytic(binAnalytic), None, dataAnalytics,
+			locateIndexFcn, StandardBinningFunctions.populateTileIdentity,
+			parameters.copy(tileType = Some(StorageType.Sparse)))
+
+		// Send each bin to every tile within the kernel radius of it.  Tile metadata (i.e., data
+		// analytic values) goes only to the tile itself.
+		val binsByTile = binnedTiles.flatMap { tile =>
+			val index = tile.getDefinition
+			val metaData = Option(tile.getMetaDataProperties).map(_.asScala.map(property =>
+				(property, tile.getMetaData(property))
+			).toList).getOrElse(List())
+
+			val bins = tile.asInstanceOf[SparseTileData[PT]].getData.asScala.flatMap { binValue =>
+				val bin = binValue.getFirst
+				val uBin = TileIndex.tileBinIndexToUniversalBinIndex(index, bin)
+				StandardBinningFunctions.kernelHaloTiles(index, bin, radiusX, radiusY).map(target =>
+					(target, (uBin, binValue.getSecond))
+				)
+			}.toList
+			bins.groupBy(_._1).toList.map { case (target, targetBins) =>
+				(target, (targetBins.map(_._2), if (target == index) metaData else List[(String, String)]()))
+			}
+		}.reduceByKey((a, b) => (a._1 ++ b._1, a._2 ++ b._2))
+
+		// Now blur each tile, and convert to final results
+		binsByTile.flatMap { case (index, (bins, metaData)) =>
+			val binValues = StandardBinningFunctions.convolveTileSeparable[Double](
+				index, bins.map { case (bin, value) => (bin, numeric.toDouble(value)) }, kernelX, kernelY,
+				weightedAnalytic.aggregate(_, _), _ * _)
+
+			if (binValues.isEmpty) {
+				None
+			} else {
+				// Determine if we need a dense or sparse tile
+				val typeToUse = parameters.tileType.getOrElse(
+					if (binValues.size > index.getXBins * index.getYBins / 2) StorageType.Dense
+					else StorageType.Sparse
+				)
+				val defaultBinValue = binAnalytic.finish(binAnalytic.defaultProcessedValue)
+				val tile: TileData[BT] = typeToUse match {
+					case StorageType.Dense => new DenseTileData[BT](index, defaultBinValue)
+					case StorageType.Sparse => new SparseTileData[BT](index, defaultBinValue)
+				}
+				binValues.foreach { case (bin, value) =>
+					tile.setBin(bin.getX, bin.getY, binAnalytic.finish(numeric.fromDouble(value)))
+				}
+
+				// Carry over data analytics
+				metaData.foreach { case (property, value) => tile.setMetaData(property, value) }
+
+				// Add in tile analytics
+				tileAnalytics.map { ta =>
+					val analyticValue = ta.convert(tile)
+					ta.accumulate(tile.getDefinition(), analyticValue)
+					AnalysisDescription.record(analyticValue, ta, tile)
+				}
+
+				Some(tile)
+			}
+		}
+	}
+
+	// The aggregation of a numeric binning analytic, for kernel-weighted doubles.  Only sums, minima
+	// and maxima give the same result whether bins are weighted before or after being aggregated.
+	private def weightedAggregation (binAnalytic: BinningAnalytic[_, _]): Analytic[Double] =
+		binAnalytic match {
+			case _: NumericSumAnalytic[_] => new NumericSumAnalytic[Double]
+			case _: NumericMinAnalytic[_] => new NumericMinAnalytic[Double]
+			case _: NumericMaxAnalytic[_] => new NumericMaxAnalytic[Double]
+			case _ => throw new IllegalArgumentException(
+				"Separable kernels need a numeric sum, minimum, or maximum binning analytic")
+		}
 }
 
 /**
@@ -361,9 +511,12 @@ class UniversalBinner extends Logging {
  * @param maxPartitions The maximum number of partitions to use during reduce operations
  * @param tileType The type of tile to generate (dense or sparse); None for a fairly good
  *                 heuristic to decide on a tile-by-tile basis.
+ * @param profile A profile in which to record metrics about the binning of this level set, if
+ *                profiling is wanted.
  */
 case class BinningParameters (debug: Boolean = true,
                               xBins: Int = 256, yBins: Int = 256,
                               minPartitions: Option[Int] = None,
                               maxPartitions: Option[Int] = None,
-                              tileType: Option[StorageType] = None)
+                              tileType: Option[StorageType] = None,
+                              profile: Option[LevelSetProfile] = None)
@@ -113,6 +113,18 @@ trait BinningAnalytic[PROCESSING_TYPE, RESULT_TYPE] extends Analytic[PROCESSING_
 	def finish (value: PROCESSING_TYPE): RESULT_TYPE
 }
 
+/**
+ * A binning analytic that aggregates like the one it wraps, but leaves its results unfinished, so
+ * that binned values can be processed further (for instance, aggregated with existing bin values,
+ * or blurred) before being finished by the wrapped analytic.
+ */
+class UnfinishedBinningAnalytic[PT] (base: BinningAnalytic[PT, _]) extends BinningAnalytic[PT, PT] {
+	def aggregate (a: PT, b: PT): PT = base.aggregate(a, b)
+	def defaultProcessedValue: PT = base.defaultProcessedValue
+	def defaultUnprocessedValue: PT = base.defaultUnprocessedValue
+	def finish (value: PT): PT = value
+}
+
 /**
  * A TileAnalytic extends Analytic with a few simple pices that allow values to
  * be written to metadata, both on each individual tile, and globally.
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2015 Uncharted Software Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.oculusinfo.tilegen.tiling.analytics
+
+
+
+import java.lang.{Double => JavaDouble}
+import java.lang.{Long => JavaLong}
+import java.util.{List => JavaList}
+
+import org.json.JSONObject
+
+import scala.collection.JavaConverters._
+
+import com.oculusinfo.binning.util.{HyperLogLog, TDigest}
+import com.oculusinfo.factory.ConfigurableFactory
+import com.oculusinfo.factory.properties.{DoubleProperty, IntegerProperty, ListProperty, StringProperty}
+
+
+
+/**
+ * Properties for constructing sketch-based analytics
+ */
+object SketchAnalyticFactory {
+	val SKETCH_TYPE = new StringProperty("sketch", "The type of sketch to use - distinct counts or quantiles", "distinct",
+	                                     Array[String]("distinct", "quantile"))
+	val PRECISION = new IntegerProperty("precision",
+	                                    "The precision of HyperLogLog distinct-count sketches.  Each sketch uses at most "+
+		                                    "2^precision bytes, and has a relative error of about 1.04/sqrt(2^precision)",
+	                                    HyperLogLog.DEFAULT_PRECISION)
+	val COMPRESSION = new DoubleProperty("compression",
+	                                     "The compression of t-digest quantile sketches.  Each sketch holds at most about "+
+		                                     "this many centroids; larger values give more accurate quantiles",
+	                                     TDigest.DEFAULT_COMPRESSION)
+	val QUANTILES = new ListProperty[JavaDouble](new DoubleProperty("quantile", "A quantile to record", 0.5),
+	                                             "quantiles",
+	                                             "The quantiles of quantile sketches to write to tile and pyramid metadata")
+	val DEFAULT_QUANTILES = Seq(0.25, 0.5, 0.75)
+}
+
+/**
+ * A factory for sketch binning analytics.  Bins produced by these analytics hold the sketches themselves, so that
+ * they can be merged with further data later.
+ */
+class SketchBinningAnalyticFactory (name: String, parent: ConfigurableFactory[_], path: JavaList[String])
+		extends ConfigurableFactory[BinningAnalytic[_, _]](name, classOf[BinningAnalytic[_, _]], parent, path, true)
+{
+	import SketchAnalyticFactory._
+	addProperty(SKETCH_TYPE)
+	addProperty(PRECISION)
+	addProperty(COMPRESSION)
+	addProperty(QUANTILES)
+
+	def this (parent: ConfigurableFactory[_], path: JavaList[String]) = this(null, parent, path)
+
+	/** The quantiles configured for tile and pyramid metadata */
+	def getQuantiles: Seq[Double] = {
+		val quantiles = getPropertyValue(QUANTILES).asScala.map(_.doubleValue())
+		if (quantiles.isEmpty) DEFAULT_QUANTILES else quantiles
+	}
+
+	override protected def create (): BinningAnalytic[_, _] = {
+		getPropertyValue(SKETCH_TYPE).toLowerCase match {
+			case "distinct" => new DistinctCountBinningAnalytic(getPropertyValue(PRECISION))
+			case "quantile" => new QuantileBinningAnalytic(getPropertyValue(COMPRESSION))
+		}
+	}
+}
+
+
+
+/**
+ * This analytic estimates the number of distinct values in a data set using HyperLogLog sketches.
+ *
+ * Aggregation never modifies its inputs, and is exactly associative and commutative, so the order in which
+ * partial results are combined does not matter.
+ *
+ * @param precision The number of hash bits used to pick a sketch register; see HyperLogLog.
+ */
+class DistinctCountAnalytic (precision: Int = HyperLogLog.DEFAULT_PRECISION)
+		extends Analytic[HyperLogLog]
+{
+	def aggregate (a: HyperLogLog, b: HyperLogLog): HyperLogLog = a.merge(b)
+	def defaultProcessedValue: HyperLogLog = new HyperLogLog(precision)
+	def defaultUnprocessedValue: HyperLogLog = new HyperLogLog(precision)
+}
+/**
+ * {@see DistinctCountAnalytic}
+ *
+ * Bins hold the sketches themselves; use DistinctCountEstimateBinningAnalytic to write just the estimate.
+ */
+class DistinctCountBinningAnalytic (precision: Int = HyperLogLog.DEFAULT_PRECISION)
+		extends DistinctCountAnalytic(precision)
+		with BinningAnalytic[HyperLogLog, HyperLogLog]
+{
+	def finish (value: HyperLogLog): HyperLogLog = value
+}
+/**
+ * {@see DistinctCountAnalytic}
+ *
+ * Bins hold the estimated distinct count.  These bins can no longer be merged with further data.
+ */
+class DistinctCountEstimateBinningAnalytic (precision: Int = HyperLogLog.DEFAULT_PRECISION)
+		extends DistinctCountAnalytic(precision)
+		with BinningAnalytic[HyperLogLog, JavaLong]
+{
+	def finish (value: HyperLogLog): JavaLong = Long.box(value.cardinality())
+}
+/**
+ * {@see DistinctCountAnalytic}
+ *
+ * The estimated distinct count is inserted into any relevant metadata.
+ */
+class DistinctCountTileAnalytic (analyticName: Option[String] = None,
+                                 precision: Int = HyperLogLog.DEFAULT_PRECISION)
+		extends DistinctCountAnalytic(precision)
+		with TileAnalytic[HyperLogLog]
+{
+	def name = analyticName.getOrElse("distinct")
+	override def storableValue (value: HyperLogLog, location: TileAnalytic.Locations.Value): Option[JSONObject] = {
+		val result = new JSONObject()
+		result.put(name, value.cardinality())
+		Some(result)
+	}
+}
+
+
+
+/**
+ * This analytic estimates quantiles of some quantity across a data set using t-digest sketches.
+ *
+ * Aggregation never modifies its inputs.  It is associative up to the accuracy of the sketch: combining partial
+ * results in a different order may give slightly different centroids, but within the same error bounds.
+ *
+ * @param compression The t-digest compression; see TDigest.
+ */
+class QuantileAnalytic (compression: Double = TDigest.DEFAULT_COMPRESSION)
+		extends Analytic[TDigest]
+{
+	def aggregate (a: TDigest, b: TDigest): TDigest = a.merge(b)
+	def defaultProcessedValue: TDigest = new TDigest(compression)
+	def defaultUnprocessedValue: TDigest = new TDigest(compression)
+}
+/**
+ * {@see QuantileAnalytic}
+ *
+ * Bins hold the sketches themselves, so any quantile may be read from them later.
+ */
+class QuantileBinningAnalytic (compression: Double = TDigest.DEFAULT_COMPRESSION)
+		extends QuantileAnalytic(compression)
+		with BinningAnalytic[TDigest, TDigest]
+{
+	def finish (value: TDigest): TDigest = value
+}
+/**
+ * {@see QuantileAnalytic}
+ *
+ * The requested quantiles, and the count of values, are inserted into any relevant metadata.
+ *
+ * @param quantiles The quantiles to write, each from 0 to 1
+ */
+class QuantileTileAnalytic (analyticName: Option[String] = None,
+                            quantiles: Seq[Double] = SketchAnalyticFactory.DEFAULT_QUANTILES,
+                            compression: Double = TDigest.DEFAULT_COMPRESSION)
+		extends QuantileAnalytic(compression)
+		with TileAnalytic[TDigest]
+{
+	def name = analyticName.getOrElse("quantiles")
+	override def storableValue (value: TDigest, location: TileAnalytic.Locations.Value): Option[JSONObject] = {
+		val subResult = new JSONObject()
+		subResult.put("count", value.getCount)
+		if (!value.isEmpty) quantiles.foreach(q => subResult.put(q.toString, value.quantile(q)))
+		val result = new JSONObject()
+		result.put(name, subResult)
+		Some(result)
+	}
+}
@@ -107,6 +107,146 @@ class StringScoreBinningAnalytic[T, JT]
 	}
 }
 
+/**
+ * A string score binning analytic that keeps a Space-Saving heavy-hitter sketch of
+ * at most capacity strings in each bin, rather than truncating arbitrarily or by
+ * local order at each aggregation.
+ *
+ * Each value is still a map from string to score; a map holding capacity entries is
+ * treated as a full sketch, whose smallest score bounds the score of any string it
+ * may have dropped.  Two sketches merge by summing the scores of each string, adding
+ * the other sketch's smallest score for strings it doesn't hold if it is full, and
+ * keeping the capacity highest-scoring strings.  Each merge is linear in the sizes of
+ * the two sketches; nothing is sorted until finish.
+ *
+ * For a bin whose scores total N, merged in any order, with non-negative scores
+ * summed by the base analytic:
+ * <ul>
+ *   <li>every reported score is at least the string's true score, and at most N/capacity
+ *       more than it</li>
+ *   <li>every string whose true score exceeds N/capacity is reported</li>
+ * </ul>
+ * Bins that never fill their sketch are exact.
+ *
+ * @param baseAnalytic See StringScoreAnalytic; it must sum scores for the bounds above to hold
+ * @param capacity The number of strings to keep in each bin's sketch
+ * @param order An optional ordering for the strings written to each bin.  If not
+ *              given, strings are written from highest to lowest score.
+ * @param storageLimit See StringScoreBinningAnalytic
+ * @tparam T See StringScoreAnalytic
+ * @tparam JT See StringScoreBinningAnalytic
+ */
+class SpaceSavingStringScoreBinningAnalytic[T, JT]
+	(baseAnalytic: BinningAnalytic[T, JT],
+	 capacity: Int,
+	 order: Option[((String, T), (String, T)) => Boolean] = None,
+	 storageLimit: Option[Int] = None)
+	(implicit numeric: Numeric[T])
+		extends StringScoreBinningAnalytic[T, JT](
+			baseAnalytic, Some(capacity),
+			order.orElse(Some((a: (String, T), b: (String, T)) => numeric.gt(a._2, b._2))),
+			storageLimit)
+{
+	require(capacity > 0, "Space-Saving sketch capacity must be positive")
+
+	override def aggregate (a: Map[String, T], b: Map[String, T]): Map[String, T] = {
+		if (a.isEmpty) b
+		else if (b.isEmpty) a
+		else if (1 == b.size && a.size < capacity) addSingle(a, b.head, true)
+		else if (1 == a.size && b.size < capacity) addSingle(b, a.head, false)
+		else {
+			// Any string a full sketch doesn't hold scored at most its minimum
+			val aMin = minimumIfFull(a)
+			val bMin = minimumIfFull(b)
+
+			val entries = new Array[(String, T)](a.size + b.size)
+			var n = 0
+			a.foreach{case (key, aValue) =>
+				val value = b.get(key) match {
+					case Some(bValue) => baseAnalytic.aggregate(aValue, bValue)
+					case None => bMin.map(baseAnalytic.aggregate(aValue, _)).getOrElse(aValue)
+				}
+				entries(n) = (key, value)
+				n += 1
+			}
+			b.foreach{case (key, bValue) =>
+				if (!a.contains(key)) {
+					entries(n) = (key, aMin.map(baseAnalytic.aggregate(_, bValue)).getOrElse(bValue))
+					n += 1
+				}
+			}
+
+			if (n > capacity) SpaceSavingStringScoreBinningAnalytic.selectTop(entries, n, capacity)
+			val builder = Map.newBuilder[String, T]
+			var i = 0
+			val kept = n min capacity
+			while (i < kept) {
+				builder += entries(i)
+				i += 1
+			}
+			builder.result()
+		}
+	}
+
+	// Add a single string to a sketch that isn't full; nothing can have been dropped
+	// from either, so this is exact
+	private def addSingle (sketch: Map[String, T], entry: (String, T), sketchFirst: Boolean): Map[String, T] = {
+		val (key, value) = entry
+		sketch.get(key) match {
+			case Some(current) =>
+				sketch.updated(key, if (sketchFirst) baseAnalytic.aggregate(current, value) else baseAnalytic.aggregate(value, current))
+			case None =>
+				sketch.updated(key, value)
+		}
+	}
+
+	private def minimumIfFull (sketch: Map[String, T]): Option[T] =
+		if (sketch.size < capacity) None
+		else Some(sketch.valuesIterator.min(numeric))
+}
+
+object SpaceSavingStringScoreBinningAnalytic {
+	/*
+	 * Partially order the first n entries so that the k highest scoring come first, in
+	 * linear expected time.  Equal scores are broken by string, so the strings kept
+	 * don't depend on the order in which they were merged.
+	 */
+	private[analytics] def selectTop[T] (entries: Array[(String, T)], n: Int, k: Int)
+	                                   (implicit numeric: Numeric[T]): Unit = {
+		def before (x: (String, T), y: (String, T)): Boolean = {
+			val cmp = numeric.compare(x._2, y._2)
+			cmp > 0 || (0 == cmp && x._1.compareTo(y._1) < 0)
+		}
+		def swap (i: Int, j: Int): Unit = {
+			val t = entries(i)
+			entries(i) = entries(j)
+			entries(j) = t
+		}
+
+		var low = 0
+		var high = n - 1
+		while (low < high) {
+			// Lomuto partition around the middle entry
+			swap((low + high) >>> 1, high)
+			val pivot = entries(high)
+			var store = low
+			var i = low
+			while (i < high) {
+				if (before(entries(i), pivot)) {
+					swap(i, store)
+					store += 1
+				}
+				i += 1
+			}
+			swap(store, high)
+
+			if (store == k || store == k - 1) return
+			else if (store < k) low = store + 1
+			else high = store - 1
+		}
+	}
+}
+
 /**
  * Extends the standard string score analytic into a tile analytic with scores keyed by string.
  *
@@ -30,6 +30,10 @@ import java.util.List;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
 import com.oculusinfo.factory.util.Pair;
 import com.oculusinfo.tilegen.graph.analytics.GraphAnalyticsRecord;
 import com.oculusinfo.tilegen.graph.analytics.GraphCommunity;
@@ -462,6 +466,61 @@ public class GraphAnalyticsTests {
 		GraphAnalyticsRecord c = new GraphAnalyticsRecord(2, Arrays.asList(community_c));		
 		
         Assert.assertEquals(c, GraphAnalyticsRecord.maxOfRecords(a, b));
-    }	
-	
+    }
+
+	private GraphCommunity communityOfSize(long id, long numNodes) {
+		return new GraphCommunity(_hierLevel, id, _coords, _radius, _degree, numNodes, _metadata,
+		                          _bIsPrimaryNode, _parentID, _parentCoords, _parentRadius,
+		                          _statsList, _interEdges, _intraEdges);
+	}
+
+	//---- Aggregation keeps the largest communities, in order, with ties in the order added
+	@Test
+	public void testTopCommunities () {
+		GraphAnalyticsRecord record = new GraphAnalyticsRecord(0, null);
+		for (int i = 0; i < 100; ++i) {
+			GraphCommunity community = communityOfSize(i, i % 40);
+			record = GraphAnalyticsRecord.addRecords(record, new GraphAnalyticsRecord(1, Arrays.asList(community)));
+		}
+
+		Assert.assertEquals(100, record.getNumCommunities());
+		List<GraphCommunity> communities = record.getCommunities();
+		Assert.assertEquals(25, communities.size());
+		// Sizes 39 down to 31 appear twice each (ids 39, 79, 38, 78, ...), then 30 (ids 30, 70) once more
+		for (int i = 0; i < 25; ++i) {
+			long size = 39 - i / 2;
+			long id = (0 == i % 2 ? size : size + 40);
+			Assert.assertEquals(size, communities.get(i).getNumNodes());
+			Assert.assertEquals(id, communities.get(i).getID());
+		}
+	}
+
+	//---- Records survive a round trip through their string form
+	@Test
+	public void testStringRoundTrip () {
+		GraphCommunity community_b = new GraphCommunity(_hierLevel, 456L, new Pair<Double, Double>(-3.3, 4.4e-7),
+		                                                3.4, 4, 54, "quote \" and \\ slash, comma ]}", true,
+		                                                _parentID, _parentCoords, _parentRadius,
+		                                                Arrays.asList(-1.5), null, _intraEdges);
+		GraphAnalyticsRecord a = new GraphAnalyticsRecord(3, Arrays.asList(_sampleCommunity, community_b));
+
+		Assert.assertEquals(a, GraphAnalyticsRecord.fromString(a.toString()));
+		Assert.assertEquals(_sampleRecord, GraphAnalyticsRecord.fromString(_sampleRecord.toString()));
+	}
+
+	//---- Records survive a round trip through their binary form, directly and via Kryo
+	@Test
+	public void testBinaryRoundTrip () {
+		GraphAnalyticsRecord a = GraphAnalyticsRecord.maxOfRecords(_sampleRecord);
+		GraphAnalyticsRecord b = GraphAnalyticsRecord.addRecords(_sampleRecord, a);
+
+		Assert.assertEquals(b, GraphAnalyticsRecordCodec.fromBytes(GraphAnalyticsRecordCodec.toBytes(b)));
+
+		Kryo kryo = new Kryo();
+		new GraphAnalyticsTileRegistrator().registerClasses(kryo);
+		Output output = new Output(1024, -1);
+		kryo.writeObject(output, b);
+		GraphAnalyticsRecord c = kryo.readObject(new Input(output.toBytes()), GraphAnalyticsRecord.class);
+		Assert.assertEquals(b, c);
+	}
 }
@@ -129,4 +129,49 @@ class OnDemandErrorHandlingTestSuite  extends FunSuite with SharedSparkContext w
 		assert(pyramidIoA.readTiles(pyramidId, null, List(new TileIndex(1, 0, 1, 1, 1)).asJava).isEmpty)
 		assert(pyramidIoA.readTiles(pyramidId, null, List(new TileIndex(1, 1, 0, 1, 1)).asJava).isEmpty)
 	}
+
+	test("Tiles remain readable once cached data is dropped - accumulator") {
+		val pyramidIoA = new OnDemandAccumulatorPyramidIO(sqlc)
+		pyramidIoA.initializeForRead(pyramidId, 1, 1, properties)
+		val index = new TileIndex(0, 0, 0, 1, 1)
+
+		assertTileContents(List[Double](7.0), pyramidIoA.readTiles(pyramidId, null, List(index).asJava).get(0))
+		assert(pyramidIoA.getCachedMemorySize > 0L)
+
+		pyramidIoA.uncacheTables()
+		assert(pyramidIoA.getCachedMemorySize === 0L)
+		assertTileContents(List[Double](7.0), pyramidIoA.readTiles(pyramidId, null, List(index).asJava).get(0))
+	}
+
+	test("Dropped tables are unregistered, and reloaded on the next read - accumulator") {
+		val pyramidIoA = new OnDemandAccumulatorPyramidIO(sqlc)
+		val tablesBefore = sqlc.tableNames.toSet
+		pyramidIoA.initializeForRead(pyramidId, 1, 1, properties)
+		val index = new TileIndex(0, 0, 0, 1, 1)
+		assertTileContents(List[Double](7.0), pyramidIoA.readTiles(pyramidId, null, List(index).asJava).get(0))
+		assert(sqlc.tableNames.toSet.size === tablesBefore.size + 1)
+
+		pyramidIoA.dropTables()
+		assert(pyramidIoA.getCachedMemorySize === 0L)
+		assert(sqlc.tableNames.toSet === tablesBefore)
+		assert(null == pyramidIoA.readTiles(pyramidId, null, List(index).asJava))
+
+		pyramidIoA.initializeForRead(pyramidId, 1, 1, properties)
+		assertTileContents(List[Double](7.0), pyramidIoA.readTiles(pyramidId, null, List(index).asJava).get(0))
+		pyramidIoA.dropTables()
+	}
+
+	test("Closed pyramid IOs drop their tables, and won't load them again") {
+		val pyramidIoA = new OnDemandAccumulatorPyramidIO(sqlc)
+		val tablesBefore = sqlc.tableNames.toSet
+		pyramidIoA.initializeForRead(pyramidId, 1, 1, properties)
+		val index = new TileIndex(0, 0, 0, 1, 1)
+		assertTileContents(List[Double](7.0), pyramidIoA.readTiles(pyramidId, null, List(index).asJava).get(0))
+
+		pyramidIoA.close()
+		assert(sqlc.tableNames.toSet === tablesBefore)
+		intercept[IllegalStateException](pyramidIoA.initializeForRead(pyramidId, 1, 1, properties))
+		assert(null == pyramidIoA.readTiles(pyramidId, null, List(index).asJava))
+		assert(sqlc.tableNames.toSet === tablesBefore)
+	}
 }
@@ -246,4 +246,37 @@ class SimpleOnDemandTileTestSuite extends FunSuite with SharedSparkContext with
 		assert(store.inUseCount === 0)
 		assert(store.availableCount === 4)
 	}
-}
\ No newline at end of file
+
+	test("Primitive accumulator aggregation") {
+		import com.oculusinfo.tilegen.tiling.analytics.{NumericMaxBinningAnalytic, NumericMeanBinningAnalytic, NumericSumBinningAnalytic}
+
+		// Count and sum analytics over doubles accumulate primitively; longs and means don't
+		assert(PrimitiveBinOperation.forAnalytic(new NumericSumBinningAnalytic[Double, java.lang.Double]()).map(_._1) ===
+			       Some(PrimitiveBinOperation.Sum))
+		assert(PrimitiveBinOperation.forAnalytic(new NumericMaxBinningAnalytic[Int, java.lang.Integer]()).map(_._1) ===
+			       Some(PrimitiveBinOperation.Max))
+		assert(PrimitiveBinOperation.forAnalytic(new NumericSumBinningAnalytic[Long, java.lang.Long]()) === None)
+		assert(PrimitiveBinOperation.forAnalytic(new NumericMeanBinningAnalytic[Double]()) === None)
+
+		// Partial results from two tasks, merged as on the driver
+		val param = new PrimitiveTileAccumulableParam(4, 4, PrimitiveBinOperation.Max)
+		val a = param.zero(null)
+		val b = param.zero(null)
+		assert(a.isEmpty)
+		param.addAccumulator(a, (0, 1.0))
+		param.addAccumulator(a, (0, 3.0))
+		param.addAccumulator(a, (5, Double.NaN))
+		param.addAccumulator(b, (0, 2.0))
+		param.addAccumulator(b, (5, 4.0))
+		param.addAccumulator(b, (15, -1.0))
+		val merged = param.addInPlace(a, b)
+		assert(merged.size === 3)
+		assert(merged(0) === 3.0)
+		assert(merged(5) === 4.0)
+		assert(merged(15) === -1.0)
+		assert(!merged.isOccupied(1))
+
+		// Merging into an empty accumulator keeps the other side's bins
+		assert(param.addInPlace(param.zero(null), b).size === 3)
+	}
+}
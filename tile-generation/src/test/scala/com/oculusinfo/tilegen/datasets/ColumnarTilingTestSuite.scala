@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2015 Uncharted Software Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tilegen.datasets
+
+
+
+import java.util.Properties
+
+import org.scalatest.FunSuite
+
+import org.apache.spark.SharedSparkContext
+
+import com.oculusinfo.tilegen.tiling.TestTileIO
+
+
+
+/**
+ * Tests that columnar tiling produces exactly the same pyramids as standard tiling
+ */
+class ColumnarTilingTestSuite extends FunSuite with SharedSparkContext with TileAssertions {
+	private def createTable (table: String, points: Int, xyFormat: String): Unit = {
+		val jsonData = (0 until points).map{n =>
+			val x = (n * 37 % 101) / 101.0 * 360.0 - 180.0
+			val y = (n * 53 % 97) / 97.0 * 170.0 - 85.0
+			("{\"x\": "+xyFormat+", \"y\": "+xyFormat+", \"count\": %d, \"data\": %f}").format(x, y, n % 13, n * 0.25)
+		}
+		sqlc.jsonRDD(sc.parallelize(jsonData, 3)).registerTempTable(table)
+	}
+
+	private def createTask (table: String, projection: Map[String, String], value: Map[String, String]) = {
+		val props = new Properties()
+		(Map("oculus.binning.name" -> "columnar",
+		     "oculus.binning.tileWidth" -> "4",
+		     "oculus.binning.tileHeight" -> "4",
+		     "oculus.binning.index.type" -> "cartesian",
+		     "oculus.binning.index.field.0" -> "x",
+		     "oculus.binning.index.field.1" -> "y",
+		     "oculus.binning.levels.0" -> "0,1",
+		     "oculus.binning.levels.1" -> "2") ++ projection ++ value).foreach{case (k, v) => props.setProperty(k, v)}
+		TilingTask(sqlc, table, props)
+	}
+
+	private def assertSameTiles (table: String, projection: Map[String, String], value: Map[String, String]): Unit = {
+		val tileIO = new TestTileIO
+		try {
+			val task = createTask(table, projection, value)
+			assert(task.supportsColumnarTiling)
+
+			task.doTiling(tileIO)
+			val expectedTiles = tileIO.getPyramid(task.getName).get.clone()
+			val expectedMetaData = tileIO.getMetaData(task.getName).get
+			tileIO.clearPyramid(task.getName)
+
+			createTask(table, projection, value).doColumnarTiling(tileIO)
+			val actualTiles = tileIO.getPyramid(task.getName).get
+			val actualMetaData = tileIO.getMetaData(task.getName).get
+
+			assert(expectedTiles.size > 0)
+			assert(expectedTiles.keySet === actualTiles.keySet)
+			expectedTiles.foreach{case (index, tile) => assertTileContents(tile, actualTiles(index))}
+			assert(expectedMetaData === actualMetaData)
+		} finally {
+			tileIO.clearPyramid("columnar")
+		}
+	}
+
+	private val geo = Map("oculus.binning.projection.type" -> "webmercator")
+	private val crossplot = Map("oculus.binning.projection.type" -> "areaofinterest",
+	                            "oculus.binning.projection.autobounds" -> "true")
+
+	private val count = Map("oculus.binning.value.type" -> "count",
+	                        "oculus.binning.value.valueType" -> "int",
+	                        "oculus.binning.value.serializer" -> "[int]-a")
+	private def aggregate (field: String, valueType: String, aggregation: String) =
+		Map("oculus.binning.value.type" -> "field",
+		    "oculus.binning.value.field" -> field,
+		    "oculus.binning.value.valueType" -> valueType,
+		    "oculus.binning.value.aggregation" -> aggregation,
+		    "oculus.binning.value.serializer" -> s"[${valueType}]-a")
+
+	test("Columnar geo heatmap matches standard tiling") {
+		createTable("columnar_geo", 500, "%f")
+		assertSameTiles("columnar_geo", geo, count)
+		assertSameTiles("columnar_geo", geo, aggregate("data", "double", "sum"))
+		assertSameTiles("columnar_geo", geo, aggregate("count", "long", "max"))
+	}
+
+	test("Columnar crossplot heatmap matches standard tiling") {
+		createTable("columnar_crossplot", 500, "%.0f")
+		assertSameTiles("columnar_crossplot", crossplot, count)
+		assertSameTiles("columnar_crossplot", crossplot, aggregate("count", "long", "sum"))
+		assertSameTiles("columnar_crossplot", crossplot, aggregate("data", "double", "min"))
+	}
+
+	test("Columnar tiling requires numeric index columns") {
+		val jsonData = Seq("{\"x\": \"a\", \"y\": 1.0}", "{\"x\": \"b\", \"y\": 2.0}")
+		sqlc.jsonRDD(sc.parallelize(jsonData)).registerTempTable("columnar_strings")
+		val task = createTask("columnar_strings", crossplot ++ Map("oculus.binning.projection.autobounds" -> "false"), count)
+		assert(!task.supportsColumnarTiling)
+		intercept[UnsupportedOperationException] {
+			task.doColumnarTiling(new TestTileIO)
+		}
+	}
+}
@@ -85,4 +85,17 @@ class DeferredTilePyramidTests extends FunSuite {
 		assert(200.0 === bounds.getMinY)
 		assert(300.0 === bounds.getMaxY)
 	}
+
+	test("Tile Pyramid construction - area of interest, estimated autobounds") {
+		val factory = new DeferredTilePyramidFactory(null, Arrays.asList("pyramid"))
+		factory.readConfiguration(new JSONObject("{\"pyramid\": {\"type\": \"EPSG:4326\", \"autobounds\": \"true\", \"autoboundsSample\": 0.1, \"autoboundsTrim\": 0.01}}"))
+		val deferred = factory.produce(classOf[DeferredTilePyramid])
+		assert(deferred.usesAutoBounds)
+		assert(deferred.estimatesBounds)
+		assert(0.1 === deferred.boundsSample)
+		assert(0.01 === deferred.boundsTrim)
+
+		factory.readConfiguration(new JSONObject("{\"pyramid\": {\"type\": \"WebMercator\", \"autoboundsSample\": 0.1}}"))
+		assert(!factory.produce(classOf[DeferredTilePyramid]).estimatesBounds)
+	}
 }
@@ -29,7 +29,7 @@ import java.sql.{Date, Timestamp}
 import java.util
 import java.util.Properties
 import com.oculusinfo.binning.util.JsonUtilities
-import com.oculusinfo.tilegen.tiling.analytics.{NumericMaxBinningAnalytic, NumericSumBinningAnalytic, NumericMinBinningAnalytic}
+import com.oculusinfo.tilegen.tiling.analytics.{NumericMaxBinningAnalytic, NumericSumBinningAnalytic, NumericMinBinningAnalytic, QuantileBinningAnalytic}
 import com.oculusinfo.tilegen.util.PropertiesWrapper
 import org.apache.spark.SharedSparkContext
 import org.apache.spark.sql.types.IntegerType
@@ -37,7 +37,8 @@ import org.apache.spark.sql.types.LongType
 import org.apache.spark.sql.types.DoubleType
 import org.apache.spark.sql.types.TimestampType
 import org.scalatest.FunSuite
-import com.oculusinfo.binning.io.serialization.impl.KryoSerializer
+import com.oculusinfo.binning.io.serialization.impl.{HyperLogLogAvroSerializer, KryoSerializer}
+import com.oculusinfo.binning.util.HyperLogLog
 
 
 
@@ -179,4 +180,27 @@ class FactoriesTestSuite extends FunSuite with SharedSparkContext {
 		assert(valext.binningAnalytic.isInstanceOf[NumericSumBinningAnalytic[_, _]])
 		assert(valext.serializer.isInstanceOf[KryoSerializer[_]])
 	}
+
+	test("Test sketch value extractors") {
+		val props = new Properties()
+		props.setProperty("oculus.binning.value.type", "sketch")
+		props.setProperty("oculus.binning.value.field", "a")
+		props.setProperty("oculus.binning.value.precision", "10")
+
+		val factory1 = ValueExtractorFactory(null, util.Arrays.asList("oculus", "binning", "value"))
+		factory1.readConfiguration(JsonUtilities.propertiesObjToJSON(props))
+		val valext1 = factory1.produce(classOf[ValueExtractor[_, _]])
+		assert(valext1.isInstanceOf[DistinctCountValueExtractor])
+		assert(valext1.serializer.isInstanceOf[HyperLogLogAvroSerializer])
+		assert(10 === valext1.convert(Seq("x")).asInstanceOf[HyperLogLog].getPrecision)
+
+		props.setProperty("oculus.binning.value.sketch", "quantile")
+		props.setProperty("oculus.binning.value.serializer.framework", "kryo")
+		val factory2 = ValueExtractorFactory(null, util.Arrays.asList("oculus", "binning", "value"))
+		factory2.readConfiguration(JsonUtilities.propertiesObjToJSON(props))
+		val valext2 = factory2.produce(classOf[ValueExtractor[_, _]])
+		assert(valext2.isInstanceOf[QuantileValueExtractor])
+		assert(valext2.binningAnalytic.isInstanceOf[QuantileBinningAnalytic])
+		assert(valext2.serializer.isInstanceOf[KryoSerializer[_]])
+	}
 }
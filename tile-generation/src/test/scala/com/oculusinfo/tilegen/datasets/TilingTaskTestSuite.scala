@@ -39,6 +39,7 @@ import org.apache.spark.{SparkContext, SharedSparkContext}
 
 import com.oculusinfo.binning.{TileData, TileIndex}
 import com.oculusinfo.tilegen.binning.OnDemandAccumulatorPyramidIO
+import com.oculusinfo.tilegen.tiling.{CartesianIndexScheme, TestTileIO}
 
 
 /**
@@ -134,4 +135,91 @@ class TilingTaskTestSuite extends FunSuite with SharedSparkContext with BeforeAn
 			                    List(new TileIndex(1, 1, 1, 2, 2)).asJava).asScala
 		assert(0 === tile111.size)
 	}
+
+	private def createAutoBoundsTask (table: String, extraProperties: Map[String, String]): TilingTask[_, _, _, _] = {
+		val props = new Properties()
+		props.setProperty("oculus.binning.name", table)
+		props.setProperty("oculus.binning.projection.type", "areaofinterest")
+		props.setProperty("oculus.binning.projection.autobounds", "true")
+		props.setProperty("oculus.binning.index.type", "cartesian")
+		props.setProperty("oculus.binning.index.field.0", "x")
+		props.setProperty("oculus.binning.index.field.1", "y")
+		props.setProperty("oculus.binning.tileWidth", "4")
+		props.setProperty("oculus.binning.tileHeight", "4")
+		props.setProperty("oculus.binning.levels.0", "0")
+		props.setProperty("oculus.binning.levels.1", "1")
+		extraProperties.foreach{case (key, value) => props.setProperty(key, value)}
+		TilingTask(sqlc, table, props)
+	}
+
+	test("Auto-bounds are calculated while caching data for tiling, in a single pass") {
+		val scans = sc.accumulator(0)
+		val points = sc.parallelize(0 until 100, 4).map{n => scans += 1; (n % 10 * 1.5, n / 10 * 2.5)}
+		sqlc.createDataFrame(points).toDF("x", "y").registerTempTable("autobounds")
+
+		val tileIO = new TestTileIO
+		try {
+			val task = createAutoBoundsTask("autobounds", Map())
+			task.doTiling(tileIO)
+			assert(100 === scans.value)
+
+			// Bounds should match those found by a separate bounds query
+			val expected = createAutoBoundsTask("autobounds", Map()).getTilePyramid.getTileBounds(new TileIndex(0, 0, 0))
+			val actual = task.getTilePyramid.getTileBounds(new TileIndex(0, 0, 0))
+			assert(expected === actual)
+			assert(0.0 === actual.getMinX)
+			assert(0.0 === actual.getMinY)
+
+			val tile = tileIO.getTile("autobounds", new TileIndex(0, 0, 0, 4, 4)).get
+			val total = (for (x <- 0 until 4; y <- 0 until 4) yield tile.getBin(x, y).asInstanceOf[Number].doubleValue).sum
+			assert(100.0 === total)
+		} finally {
+			tileIO.clearPyramid("autobounds")
+		}
+	}
+
+	test("Estimated auto-bounds trim outliers") {
+		val points = (0 until 100).map(n => (n.toDouble, n.toDouble)) :+ ((1000000.0, 1000000.0))
+		sqlc.createDataFrame(sc.parallelize(points, 4)).toDF("x", "y").registerTempTable("outliers")
+
+		val tileIO = new TestTileIO
+		try {
+			val task = createAutoBoundsTask("outliers", Map("oculus.binning.projection.autoboundsSample" -> "0.9999",
+			                                                "oculus.binning.projection.autoboundsTrim" -> "0.02"))
+			task.doTiling(tileIO)
+
+			val bounds = task.getTilePyramid.getTileBounds(new TileIndex(0, 0, 0))
+			assert(bounds.getMaxX < 100.0)
+			assert(bounds.getMaxY < 100.0)
+
+			// Records outside the estimated bounds should be dropped, not put in out-of-range tiles
+			val tiles = tileIO.getPyramid("outliers").get
+			tiles.keys.foreach{index =>
+				assert(index.getX < (1 << index.getLevel))
+				assert(index.getY < (1 << index.getLevel))
+			}
+			val tile = tiles(new TileIndex(0, 0, 0, 4, 4))
+			val total = (for (x <- 0 until 4; y <- 0 until 4) yield tile.getBin(x, y).asInstanceOf[Number].doubleValue).sum
+			assert(total > 90.0 && total < 100.0)
+		} finally {
+			tileIO.clearPyramid("outliers")
+		}
+	}
+
+	test("Estimated bounds keep a bounded sample") {
+		val points = sc.parallelize((0 until 10000).map(n => ((n.toDouble, (9999 - n).toDouble), 1, None)), 8)
+		val indexScheme = new CartesianIndexScheme
+
+		assert((0.0, 9999.0, 0.0, 9999.0) === TilingTask.findBounds(points, indexScheme, 1.0, 0.1, 80))
+
+		val (minX, maxX, minY, maxY) = TilingTask.findBounds(points, indexScheme, 0.5, 0.1, 800)
+		assert(math.abs(minX - 1000.0) < 300.0)
+		assert(math.abs(maxX - 9000.0) < 300.0)
+		assert(math.abs(minY - 1000.0) < 300.0)
+		assert(math.abs(maxY - 9000.0) < 300.0)
+
+		// However small the sample, it should still find something between the extremes
+		val (tinyMinX, tinyMaxX, _, _) = TilingTask.findBounds(points, indexScheme, 0.5, 0.1, 1)
+		assert(0.0 <= tinyMinX && tinyMinX <= tinyMaxX && tinyMaxX <= 9999.0)
+	}
 }
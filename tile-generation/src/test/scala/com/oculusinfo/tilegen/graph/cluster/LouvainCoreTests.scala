@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2015 Uncharted Software Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.oculusinfo.tilegen.graph.cluster
+
+
+
+import scala.util.Random
+
+import org.apache.spark.SharedSparkContext
+import org.apache.spark.graphx.{Edge, Graph}
+import org.scalatest.FunSuite
+
+
+
+class LouvainCoreTests extends FunSuite with SharedSparkContext {
+	test("Community messages merge matching entries") {
+		var message = new CommunityMessage(5L, 10L, 1L)
+		Seq((3L, 4L, 2L), (5L, 10L, 3L), (5L, 9L, 1L), (7L, 1L, 4L), (3L, 4L, 1L)).foreach { case (c, s, w) =>
+			message = message.merge(new CommunityMessage(c, s, w))
+		}
+		val entries = (0 until message.size).map(i => (message.community(i), message.sigmaTot(i), message.weight(i)))
+		assert(List((3L, 4L, 3L), (5L, 9L, 1L), (5L, 10L, 4L), (7L, 1L, 4L)) === entries.toList)
+
+		// and large messages merge the same way
+		def build (entries: Seq[(Long, Long, Long)]) =
+			entries.map(e => new CommunityMessage(e._1, e._2, e._3)).reduce(_ merge _)
+		val a = build((0L until 20L).map(n => (n * 2, 0L, 1L)))
+		val b = build((0L until 20L).map(n => (n * 3, 0L, 2L)))
+		val merged = a.merge(b)
+		val expected = ((0L until 20L).map(_ * 2) ++ (0L until 20L).map(_ * 3)).groupBy(c => c).keys.toList.sorted
+		assert(expected === (0 until merged.size).map(merged.community(_)).toList)
+		assert(3L === merged.weight(expected.indexOf(6L)))
+		assert(1L === merged.weight(expected.indexOf(4L)))
+		assert(2L === merged.weight(expected.indexOf(9L)))
+	}
+
+	test("Modularity comparison is exact") {
+		def compare (kA: Long, sA: Long, kB: Long, sB: Long, ki: Long, m: Long) =
+			LouvainCore.compareQ(LouvainCore.q(kA, ki, sA, m), LouvainCore.qError(kA, ki, sA, m), kA, sA,
+			                     LouvainCore.q(kB, ki, sB, m), LouvainCore.qError(kB, ki, sB, m), kB, sB,
+			                     ki, m)
+
+		assert(1 === compare(2L, 3L, 1L, 3L, 1L, 10L))
+		assert(-1 === compare(1L, 3L, 1L, 2L, 1L, 10L))
+		// 1 - 1/3 and 11 - 31/3 are equal, though neither is exactly representable
+		assert(0 === compare(1L, 1L, 11L, 31L, 1L, 3L))
+		// differences far below double precision
+		val big = 1L << 60
+		assert(1 === compare(big, 1L, big, 2L, 1L, big))
+		assert(-1 === compare(big, 2L, big, 1L, 1L, big))
+		assert(0 === compare(big, 1L, big, 1L, 1L, big))
+	}
+
+	test("Connected cliques are clustered separately") {
+		// two 5-cliques, connected by a single edge
+		val clique1 = for (i <- 1L to 5L; j <- (i + 1) to 5L) yield (i, j)
+		val clique2 = clique1.map(e => (e._1 + 10L, e._2 + 10L))
+		val edges = (clique1 ++ clique2 :+ (5L, 11L)).map(e => new Edge(e._1, e._2, 1L))
+		val graph = Graph.fromEdges(sc.parallelize(edges, 2), "")
+
+		val (q, labeled, passes) = LouvainCore.louvainFromStandardGraph(sc, graph)
+		val communities = labeled.vertices.map(v => (v._1, v._2.community)).collect.toMap
+		assert(communities.size === 10)
+		assert(1 === (1L to 5L).map(communities).toSet.size)
+		assert(1 === (11L to 15L).map(communities).toSet.size)
+		assert(communities(1L) != communities(11L))
+		// modularity of the two-clique split: 2 * (20/42 - (21/42)^2)
+		assert(math.abs(q - 2 * (20.0 / 42.0 - 0.25)) < 1e-9)
+	}
+
+	// Label propagation as LouvainCore did it before it used CommunityMessages and double gains,
+	// run on the driver: BigDecimal gains over maps of (community, sigmaTot) -> edge weight.
+	// Returns the modularity, the community of each vertex, and the number of passes.
+	private def referenceLouvain (edges: Seq[(Long, Long, Long)]): (Double, Map[Long, Long], Int) = {
+		case class State (community: Long, sigmaTot: Long, nodeWeight: Long, changed: Boolean)
+		val nodeWeights = edges.flatMap(e => Seq((e._1, e._3), (e._2, e._3)))
+			.groupBy(_._1).map { case (v, weights) => (v, weights.map(_._2).sum) }
+		val M = nodeWeights.values.sum
+		var states = nodeWeights.map { case (v, w) => (v, State(v, w, w, false)) }
+
+		def messages = edges.flatMap { case (src, dst, w) =>
+			Seq((dst, ((states(src).community, states(src).sigmaTot), w)),
+			    (src, ((states(dst).community, states(dst).sigmaTot), w)))
+		}.groupBy(_._1).map { case (v, msgs) =>
+			(v, msgs.map(_._2).groupBy(_._1).map { case (key, weights) => (key, weights.map(_._2).sum) })
+		}
+		def q (current: Long, test: Long, testSigmaTot: Long, edgeWeight: Long, k: Long): BigDecimal = {
+			val isCurrent = current == test
+			val sigmaTot = if (isCurrent) BigDecimal(testSigmaTot) - BigDecimal(k) else BigDecimal(testSigmaTot)
+			if (isCurrent && sigmaTot == 0) BigDecimal(0.0)
+			else BigDecimal(edgeWeight) - BigDecimal(k) * sigmaTot / BigDecimal(M)
+		}
+
+		var updated = -1L
+		var even = false
+		var count = 0
+		var stop = 0
+		var updatedLastPhase = 0L
+		do {
+			count += 1
+			even = !even
+			val msgs = messages
+			val labeled = states.map { case (v, s) =>
+				var best = s.community
+				var maxDeltaQ = BigDecimal(0.0)
+				var bestSigmaTot = 0L
+				msgs(v).foreach { case ((community, sigmaTot), weight) =>
+					val deltaQ = q(s.community, community, sigmaTot, weight, s.nodeWeight)
+					if (deltaQ > maxDeltaQ || (deltaQ > 0 && deltaQ == maxDeltaQ && community > best)) {
+						maxDeltaQ = deltaQ
+						best = community
+						bestSigmaTot = sigmaTot
+					}
+				}
+				if (best != s.community && ((even && s.community > best) || (!even && s.community < best)))
+					(v, s.copy(community = best, sigmaTot = bestSigmaTot, changed = true))
+				else
+					(v, s.copy(changed = false))
+			}
+			val sigmaTots = labeled.values.groupBy(_.community).map { case (c, members) => (c, members.map(_.nodeWeight).sum) }
+			states = labeled.map { case (v, s) => (v, s.copy(sigmaTot = sigmaTots(s.community))) }
+
+			if (even) updated = 0
+			updated += states.values.count(_.changed)
+			if (!even) {
+				if (updated >= updatedLastPhase - 1) stop += 1
+				updatedLastPhase = updated
+			}
+		} while (stop <= 1 && (even || updated > 0))
+
+		val msgs = messages
+		val modularity = states.toSeq.map { case (v, s) =>
+			val kIn = msgs(v).filter(_._1._1 == s.community).values.sum
+			val qi = kIn.toDouble / M - (s.sigmaTot.toDouble * s.nodeWeight) / math.pow(M, 2)
+			if (qi < 0) 0.0 else qi
+		}.sum
+		(modularity, states.map { case (v, s) => (v, s.community) }, count / 2)
+	}
+
+	private def partition (communities: Map[Long, Long]): Set[Set[Long]] =
+		communities.groupBy(_._2).values.map(_.keySet).toSet
+
+	private def plantedPartition (random: Random, groups: Int, groupSize: Int, pIn: Double, pOut: Double) =
+		for (i <- 0L until groups * groupSize; j <- (i + 1) until groups * groupSize
+		     if random.nextDouble < (if (i / groupSize == j / groupSize) pIn else pOut))
+		yield (i, j, 1L + random.nextInt(3))
+
+	// Preferential attachment, giving a power-law degree distribution
+	private def powerLaw (random: Random, nodes: Int, edgesPerNode: Int) = {
+		val ends = scala.collection.mutable.ArrayBuffer(0L, 1L)
+		val edges = scala.collection.mutable.LinkedHashSet((0L, 1L))
+		for (n <- 2L until nodes) {
+			(1 to edgesPerNode).map(_ => ends(random.nextInt(ends.size))).distinct.foreach { target =>
+				if (edges.add((target, n))) ends ++= Seq(target, n)
+			}
+		}
+		edges.toSeq.map { case (a, b) => (a, b, 1L + random.nextInt(5)) }
+	}
+
+	test("Communities and modularity match the previous implementation on generated graphs") {
+		val graphs = Seq("planted partition" -> plantedPartition(new Random(11), 4, 25, 0.3, 0.02),
+		                 "power law" -> powerLaw(new Random(7), 150, 2),
+		                 "power law tree" -> powerLaw(new Random(3), 150, 1))
+		graphs.foreach { case (name, edges) =>
+			val graph = Graph.fromEdges(sc.parallelize(edges.map(e => new Edge(e._1, e._2, e._3)), 3), "")
+			val (q, labeled, passes) = LouvainCore.louvainFromStandardGraph(sc, graph)
+			val communities = labeled.vertices.map(v => (v._1, v._2.community)).collect.toMap
+
+			val (expectedQ, expectedCommunities, expectedPasses) = referenceLouvain(edges)
+			assert(partition(expectedCommunities) === partition(communities), name)
+			assert(expectedPasses === passes, name)
+			assert(math.abs(expectedQ - q) < 1e-9, name)
+			assert(partition(communities).size > 1, name)
+		}
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2015 Uncharted Software Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.oculusinfo.tilegen.graph.util
+
+
+
+import org.scalatest.FunSuite
+
+
+
+class CommunityPartitionerTests extends FunSuite {
+	test("Large communities get dedicated partitions") {
+		val sizes = Seq(1L -> 50000L, 2L -> 20000L, 3L -> 10L, 4L -> 5L)
+		val partitioner = CommunityPartitioner(sizes, 2, 10000L)
+
+		assert(4 === partitioner.numPartitions)
+		assert(2 === partitioner.numDedicated)
+		assert(0 === partitioner.getPartition(1L))
+		assert(1 === partitioner.getPartition(2L))
+		assert(Set(2, 3) === Set(partitioner.getPartition(3L), partitioner.getPartition(4L)))
+	}
+
+	test("Only large communities are kept by the partitioner") {
+		val sizes = (1L to 100L).map(id => id -> id)
+		val partitioner = CommunityPartitioner(sizes, 4, 98L)
+
+		assert(3 === partitioner.numDedicated)
+		assert(7 === partitioner.numPartitions)
+		assert(Seq(0, 1, 2) === Seq(100L, 99L, 98L).map(partitioner.getPartition(_)))
+		(1L to 97L).foreach{id =>
+			val p = partitioner.getPartition(id)
+			assert(3 <= p && p < 7)
+		}
+		assert(partitioner === CommunityPartitioner(sizes.filter(_._2 >= 98L), 4, 98L))
+	}
+
+	test("Describe partition loads") {
+		val partitioner = CommunityPartitioner(Seq(1L -> 500L), 2, 100L)
+		assert("1 dedicated partitions (largest load 500), 2 packed partitions (max load 30, mean load 20.0, imbalance 1.50)"
+			       === partitioner.describe(Array(500L, 10L, 30L)))
+	}
+
+	test("Unknown communities are hashed into packed partitions") {
+		val partitioner = CommunityPartitioner(Seq(1L -> 100L), 3, 50L)
+		(-100L to 100L).filter(_ != 1L).foreach{id =>
+			val p = partitioner.getPartition(id)
+			assert(1 <= p && p < 4)
+		}
+	}
+}
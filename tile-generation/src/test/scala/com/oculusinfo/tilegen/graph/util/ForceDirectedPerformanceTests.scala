@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2015 Uncharted Software Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.oculusinfo.tilegen.graph.util
+
+
+
+import scala.util.Random
+
+
+
+/**
+ * Benchmark of ForceDirected layout iterations on large, randomly connected graphs, with serial
+ * and with parallel repulsion.  Not run as part of the test suite; run main directly, optionally
+ * passing the number of iterations to run, the number of threads to use for parallel repulsion, and
+ * the node counts to try.
+ *
+ * Usage: ForceDirectedPerformanceTests [iterations [threads [numNodes ...]]]
+ */
+object ForceDirectedPerformanceTests {
+	def main (args: Array[String]): Unit = {
+		val iterations = if (args.length > 0) args(0).toInt else 5
+		val threads = if (args.length > 1) args(1).toInt else Runtime.getRuntime.availableProcessors
+		val sizes = if (args.length > 2) args.drop(2).map(_.toInt).toSeq else Seq(10000, 100000, 1000000)
+
+		sizes.foreach{numNodes =>
+			val random = new Random(numNodes)
+			val nodes = (0L until numNodes.toLong).map(id => (id, 1L, 2, ""))
+			// A ring, plus one random chord per node
+			val edges = (0L until numNodes.toLong).flatMap(id =>
+				Seq((id, (id + 1) % numNodes, 1L), (id, random.nextInt(numNodes).toLong, 1L))
+			)
+
+			Seq(1, threads).distinct.foreach{parallelism =>
+				val layouter = new ForceDirected
+				layouter._parallelism = Some(parallelism)
+				val startTime = System.currentTimeMillis()
+				layouter.run(nodes, edges, -1L, (0.0, 0.0, 256.0, 256.0), 0, maxIterations = iterations)
+				val endTime = System.currentTimeMillis()
+
+				val elapsed = (endTime - startTime) / 1000.0
+				val iterationTime = layouter._iterationTime / 1000.0
+				println("%d nodes, %d thread(s): %.3f seconds total; %d iterations in %.3f seconds, %.3f seconds per iteration".format(
+					        numNodes, parallelism, elapsed, layouter._iterations, iterationTime, iterationTime / layouter._iterations))
+			}
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2015 Uncharted Software Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.oculusinfo.tilegen.graph.util
+
+
+
+import scala.util.Random
+
+import org.scalatest.FunSuite
+
+
+
+class ForceDirectedTests extends FunSuite {
+	test("Quadtree repulsion with no pseudo nodes matches direct repulsion") {
+		val random = new Random(17)
+		val numNodes = 200
+		val x = Array.fill(numNodes)(random.nextDouble * 100.0)
+		val y = Array.fill(numNodes)(random.nextDouble * 100.0)
+		val r = Array.fill(numNodes)(0.01)
+
+		val tree = new FlatQuadTree
+		tree.build(x, y, r, numNodes)
+		val stack = new Array[Int](tree.stackSize)
+		val treeSum = new RepulsionSum(1.0)
+		val directSum = new RepulsionSum(1.0)
+		for (n <- 0 until numNodes) {
+			treeSum.reset()
+			tree.addRepulsion(n, 1.0, 0.0, treeSum, stack)
+			directSum.reset()
+			for (m <- 0 until numNodes if m != n) directSum.add(x(n), y(n), r(n), x(m), y(m), r(m), 1.0, 1.0)
+
+			assert(math.abs(treeSum.x - directSum.x) <= 1E-9 * math.abs(directSum.x) + 1E-12)
+			assert(math.abs(treeSum.y - directSum.y) <= 1E-9 * math.abs(directSum.y) + 1E-12)
+		}
+	}
+
+	test("Layout is deterministic, including parallel repulsion") {
+		// Big enough to use the parallel repulsion calculation
+		val numNodes = 3000
+		val nodes = (0L until numNodes.toLong).map(id => (id, 1L, 2, "node "+id))
+		val edges = (0L until numNodes.toLong).map(id => (id, (id * 7 + 1) % numNodes, 1L))
+
+		def layout (parallelism: Int) = {
+			val layouter = new ForceDirected()
+			layouter._parallelism = Some(parallelism)
+			layouter.run(nodes, edges, 0L, (0.0, 0.0, 256.0, 256.0), 0, maxIterations = 10)
+		}
+
+		val first = layout(4)
+		val second = layout(4)
+		assert(numNodes === first.length)
+		assert(first.toList === second.toList)
+		// Parallel repulsion sums each node's forces in the same order as serial repulsion
+		assert(first.toList === layout(1).toList)
+		// Everything is scaled to fit within the circle around the bounding box
+		val parentR = math.sqrt(2.0) * 128.0
+		first.foreach{n =>
+			val (dx, dy) = (n._2 - 128.0, n._3 - 128.0)
+			assert(math.sqrt(dx*dx + dy*dy) <= parentR + 1E-9)
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2015 Uncharted Software Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tilegen.live
+
+
+
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+import scala.concurrent.{Await, ExecutionContext, Future}
+import scala.concurrent.duration._
+
+import org.scalatest.FunSuite
+import org.scalatest.BeforeAndAfterAll
+
+import org.apache.spark.{LocalSparkContext, SparkConf, SparkContext}
+
+
+
+object LiveTileJobsTestSuite {
+	// Tasks run in the test's JVM, so they can report their progress here
+	val heavyTasksDone = new AtomicInteger(0)
+}
+
+class LiveTileJobsTestSuite extends FunSuite with BeforeAndAfterAll {
+	@transient private var sc: SparkContext = null
+	// Background requests each need their own thread, however few cores there are
+	private val requestThreads = Executors.newCachedThreadPool()
+	private implicit val requestContext = ExecutionContext.fromExecutorService(requestThreads)
+
+	override def beforeAll = {
+		val conf = new SparkConf(false)
+			.set("spark.driver.allowMultipleContexts", "true")
+			.set("spark.scheduler.mode", "FAIR")
+		sc = new SparkContext("local[4]", "test", conf)
+	}
+
+	override def afterAll = {
+		LocalSparkContext.stop(sc)
+		sc = null
+		requestThreads.shutdown()
+	}
+
+	// Run a job of the given number of tasks, each taking the given time
+	private def slowJob (tasks: Int, taskMillis: Long): Long =
+		sc.parallelize(1 to tasks, tasks).map{n => Thread.sleep(taskMillis); n}.count
+
+	// Start the given request in the background, and wait until its job is running
+	private def startRequest (jobs: LiveTileJobs, pool: String, requestId: String,
+	                          user: Option[String] = None)
+	                         (job: => Long = slowJob(40, 250)): Future[Long] = {
+		val request = Future(jobs.run(pool, requestId, None, user)(job))
+		while (sc.statusTracker.getJobIdsForGroup(requestId).isEmpty) Thread.sleep(10)
+		Thread.sleep(100)
+		request
+	}
+
+	test("A long request doesn't hold up short requests in other pools") {
+		val jobs = new LiveTileJobs(sc)
+		val heavyTasksDone = LiveTileJobsTestSuite.heavyTasksDone
+		heavyTasksDone.set(0)
+		val longRequest = startRequest(jobs, LiveTileJobs.layerPool("heavy"), "heavy")(
+			sc.parallelize(1 to 40, 40).map{n =>
+				Thread.sleep(250)
+				LiveTileJobsTestSuite.heavyTasksDone.incrementAndGet
+				n
+			}.count
+		)
+
+		assert(4L === jobs.run(LiveTileJobs.layerPool("light"), "light")(slowJob(4, 10)))
+
+		// The short request should only have had to wait for the long one's running tasks, not for
+		// all of them, as it would in a single FIFO queue
+		val doneFirst = heavyTasksDone.get
+		assert(doneFirst < 40, "Short request waited for all "+doneFirst+" tasks of the long one")
+		assert(40L === Await.result(longRequest, 30.seconds))
+	}
+
+	test("Cancelled requests stop, and report their cancellation") {
+		val jobs = new LiveTileJobs(sc)
+		val request = startRequest(jobs, LiveTileJobs.layerPool("abandoned"), "abandoned")()
+		assert(jobs.activeRequests === Seq("abandoned"))
+
+		assert(1 === jobs.cancelPool(LiveTileJobs.layerPool("abandoned")))
+		val e = intercept[LiveTileCancelledException](Await.result(request, 5.seconds))
+		assert("abandoned" === e.requestId)
+		assert(jobs.activeRequests.isEmpty)
+		assert(!jobs.cancel("abandoned"))
+	}
+
+	test("Users share a bounded set of pools, but are cancelled separately") {
+		val jobs = new LiveTileJobs(sc, None, 1)
+		assert(Set("live-users-0") === (1 to 100).map(n => jobs.userPool("user"+n)).toSet)
+		val defaultJobs = new LiveTileJobs(sc)
+		assert(LiveTileJobs.DEFAULT_USER_POOLS === (1 to 1000).map(n => defaultJobs.userPool("user"+n)).toSet.size)
+
+		val bobsRequest = startRequest(jobs, jobs.userPool("bob"), "bob's", Some("bob"))()
+		val alicesRequest = startRequest(jobs, jobs.userPool("alice"), "alice's", Some("alice"))(slowJob(8, 50))
+
+		assert(1 === jobs.cancelUser("bob"))
+		intercept[LiveTileCancelledException](Await.result(bobsRequest, 5.seconds))
+		assert(8L === Await.result(alicesRequest, 30.seconds))
+		assert(0 === jobs.cancelUser("alice"))
+	}
+
+	test("Requests are cancelled at their deadline") {
+		val jobs = new LiveTileJobs(sc, Some(60000L))
+		val start = System.currentTimeMillis
+		intercept[LiveTileCancelledException](jobs.run(LiveTileJobs.layerPool("late"), "late", Some(300L))(slowJob(40, 250)))
+		assert(System.currentTimeMillis - start < 2000L)
+
+		// The thread's scheduling properties are restored afterwards
+		assert(null == sc.getLocalProperty(LiveTileJobs.POOL_PROPERTY))
+		assert(40L === slowJob(40, 1))
+	}
+
+	test("Requests can't extend the default deadline") {
+		val jobs = new LiveTileJobs(sc, Some(300L))
+		val start = System.currentTimeMillis
+		intercept[LiveTileCancelledException](jobs.run(LiveTileJobs.layerPool("greedy"), "greedy", Some(60000L))(slowJob(40, 250)))
+		assert(System.currentTimeMillis - start < 2000L)
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2015 Uncharted Software Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tilegen.pipeline
+
+
+
+import java.util.Properties
+
+import scala.util.Random
+
+import org.apache.spark.{SparkConf, SparkContext}
+import org.apache.spark.sql.{Row, SQLContext}
+import org.apache.spark.sql.types.{DoubleType, StructField, StructType}
+
+import com.oculusinfo.tilegen.datasets.TilingTask
+import com.oculusinfo.tilegen.tiling.TestTileIO
+
+
+
+/**
+ * Benchmark of heatmap tiling, comparing standard tiling with the columnar path used by
+ * PipelineOperations, for the geo (count over a web mercator projection) and crossplot
+ * (sum over automatically bounded axes) heatmaps of the bundled example pipelines.  Also
+ * checks that both paths produce identical tiles.  Not run as part of the test suite; run
+ * main directly, optionally passing the number of points and the maximum level.
+ *
+ * Usage: HeatMapTilingPerformanceTests [numPoints [maxLevel]]
+ */
+object HeatMapTilingPerformanceTests {
+	def main (args: Array[String]): Unit = {
+		val numPoints = if (args.length > 0) args(0).toInt else 2000000
+		val maxLevel = if (args.length > 1) args(1).toInt else 5
+
+		val conf = new SparkConf(false)
+		conf.set("spark.driver.allowMultipleContexts", "true")
+		val sc = new SparkContext("local", "heatmap benchmark", conf)
+		val sqlc = new SQLContext(sc)
+
+		val schema = StructType(Seq(StructField("x", DoubleType), StructField("y", DoubleType), StructField("value", DoubleType)))
+		val rows = sc.parallelize(0 until 8, 8).flatMap{partition =>
+			val random = new Random(partition)
+			(0 until numPoints / 8).map(n =>
+				Row(random.nextGaussian() * 40.0, random.nextGaussian() * 20.0, random.nextDouble() * 100.0))
+		}
+		val data = sqlc.createDataFrame(rows, schema).cache()
+		data.registerTempTable("benchmark")
+		data.count()
+
+		val common = Map("oculus.binning.name" -> "benchmark",
+		                 "oculus.binning.index.type" -> "cartesian",
+		                 "oculus.binning.index.field.0" -> "x",
+		                 "oculus.binning.index.field.1" -> "y",
+		                 "oculus.binning.levels.0" -> (0 to maxLevel).mkString(","))
+		val geo = Map("oculus.binning.projection.type" -> "webmercator",
+		              "oculus.binning.value.type" -> "count",
+		              "oculus.binning.value.valueType" -> "int",
+		              "oculus.binning.value.serializer" -> "[int]-a")
+		val crossplot = Map("oculus.binning.projection.type" -> "areaofinterest",
+		                    "oculus.binning.projection.autobounds" -> "true",
+		                    "oculus.binning.value.type" -> "field",
+		                    "oculus.binning.value.field" -> "value",
+		                    "oculus.binning.value.valueType" -> "double",
+		                    "oculus.binning.value.aggregation" -> "sum",
+		                    "oculus.binning.value.serializer" -> "[double]-a")
+
+		def createTask (config: Map[String, String]) = {
+			val props = new Properties()
+			(common ++ config).foreach{case (k, v) => props.setProperty(k, v)}
+			TilingTask(sqlc, "benchmark", props)
+		}
+
+		Seq(("geo", geo), ("crossplot", crossplot)).foreach{case (name, config) =>
+			val tileIO = new TestTileIO
+
+			var startTime = System.currentTimeMillis()
+			createTask(config).doTiling(tileIO)
+			val standardTime = (System.currentTimeMillis() - startTime) / 1000.0
+			val standardTiles = tileIO.getPyramid("benchmark").get.clone()
+			tileIO.clearPyramid("benchmark")
+
+			startTime = System.currentTimeMillis()
+			createTask(config).doColumnarTiling(tileIO)
+			val columnarTime = (System.currentTimeMillis() - startTime) / 1000.0
+			val columnarTiles = tileIO.getPyramid("benchmark").get
+			tileIO.clearPyramid("benchmark")
+
+			val identical = standardTiles.keySet == columnarTiles.keySet && standardTiles.forall{case (index, expected) =>
+				val actual = columnarTiles(index)
+				(0 until index.getXBins).forall(x => (0 until index.getYBins).forall(y =>
+					expected.getBin(x, y) == actual.getBin(x, y)))
+			}
+			println("%s: standard %.3f seconds, columnar %.3f seconds; %d tiles, identical: %s".format(
+				        name, standardTime, columnarTime, standardTiles.size, identical))
+		}
+
+		sc.stop()
+	}
+}
@@ -24,7 +24,11 @@
  */
 package com.oculusinfo.tilegen.pipeline
 
+import java.io.File
+import java.nio.file.Files
+
 import org.apache.spark.SharedSparkContext
+import org.apache.spark.storage.StorageLevel
 import org.scalatest.FunSuite
 
 class PipelinesTests extends FunSuite with SharedSparkContext {
@@ -120,4 +124,117 @@ class PipelinesTests extends FunSuite with SharedSparkContext {
 
 		assertResult(List("foo-0", "foo-1"))(data)
 	}
+
+	test("Test shared stage output is computed once and released") {
+		def run (storageLevel: Option[StorageLevel]): Int = {
+			val computations = sc.accumulator(0)
+			def loadOp(input: PipelineData) = {
+				val rdd = sc.parallelize(1 to 10).map{n => computations += 1; (n, n.toString)}
+				PipelineData(input.sqlContext, input.sqlContext.createDataFrame(rdd))
+			}
+			def countOp(input: PipelineData) = {
+				assertResult(10)(input.srdd.count())
+				input
+			}
+
+			val load = PipelineStage("load", loadOp(_))
+			load.addChild(PipelineStage("count0", countOp(_)))
+			load.addChild(PipelineStage("count1", countOp(_)))
+
+			val persistedBefore = sc.getPersistentRDDs.size
+			val timings = PipelineTree.execute(load, sqlc, None, storageLevel)
+			assertResult(List("load", "count0", "count1"))(timings.map(_.name))
+			assertResult(persistedBefore)(sc.getPersistentRDDs.size)
+			computations.value
+		}
+
+		assertResult(10)(run(Some(StorageLevel.MEMORY_ONLY)))
+		assertResult(20)(run(None))
+	}
+
+	test("Test profiled stages are charged for their own computation") {
+		// Returns the number of records of the first stage computed by the time the second stage starts
+		def run (profile: Boolean): (Int, Seq[PipelineStageTiming]) = {
+			val computations = sc.accumulator(0)
+			var computedBeforeChild = -1
+			def loadOp(input: PipelineData) = {
+				val rdd = sc.parallelize(1 to 10).map{n => computations += 1; (n, n.toString)}
+				PipelineData(input.sqlContext, input.sqlContext.createDataFrame(rdd))
+			}
+			def countOp(input: PipelineData) = {
+				computedBeforeChild = computations.value
+				assertResult(10)(input.srdd.count())
+				input
+			}
+
+			val load = PipelineStage("load", loadOp(_))
+			load.addChild(PipelineStage("count", countOp(_)))
+			val persistedBefore = sc.getPersistentRDDs.size
+			val timings = PipelineTree.execute(load, sqlc, profile = profile)
+			assertResult(persistedBefore)(sc.getPersistentRDDs.size)
+			// Profiled output is persisted for the child, so is only computed once
+			assertResult(10)(computations.value)
+			(computedBeforeChild, timings)
+		}
+
+		val (lazyComputed, lazyTimings) = run(false)
+		assertResult(0)(lazyComputed)
+		assert(lazyTimings.forall(!_.materialized))
+
+		val (profiledComputed, profiledTimings) = run(true)
+		assertResult(10)(profiledComputed)
+		assertResult(List("load", "count"))(profiledTimings.map(_.name))
+		assert(profiledTimings.forall(_.materialized))
+	}
+
+	test("Test symbolic pipeline checkpointing") {
+		val checkpointDir = Files.createTempDirectory("pipeline-checkpoints").toFile
+		try {
+			var loads = 0
+			var results = List[Long]()
+
+			def parseLoadOp(args: Map[String, String]) = (input: PipelineData) => {
+				loads += 1
+				val data = (1 to args("count").toInt).map(n => (n, n.toString))
+				PipelineData(input.sqlContext, input.sqlContext.createDataFrame(sc.parallelize(data)))
+			}
+			def parseCountOp(args: Map[String, String]) = (input: PipelineData) => {
+				results = results :+ input.srdd.count()
+				input
+			}
+
+			def run (count: Int) =
+				Pipelines()
+					.registerPipelineOp("load", parseLoadOp)
+					.registerPipelineOp("count", parseCountOp)
+					.createPipeline("pipeline")
+					.addPipelineStage("load", "load", Map("count" -> count.toString), "pipeline", "root", sqlc)
+					.addPipelineStage("count-0", "count", Map(), "pipeline", "load", sqlc)
+					.addPipelineStage("count-1", "count", Map(), "pipeline", "load", sqlc)
+					.runPipeline("pipeline", sqlc, Some(StorageLevel.MEMORY_ONLY), Some(checkpointDir.getAbsolutePath))
+
+			val firstTimings = run(5)
+			assertResult(1)(loads)
+			assert(firstTimings.forall(!_.fromCheckpoint))
+
+			// Unchanged stages are read from their checkpoint, and stages above them skipped
+			val secondTimings = run(5)
+			assertResult(1)(loads)
+			assertResult(List("load", "count-0", "count-1"))(secondTimings.map(_.name))
+			assert(secondTimings.head.fromCheckpoint)
+
+			// Changed stages are recomputed
+			run(7)
+			assertResult(2)(loads)
+			assertResult(List(5L, 5L, 5L, 5L, 7L, 7L))(results)
+		} finally {
+			def removeRecursively (file: File): Unit = {
+				if (file.isDirectory) {
+					file.listFiles().foreach(removeRecursively)
+				}
+				file.delete()
+			}
+			removeRecursively(checkpointDir)
+		}
+	}
 }
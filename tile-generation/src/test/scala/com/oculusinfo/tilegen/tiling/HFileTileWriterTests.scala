@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2015 Uncharted Software Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.oculusinfo.tilegen.tiling
+
+
+
+import java.io.{ByteArrayInputStream, File}
+import java.lang.{Double => JavaDouble}
+import java.nio.file.Files
+
+import scala.collection.mutable.ArrayBuffer
+
+import org.apache.avro.file.CodecFactory
+import org.apache.hadoop.conf.Configuration
+import org.apache.hadoop.fs.{FileSystem, Path}
+import org.apache.hadoop.hbase.CellUtil
+import org.apache.hadoop.hbase.io.hfile.{CacheConfig, HFile}
+import org.apache.hadoop.hbase.util.Bytes
+
+import org.scalatest.FunSuite
+
+import org.apache.spark.SharedSparkContext
+
+import com.oculusinfo.binning.TileData
+import com.oculusinfo.binning.TileIndex
+import com.oculusinfo.binning.impl.DenseTileData
+import com.oculusinfo.binning.io.impl.HBasePyramidIO
+import com.oculusinfo.binning.io.serialization.impl.PrimitiveAvroSerializer
+
+
+
+/**
+ * Tests HFile generation for bulk loading.  This only needs the local file system - no HBase
+ * cluster is involved.
+ */
+class HFileTileWriterTestSuite extends FunSuite with SharedSparkContext {
+	private def deleteRecursively (file: File): Unit = {
+		if (file.isDirectory) file.listFiles.foreach(deleteRecursively)
+		file.delete
+	}
+
+	test("HFiles are written in row key order, and contain every tile") {
+		val serializer = new PrimitiveAvroSerializer(classOf[JavaDouble], CodecFactory.nullCodec())
+		val indices = Seq(0, 1, 2, 4, 11).flatMap(level =>
+			for (x <- 0 until (1 << level) by ((1 << level)/4 max 1); y <- 0 until (1 << level) by ((1 << level)/4 max 1))
+			yield new TileIndex(level, x, y, 2, 2)
+		)
+		val tiles = sc.parallelize(scala.util.Random.shuffle(indices), 4).map(index =>
+			new DenseTileData[JavaDouble](index, (index.getLevel * 10000 + index.getX * 100 + index.getY).toDouble): TileData[JavaDouble]
+		)
+
+		val outputDir = Files.createTempDirectory("hfile-tile-writer-test").toFile
+		val hfileDir = new File(outputDir, "hfiles")
+		try {
+			val conf = new Configuration()
+			val (count, partitioner) = HFileTileWriter.writeHFiles(tiles, serializer,
+			                                                       new HBasePyramidIO.StandardHBaseTilePutter,
+			                                                       hfileDir.getAbsolutePath, conf)
+			assert(indices.size === count)
+
+			// All tiles go in the tile family
+			val familyDir = new File(hfileDir, new String(HBasePyramidIO.TILE_COLUMN.getFamily))
+			assert(familyDir.isDirectory)
+			assert(Set(familyDir.getName) === hfileDir.listFiles.map(_.getName).toSet)
+
+			// Read back each file; files come from disjoint ranges, so sorting files by their first
+			// row should give us all rows in order
+			val fs = FileSystem.getLocal(conf)
+			val files = familyDir.listFiles.filter(!_.getName.startsWith(".")).map{file =>
+				val reader = HFile.createReader(fs, new Path(file.getAbsolutePath), new CacheConfig(conf), conf)
+				reader.loadFileInfo()
+				val scanner = reader.getScanner(false, false)
+				val rows = ArrayBuffer[(String, TileData[JavaDouble])]()
+				if (scanner.seekTo()) {
+					do {
+						val cell = scanner.getKeyValue
+						val row = new String(CellUtil.cloneRow(cell))
+						val tile = serializer.deserialize(HBasePyramidIO.tileIndexFromRowId(row),
+						                                  new ByteArrayInputStream(CellUtil.cloneValue(cell)))
+						rows += ((row, tile))
+					} while (scanner.next())
+				}
+				reader.close(false)
+				rows.toSeq
+			}.filter(_.nonEmpty).sortBy(_.head._1)
+			assert(partitioner.numPartitions >= files.length)
+
+			files.foreach{rows =>
+				rows.map(_._1).sliding(2).filter(_.size == 2).foreach(pair => assert(pair(0) < pair(1)))
+			}
+			val allRows = files.flatten
+			allRows.map(_._1).sliding(2).foreach(pair => assert(pair(0) < pair(1)))
+			assert(indices.map(HBasePyramidIO.rowIdFromTileIndex).sorted === allRows.map(_._1))
+
+			allRows.foreach{case (row, tile) =>
+				val index = tile.getDefinition
+				assert((index.getLevel * 10000 + index.getX * 100 + index.getY).toDouble === tile.getBin(1, 1).doubleValue)
+			}
+		} finally {
+			deleteRecursively(outputDir)
+		}
+	}
+
+	test("HFiles for Morton-keyed tables are written in Morton row key order") {
+		val layout = HBasePyramidIO.RowKeyLayout.MORTON
+		val serializer = new PrimitiveAvroSerializer(classOf[JavaDouble], CodecFactory.nullCodec())
+		val indices = Seq(1, 3, 5).flatMap(level =>
+			for (x <- 0 until (1 << level); y <- 0 until (1 << level)) yield new TileIndex(level, x, y, 2, 2)
+		)
+		val tiles = sc.parallelize(scala.util.Random.shuffle(indices), 4).map(index =>
+			new DenseTileData[JavaDouble](index, index.getLevel.toDouble): TileData[JavaDouble]
+		)
+
+		val outputDir = Files.createTempDirectory("hfile-tile-writer-test").toFile
+		val hfileDir = new File(outputDir, "hfiles")
+		try {
+			val conf = new Configuration()
+			// Appending out of order would fail, so getting here at all means the order was right
+			val (count, partitioner) = HFileTileWriter.writeHFiles(tiles, serializer,
+			                                                       new HBasePyramidIO.StandardHBaseTilePutter(layout),
+			                                                       hfileDir.getAbsolutePath, conf,
+			                                                       (index: TileIndex) => layout.getOrderKey(index))
+			assert(indices.size === count)
+
+			val fs = FileSystem.getLocal(conf)
+			val familyDir = new File(hfileDir, new String(HBasePyramidIO.TILE_COLUMN.getFamily))
+			val rows = familyDir.listFiles.filter(!_.getName.startsWith(".")).flatMap{file =>
+				val reader = HFile.createReader(fs, new Path(file.getAbsolutePath), new CacheConfig(conf), conf)
+				reader.loadFileInfo()
+				val scanner = reader.getScanner(false, false)
+				val fileRows = ArrayBuffer[Array[Byte]]()
+				if (scanner.seekTo()) {
+					do {
+						fileRows += CellUtil.cloneRow(scanner.getKeyValue)
+					} while (scanner.next())
+				}
+				reader.close(false)
+				fileRows
+			}
+			def coordinates (index: TileIndex) = (index.getLevel, index.getX, index.getY)
+			assert(indices.map(coordinates).toSet === rows.map(row => coordinates(layout.getTileIndex(row))).toSet)
+
+			// Split keys fall in the same layout, so each must fall between the rows of the files
+			val splits = new HBaseTileIO("", "", "").getSplitKeys(partitioner, layout)
+			assert(splits.forall(_.length == rows.head.length))
+			splits.sliding(2).filter(_.size == 2).foreach(pair => assert(Bytes.compareTo(pair(0), pair(1)) < 0))
+		} finally {
+			deleteRecursively(outputDir)
+		}
+	}
+}
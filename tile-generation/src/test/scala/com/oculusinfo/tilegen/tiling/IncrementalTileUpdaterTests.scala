@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2015 Uncharted Software Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tilegen.tiling
+
+
+
+import java.io.File
+import java.io.FileWriter
+import java.lang.{Double => JavaDouble}
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import scala.collection.mutable.Queue
+import scala.util.Try
+
+import org.scalatest.FunSuite
+
+import org.apache.avro.file.CodecFactory
+
+import org.apache.spark.SharedSparkContext
+import org.apache.spark.rdd.RDD
+import org.apache.spark.streaming.Milliseconds
+import org.apache.spark.streaming.Seconds
+import org.apache.spark.streaming.StreamingContext
+import org.apache.spark.streaming.dstream.LocalFileInputDStream
+import org.apache.spark.streaming.scheduler.StreamingListener
+import org.apache.spark.streaming.scheduler.StreamingListenerBatchCompleted
+
+import com.oculusinfo.binning.TileData
+import com.oculusinfo.binning.TileIndex
+import com.oculusinfo.binning.impl.AOITilePyramid
+import com.oculusinfo.binning.io.serialization.impl.PrimitiveAvroSerializer
+import com.oculusinfo.binning.metadata.PyramidMetaData
+import com.oculusinfo.tilegen.tiling.analytics.AnalysisDescription
+import com.oculusinfo.tilegen.tiling.analytics.AnalysisDescriptionTileWrapper
+import com.oculusinfo.tilegen.tiling.analytics.CompositeAnalysisDescription
+import com.oculusinfo.tilegen.tiling.analytics.NumericMaxTileAnalytic
+import com.oculusinfo.tilegen.tiling.analytics.NumericMinTileAnalytic
+import com.oculusinfo.tilegen.tiling.analytics.NumericSumBinningAnalytic
+
+
+
+object IncrementalTileUpdaterTestSuite {
+	type Record = ((Double, Double), Double)
+
+	def parse (line: String): Record = {
+		val fields = line.split(",").map(_.toDouble)
+		((fields(0), fields(1)), fields(2))
+	}
+}
+class IncrementalTileUpdaterTestSuite extends FunSuite with SharedSparkContext {
+	import IncrementalTileUpdaterTestSuite._
+
+	private val pyramid = new AOITilePyramid(0.0, 0.0, 7.9999, 7.9999)
+	private val levels = List(1, 2)
+	private val serializer = new PrimitiveAvroSerializer(classOf[JavaDouble], CodecFactory.bzip2Codec())
+	private val coordFcn: Record => Try[(Double, Double)] = record => Try(record._1)
+	private val valueFcn: Record => Try[Double] = record => Try(record._2)
+
+	private def extremaAnalytics: Option[AnalysisDescription[TileData[JavaDouble], (Double, Double)]] = {
+		val analytic = new CompositeAnalysisDescription(
+			new AnalysisDescriptionTileWrapper[JavaDouble, Double](_.doubleValue, new NumericMinTileAnalytic[Double]()),
+			new AnalysisDescriptionTileWrapper[JavaDouble, Double](_.doubleValue, new NumericMaxTileAnalytic[Double]()))
+		analytic.addGlobalAccumulator(sc)
+		levels.foreach(level => analytic.addLevelAccumulator(sc, level))
+		Some(analytic)
+	}
+
+	private def writeBatch (directory: File, name: String, records: Seq[Record]): File = {
+		val file = new File(directory, name)
+		val writer = new FileWriter(file)
+		records.foreach{case ((x, y), v) => writer.write(x+","+y+","+v+"\n")}
+		writer.close()
+		file
+	}
+
+	test("Incremental updates match a full rebuild") {
+		val batch1 = List(((0.5, 0.5), 1.0), ((1.5, 6.5), 2.0), ((6.5, 6.5), 3.0), ((3.5, 2.5), 4.0), ((5.5, 0.5), 5.0))
+		val batch2 = List(((0.5, 0.5), 10.0), ((6.5, 6.5), 1.0), ((7.5, 1.5), 2.0), ((2.5, 5.5), 3.0))
+
+		val directory = File.createTempFile("incremental-test", "")
+		directory.delete()
+		directory.mkdir()
+		val ssc = new StreamingContext(sc, Seconds(1))
+		val tileIO = new TestTileIO
+		val fullId = "incremental test full"
+		val incrementalId = "incremental test incremental"
+		try {
+			val stream = new LocalFileInputDStream(ssc, directory.getAbsolutePath)
+			val data1 = stream.filesToRDD(Seq(writeBatch(directory, "batch1.csv", batch1))).map(parse)
+			val data2 = stream.filesToRDD(Seq(writeBatch(directory, "batch2.csv", batch2))).map(parse)
+
+			// Full rebuild of both batches
+			new UniversalBinner().binAndWriteData(data1 union data2, coordFcn, valueFcn,
+			                                      new CartesianIndexScheme,
+			                                      new NumericSumBinningAnalytic[Double, JavaDouble](),
+			                                      extremaAnalytics, None, serializer, pyramid,
+			                                      None, None, fullId, tileIO, List(levels),
+			                                      xBins=4, yBins=4)
+
+			// First batch, then the second as an update
+			new UniversalBinner().binAndWriteData(data1, coordFcn, valueFcn,
+			                                      new CartesianIndexScheme,
+			                                      new NumericSumBinningAnalytic[Double, JavaDouble](),
+			                                      extremaAnalytics, None, serializer, pyramid,
+			                                      None, None, incrementalId, tileIO, List(levels),
+			                                      xBins=4, yBins=4)
+			val updater = new IncrementalTileUpdater[Record, (Double, Double), Double, (Double, Double), JavaDouble](
+				tileIO, incrementalId, pyramid, new CartesianIndexScheme, coordFcn, valueFcn,
+				new NumericSumBinningAnalytic[Double, JavaDouble](), _.doubleValue, serializer,
+				extremaAnalytics, levels, xBins=4, yBins=4)
+			// Tiles (1, 0, 0), (1, 1, 1), (1, 1, 0), (1, 0, 1), (2, 0, 0), (2, 3, 3), (2, 3, 0), and (2, 1, 2)
+			assert(8 === updater.update(data2))
+
+			val fullTiles = tileIO.getPyramid(fullId).get
+			val incrementalTiles = tileIO.getPyramid(incrementalId).get
+			assert(fullTiles.keySet === incrementalTiles.keySet)
+			fullTiles.foreach{case (index, fullTile) =>
+				val incrementalTile = incrementalTiles(index)
+				for (x <- 0 until index.getXBins; y <- 0 until index.getYBins)
+					assert(fullTile.getBin(x, y) == incrementalTile.getBin(x, y), "at "+index+"["+x+", "+y+"]")
+			}
+			assert(11.0 === tileIO.getTile(incrementalId, new TileIndex(2, 0, 0, 4, 4)).get.getBin(1, 2))
+
+			val fullMetaData = new PyramidMetaData(tileIO.getMetaData(fullId).get)
+			val incrementalMetaData = new PyramidMetaData(tileIO.getMetaData(incrementalId).get)
+			for (key <- "global" :: levels.map(_.toString); name <- List("minimum", "maximum")) {
+				assert(null != fullMetaData.getCustomMetaData(key, name))
+				assert(fullMetaData.getCustomMetaData(key, name) === incrementalMetaData.getCustomMetaData(key, name))
+			}
+			assert(levels === incrementalMetaData.getValidZoomLevels.toArray.toList)
+		} finally {
+			ssc.stop(false)
+			tileIO.clearPyramid(fullId)
+			tileIO.clearPyramid(incrementalId)
+			directory.listFiles.foreach(_.delete)
+			directory.delete()
+		}
+	}
+
+	test("Streamed batches are applied as they arrive") {
+		val batch1 = List(((0.5, 0.5), 1.0), ((6.5, 6.5), 3.0))
+		val batch2 = List(((0.5, 0.5), 10.0), ((7.5, 1.5), 2.0))
+
+		val ssc = new StreamingContext(sc, Milliseconds(100))
+		val tileIO = new TestTileIO
+		val pyramidId = "incremental test stream"
+		try {
+			new UniversalBinner().binAndWriteData(sc.parallelize(batch1), coordFcn, valueFcn,
+			                                      new CartesianIndexScheme,
+			                                      new NumericSumBinningAnalytic[Double, JavaDouble](),
+			                                      extremaAnalytics, None, serializer, pyramid,
+			                                      None, None, pyramidId, tileIO, List(levels),
+			                                      xBins=4, yBins=4)
+			val updater = new IncrementalTileUpdater[Record, (Double, Double), Double, (Double, Double), JavaDouble](
+				tileIO, pyramidId, pyramid, new CartesianIndexScheme, coordFcn, valueFcn,
+				new NumericSumBinningAnalytic[Double, JavaDouble](), _.doubleValue, serializer,
+				extremaAnalytics, levels, xBins=4, yBins=4)
+
+			// The stream's first two batches each hold one of our new records, so the same updater
+			// has to be shipped and applied more than once
+			val queue = Queue[RDD[Record]](batch2.map(record => sc.parallelize(List(record))): _*)
+			updater.updateFromStream(ssc.queueStream(queue, true))
+			val batchCompleted = new CountDownLatch(batch2.size)
+			ssc.addStreamingListener(new StreamingListener {
+				override def onBatchCompleted (batch: StreamingListenerBatchCompleted): Unit =
+					batchCompleted.countDown()
+			})
+			ssc.start()
+			assert(batchCompleted.await(60, TimeUnit.SECONDS))
+
+			val tiles = tileIO.getPyramid(pyramidId).get
+			// Tiles (1, 0, 0) and (2, 0, 0) are updated; (1, 1, 0) and (2, 3, 0) are new
+			assert(6 === tiles.size)
+			assert(11.0 === tileIO.getTile(pyramidId, new TileIndex(2, 0, 0, 4, 4)).get.getBin(1, 2))
+			assert(3.0 === tileIO.getTile(pyramidId, new TileIndex(2, 3, 3, 4, 4)).get.getBin(1, 2))
+			assert(2.0 === tileIO.getTile(pyramidId, new TileIndex(2, 3, 0, 4, 4)).get.getBin(3, 0))
+		} finally {
+			ssc.stop(false)
+			tileIO.clearPyramid(pyramidId)
+		}
+	}
+}
@@ -27,7 +27,9 @@ package com.oculusinfo.tilegen.tiling
 
 
 
+import java.io.File
 import java.lang.{Double => JavaDouble, Integer => JavaInt}
+import java.nio.file.Files
 
 import com.oculusinfo.binning.TileData.StorageType
 import com.oculusinfo.binning.io.serialization.impl.PrimitiveAvroSerializer
@@ -38,6 +40,7 @@ import org.json.JSONObject
 
 import scala.collection.JavaConverters._
 import scala.util.{Try, Success, Failure}
+import scala.reflect.ClassTag
 
 import org.scalatest.FunSuite
 
@@ -49,8 +52,10 @@ import com.oculusinfo.binning.impl.AOITilePyramid
 import com.oculusinfo.binning._
 import com.oculusinfo.binning.impl.DenseTileData
 import com.oculusinfo.binning.impl.SparseTileData
+import com.oculusinfo.binning.metadata.PyramidMetaData
 
-import com.oculusinfo.tilegen.tiling.analytics.{MonolithicAnalysisDescription, NumericSumTileAnalytic, AnalysisDescription, NumericSumBinningAnalytic}
+import com.oculusinfo.tilegen.tiling.analytics.{MonolithicAnalysisDescription, NumericSumTileAnalytic, AnalysisDescription, NumericSumBinningAnalytic, BinningAnalytic}
+import com.oculusinfo.tilegen.util.ExtendedNumeric
 
 
 class RDDBinnerTestSuite extends FunSuite with SharedSparkContext with TileAssertions {
@@ -110,6 +115,112 @@ class RDDBinnerTestSuite extends FunSuite with SharedSparkContext with TileAsser
 		assert(tile10.get.isInstanceOf[SparseTileData[_]])
 	}
 
+	test("Binning profile") {
+		// Eight good records, and one whose index can't be determined
+		val data = sc.parallelize(Range(0, 9)).map(n =>
+			((n.toDouble, (7-n).toDouble), 1.0)
+		)
+
+		val binner = new UniversalBinner
+		// Tile sizes are measured as tiles are serialized, so write somewhere that serializes them
+		val outputDir = Files.createTempDirectory("binning-profile-test").toFile
+		val tileIO = new LocalTileIO("avro", outputDir.getPath)
+		val pyramid = new AOITilePyramid(0.0, 0.0, 7.9999, 7.9999)
+		val pyramidId = "profile_test"
+
+		val coordFcn: (((Double, Double), Double)) => Try[(Double, Double)] = record =>
+			if (record._1._2 < 0) Failure(new IllegalArgumentException("Off the pyramid")) else Success(record._1)
+		val valueFcn: (((Double, Double), Double)) => Try[Double] = record => Try(record._2)
+		val tileAnalytics: Option[AnalysisDescription[TileData[JavaDouble], Double]] = None
+		val dataAnalytics: Option[AnalysisDescription[((Double, Double), Double), Double]] = None
+
+		var tileSizes: Seq[Long] = Seq()
+		val profile = try {
+			binner.binAndWriteData(data, coordFcn, valueFcn, new CartesianIndexScheme,
+			                       new NumericSumBinningAnalytic[Double, JavaDouble](), tileAnalytics, dataAnalytics,
+			                       new PrimitiveAvroSerializer(classOf[JavaDouble], CodecFactory.bzip2Codec()),
+			                       pyramid, None, None,
+			                       pyramidId, tileIO, List(List(0, 1)), xBins=4, yBins=4,
+			                       profile=true)
+
+			val metaData = tileIO.readMetaData(pyramidId).get
+			// Each tile file holds exactly the serialized tile
+			def tileFiles (file: File): Seq[File] =
+				if (file.isDirectory) file.listFiles.toSeq.flatMap(tileFiles)
+				else if (file.getName.endsWith(".avro")) Seq(file)
+				else Seq()
+			tileSizes = tileFiles(outputDir).map(_.length)
+			new JSONObject(metaData.getCustomMetaData(BinningProfile.METADATA_KEY))
+		} finally {
+			def deleteRecursively (file: File): Unit = {
+				if (file.isDirectory) file.listFiles.foreach(deleteRecursively)
+				file.delete
+			}
+			deleteRecursively(outputDir)
+		}
+
+		val approximate = profile.getJSONArray("approximate")
+		assert(BinningProfile.APPROXIMATE_METRICS === Range(0, approximate.length).map(approximate.getString(_)).toList)
+
+		val transform = profile.getJSONObject("transform")
+		assert(9 === transform.getLong("recordsRead"))
+		assert(1 === transform.getLong("recordsRejected"))
+
+		val levelSets = profile.getJSONArray("levelSets")
+		assert(1 === levelSets.length)
+		val levelSet = levelSets.getJSONObject(0)
+
+		val locate = levelSet.getJSONObject("locate")
+		assert(8 === locate.getLong("recordsIn"))
+		assert(16 === locate.getLong("binEntries"))
+
+		// One tile on level 0 and two on level 1, each with a quarter of their bins filled
+		val combine = levelSet.getJSONObject("combine")
+		assert(3 === combine.getLong("tiles"))
+		assert(3 === combine.getLong("sparseTiles"))
+		assert(0.0 === combine.getDouble("denseRatio"))
+		val binFill = combine.getJSONArray("binFill")
+		assert(BinningProfile.FILL_BUCKETS === binFill.length)
+		assert(List(0L, 0L, 3L, 0L, 0L, 0L, 0L, 0L, 0L, 0L) === Range(0, binFill.length).map(binFill.getLong(_)).toList)
+		assert(combine.getLong("shuffleRecordsWritten") > 0)
+		assert(combine.getLong("shuffleBytesWritten") > 0)
+
+		val write = levelSet.getJSONObject("write")
+		assert(3 === write.getLong("tiles"))
+		assert(write.getLong("bytes") > 0)
+		assert(3 === tileSizes.size)
+		assert(tileSizes.sum === write.getLong("bytes"))
+		assert(tileSizes.min === write.getLong("minBytesPerTile"))
+		assert(tileSizes.max === write.getLong("maxBytesPerTile"))
+		assert(write.getInt("batches") > 0)
+		val latency = write.getJSONObject("batchLatencyMs")
+		assert(latency.getDouble("p50") <= latency.getDouble("p99"))
+		assert(latency.getDouble("p99") <= latency.getDouble("max"))
+
+		assert(levelSet.getJSONArray("sparkStages").length > 0)
+	}
+
+	test("Binning is not profiled by default") {
+		val data = sc.parallelize(Range(0, 8)).map(n =>
+			((n.toDouble, (7-n).toDouble), 1.0)
+		)
+		val tileIO = new TestTileIO
+		val pyramidId = "unprofiled test"
+		val coordFcn: (((Double, Double), Double)) => Try[(Double, Double)] = record => Try(record._1)
+		val valueFcn: (((Double, Double), Double)) => Try[Double] = record => Try(record._2)
+		val tileAnalytics: Option[AnalysisDescription[TileData[JavaDouble], Double]] = None
+		val dataAnalytics: Option[AnalysisDescription[((Double, Double), Double), Double]] = None
+
+		new UniversalBinner().binAndWriteData(data, coordFcn, valueFcn, new CartesianIndexScheme,
+		                                      new NumericSumBinningAnalytic[Double, JavaDouble](), tileAnalytics, dataAnalytics,
+		                                      new PrimitiveAvroSerializer(classOf[JavaDouble], CodecFactory.bzip2Codec()),
+		                                      new AOITilePyramid(0.0, 0.0, 7.9999, 7.9999), None, None,
+		                                      pyramidId, tileIO, List(List(1)), xBins=4, yBins=4)
+
+		val metaData = new PyramidMetaData(tileIO.getMetaData(pyramidId).get)
+		assert(null == metaData.getCustomMetaData(BinningProfile.METADATA_KEY))
+	}
+
 	test("One-dimensional binning") {
 		val data = sc.parallelize(Range(0, 3)).map(n =>
 			((n.toDouble, (7-n).toDouble), 1.0)
@@ -264,6 +375,80 @@ class RDDBinnerTestSuite extends FunSuite with SharedSparkContext with TileAsser
 		                                   tileAnalytic.accumulatedResults)
 	}
 
+	test("Separable kernel binning matches per-point kernel spreading") {
+		val pyramid: TilePyramid = new AOITilePyramid(0.0, 0.0, 8.0, 8.0)
+		val indexer = new CartesianIndexScheme
+		val levels = List(0, 1, 2)
+		val kernel = StandardBinningFunctions.makeGaussianKernel(2, 1.5)
+		val separable = StandardBinningFunctions.makeSeparableGaussianKernel(2, 1.5)
+		val intNone: Option[Int] = None
+		val data = sc.parallelize(Range(0, 64)).map(n =>
+			(((n % 8) + 0.1 * (n / 8), (n / 8) + 0.05 * (n % 8)), n.toDouble, intNone)
+		)
+		val tileAnalytics: Option[AnalysisDescription[TileData[JavaDouble], Int]] = None
+		val dataAnalytics: Option[AnalysisDescription[Int, Int]] = None
+		val binner = new UniversalBinner
+
+		// Spread each point over every tile its kernel touches
+		val locateFcn: ((Double, Double)) => Traversable[(TileIndex, Array[BinIndex])] = index => {
+			val (x, y) = indexer.toCartesian(index)
+			levels.flatMap { level =>
+				val tile = pyramid.rootToTile(x, y, level, 4, 4)
+				val bin = pyramid.rootToBin(x, y, tile)
+				val uBin = TileIndex.tileBinIndexToUniversalBinIndex(tile, bin)
+				StandardBinningFunctions.kernelHaloTiles(tile, bin, 2, 2).map(target => (target, Array(uBin)))
+			}
+		}
+		val expected = binner.processData[(Double, Double), Double, Int, Int, JavaDouble](
+			data, new NumericSumBinningAnalytic[Double, JavaDouble](), tileAnalytics, dataAnalytics,
+			locateFcn, StandardBinningFunctions.populateTileGaussian[Double](kernel),
+			new BinningParameters(true, 4, 4)
+		).collect.map(tile => (tile.getDefinition, tile)).toMap
+
+		val actual = binner.processDataWithSeparableKernel[(Double, Double), Double, Int, Int, JavaDouble](
+			data, new NumericSumBinningAnalytic[Double, JavaDouble](), tileAnalytics, dataAnalytics,
+			StandardBinningFunctions.locateIndexOverLevels(indexer, pyramid, levels, 4, 4),
+			separable, separable, new BinningParameters(true, 4, 4)
+		).collect.map(tile => (tile.getDefinition, tile)).toMap
+
+		assert(expected.keySet === actual.keySet)
+		expected.foreach { case (index, expectedTile) =>
+			val actualTile = actual(index)
+			for (x <- 0 until 4; y <- 0 until 4)
+				assert(math.abs(expectedTile.getBin(x, y) - actualTile.getBin(x, y)) < 1E-10)
+		}
+	}
+
+	test("Separable kernel binning of integers only rounds once") {
+		val pyramid: TilePyramid = new AOITilePyramid(0.0, 0.0, 8.0, 8.0)
+		val indexer = new CartesianIndexScheme
+		val separable = StandardBinningFunctions.makeSeparableGaussianKernel(2, 1.5)
+		val intNone: Option[Int] = None
+		val data = sc.parallelize(Range(0, 64)).map(n =>
+			(((n % 8) + 0.1 * (n / 8), (n / 8) + 0.05 * (n % 8)), 3 + n % 5, intNone)
+		)
+		val binner = new UniversalBinner
+		def blur[PT: ClassTag, BT] (values: RDD[((Double, Double), PT, Option[Int])],
+		                            analytic: BinningAnalytic[PT, BT])
+		                           (implicit numeric: ExtendedNumeric[PT]): Map[TileIndex, TileData[BT]] =
+			binner.processDataWithSeparableKernel[(Double, Double), PT, Int, Int, BT](
+				values, analytic, None, None,
+				StandardBinningFunctions.locateIndexOverLevels(indexer, pyramid, List(0, 1), 4, 4),
+				separable, separable, new BinningParameters(true, 4, 4)
+			).collect.map(tile => (tile.getDefinition, tile)).toMap
+
+		val exact = blur(data.map { case (index, value, dt) => (index, value.toDouble, dt) },
+		                 new NumericSumBinningAnalytic[Double, JavaDouble]())
+		val integral = blur(data, new NumericSumBinningAnalytic[Int, JavaInt]())
+
+		// Rounding weighted values after each pass would lose up to a unit per kernel tap
+		assert(exact.keySet === integral.keySet)
+		exact.foreach { case (index, exactTile) =>
+			for (x <- 0 until 4; y <- 0 until 4)
+				assert(exactTile.getBin(x, y).doubleValue.toInt === integral(index).getBin(x, y).intValue)
+		}
+	}
+
 	// Test the tiling speed of the universal binner versus the old RDDBinner.
 	ignore("Test tiling speed") {
 		def time (f: () => Unit): Double = {
@@ -207,6 +207,44 @@ class RDDLineBinnerTestSuite extends FunSuite with SharedSparkContext {
 
 
 
+	/*
+	 * Tests that drawing segments one tile at a time gives the same tiles as expanding them
+	 * into points first.
+	 */
+	test("Clipped line binning matches point line binning") {
+		val data = sc.parallelize(List[(Segment, Double, Option[Double])](
+			(Segment(0.05, 0.05, 0.95, 0.95), 1.0, None),
+			(Segment(0.05, 0.95, 0.95, 0.05), 2.0, None),
+			(Segment(0.1, 0.2, 0.9, 0.3), 3.0, None),
+			(Segment(0.45, 0.02, 0.55, 0.98), 4.0, None),
+			(Segment(0.1, 0.2, 0.9, 0.3), 5.0, None)
+		))
+		val pyramid = new AOITilePyramid(0.0, 0.0, 1.0, 1.0)
+		val binner = new RDDLineBinner(1, Int.MaxValue)
+		val noTileAnalytics: Option[AnalysisDescription[TileData[JavaDouble], Double]] = None
+		val noDataAnalytics: Option[AnalysisDescription[Segment, Double]] = None
+
+		def binTiles (clipped: Option[ClippedSegmentRasterizer[Double]]) =
+			binner.processDataByLevel[Segment, Double, Double, Double, JavaDouble](
+				data, new SegmentIndexScheme, new NumericSumBinningAnalytic[Double, JavaDouble](),
+				noTileAnalytics, noDataAnalytics, pyramid, List(2, 3), 8, 8,
+				clippedRasterizer = clipped
+			).collect.map(tile => (tile.getDefinition, tile)).toMap
+
+		val pointTiles = binTiles(None)
+		val clippedTiles = binTiles(Some(ClippedSegmentRasterizer.lines[Double]()))
+
+		assert(pointTiles.keySet === clippedTiles.keySet)
+		pointTiles.foreach{case (index, pointTile) =>
+			val clippedTile = clippedTiles(index)
+			for (x <- 0 until 8; y <- 0 until 8) {
+				assert(pointTile.getBin(x, y) === clippedTile.getBin(x, y), "Tile %s, bin [%d, %d]".format(index, x, y))
+			}
+		}
+	}
+
+
+
 	/*
 	 * Helper function to run line binning based on a mercator tile pyramid.
 	 */
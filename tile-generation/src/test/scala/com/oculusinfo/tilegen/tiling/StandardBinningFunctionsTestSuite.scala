@@ -138,6 +138,65 @@ class StandardBinningFunctionsTestSuite extends FunSuite {
 		println("success")
 	}
 
+	test("Separable gaussian kernel") {
+		val kernel = makeGaussianKernel(4, 3)
+		val separable = makeSeparableGaussianKernel(4, 3)
+		assert(9 === separable.length)
+		for (j <- 0 until 9; i <- 0 until 9)
+			assert(math.abs(kernel(j)(i) - separable(j) * separable(i)) < 1E-12)
+		assert(math.abs(kernel.map(_.sum).sum - 1.0) < 1E-12)
+	}
+
+	test("Separable kernel convolution matches point spreading") {
+		val pyramid: TilePyramid = new AOITilePyramid(0.0, 0.0, 8.0, 8.0)
+		// Asymmetric kernels, to make sure orientation is preserved
+		val kernelX = Array(0.05, 0.1, 0.2, 0.3, 0.35)
+		val kernelY = Array(0.4, 0.25, 0.15, 0.12, 0.08)
+		val points = List((3.5, 3.5, 1.0), (0.1, 0.1, 2.0), (7.9, 0.1, 3.0), (3.9, 4.1, 4.0),
+		                  (4.1, 3.9, 5.0), (0.6, 7.6, 6.0), (3.5, 3.6, 7.0))
+
+		for (level <- List(0, 1, 2)) {
+			val sample = new TileIndex(level, 0, 0, 8, 8)
+			val size = (1 << level) * 8
+
+			// Spread each point over the kernel directly, in universal bin coordinates
+			val expected = MutableMap[BinIndex, Double]()
+			points.foreach { case (x, y, v) =>
+				val tile = pyramid.rootToTile(x, y, level, 8, 8)
+				val uBin = TileIndex.tileBinIndexToUniversalBinIndex(tile, pyramid.rootToBin(x, y, tile))
+				for (j <- 0 until 5; i <- 0 until 5) {
+					val (bx, by) = (uBin.getX + i - 2, uBin.getY + j - 2)
+					if (0 <= bx && bx < size && 0 <= by && by < size) {
+						val bin = new BinIndex(bx, by)
+						expected(bin) = expected.getOrElse(bin, 0.0) + v * kernelY(j) * kernelX(i)
+					}
+				}
+			}
+
+			// Bin the points, route bins to all the tiles that need them, and convolve each tile
+			val binned = points.map { case (x, y, v) =>
+				val tile = pyramid.rootToTile(x, y, level, 8, 8)
+				((tile, pyramid.rootToBin(x, y, tile)), v)
+			}.groupBy(_._1).map { case (key, values) => (key, values.map(_._2).sum) }
+			val routed = binned.toList.flatMap { case ((tile, bin), v) =>
+				kernelHaloTiles(tile, bin, 2, 2).map(target =>
+					(target, (TileIndex.tileBinIndexToUniversalBinIndex(tile, bin), v)))
+			}.groupBy(_._1)
+			val actual = routed.flatMap { case (tile, bins) =>
+				convolveTileSeparable[Double](tile, bins.map(_._2), kernelX, kernelY, _ + _, _ * _).map {
+					case (bin, value) => (TileIndex.tileBinIndexToUniversalBinIndex(tile, bin), value)
+				}
+			}
+
+			assert(expected.keySet === actual.keySet)
+			expected.foreach { case (bin, value) =>
+				assert(math.abs(value - actual(bin)) < 1E-12, "Level "+level+", bin "+bin)
+			}
+			// Make sure we actually crossed tile boundaries
+			if (level > 0) assert(routed.size > binned.map(_._1._1).toSet.size)
+		}
+	}
+
 	test("for vs while") {
 		def time (f: () => Unit): Double = {
 			val start = System.nanoTime()
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2015 Uncharted Software Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.oculusinfo.tilegen.tiling
+
+
+
+import java.lang.{Double => JavaDouble}
+
+import org.scalatest.FunSuite
+
+import org.apache.spark.SharedSparkContext
+
+import com.oculusinfo.binning.TileData
+import com.oculusinfo.binning.TileIndex
+import com.oculusinfo.binning.impl.AOITilePyramid
+import com.oculusinfo.binning.impl.DenseTileData
+import com.oculusinfo.tilegen.tiling.analytics.AnalysisDescription
+
+
+
+class TileSortingTestSuite extends FunSuite with SharedSparkContext {
+	private def allTiles (levels: Seq[Int]): Seq[TileIndex] =
+		levels.flatMap(level =>
+			for (x <- 0 until (1 << level); y <- 0 until (1 << level)) yield new TileIndex(level, x, y, 4, 4)
+		)
+
+	test("Range partitioner bounds and lookup") {
+		val partitioner = new TileRangePartitioner(Array((1, 3L), (2, 5L), (2, 10L)))
+		assert(4 === partitioner.numPartitions)
+		assert(0 === partitioner.getPartition((0, 100L)))
+		assert(0 === partitioner.getPartition((1, 3L)))
+		assert(1 === partitioner.getPartition((1, 4L)))
+		assert(1 === partitioner.getPartition((2, 5L)))
+		assert(2 === partitioner.getPartition((2, 6L)))
+		assert(3 === partitioner.getPartition((2, 11L)))
+		assert(3 === partitioner.getPartition((3, 0L)))
+	}
+
+	test("Sorted tiles are in contiguous, ordered ranges") {
+		val indices = allTiles(Seq(2, 3, 4))
+		val tiles = sc.parallelize(scala.util.Random.shuffle(indices), 7).map(index =>
+			new DenseTileData[JavaDouble](index, 0.0): TileData[JavaDouble]
+		)
+
+		val (keysByPartition, partitioner) = TileSorter.withSortedTiles(tiles, TileSorter.mortonKey, Some(5)){(sorted, partitioner) =>
+			(sorted.map{tile =>
+				 val index = tile.getDefinition
+				 (index.getLevel, TileSorter.mortonKey(index))
+			 }.glom().collect(), partitioner)
+		}
+		assert(5 >= partitioner.numPartitions)
+		assert(1 < partitioner.numPartitions)
+
+		val allKeys = keysByPartition.flatten.toSeq
+		assert(indices.size === allKeys.size)
+
+		// Globally sorted, since partitions are ordered ranges each sorted internally
+		val ordering = implicitly[Ordering[(Int, Long)]]
+		allKeys.sliding(2).foreach(pair => assert(ordering.lt(pair(0), pair(1))))
+
+		// And roughly balanced
+		val expected = indices.size.toDouble / keysByPartition.length
+		keysByPartition.foreach(keys => assert(keys.length < 2 * expected))
+	}
+
+	test("Row-major key matches HBase row order") {
+		val indices = allTiles(Seq(3, 4))
+		val byKey = indices.sortBy(index => (index.getLevel, TileSorter.rowMajorKey(index)))
+		val byRow = indices.sortBy(index => com.oculusinfo.binning.io.impl.HBasePyramidIO.rowIdFromTileIndex(index))
+		assert(byRow === byKey)
+	}
+
+	test("Sorted writes write every tile") {
+		val indices = allTiles(Seq(1, 2))
+		val tiles = sc.parallelize(indices, 3).map(index =>
+			new DenseTileData[JavaDouble](index, index.getX.toDouble): TileData[JavaDouble]
+		)
+		val tileIO = new TestTileIO
+		assert(tileIO.isSortingWrites)
+		val pyramidId = "sorted write test"
+		val noAnalytics: Option[AnalysisDescription[TileData[JavaDouble], Int]] = None
+		tileIO.writeTileSet(new AOITilePyramid(0.0, 0.0, 1.0, 1.0), pyramidId, tiles, null,
+		                    noAnalytics, noAnalytics)
+
+		indices.foreach{index =>
+			val tile = tileIO.getTile(pyramidId, index)
+			assert(tile.isDefined)
+			assert(index.getX.toDouble === tile.get.getBin(0, 0))
+		}
+		tileIO.clearPyramid(pyramidId)
+	}
+}
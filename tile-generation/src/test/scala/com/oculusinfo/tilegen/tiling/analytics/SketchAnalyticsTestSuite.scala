@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2015 Uncharted Software Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.oculusinfo.tilegen.tiling.analytics
+
+
+
+import org.json.JSONObject
+
+import org.scalatest.FunSuite
+
+import org.apache.spark.SharedSparkContext
+
+import com.oculusinfo.binning.{TileData, TileIndex}
+import com.oculusinfo.binning.impl.AOITilePyramid
+import com.oculusinfo.binning.util.{HyperLogLog, JSONUtilitiesTests, TDigest}
+import com.oculusinfo.tilegen.tiling.{BinningParameters, CartesianIndexScheme, StandardBinningFunctions, UniversalBinner}
+
+
+
+class SketchAnalyticsTestSuite extends FunSuite with SharedSparkContext {
+	import TileAnalytic.Locations._
+
+	test("Distinct count analytic") {
+		val analytic = new DistinctCountTileAnalytic(Some("users"), 10)
+		assert(analytic.defaultProcessedValue.isEmpty)
+		val a = analytic.aggregate(HyperLogLog.of(10, "alice"), HyperLogLog.of(10, "bob"))
+		val b = analytic.aggregate(a, HyperLogLog.of(10, "alice"))
+		assert(2L === b.cardinality())
+		assert(analytic.aggregate(analytic.defaultUnprocessedValue, b) == b)
+
+		val expected = new JSONObject()
+		expected.put("users", 2L)
+		JSONUtilitiesTests.assertJsonEqual(expected, analytic.storableValue(b, Tile).get)
+	}
+
+	test("Quantile analytic") {
+		val analytic = new QuantileTileAnalytic(None, Seq(0.5), 100)
+		val digest = (1 to 5).map(n => TDigest.of(100, n)).reduce(analytic.aggregate(_, _))
+		assert(5.0 === digest.getCount)
+		JSONUtilitiesTests.assertJsonEqual(new JSONObject("""{"quantiles": {"count": 5.0, "0.5": 3.0}}"""),
+		                                   analytic.storableValue(digest, Pyramid).get)
+		// Empty digests have no quantiles
+		JSONUtilitiesTests.assertJsonEqual(new JSONObject("""{"quantiles": {"count": 0.0}}"""),
+		                                   analytic.storableValue(analytic.defaultProcessedValue, Pyramid).get)
+	}
+
+	test("Distinct counts through the binner") {
+		val pyramid = new AOITilePyramid(0.0, 0.0, 4.0, 4.0)
+		// Each of 4 bins sees 50 records, from (bin number + 1) * 5 distinct users
+		val data = sc.parallelize(0 until 200, 4).map { n =>
+			val bin = n % 4
+			((bin + 0.5, 0.5), HyperLogLog.of(12, "user" + (n / 4) % ((bin + 1) * 5)), None: Option[Int])
+		}
+		val binner = new UniversalBinner
+		val tileAnalytics: Option[AnalysisDescription[TileData[HyperLogLog], Int]] = None
+		val dataAnalytics: Option[AnalysisDescription[Int, Int]] = None
+		val tiles = binner.processData[(Double, Double), HyperLogLog, Int, Int, HyperLogLog](
+			data, new DistinctCountBinningAnalytic(12), tileAnalytics, dataAnalytics,
+			StandardBinningFunctions.locateIndexOverLevels(new CartesianIndexScheme, pyramid, Seq(0, 1), 4, 4),
+			StandardBinningFunctions.populateTileIdentity,
+			new BinningParameters(true, 4, 4)
+		).collect.map(tile => (tile.getDefinition, tile)).toMap
+
+		val level0 = tiles(new TileIndex(0, 0, 0, 4, 4))
+		for (bin <- 0 until 4) assert((bin + 1) * 5L === level0.getBin(bin, 3).cardinality())
+		assert(level0.getBin(0, 0).isEmpty)
+		// One level down, each record lands in a bin of its own group
+		val level1 = tiles(new TileIndex(1, 0, 0, 4, 4))
+		assert(5L === level1.getBin(1, 2).cardinality())
+		assert(10L === level1.getBin(3, 2).cardinality())
+	}
+}
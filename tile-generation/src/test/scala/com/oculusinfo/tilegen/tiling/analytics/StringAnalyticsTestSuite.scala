@@ -29,6 +29,7 @@ package com.oculusinfo.tilegen.tiling.analytics
 
 import java.lang.{Double => JavaDouble}
 import scala.collection.JavaConverters._
+import scala.util.Random
 import org.scalatest.FunSuite
 import com.oculusinfo.binning.util.JSONUtilitiesTests
 import org.json.{JSONObject, JSONArray}
@@ -121,4 +122,60 @@ class StringAnalyticsTestSuite extends FunSuite {
 			       ba2.finish(a).asScala
 			       .map(p => (p.getFirst, p.getSecond.doubleValue)))
 	}
+
+	test("Space-Saving string scores are exact until full") {
+		val exact = new StringScoreAnalytic[Double](new NumericSumAnalytic[Double]())
+		val sketch = new SpaceSavingStringScoreBinningAnalytic[Double, JavaDouble](
+			new NumericSumBinningAnalytic[Double, JavaDouble](), 10)
+
+		val a = Map("a" -> 1.0, "b" -> 2.0, "c" -> 3.0, "d" -> 4.0)
+		val b = Map("a" -> 5.0, "b" -> 4.0, "c" -> 3.0, "d" -> 2.0, "e" -> 1.0)
+		assert(exact.aggregate(a, b) === sketch.aggregate(a, b))
+		assert(a === sketch.aggregate(a, sketch.defaultUnprocessedValue))
+
+		// Written highest score first by default
+		assert(List(("a", 6.0), ("b", 6.0), ("c", 6.0), ("d", 6.0), ("e", 1.0)) ===
+			       sketch.finish(sketch.aggregate(a, b)).asScala
+			       .map(p => (p.getFirst, p.getSecond.doubleValue)).toList.sortBy(p => (-p._2, p._1)))
+		assert(6.0 === sketch.finish(sketch.aggregate(a, b)).get(0).getSecond)
+	}
+
+	test("Space-Saving string score error bounds") {
+		val capacity = 20
+		val sketch = new SpaceSavingStringScoreBinningAnalytic[Double, JavaDouble](
+			new NumericSumBinningAnalytic[Double, JavaDouble](), capacity)
+
+		// Zipf-distributed strings over a large vocabulary, merged in a random tree
+		val random = new Random(17)
+		val cumulative = (1 to 2000).map(1.0 / _).scanLeft(0.0)(_ + _).tail
+		val total = cumulative.last
+		val stream = (1 to 20000).map{n =>
+			val r = random.nextDouble() * total
+			"s" + cumulative.indexWhere(_ >= r)
+		}
+		val truth = stream.groupBy(s => s).mapValues(_.size.toDouble)
+
+		var values = stream.map(s => Map(s -> 1.0)).toVector
+		while (values.size > 1) {
+			val shuffled = random.shuffle(values)
+			values = shuffled.grouped(2).map(_.reduce(sketch.aggregate(_, _))).toVector
+		}
+		val result = values.head
+		val bound = stream.size.toDouble / capacity
+
+		assert(result.size === capacity)
+		result.foreach{case (key, estimate) =>
+			assert(estimate >= truth(key))
+			assert(estimate - truth(key) <= bound)
+		}
+		truth.filter(_._2 > bound).keys.foreach(key => assert(result.contains(key)))
+	}
+
+	test("Space-Saving selection keeps the highest scores") {
+		val random = new Random(3)
+		val entries = (0 until 200).map(n => ("k" + n, random.nextInt(50).toDouble)).toArray
+		val expected = entries.sortBy(e => (-e._2, e._1)).take(30).toSet
+		SpaceSavingStringScoreBinningAnalytic.selectTop(entries, entries.length, 30)
+		assert(expected === entries.take(30).toSet)
+	}
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2015 Uncharted Software Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.oculusinfo.tilegen.tiling.analytics
+
+
+
+import java.lang.{Double => JavaDouble}
+
+import scala.util.Random
+
+
+
+/**
+ * Benchmark of string score aggregation, comparing truncation by order with the
+ * Space-Saving sketch, over Zipf-distributed strings from a large vocabulary.  Not
+ * run as part of the test suite; run main directly, optionally passing the number of
+ * strings, the vocabulary size, and the number of strings kept per bin.
+ *
+ * Usage: StringScoreAnalyticPerformanceTests [numStrings [vocabulary [capacity]]]
+ */
+object StringScoreAnalyticPerformanceTests {
+	def main (args: Array[String]): Unit = {
+		val numStrings = if (args.length > 0) args(0).toInt else 1000000
+		val vocabulary = if (args.length > 1) args(1).toInt else 100000
+		val capacity = if (args.length > 2) args(2).toInt else 100
+
+		val random = new Random(numStrings)
+		val cumulative = (1 to vocabulary).map(1.0 / _).scanLeft(0.0)(_ + _).tail.toArray
+		val total = cumulative.last
+		val stream = Array.fill(numStrings){
+			val r = random.nextDouble() * total
+			val index = java.util.Arrays.binarySearch(cumulative, r)
+			"s" + (if (index < 0) -index - 1 else index)
+		}
+		val truth = stream.groupBy(s => s).mapValues(_.length.toDouble)
+
+		val high: ((String, Double), (String, Double)) => Boolean = _._2 > _._2
+		val truncating = new StringScoreBinningAnalytic[Double, JavaDouble](
+			new NumericSumBinningAnalytic[Double, JavaDouble](), Some(capacity), Some(high))
+		val sketch = new SpaceSavingStringScoreBinningAnalytic[Double, JavaDouble](
+			new NumericSumBinningAnalytic[Double, JavaDouble](), capacity)
+
+		Seq(("truncating", truncating), ("space-saving", sketch)).foreach{case (name, analytic) =>
+			// Aggregate in blocks, as partitions would, then combine the blocks
+			val startTime = System.currentTimeMillis()
+			val result = stream.grouped(10000).map(block =>
+				block.foldLeft(analytic.defaultUnprocessedValue)((value, s) => analytic.aggregate(value, Map(s -> 1.0)))
+			).reduce(analytic.aggregate(_, _))
+			val elapsed = (System.currentTimeMillis() - startTime) / 1000.0
+
+			val top = truth.toSeq.sortBy(-_._2).take(capacity / 10).map(_._1)
+			val found = top.count(result.contains)
+			val maxError = result.map{case (key, score) => math.abs(score - truth(key))}.max
+			println("%s: %.3f seconds; found %d of the top %d strings; largest score error %.1f (N/capacity = %.1f)".format(
+				        name, elapsed, found, top.size, maxError, numStrings.toDouble / capacity))
+		}
+	}
+}
@@ -92,4 +92,12 @@ public interface LayerService {
      * @param layerId The layer identification string
      */
     public PyramidMetaData getMetaData (String layerId);
+
+    /**
+     * Returns the extrema recorded in the layer's meta-data for the given level, or null if
+     * there are none.
+     * @param layerId The layer identification string
+     * @param level The tile level
+     */
+    public PyramidMetaDataCache.LevelExtrema getLevelExtrema (String layerId, int level);
 }
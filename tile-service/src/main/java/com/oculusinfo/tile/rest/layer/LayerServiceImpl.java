@@ -63,18 +63,25 @@ public class LayerServiceImpl implements LayerService {
 	private List< JSONObject > _layers;
 	private Map< String, JSONObject > _layersById;
     private Map< String, JSONObject > _layersBySha;
-	private Map< String, JSONObject > _metaDataCache;
+	private final PyramidMetaDataCache _metaDataCache;
     private FactoryProvider< LayerConfiguration > _layerConfigurationProvider;
     private final ConfigService _configService;
 
+	public LayerServiceImpl( String layerConfigurationLocation,
+	                         FactoryProvider<LayerConfiguration> layerConfigProvider,
+                             ConfigService configService) {
+		this( layerConfigurationLocation, layerConfigProvider, configService, new PyramidMetaDataCache() );
+	}
+
 	@Inject
 	public LayerServiceImpl( @Named("com.oculusinfo.tile.layer.config") String layerConfigurationLocation,
 	                         FactoryProvider<LayerConfiguration> layerConfigProvider,
-                             ConfigService configService) {
+                             ConfigService configService,
+                             PyramidMetaDataCache metaDataCache) {
 		_layers = new ArrayList<>();
 		_layersById = new HashMap<>();
         _layersBySha = new HashMap<>();
-		_metaDataCache = new HashMap<>();
+		_metaDataCache = metaDataCache;
         _layerConfigurationProvider = layerConfigProvider;
         _configService = configService;
 
@@ -82,7 +89,7 @@ public class LayerServiceImpl implements LayerService {
             CachingLayerConfigurationProvider caching = (CachingLayerConfigurationProvider)layerConfigProvider;
 			caching.addLayerListener( new LayerDataChangedListener() {
                 public void onLayerDataChanged( String layerId ) {
-                    _metaDataCache.remove( layerId );
+                    _metaDataCache.invalidate( layerId );
                 }
             } );
 		}
@@ -114,6 +121,23 @@ public class LayerServiceImpl implements LayerService {
 
 	@Override
 	public PyramidMetaData getMetaData( String layerId ) {
+		PyramidMetaDataCache.CachedMetaData metadata = getCachedMetaData( layerId );
+		return null == metadata ? null : metadata.getMetaData();
+	}
+
+	@Override
+	public PyramidMetaDataCache.LevelExtrema getLevelExtrema( String layerId, int level ) {
+		PyramidMetaDataCache.CachedMetaData metadata = getCachedMetaData( layerId );
+		return null == metadata ? null : metadata.getLevelExtrema( level );
+	}
+
+	private PyramidMetaDataCache.CachedMetaData getCachedMetaData( String layerId ) {
+		// Entries are dropped whenever a layer's configuration or data changes, so a cached entry
+		// is current; only build the layer's configuration and pyramid IO on a miss.
+		PyramidMetaDataCache.CachedMetaData cached = _metaDataCache.getIfPresent( layerId );
+		if ( null != cached ) {
+			return cached;
+		}
 		try {
 			LayerConfiguration config = getLayerConfiguration( layerId, null );
             String dataId = config.getPropertyValue(LayerConfiguration.DATA_ID);
@@ -135,19 +159,14 @@ public class LayerServiceImpl implements LayerService {
 		}
 	}
 
-	private PyramidMetaData getCachedMetaData( String layerId, String dataId, PyramidIO pyramidIO ) {
+	private PyramidMetaDataCache.CachedMetaData getCachedMetaData( String layerId, final String dataId, final PyramidIO pyramidIO ) {
 		try {
-			JSONObject metadata = _metaDataCache.get( layerId );
-			if ( metadata == null ) {
-				String s = pyramidIO.readMetaData( dataId );
-				if ( s == null ) {
-                    metadata = new JSONObject();
-				} else {
-                    metadata = new JSONObject( s );
-                }
-				_metaDataCache.put( layerId, metadata );
-			}
-			return new PyramidMetaData( metadata );
+			return _metaDataCache.get( layerId, dataId, new PyramidMetaDataCache.MetaDataReader() {
+				@Override
+				public String readMetaData() throws IOException {
+					return pyramidIO.readMetaData( dataId );
+				}
+			} );
 		} catch (JSONException e) {
 			LOGGER.error("Metadata file for layer is missing or corrupt: {}", layerId, e);
 		} catch (IOException e) {
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tile.rest.layer;
+
+import com.google.inject.Singleton;
+import com.oculusinfo.binning.io.PyramidChangeNotifier;
+import com.oculusinfo.binning.io.PyramidChangeNotifier.PyramidChangeListener;
+import com.oculusinfo.binning.metadata.PyramidMetaData;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe cache of the metadata of each layer's pyramid, shared by the layer and tile
+ * services.  Metadata is parsed once, when first read, into per-level extrema, so that rendering
+ * a tile needs no JSON lookups or number parsing.  Entries are dropped when a layer's data
+ * changes, or when a pyramid IO in this process writes the tiles or metadata of the pyramid.
+ *
+ * Every invalidation bumps a generation count; metadata read while the generation changed may
+ * predate the change, so is returned to its reader but not kept.
+ */
+@Singleton
+public class PyramidMetaDataCache {
+	private final ConcurrentMap<String, CachedMetaData> _entries = new ConcurrentHashMap<>();
+	private final AtomicLong _generation = new AtomicLong();
+	private final PyramidChangeListener _pyramidListener = new PyramidChangeListener() {
+		@Override
+		public void onPyramidChanged (String pyramidId) {
+			invalidatePyramid(pyramidId);
+		}
+	};
+
+	public PyramidMetaDataCache () {
+		PyramidChangeNotifier.addListener(_pyramidListener);
+	}
+
+	/**
+	 * Reads the raw metadata of a pyramid, on a cache miss
+	 */
+	public interface MetaDataReader {
+		/**
+		 * @return The metadata string for the pyramid, or null if it has none
+		 */
+		public String readMetaData () throws IOException;
+	}
+
+	/**
+	 * Get the cached metadata of a layer, reading it if it isn't cached
+	 *
+	 * @param layerId The layer whose metadata is wanted
+	 * @param dataId The id of the pyramid holding the layer's data
+	 * @param reader Reads the metadata if it isn't already cached
+	 */
+	public CachedMetaData get (String layerId, String dataId, MetaDataReader reader) throws IOException, JSONException {
+		CachedMetaData entry = _entries.get(layerId);
+		if (null == entry || !entry.getDataId().equals(dataId)) {
+			long generation = _generation.get();
+			String raw = reader.readMetaData();
+			CachedMetaData newEntry = new CachedMetaData(dataId, new PyramidMetaData(null == raw ? new JSONObject() : new JSONObject(raw)));
+			if (null == entry) {
+				entry = _entries.putIfAbsent(layerId, newEntry);
+				if (null == entry) entry = newEntry;
+			} else {
+				_entries.put(layerId, newEntry);
+				entry = newEntry;
+			}
+			// Invalidations bump the generation before removing anything, so either we see the
+			// change here, or the invalidation removes what we just put.
+			if (generation != _generation.get()) {
+				_entries.remove(layerId, newEntry);
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Get the cached metadata of a layer, if there is any
+	 */
+	public CachedMetaData getIfPresent (String layerId) {
+		return _entries.get(layerId);
+	}
+
+	/**
+	 * Drop the cached metadata of a layer
+	 */
+	public void invalidate (String layerId) {
+		_generation.incrementAndGet();
+		_entries.remove(layerId);
+	}
+
+	/**
+	 * Drop the cached metadata of every layer whose data is in the given pyramid
+	 */
+	public void invalidatePyramid (String dataId) {
+		_generation.incrementAndGet();
+		Iterator<Map.Entry<String, CachedMetaData>> i = _entries.entrySet().iterator();
+		while (i.hasNext()) {
+			if (i.next().getValue().getDataId().equals(dataId)) {
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * Stop listening for pyramid changes, and drop everything cached
+	 */
+	public void shutdown () {
+		PyramidChangeNotifier.removeListener(_pyramidListener);
+		_entries.clear();
+	}
+
+
+
+	/**
+	 * The metadata of a single pyramid, with its level extrema parsed out
+	 */
+	public static class CachedMetaData {
+		private static final LevelExtrema[] NO_LEVELS = new LevelExtrema[0];
+
+		private final String _dataId;
+		private final PyramidMetaData _metaData;
+		private final LevelExtrema[] _levels;
+
+		CachedMetaData (String dataId, PyramidMetaData metaData) {
+			_dataId = dataId;
+			_metaData = metaData;
+			_levels = parseLevels(metaData);
+		}
+
+		private static LevelExtrema[] parseLevels (PyramidMetaData metaData) {
+			JSONObject meta = metaData.getRawData().optJSONObject("meta");
+			if (null == meta) return NO_LEVELS;
+
+			int maxLevel = -1;
+			Iterator<?> keys = meta.keys();
+			while (keys.hasNext()) {
+				Integer level = asLevel(keys.next().toString());
+				if (null != level) maxLevel = Math.max(maxLevel, level);
+			}
+
+			LevelExtrema[] levels = new LevelExtrema[maxLevel + 1];
+			for (int level = 0; level <= maxLevel; ++level) {
+				if (null != meta.optJSONObject("" + level)) {
+					levels[level] = new LevelExtrema(metaData.getCustomMetaData("" + level, "minimum"),
+					                                 metaData.getCustomMetaData("" + level, "maximum"));
+				}
+			}
+			return levels;
+		}
+
+		private static Integer asLevel (String key) {
+			try {
+				int level = Integer.parseInt(key);
+				return level < 0 ? null : level;
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+
+		public String getDataId () {
+			return _dataId;
+		}
+
+		public PyramidMetaData getMetaData () {
+			return _metaData;
+		}
+
+		/**
+		 * @return The extrema of the given level, or null if the metadata doesn't record them
+		 */
+		public LevelExtrema getLevelExtrema (int level) {
+			return (level >= 0 && level < _levels.length) ? _levels[level] : null;
+		}
+	}
+
+	/**
+	 * The minimum and maximum bin values of a single level.  The raw strings are kept alongside
+	 * their numeric values because extrema of non-scalar tiles are not single numbers.
+	 */
+	public static class LevelExtrema {
+		private final String _minimum;
+		private final String _maximum;
+		private final double _minimumValue;
+		private final double _maximumValue;
+
+		LevelExtrema (String minimum, String maximum) {
+			_minimum = minimum;
+			_maximum = maximum;
+			_minimumValue = parse(minimum);
+			_maximumValue = parse(maximum);
+		}
+
+		private static double parse (String value) {
+			if (null == value) return Double.NaN;
+			try {
+				return Double.parseDouble(value);
+			} catch (NumberFormatException e) {
+				return Double.NaN;
+			}
+		}
+
+		public String getMinimum () {
+			return _minimum;
+		}
+
+		public String getMaximum () {
+			return _maximum;
+		}
+
+		/**
+		 * @return The level minimum as a number, or NaN if it isn't a single number
+		 */
+		public double getMinimumValue () {
+			return _minimumValue;
+		}
+
+		/**
+		 * @return The level maximum as a number, or NaN if it isn't a single number
+		 */
+		public double getMaximumValue () {
+			return _maximumValue;
+		}
+	}
+}
@@ -31,13 +31,13 @@ import com.oculusinfo.binning.TileIndex;
 import com.oculusinfo.binning.impl.SubTileDataView;
 import com.oculusinfo.binning.io.PyramidIO;
 import com.oculusinfo.binning.io.serialization.TileSerializer;
-import com.oculusinfo.binning.metadata.PyramidMetaData;
 import com.oculusinfo.binning.util.AvroJSONConverter;
 import com.oculusinfo.factory.ConfigurationException;
 import com.oculusinfo.tile.rendering.LayerConfiguration;
 import com.oculusinfo.tile.rendering.TileDataImageRenderer;
 import com.oculusinfo.tile.rendering.transformations.tile.TileTransformer;
 import com.oculusinfo.tile.rest.layer.LayerService;
+import com.oculusinfo.tile.rest.layer.PyramidMetaDataCache;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
@@ -122,9 +122,9 @@ public class TileServiceImpl implements TileService {
 
 		try {
 			// set level extrema
-			PyramidMetaData metadata = _layerService.getMetaData( layer );
-			String minimum = metadata.getCustomMetaData( "" + index.getLevel(), "minimum" );
-			String maximum = metadata.getCustomMetaData( "" + index.getLevel(), "maximum" );
+			PyramidMetaDataCache.LevelExtrema extrema = _layerService.getLevelExtrema( layer, index.getLevel() );
+			String minimum = null == extrema ? null : extrema.getMinimum();
+			String maximum = null == extrema ? null : extrema.getMaximum();
 			config.setLevelProperties( index, minimum, maximum );
 			// produce the tile renderer from the configuration
 			TileDataImageRenderer<?> tileRenderer = config.produce( TileDataImageRenderer.class );
@@ -27,6 +27,7 @@ import com.oculusinfo.binning.io.DefaultPyramidIOFactoryProvider;
 import com.oculusinfo.binning.io.PyramidIO;
 import com.oculusinfo.binning.io.serialization.DefaultTileSerializerFactoryProvider;
 import com.oculusinfo.binning.io.serialization.TileSerializer;
+import com.oculusinfo.factory.ConfigurableFactory;
 import com.oculusinfo.factory.providers.FactoryProvider;
 import com.oculusinfo.tile.init.providers.StandardImageRendererFactoryProvider;
 import com.oculusinfo.tile.init.providers.StandardLayerConfigurationProvider;
@@ -39,6 +40,7 @@ import com.oculusinfo.tile.rest.QueryParamDecoder;
 import com.oculusinfo.tile.rest.config.ConfigException;
 import com.oculusinfo.tile.rest.config.ConfigService;
 import org.json.JSONObject;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -54,6 +56,7 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
@@ -66,6 +69,7 @@ public class LayerServiceTests {
 
     protected LayerService _layerService;
     private ConfigService _configService;
+    private FactoryProvider<LayerConfiguration> _layerConfigurationProvider;
 
     @Before
 	public void setup () throws Exception {
@@ -75,7 +79,7 @@ public class LayerServiceTests {
             tileIoSet.addAll( Arrays.asList( DefaultPyramidIOFactoryProvider.values() ) );
             Set<FactoryProvider<TileSerializer<?>>> serializerSet = new HashSet<>();
             serializerSet.addAll( Arrays.asList( DefaultTileSerializerFactoryProvider.values() ) );
-            FactoryProvider<LayerConfiguration> layerConfigurationProvider = new StandardLayerConfigurationProvider(
+            _layerConfigurationProvider = new StandardLayerConfigurationProvider(
                 new StandardPyramidIOFactoryProvider( tileIoSet ),
                 new StandardTilePyramidFactoryProvider(),
                 new StandardTileSerializerFactoryProvider(serializerSet),
@@ -86,7 +90,7 @@ public class LayerServiceTests {
             _configService = mock(ConfigService.class);
             withMockConfigService();
 
-            _layerService = new LayerServiceImpl( configFile, layerConfigurationProvider, _configService);
+            _layerService = new LayerServiceImpl( configFile, _layerConfigurationProvider, _configService);
 		} catch (Exception e) {
 			throw e;
 		}
@@ -119,6 +123,44 @@ public class LayerServiceTests {
 		assert( layerIds.get(1).equals( "test-layer1" ) );
 	}
 
+	@Test
+	public void levelExtremaFromCacheTest() {
+		// Count the layer configurations built
+		final AtomicInteger configurations = new AtomicInteger();
+		FactoryProvider<LayerConfiguration> countingProvider = new FactoryProvider<LayerConfiguration>() {
+			@Override
+			public ConfigurableFactory<? extends LayerConfiguration> createFactory (List<String> path) {
+				configurations.incrementAndGet();
+				return _layerConfigurationProvider.createFactory( path );
+			}
+			@Override
+			public ConfigurableFactory<? extends LayerConfiguration> createFactory (ConfigurableFactory<?> parent, List<String> path) {
+				configurations.incrementAndGet();
+				return _layerConfigurationProvider.createFactory( parent, path );
+			}
+			@Override
+			public ConfigurableFactory<? extends LayerConfiguration> createFactory (String name, ConfigurableFactory<?> parent, List<String> path) {
+				configurations.incrementAndGet();
+				return _layerConfigurationProvider.createFactory( name, parent, path );
+			}
+		};
+		PyramidMetaDataCache cache = new PyramidMetaDataCache();
+		try {
+			LayerService service = new LayerServiceImpl( "res:///" + UNIT_TEST_CONFIG_JSON, countingProvider, _configService, cache );
+
+			// The first request reads the metadata; later ones, for any level, shouldn't configure the layer again
+			service.getLevelExtrema( "test-layer0", 0 );
+			Assert.assertNotNull( cache.getIfPresent( "test-layer0" ) );
+			int built = configurations.get();
+			for ( int level = 0; level < 4; ++level ) {
+				service.getLevelExtrema( "test-layer0", level );
+			}
+			Assert.assertEquals( built, configurations.get() );
+		} finally {
+			cache.shutdown();
+		}
+	}
+
 	@Test
 	public void getLayerConfigurationTest() {
 		LayerConfiguration layerConfig0 = _layerService.getLayerConfiguration( "test-layer0", null );
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2015 Uncharted Software. http://www.uncharted.software/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tile.rest.layer;
+
+import com.oculusinfo.binning.io.PyramidChangeNotifier;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class PyramidMetaDataCacheTest {
+	private static final String METADATA =
+		"{\"name\": \"test\", \"meta\": {"
+		+ "\"0\": {\"minimum\": \"0\", \"maximum\": \"120.5\"}, "
+		+ "\"2\": {\"minimum\": \"-1\", \"maximum\": \"[3, 4]\"}, "
+		+ "\"global\": {\"minimum\": \"-1\", \"maximum\": \"120.5\"}}}";
+
+	private PyramidMetaDataCache _cache;
+	private CountingReader _reader;
+
+	private static class CountingReader implements PyramidMetaDataCache.MetaDataReader {
+		int reads = 0;
+		@Override
+		public String readMetaData () throws IOException {
+			++reads;
+			return METADATA;
+		}
+	}
+
+	@Before
+	public void setup () {
+		_cache = new PyramidMetaDataCache();
+		_reader = new CountingReader();
+	}
+
+	@After
+	public void teardown () {
+		_cache.shutdown();
+	}
+
+	@Test
+	public void testLevelExtrema () throws Exception {
+		PyramidMetaDataCache.CachedMetaData metaData = _cache.get("layer", "data", _reader);
+
+		PyramidMetaDataCache.LevelExtrema level0 = metaData.getLevelExtrema(0);
+		Assert.assertEquals("0", level0.getMinimum());
+		Assert.assertEquals("120.5", level0.getMaximum());
+		Assert.assertEquals(0.0, level0.getMinimumValue(), 0.0);
+		Assert.assertEquals(120.5, level0.getMaximumValue(), 0.0);
+
+		// Non-scalar extrema keep their raw form, but have no numeric value
+		PyramidMetaDataCache.LevelExtrema level2 = metaData.getLevelExtrema(2);
+		Assert.assertEquals(-1.0, level2.getMinimumValue(), 0.0);
+		Assert.assertTrue(Double.isNaN(level2.getMaximumValue()));
+
+		Assert.assertNull(metaData.getLevelExtrema(1));
+		Assert.assertNull(metaData.getLevelExtrema(3));
+		Assert.assertNull(metaData.getLevelExtrema(-1));
+	}
+
+	@Test
+	public void testReadOnce () throws Exception {
+		PyramidMetaDataCache.CachedMetaData first = _cache.get("layer", "data", _reader);
+		PyramidMetaDataCache.CachedMetaData second = _cache.get("layer", "data", _reader);
+		Assert.assertSame(first, second);
+		Assert.assertEquals(1, _reader.reads);
+
+		// A layer that now points at different data is re-read
+		_cache.get("layer", "otherData", _reader);
+		Assert.assertEquals(2, _reader.reads);
+	}
+
+	@Test
+	public void testInvalidation () throws Exception {
+		_cache.get("layer", "data", _reader);
+		_cache.invalidate("layer");
+		Assert.assertNull(_cache.getIfPresent("layer"));
+
+		// Writing a pyramid drops every layer read from it
+		_cache.get("layerA", "data", _reader);
+		_cache.get("layerB", "data", _reader);
+		_cache.get("layerC", "otherData", _reader);
+		PyramidChangeNotifier.pyramidChanged("data");
+		Assert.assertNull(_cache.getIfPresent("layerA"));
+		Assert.assertNull(_cache.getIfPresent("layerB"));
+		Assert.assertNotNull(_cache.getIfPresent("layerC"));
+	}
+
+	@Test
+	public void testInvalidationDuringRead () throws Exception {
+		// The pyramid is written while its old metadata is being read
+		PyramidMetaDataCache.CachedMetaData metaData = _cache.get("layer", "data", new PyramidMetaDataCache.MetaDataReader() {
+			@Override
+			public String readMetaData () throws IOException {
+				PyramidChangeNotifier.pyramidChanged("data");
+				return METADATA;
+			}
+		});
+		Assert.assertNotNull(metaData);
+		Assert.assertNull(_cache.getIfPresent("layer"));
+
+		// so the next request reads it again
+		_cache.get("layer", "data", _reader);
+		Assert.assertEquals(1, _reader.reads);
+		Assert.assertNotNull(_cache.getIfPresent("layer"));
+	}
+}